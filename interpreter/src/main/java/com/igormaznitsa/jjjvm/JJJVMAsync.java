@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Asynchronous facade for interpreted calls. Calls are executed by provided
+ * executor and their results are delivered through {@link CompletableFuture}.
+ * If the future is completed before end of the call, for instance cancelled
+ * or completed by timeout, then the interpreter stops execution at the next
+ * fuel check, i.e. at a backward jump or a method call.
+ *
+ * @see JJJVMFuel
+ */
+public final class JJJVMAsync {
+
+  /**
+   * Default number of fuel units between checks of the future state.
+   */
+  public static final long DEFAULT_CHECK_INTERVAL = 4096L;
+
+  /**
+   * Call to be executed asynchronously.
+   *
+   * @param <T> type of the result
+   */
+  @FunctionalInterface
+  public interface Call<T> {
+
+    T call() throws Throwable;
+  }
+
+  /**
+   * Error stopping interpreted code of a completed future. Interpreted code
+   * can't catch it.
+   */
+  public static final class AbandonedError extends JJJVMFuel.OutOfFuelError {
+
+    private static final long serialVersionUID = 4826405918461390271L;
+
+    AbandonedError() {
+      super("Result is not needed anymore");
+    }
+  }
+
+  private JJJVMAsync() {
+  }
+
+  /**
+   * Invoke method asynchronously.
+   *
+   * @param method    the method, must not be null
+   * @param instance  the object instance for non-static method
+   * @param arguments the method arguments, can be null
+   * @param executor  the executor, must not be null
+   * @return future of the method result, must not be null
+   * @see JJJVMMethod#invoke(JJJVMObject, Object[])
+   */
+  public static CompletableFuture<Object> invoke(final JJJVMMethod method, final JJJVMObject instance, final Object[] arguments, final Executor executor) {
+    return submit(() -> method.invoke(instance, arguments), executor);
+  }
+
+  /**
+   * Invoke method asynchronously through the interpreter.
+   *
+   * @param caller    the caller class, must not be null
+   * @param instance  the object instance for non-static method
+   * @param method    the method, must not be null
+   * @param arguments the method arguments, can be null
+   * @param executor  the executor, must not be null
+   * @return future of the method result, must not be null
+   * @see JJJVMInterpreter#invoke(JJJVMClass, JJJVMObject, JJJVMMethod, Object[], Object[], Object[])
+   */
+  public static CompletableFuture<Object> invoke(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod method, final Object[] arguments, final Executor executor) {
+    return submit(() -> JJJVMInterpreter.invoke(caller, instance, method, arguments, null, null), executor);
+  }
+
+  /**
+   * Make new instance of a class asynchronously.
+   *
+   * @param klazz                the class, must not be null
+   * @param constructorSignature the constructor signature, must not be null
+   * @param arguments            the constructor arguments, can be null
+   * @param executor             the executor, must not be null
+   * @return future of the created object, must not be null
+   * @see JJJVMClass#newInstance(String, Object[], Object[], Object[])
+   */
+  public static CompletableFuture<JJJVMObject> newInstance(final JJJVMClass klazz, final String constructorSignature, final Object[] arguments, final Executor executor) {
+    return submit(() -> klazz.newInstance(constructorSignature, arguments, null, null), executor);
+  }
+
+  /**
+   * Execute a call asynchronously with the default check interval.
+   *
+   * @param <T>      type of the result
+   * @param call     the call, must not be null
+   * @param executor the executor, must not be null
+   * @return future of the result, must not be null
+   */
+  public static <T> CompletableFuture<T> submit(final Call<T> call, final Executor executor) {
+    return submit(call, executor, DEFAULT_CHECK_INTERVAL);
+  }
+
+  /**
+   * Execute a call asynchronously.
+   *
+   * @param <T>           type of the result
+   * @param call          the call, must not be null
+   * @param executor      the executor, must not be null
+   * @param checkInterval number of fuel units between checks of the future
+   *                      state, must be positive
+   * @return future of the result, must not be null
+   */
+  public static <T> CompletableFuture<T> submit(final Call<T> call, final Executor executor, final long checkInterval) {
+    if (checkInterval <= 0L) {
+      throw new IllegalArgumentException("Check interval must be positive [" + checkInterval + ']');
+    }
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    try {
+      executor.execute(() -> execute(call, result, checkInterval));
+    } catch (RejectedExecutionException ex) {
+      result.completeExceptionally(ex);
+    }
+    return result;
+  }
+
+  private static <T> void execute(final Call<T> call, final CompletableFuture<T> result, final long checkInterval) {
+    if (result.isDone()) {
+      return;
+    }
+    final JJJVMFuel previous = JJJVMFuel.current();
+    JJJVMFuel.install(checkInterval, fuel -> {
+      if (result.isDone()) {
+        throw new AbandonedError();
+      }
+      return 0L;
+    });
+    try {
+      result.complete(call.call());
+    } catch (Throwable thr) {
+      // the error is ignored if the future is already completed
+      result.completeExceptionally(thr);
+    } finally {
+      JJJVMFuel.restore(previous);
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Prepared execution of one interpreted method for many argument tuples.
+ * Method flags are checked once and every executing thread reuses the same
+ * stack, local variable and argument arrays for all its calls.
+ * <p>
+ * Argument tuples can be provided as iterator, stream, list or columns. A
+ * column is an array (primitive or object one) containing values of one
+ * argument for all tuples, boolean values are passed to the method as int
+ * ones.
+ */
+public final class JJJVMBatch implements JJJVMConstants {
+
+  private static final int MIN_PARTITION = 256;
+
+  /**
+   * Additional stack cells allowing called methods to use the prepared stack.
+   */
+  private static final int STACK_RESERVE = 256;
+
+  private final JJJVMClass klazz;
+  private final JJJVMMethod method;
+  private final JJJVMObject instance;
+  private final int argsNumber;
+  private final boolean synchronizedMethod;
+
+  /**
+   * Reusable arrays of an executing thread.
+   */
+  private final class Context {
+
+    private final Object[] stack = new Object[method.getMaxStackDepth() + STACK_RESERVE];
+    private final Object[] vars = new Object[method.getMaxLocals()];
+    private final Object[] args = new Object[argsNumber];
+
+    Object invoke(final Object[] arguments) throws Throwable {
+      // a batch is called by host code so that a process can't be suspended inside it
+      JJJVMProcess.pin(true);
+      try {
+        if (synchronizedMethod) {
+          return JJJVMInterpreter.invoke(klazz, instance, method, arguments, this.stack, this.vars);
+        } else {
+          try {
+            return JJJVMInterpreter._invoke(klazz, instance, method, arguments, 0, this.stack, this.vars);
+          } catch (Throwable thr) {
+            throw JJJVMStackTrace.complete(thr);
+          }
+        }
+      } finally {
+        JJJVMProcess.pin(false);
+      }
+    }
+
+    Object invokeColumns(final Object[] columns, final int index) throws Throwable {
+      for (int i = 0; i < columns.length; i++) {
+        this.args[i] = columnValue(columns[i], index);
+      }
+      return invoke(this.args);
+    }
+  }
+
+  private JJJVMBatch(final JJJVMMethod method, final JJJVMObject instance) {
+    final int flags = method.getFlags();
+    if ((flags & (ACC_NATIVE | ACC_ABSTRACT)) != 0) {
+      throw new IllegalArgumentException("Method must not be native or abstract [" + method + ']');
+    }
+    if ((flags & ACC_STATIC) == 0 && instance == null) {
+      throw new NullPointerException("Instance is null for non-static method");
+    }
+    this.klazz = method.getDeclaringClass();
+    this.method = method;
+    this.instance = instance;
+    this.argsNumber = JJJVMInterpreter.extractArgsNumber(method.getSignature());
+    this.synchronizedMethod = (flags & ACC_SYNCHRONIZED) != 0;
+  }
+
+  /**
+   * Prepare batch execution of a method.
+   *
+   * @param method   the method, must not be null
+   * @param instance the object instance for non-static method
+   * @return prepared batch, must not be null
+   */
+  public static JJJVMBatch of(final JJJVMMethod method, final JJJVMObject instance) {
+    return new JJJVMBatch(method, instance);
+  }
+
+  /**
+   * Invoke the method for every tuple of an iterator in the current thread.
+   *
+   * @param tuples   iterator of argument tuples, must not be null
+   * @param consumer consumer getting tuple and its result, can be null
+   * @return number of calls
+   * @throws Throwable error of the method, execution is stopped
+   */
+  public long forEach(final Iterator<? extends Object[]> tuples, final BiConsumer<Object[], Object> consumer) throws Throwable {
+    final Context context = new Context();
+    long counter = 0L;
+    while (tuples.hasNext()) {
+      final Object[] tuple = tuples.next();
+      final Object result = context.invoke(tuple);
+      if (consumer != null) {
+        consumer.accept(tuple, result);
+      }
+      counter++;
+    }
+    return counter;
+  }
+
+  /**
+   * Invoke the method for every tuple of a stream in the current thread.
+   *
+   * @param tuples   stream of argument tuples, must not be null
+   * @param consumer consumer getting tuple and its result, can be null
+   * @return number of calls
+   * @throws Throwable error of the method, execution is stopped
+   */
+  public long forEach(final Stream<? extends Object[]> tuples, final BiConsumer<Object[], Object> consumer) throws Throwable {
+    return forEach(tuples.sequential().iterator(), consumer);
+  }
+
+  /**
+   * Invoke the method for every tuple of a list.
+   *
+   * @param pool   pool to execute calls in parallel, null to execute calls in
+   *               the current thread
+   * @param tuples list of argument tuples, must not be null
+   * @return results in the tuple order, must not be null
+   * @throws Throwable the first error of the method
+   */
+  public Object[] invoke(final ForkJoinPool pool, final List<? extends Object[]> tuples) throws Throwable {
+    final Object[] results = new Object[tuples.size()];
+    execute(pool, results.length, (context, index) -> results[index] = context.invoke(tuples.get(index)));
+    return results;
+  }
+
+  /**
+   * Invoke the method for every tuple presented by columns.
+   *
+   * @param pool    pool to execute calls in parallel, null to execute calls in
+   *                the current thread
+   * @param columns arrays of argument values, one array for every argument,
+   *                all arrays must have the same length
+   * @return results in the tuple order, must not be null
+   * @throws Throwable the first error of the method
+   */
+  public Object[] invokeColumns(final ForkJoinPool pool, final Object... columns) throws Throwable {
+    if (columns.length != this.argsNumber) {
+      throw new IllegalArgumentException("Wrong number of columns [" + columns.length + "!=" + this.argsNumber + ']');
+    }
+    int length = -1;
+    for (final Object column : columns) {
+      final int columnLength = Array.getLength(column);
+      if (length >= 0 && length != columnLength) {
+        throw new IllegalArgumentException("Columns have different length");
+      }
+      length = columnLength;
+    }
+    final Object[] results = new Object[Math.max(length, 0)];
+    execute(pool, results.length, (context, index) -> results[index] = context.invokeColumns(columns, index));
+    return results;
+  }
+
+  @FunctionalInterface
+  private interface IndexedCall {
+
+    void call(Context context, int index) throws Throwable;
+  }
+
+  private void execute(final ForkJoinPool pool, final int length, final IndexedCall call) throws Throwable {
+    if (pool == null || length <= MIN_PARTITION) {
+      final Context context = new Context();
+      for (int i = 0; i < length; i++) {
+        call.call(context, i);
+      }
+    } else {
+      final int partition = Math.max(MIN_PARTITION, length / (pool.getParallelism() << 2));
+      try {
+        pool.invoke(new Partition(call, 0, length, partition));
+      } catch (PartitionError ex) {
+        throw ex.getCause();
+      }
+    }
+  }
+
+  private final class Partition extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient IndexedCall call;
+    private final int from;
+    private final int to;
+    private final int partition;
+
+    Partition(final IndexedCall call, final int from, final int to, final int partition) {
+      this.call = call;
+      this.from = from;
+      this.to = to;
+      this.partition = partition;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from <= this.partition) {
+        final Context context = new Context();
+        try {
+          for (int i = this.from; i < this.to; i++) {
+            this.call.call(context, i);
+          }
+        } catch (Throwable thr) {
+          throw new PartitionError(thr);
+        }
+      } else {
+        final int middle = (this.from + this.to) >>> 1;
+        invokeAll(new Partition(this.call, this.from, middle, this.partition), new Partition(this.call, middle, this.to, this.partition));
+      }
+    }
+  }
+
+  /**
+   * Carrier of method errors through fork-join tasks.
+   */
+  private static final class PartitionError extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    PartitionError(final Throwable cause) {
+      super(cause);
+    }
+  }
+
+  private static Object columnValue(final Object column, final int index) {
+    if (column instanceof Object[]) {
+      return ((Object[]) column)[index];
+    } else if (column instanceof int[]) {
+      return ((int[]) column)[index];
+    } else if (column instanceof long[]) {
+      return ((long[]) column)[index];
+    } else if (column instanceof double[]) {
+      return ((double[]) column)[index];
+    } else if (column instanceof float[]) {
+      return ((float[]) column)[index];
+    } else if (column instanceof boolean[]) {
+      return ((boolean[]) column)[index] ? 1 : 0;
+    } else if (column instanceof char[]) {
+      return ((char[]) column)[index];
+    } else if (column instanceof short[]) {
+      return (int) ((short[]) column)[index];
+    } else if (column instanceof byte[]) {
+      return (int) ((byte[]) column)[index];
+    } else {
+      throw new IllegalArgumentException("Column is not an array [" + column + ']');
+    }
+  }
+}
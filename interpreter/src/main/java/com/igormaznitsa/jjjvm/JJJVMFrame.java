@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+
+/**
+ * Saved state of a suspended interpreted method. Frames of suspended methods
+ * form a chain from the outermost method to the method where execution has
+ * been suspended, the interpreter restores the chain during resume.
+ *
+ * @see JJJVMScheduler
+ */
+public final class JJJVMFrame {
+
+  final JJJVMClass caller;
+  final JJJVMObject instance;
+  final JJJVMMethod method;
+  final int pc;
+  final int nextPC;
+  final boolean pushResult;
+  final Object[] stack;
+  final Object[] locals;
+  JJJVMFrame callee;
+
+  /**
+   * Value to be pushed on the stack as result of the interrupted instruction
+   * of the innermost frame.
+   */
+  Object value;
+
+  /**
+   * Error to be thrown by the interrupted instruction of the innermost frame.
+   */
+  Throwable failure;
+
+  JJJVMFrame(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod method, final int pc, final int nextPC, final boolean pushResult, final Object[] stack, final Object[] locals) {
+    this.caller = caller;
+    this.instance = instance;
+    this.method = method;
+    this.pc = pc;
+    this.nextPC = nextPC;
+    this.pushResult = pushResult;
+    this.stack = stack;
+    this.locals = locals;
+  }
+
+  /**
+   * Get the method of the frame.
+   *
+   * @return the method, must not be null
+   */
+  public JJJVMMethod getMethod() {
+    return this.method;
+  }
+
+  /**
+   * Get address of the instruction interrupted by suspension.
+   *
+   * @return the instruction address inside the method byte-code
+   */
+  public int getPC() {
+    return this.pc;
+  }
+
+  /**
+   * Get frame of the method called by the frame method.
+   *
+   * @return the called method frame or null if it is the innermost frame
+   */
+  public JJJVMFrame getCallee() {
+    return this.callee;
+  }
+
+  /**
+   * Get number of frames in the chain started by the frame.
+   *
+   * @return number of frames, one for the innermost frame
+   */
+  public int getDepth() {
+    int result = 0;
+    for (JJJVMFrame f = this; f != null; f = f.callee) {
+      result++;
+    }
+    return result;
+  }
+
+  JJJVMFrame getInnermost() {
+    JJJVMFrame result = this;
+    while (result.callee != null) {
+      result = result.callee;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return this.method.getDeclaringClass().getName() + '.' + this.method.getName() + this.method.getSignature() + '@' + this.pc;
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+/**
+ * Execution budget of a thread. The interpreter decrements the budget at
+ * every backward jump and every interpreted method call, when the budget is
+ * exhausted then the handler is called and it can yield the thread, block it
+ * until the job is scheduled again or stop execution by throwing an error.
+ * Fuel is not used until it is installed for some thread, and the interpreter
+ * reads the current fuel only once per method call.
+ * <p>
+ * Fuel object is thread confined, it must not be shared among threads.
+ */
+public final class JJJVMFuel {
+
+  private static final ThreadLocal<JJJVMFuel> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Flag shows that fuel has been installed at least once, it allows to avoid
+   * thread local access while metering is not used.
+   */
+  static volatile boolean enabled;
+
+  /**
+   * Handler of exhausted fuel.
+   */
+  @FunctionalInterface
+  public interface Handler {
+
+    /**
+     * Called when the fuel is exhausted.
+     *
+     * @param fuel the exhausted fuel, must not be null
+     * @return new budget, if it is not positive then the slice size is used
+     * @throws Throwable to stop execution
+     */
+    long onExhausted(JJJVMFuel fuel) throws Throwable;
+
+    /**
+     * Handler which yields the thread and refills the fuel.
+     *
+     * @return the handler, must not be null
+     */
+    static Handler yielding() {
+      return fuel -> {
+        Thread.yield();
+        return fuel.getSlice();
+      };
+    }
+
+    /**
+     * Handler which throws {@link OutOfFuelError}.
+     *
+     * @return the handler, must not be null
+     */
+    static Handler terminating() {
+      return fuel -> {
+        throw new OutOfFuelError("Execution budget is exhausted [" + fuel.getConsumed() + ']');
+      };
+    }
+  }
+
+  /**
+   * Error thrown to stop execution when fuel is exhausted. Exception tables of
+   * interpreted methods are ignored for the error so that an interpreted code
+   * can't catch it.
+   */
+  public static class OutOfFuelError extends Error {
+
+    private static final long serialVersionUID = -2318840367110283940L;
+
+    public OutOfFuelError(final String message) {
+      super(message);
+    }
+  }
+
+  private final long slice;
+  private final Handler handler;
+
+  /**
+   * Remaining budget, it is decremented by the interpreter directly.
+   */
+  long remaining;
+  private long budget;
+  private long consumedBefore;
+
+  private JJJVMFuel(final long slice, final Handler handler) {
+    this.slice = slice;
+    this.handler = handler;
+    this.budget = slice;
+    this.remaining = slice;
+  }
+
+  /**
+   * Install fuel for the current thread, already installed fuel is replaced.
+   *
+   * @param slice   budget for a time slice, must be positive
+   * @param handler handler to be called when the budget is exhausted, must not
+   *                be null
+   * @return installed fuel, must not be null
+   */
+  public static JJJVMFuel install(final long slice, final Handler handler) {
+    if (slice <= 0) {
+      throw new IllegalArgumentException("Slice must be positive [" + slice + ']');
+    }
+    if (handler == null) {
+      throw new NullPointerException("Handler is null");
+    }
+    final JJJVMFuel result = new JJJVMFuel(slice, handler);
+    CURRENT.set(result);
+    enabled = true;
+    return result;
+  }
+
+  /**
+   * Remove fuel of the current thread.
+   *
+   * @return removed fuel or null
+   */
+  public static JJJVMFuel uninstall() {
+    final JJJVMFuel result = CURRENT.get();
+    CURRENT.remove();
+    return result;
+  }
+
+  /**
+   * Set fuel of the current thread, it is used to restore fuel replaced
+   * temporarily.
+   *
+   * @param fuel the fuel, null to remove
+   */
+  static void restore(final JJJVMFuel fuel) {
+    if (fuel == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(fuel);
+    }
+  }
+
+  /**
+   * Get fuel of the current thread.
+   *
+   * @return the fuel or null if it is not installed
+   */
+  public static JJJVMFuel current() {
+    return enabled ? CURRENT.get() : null;
+  }
+
+  /**
+   * Called by the interpreter when the remaining budget is exhausted.
+   *
+   * @throws Throwable error thrown by the handler
+   */
+  void exhausted() throws Throwable {
+    setBudget(this.handler.onExhausted(this));
+  }
+
+  private void setBudget(final long value) {
+    this.consumedBefore = getConsumed();
+    this.budget = value > 0L ? value : this.slice;
+    this.remaining = this.budget;
+  }
+
+  /**
+   * Refill the budget to the slice size.
+   */
+  public void refill() {
+    setBudget(this.slice);
+  }
+
+  public long getSlice() {
+    return this.slice;
+  }
+
+  public long getRemaining() {
+    return this.remaining;
+  }
+
+  /**
+   * Get number of budget units consumed since installation.
+   *
+   * @return number of consumed units
+   */
+  public long getConsumed() {
+    return this.consumedBefore + (this.budget - this.remaining);
+  }
+}
@@ -15,9 +15,11 @@
  */
 package com.igormaznitsa.jjjvm;
 
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
 import com.igormaznitsa.jjjvm.model.*;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -25,6 +27,85 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
 
   protected static final Map<String, Integer> CACHED_NUMBER_OF_ARGS = new HashMap<String, Integer>();
 
+  /**
+   * Marker of method call site which has been checked and doesn't have
+   * intrinsic.
+   */
+  private static final Object NO_INTRINSIC = new Object();
+  private static final Object[] NO_OBJECTS = new Object[0];
+
+  /**
+   * Receiver of metrics, null if metrics are not collected.
+   */
+  private static volatile JJJVMMetrics installedMetrics;
+
+  /**
+   * Install receiver of interpreter metrics, it is used by all threads.
+   *
+   * @param metrics the receiver, null to stop collecting metrics
+   */
+  public static void setMetrics(final JJJVMMetrics metrics) {
+    installedMetrics = metrics;
+  }
+
+  /**
+   * Get installed receiver of interpreter metrics.
+   *
+   * @return the receiver or null if metrics are not collected
+   */
+  public static JJJVMMetrics getMetrics() {
+    return installedMetrics;
+  }
+
+  /**
+   * System property enabling translation into register code at startup.
+   */
+  public static final String PROPERTY_REGISTER_CODE = "com.igormaznitsa.jjjvm.registerCode";
+
+  private static volatile boolean registerCode = Boolean.getBoolean(PROPERTY_REGISTER_CODE);
+
+  /**
+   * Enable translation of methods into register code. Static methods working
+   * only with int values (arguments, result, locals and arithmetic) are
+   * translated into code of virtual registers instead of the operand stack,
+   * the code is executed while the current thread has no fuel and profilers
+   * and metrics are not used. Other methods are executed as usual. Only
+   * methods prepared after the call are affected.
+   *
+   * @param enabled true to translate methods, false otherwise
+   */
+  public static void setRegisterCode(final boolean enabled) {
+    registerCode = enabled;
+  }
+
+  /**
+   * Check that methods are translated into register code.
+   *
+   * @return true if translation is enabled
+   */
+  public static boolean isRegisterCode() {
+    return registerCode;
+  }
+
+  /**
+   * Get string presentation of a value in the same way as
+   * {@link String#valueOf(Object)}, interpreted objects are presented by their
+   * interpreted toString method. It is used by all ways of string
+   * concatenation so that they give the same result.
+   *
+   * @param value the value, can be null
+   * @return the string presentation, must not be null
+   * @throws Throwable it will be thrown by interpreted toString method
+   */
+  public static String stringValueOf(final Object value) throws Throwable {
+    if (value instanceof JJJVMObject) {
+      final JJJVMObject obj = (JJJVMObject) value;
+      final JJJVMMethod toString = obj.getDeclaringClass().findMethod("toString", "()Ljava/lang/String;");
+      return toString == null ? obj.toString() : String.valueOf(toString.invoke(obj, null));
+    }
+    return String.valueOf(value);
+  }
+
   /**
    * Invoke a method.
    *
@@ -47,6 +128,20 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
       throw new IllegalArgumentException("Method must not be native [" + methodToInvoke + ']');
     }
 
+    // a process can't be suspended inside a method called not by interpreted code directly
+    JJJVMProcess.pin(true);
+    try {
+      return invokeSynchronized(caller, instance, methodToInvoke, args, stack, vars);
+    } catch (Throwable thr) {
+      // the stack trace is built from interpreted frames passed by the exception
+      throw JJJVMStackTrace.complete(thr);
+    } finally {
+      JJJVMProcess.pin(false);
+    }
+  }
+
+  private static Object invokeSynchronized(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod methodToInvoke, final Object[] args, final Object[] stack, final Object[] vars) throws Throwable {
+    final int methodFlags = methodToInvoke.getFlags();
     // implementation of synchronization mechanism
     if ((methodFlags & ACC_SYNCHRONIZED) != 0) {
       // it's a synchronized method
@@ -71,8 +166,72 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
     }
   }
 
-  // the Heart of the interpreter, it processes byte-code of method {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.7.3}
+  /**
+   * Resume suspended method.
+   *
+   * @param frames the outermost frame of the suspended method chain, must not
+   *               be null
+   * @return result of the outermost method
+   * @throws Throwable it will be thrown for errors
+   */
+  static Object resume(final JJJVMFrame frames) throws Throwable {
+    return _resume(frames, 0, null);
+  }
+
+  // resumed frames are observed in the same way as calls so that records of profiler, flight recorder and trace stay balanced
+  private static Object _resume(final JJJVMFrame frame, final int initialStackOffset, final Object[] stack) throws Throwable {
+    if (JJJVMProfiler.active || JJJVMEvents.isEnabled() || JJJVMTrace.enabled) {
+      return _invokeObserved(frame.caller, frame.instance, frame.method, null, initialStackOffset, stack, frame.locals, frame);
+    }
+    return _invoke(frame.caller, frame.instance, frame.method, null, initialStackOffset, stack, frame.locals, frame);
+  }
+
   protected static Object _invoke(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod method, final Object[] args, final int initialStackOffset, final Object[] stack, final Object[] vars) throws Throwable {
+    if (JJJVMProfiler.active || JJJVMEvents.isEnabled() || JJJVMTrace.enabled) {
+      return _invokeObserved(caller, instance, method, args, initialStackOffset, stack, vars, null);
+    }
+    return _invoke(caller, instance, method, args, initialStackOffset, stack, vars, null);
+  }
+
+  // invoke method under the active profiler, flight recorder or trace
+  private static Object _invokeObserved(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod method, final Object[] args, final int initialStackOffset, final Object[] stack, final Object[] vars, final JJJVMFrame resume) throws Throwable {
+    final JJJVMProfiler.Recorder recorder = JJJVMProfiler.active ? JJJVMProfiler.recorder() : null;
+    final Object event = JJJVMEvents.isEnabled() ? JJJVMEvents.beginMethodInvocation() : null;
+    final JJJVMTrace.Buffer trace = JJJVMTrace.enabled ? JJJVMTrace.buffer() : null;
+    if (recorder != null) {
+      recorder.enter(method, resume != null);
+    }
+    if (trace != null) {
+      trace.enter(method);
+    }
+    boolean completed = false;
+    try {
+      final Object result = _invoke(caller, instance, method, args, initialStackOffset, stack, vars, resume);
+      completed = true;
+      return result;
+    } finally {
+      if (trace != null) {
+        trace.exit(method, completed);
+      }
+      if (event != null) {
+        JJJVMEvents.endMethodInvocation(event, method);
+      }
+      if (recorder != null) {
+        recorder.exit();
+      }
+    }
+  }
+
+  // the Heart of the interpreter, it processes byte-code of method {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.7.3}
+  private static Object _invoke(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod method, final Object[] args, final int initialStackOffset, final Object[] stack, final Object[] vars, final JJJVMFrame resume) throws Throwable {
+    // register code doesn't have safepoints so that it is not used while something counts instructions
+    if (registerCode && resume == null && args != null && JJJVMFuel.current() == null && !JJJVMProfiler.active && !JJJVMOpcodeProfiler.active && installedMetrics == null) {
+      final JJJVMRegisterCode code = prepareMethodData(caller, method).registerCode;
+      if (code != null) {
+        return code.execute(method, args);
+      }
+    }
+
     final Object[] localVars = vars == null || vars.length < method.getMaxLocals() ? new Object[method.getMaxLocals()] : vars;
 
     final Object[] localMethodStack;
@@ -92,6 +251,15 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
       }
     }
 
+    // the first stack cell of the frame
+    final int stackBase = regSP;
+
+    final JJJVMMetrics metrics = installedMetrics;
+    int executedBytecodes = 0;
+    if (metrics != null && (localVars != vars || localMethodStack != stack)) {
+      metrics.frameAllocated();
+    }
+
     // the variable contains the first local variable index contains the first method argument
     int firstArgument = 0;
 
@@ -112,7 +280,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
     final JJJVMProvider provider = caller.getProvider();
 
     // if the method is not static, we will need to place "this" in the zero-indexed local variable
-    if ((flags & ACC_STATIC) == 0) {
+    if (resume == null && (flags & ACC_STATIC) == 0) {
       // place "this"
       localVars[0] = instance;
       // the first argument will be at the index 1
@@ -129,13 +297,84 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
     // the string below to increase the speed
     final byte[] methodBytecodes = method.getBytecode();
 
+    // data prepared for the method code, it is cached in the method
+    final JJJVMMethodData methodData = prepareMethodData(caller, method);
+
+    // execution budget of the thread, every call consumes one unit
+    final JJJVMFuel fuel = JJJVMFuel.enabled ? JJJVMFuel.current() : null;
+    if (resume == null && fuel != null && --fuel.remaining <= 0L) {
+      try {
+        fuel.exhausted();
+      } catch (JJJVMSuspension ex) {
+        ex.addFrame(new JJJVMFrame(caller, instance, method, 0, 0, false, NO_OBJECTS, localVars.clone()));
+        throw ex;
+      }
+    }
+
+    // stack sampling of the active profiler, it uses the same safepoints as fuel
+    final JJJVMProfiler.Recorder sampler = JJJVMProfiler.active && resume == null ? JJJVMProfiler.samplerFor(method) : null;
+    if (sampler != null && --sampler.countdown <= 0) {
+      sampler.sample(0);
+    }
+
+    // opcode counters of the active opcode profiler, the window keeps last executed opcodes
+    final JJJVMOpcodeProfiler.MethodCounters opcodeCounters = JJJVMOpcodeProfiler.active ? JJJVMOpcodeProfiler.countersFor(method) : null;
+    long opcodeWindow = 0L;
+
+    if (resume != null) {
+      // restore state of suspended method and complete the interrupted instruction
+      System.arraycopy(resume.stack, 0, localMethodStack, regSP, resume.stack.length);
+      regSP += resume.stack.length;
+      regPC = resume.nextPC;
+      try {
+        final Object result;
+        final JJJVMFrame callee = resume.callee;
+        if (callee != null) {
+          result = _resume(callee, regSP, localMethodStack);
+        } else if (resume.failure != null) {
+          throw resume.failure;
+        } else {
+          result = resume.value;
+        }
+        if (resume.pushResult) {
+          localMethodStack[regSP++] = result;
+        }
+      } catch (JJJVMSuspension ex) {
+        ex.addFrame(new JJJVMFrame(caller, instance, method, resume.pc, resume.nextPC, resume.pushResult, Arrays.copyOfRange(localMethodStack, stackBase, regSP), localVars.clone()));
+        throw ex;
+      } catch (Throwable thr) {
+        final JJJVMTryCatchRecord record = findCatchRecord(provider, caller, method, resume.pc, thr);
+        if (metrics != null) {
+          metrics.exceptionDispatched(record != null);
+        }
+        if (JJJVMEvents.isEnabled()) {
+          JJJVMEvents.exception(method, findLineNumber(method, resume.pc), thr, record != null);
+        }
+        if (JJJVMTrace.enabled) {
+          JJJVMTrace.buffer().exception(method, resume.pc, thr, record != null);
+        }
+        if (record == null) {
+          JJJVMStackTrace.unwind(method, resume.pc, thr);
+          throw thr;
+        }
+        localMethodStack[regSP++] = thr;
+        regPC = record.getCodeAddress();
+      }
+    }
+
     // the flag will be used by the WIDE command
     boolean nextInstructionWide = false;
 
     while (true) {
       final int lastPC = regPC;
+      if (metrics != null) {
+        executedBytecodes++;
+      }
       try {
         final int instruction = methodBytecodes[regPC++] & 0xFF;
+        if (opcodeCounters != null) {
+          opcodeWindow = opcodeCounters.record(opcodeWindow, instruction);
+        }
 
         switch (instruction) {
           case 0: // NOP
@@ -217,19 +456,19 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
               index = (index << 8) | (methodBytecodes[regPC++] & 0xFF);
             }
 
-            final JJJVMConstantPoolItem record = cpool.getItemAt(index);
-            switch (record.getType()) {
+            final int recordType = cpool.getItemType(index);
+            switch (recordType) {
               case JJJVMConstantPoolItem.CONSTANT_INTEGER:
               case JJJVMConstantPoolItem.CONSTANT_FLOAT: {
-                localMethodStack[regSP++] = record.getValue();
+                localMethodStack[regSP++] = cpool.getItemValue(index);
               }
               break;
               case JJJVMConstantPoolItem.CONSTANT_STRING: {
-                localMethodStack[regSP++] = record.asString();
+                localMethodStack[regSP++] = cpool.getString(index);
               }
               break;
               case JJJVMConstantPoolItem.CONSTANT_CLASSREF: {
-                final String jvmFormattedClassName = record.getClassName();
+                final String jvmFormattedClassName = cpool.getClassName(index);
                 final Object clazz = provider.resolveClass(jvmFormattedClassName);
                 if (clazz == null) {
                   throw new IllegalArgumentException("Can't resolve class [" + jvmFormattedClassName + ']');
@@ -238,10 +477,17 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
               }
               break;
               case JJJVMConstantPoolItem.CONSTANT_METHODTYPE:
-              case JJJVMConstantPoolItem.CONSTANT_METHODHANDLE:
-                throw new UnsupportedOperationException("Method type and Method handle is not supported");
+              case JJJVMConstantPoolItem.CONSTANT_METHODHANDLE: {
+                Object linked = cpool.getLinkedItem(index);
+                if (linked == null) {
+                  linked = provider.linkMethodConstant(caller, index);
+                  cpool.setLinkedItem(index, linked);
+                }
+                localMethodStack[regSP++] = linked;
+              }
+              break;
               default:
-                throw new Error("Unsupported constant type for LDC [" + record.getType() + ']');
+                throw new Error("Unsupported constant type for LDC [" + recordType + ']');
             }
           }
           break;
@@ -250,17 +496,17 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             final int index = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
             regPC += 2;
 
-            final JJJVMConstantPoolItem record = cpool.getItemAt(index);
-            switch (record.getType()) {
+            final int recordType = cpool.getItemType(index);
+            switch (recordType) {
               case JJJVMConstantPoolItem.CONSTANT_DOUBLE:
               case JJJVMConstantPoolItem.CONSTANT_LONG: {
                 localMethodStack[regSP++] = null;
               }
               break;
               default:
-                throw new Error("Unsupported constant type for LDC2W [" + record.getType() + ']');
+                throw new Error("Unsupported constant type for LDC2W [" + recordType + ']');
             }
-            localMethodStack[regSP++] = record.getValue();
+            localMethodStack[regSP++] = cpool.getItemValue(index);
           }
           break;
           case 22: // LLOAD
@@ -1094,6 +1340,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             }
             if (doJump) {
               regPC = lastPC + jumpOffset;
+              if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+                fuel.exhausted();
+              }
+              if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+                sampler.sample(regPC);
+              }
             }
           }
           break;
@@ -1142,6 +1394,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             }
             if (doJump) {
               regPC = lastPC + jumpOffset;
+              if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+                fuel.exhausted();
+              }
+              if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+                sampler.sample(regPC);
+              }
             }
           }
           break;
@@ -1170,6 +1428,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             }
             if (doJump) {
               regPC = lastPC + jumpOffset;
+              if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+                fuel.exhausted();
+              }
+              if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+                sampler.sample(regPC);
+              }
             }
           }
           break;
@@ -1177,6 +1441,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
           case 200: // GOTO_2 
           {
             regPC = lastPC + ((instruction == 200) ? readIntFromArray(methodBytecodes, regPC) : readShortValueFromArray(methodBytecodes, regPC));
+            if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+              fuel.exhausted();
+            }
+            if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+              sampler.sample(regPC);
+            }
           }
           break;
           case 168: // JSR
@@ -1224,6 +1494,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             }
 
             regPC = lastPC + offset;
+            if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+              fuel.exhausted();
+            }
+            if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+              sampler.sample(regPC);
+            }
           }
           break;
           // LOOKUPSWITCH
@@ -1250,6 +1526,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
               }
             }
             regPC = lastPC + offset;
+            if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+              fuel.exhausted();
+            }
+            if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+              sampler.sample(regPC);
+            }
           }
           break;
           case 175: // DRETURN
@@ -1257,17 +1539,26 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
           {
             final Object val = localMethodStack[regSP - 1];
             localMethodStack[--regSP] = null;
+            if (metrics != null) {
+              metrics.bytecodesExecuted(executedBytecodes);
+            }
             return val;
           }
           case 172: // IRETURN
           case 174: // FRETURN
           case 176: // ARETURN
           {
+            if (metrics != null) {
+              metrics.bytecodesExecuted(executedBytecodes);
+            }
             // return without check, to increase speed
             return localMethodStack[--regSP];
           }
           case 177: // RETURN 
           {
+            if (metrics != null) {
+              metrics.bytecodesExecuted(executedBytecodes);
+            }
             return null;
           }
           case 178: // GETSTATIC
@@ -1275,11 +1566,9 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
           {
             final int poolIndex = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
             regPC += 2;
-            final JJJVMConstantPoolItem fieldRef = cpool.getItemAt(poolIndex);
-
-            final String className = fieldRef.getClassName();
-            final String fieldName = fieldRef.getName();
-            final String fieldSignature = fieldRef.getSignature();
+            final String className = cpool.getClassName(poolIndex);
+            final String fieldName = cpool.getName(poolIndex);
+            final String fieldSignature = cpool.getSignature(poolIndex);
             final Object resolvedClass = className.equals(caller.getClassName()) ? caller : provider.resolveClass(className);
             final Object value;
 
@@ -1315,8 +1604,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             final int poolIndex = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
             regPC += 2;
 
-            final JJJVMConstantPoolItem fieldRef = cpool.getItemAt(poolIndex);
-            final String fieldName = fieldRef.getName();
+            final String fieldName = cpool.getName(poolIndex);
 
             if (instruction == 180) {
               // GET
@@ -1329,7 +1617,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
                 }
                 localMethodStack[regSP++] = result;
               } else {
-                final String fieldSignature = fieldRef.getSignature();
+                final String fieldSignature = cpool.getSignature(poolIndex);
                 localMethodStack[regSP++] = provider.get(caller, value, fieldName, fieldSignature);
               }
             } else {
@@ -1346,7 +1634,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
               if (objectINstance instanceof JJJVMObject) {
                 ((JJJVMObject) objectINstance).setFieldValue(fieldName, value, true);
               } else {
-                final String fieldSignature = fieldRef.getSignature();
+                final String fieldSignature = cpool.getSignature(poolIndex);
                 provider.set(caller, objectINstance, fieldName, fieldSignature, value);
               }
             }
@@ -1361,9 +1649,26 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             final int methodRef = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
             regPC += 2;
 
-            final JJJVMConstantPoolItem record = cpool.getItemAt(methodRef);
+            if (instruction == 182 || instruction == 184) {
+              Object linked = cpool.getLinkedItem(methodRef);
+              final boolean cached = linked != null;
+              if (linked == null) {
+                linked = linkIntrinsic(caller, cpool, methodRef);
+              }
+              if (linked instanceof JJJVMIntrinsic) {
+                // sites linked to no intrinsic are usual calls and they are not counted by the inline cache
+                if (metrics != null) {
+                  metrics.inlineCache(cached);
+                  metrics.call(JJJVMMetrics.CallKind.INTRINSIC);
+                }
+                regSP = ((JJJVMIntrinsic) linked).execute(caller, localMethodStack, regSP);
+                break;
+              }
+            }
+
+            final String signature = cpool.getSignature(methodRef);
 
-            int argsNumber = extractArgsNumber(record.getSignature());
+            int argsNumber = extractArgsNumber(signature);
 
             final Object[] argsArray = new Object[argsNumber];
             while (argsNumber > 0) {
@@ -1382,29 +1687,49 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
               }
             }
 
-            final String methodName = record.getName();
-            final String signature = record.getSignature();
-            final String klazzName = record.getClassName();
+            final String methodName = cpool.getName(methodRef);
+            final String klazzName = cpool.getClassName(methodRef);
 
             final Object resolvedKlazz;
             if (instruction == 185) {
-              // INOKEINTERFACE
-              resolvedKlazz = objInstance instanceof JJJVMObject ? ((JJJVMObject) objInstance).getDeclaringClass() : provider.resolveClass(objInstance.getClass().getName().replace('.', '/'));
+              // INOKEINTERFACE, host objects are called through the interface because their classes can be hidden ones
+              resolvedKlazz = objInstance instanceof JJJVMObject ? ((JJJVMObject) objInstance).getDeclaringClass() : provider.resolveClass(klazzName);
             } else {
               resolvedKlazz = klazzName.equals(caller.getClassName()) ? caller : provider.resolveClass(klazzName);
             }
+            if (sampler != null) {
+              sampler.call(lastPC);
+            }
             final Object result;
             if (resolvedKlazz instanceof JJJVMClass) {
               final JJJVMMethod foundMethod = ((JJJVMClass) resolvedKlazz).findMethod(methodName, signature);
               final JJJVMClass jjjvmclazz = foundMethod.getDeclaringClass();
+              if (metrics != null) {
+                metrics.call(JJJVMMetrics.CallKind.INTERPRETED);
+              }
               result = _invoke(jjjvmclazz, (JJJVMObject) objInstance, foundMethod, argsArray, regSP, localMethodStack, null);
             } else {
-              result = provider.invoke(caller, objInstance, klazzName, methodName, signature, argsArray);
+              if (metrics != null) {
+                metrics.call(JJJVMMetrics.CallKind.HOST);
+              }
+              if (JJJVMTrace.enabled) {
+                JJJVMTrace.buffer().hostCall(klazzName, methodName, signature);
+              }
+              Object hostResult = provider.invoke(caller, objInstance, klazzName, methodName, signature, argsArray);
+              if (hostResult instanceof JJJVMPending) {
+                hostResult = ((JJJVMPending) hostResult).await();
+              }
+              result = hostResult;
               if (result != null && "<init>".equals(methodName)) {
-                // replace all instances by new one
-                for (int i = 0; i < localMethodStack.length; i++) {
-                  if (localMethodStack[i] == objInstance) {
-                    localMethodStack[i] = result;
+                // replace the allocated instance by the created object, usually its only copy is made by DUP just after NEW
+                final int top = regSP - 1;
+                if (top >= stackBase && localMethodStack[top] == objInstance && (top == stackBase || localMethodStack[top - 1] != objInstance)) {
+                  localMethodStack[top] = result;
+                } else {
+                  for (int i = stackBase; i < regSP; i++) {
+                    if (localMethodStack[i] == objInstance) {
+                      localMethodStack[i] = result;
+                    }
                   }
                 }
               }
@@ -1417,13 +1742,35 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
           break;
           case 186: // INVOKEDYNAMIC
           {
-            throw new UnsupportedOperationException("INVOKEDYNAMIC is not supported");
+            final int callSiteRef = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
+            // two zero bytes follow the index
+            regPC += 4;
+
+            Object linked = cpool.getLinkedItem(callSiteRef);
+            final boolean cached = linked != null;
+            if (linked == null) {
+              linked = provider.linkInvokeDynamic(caller, callSiteRef);
+              cpool.setLinkedItem(callSiteRef, linked);
+            }
+            if (metrics != null) {
+              metrics.inlineCache(cached);
+              metrics.call(JJJVMMetrics.CallKind.INVOKEDYNAMIC);
+            }
+            regSP = ((JJJVMIntrinsic) linked).execute(caller, localMethodStack, regSP);
           }
+          break;
           case 187: // NEW
           {
+            final JJJVMMethodData.StringChain chain = methodData.findStringChain(lastPC);
+            if (chain != null) {
+              // whole string building chain is executed as one operation
+              localMethodStack[regSP++] = chain.execute(localVars);
+              regPC = chain.endPC;
+              break;
+            }
             final int classRef = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
             regPC += 2;
-            localMethodStack[regSP++] = provider.allocate(caller, cpool.getItemAt(classRef).asString());
+            localMethodStack[regSP++] = provider.allocate(caller, cpool.getString(classRef));
           }
           break;
           case 188: // NEWARRAY
@@ -1488,7 +1835,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             regPC += 2;
 
             final int count = toNumber(localMethodStack[--regSP]).intValue();
-            final String className = cpool.getItemAt(index).getClassName();
+            final String className = cpool.getClassName(index);
             final Object[] objArray = provider.newObjectArray(caller, className, count);
 
             localMethodStack[regSP++] = objArray;
@@ -1520,7 +1867,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
           {
             final int cpIndex = readShortValueFromArray(methodBytecodes, regPC) & 0xFFFF;
             regPC += 2;
-            final String rawClassName = cpool.getItemAt(cpIndex).getClassName();
+            final String rawClassName = cpool.getClassName(cpIndex);
             final int index = regSP - 1;
             final Object object = localMethodStack[index];
 
@@ -1551,6 +1898,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             } else {
               provider.doMonitor(caller, obj, true);
             }
+            JJJVMProcess.pin(true);
           }
           break;
           case 195: // MONITOREXIT
@@ -1565,6 +1913,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             } else {
               provider.doMonitor(caller, obj, false);
             }
+            JJJVMProcess.pin(false);
           }
           break;
           case 196: // WIDE
@@ -1585,7 +1934,7 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
               localMethodStack[--regSP] = null;
             }
 
-            localMethodStack[regSP++] = provider.newMultidimensional(caller, cpool.getItemAt(classRefIndex).asString(), dimensions);
+            localMethodStack[regSP++] = provider.newMultidimensional(caller, cpool.getString(classRefIndex), dimensions);
           }
           break;
           case 198: // IFNULL
@@ -1596,6 +1945,12 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
             
             if (result) {
               regPC = lastPC + readShortValueFromArray(methodBytecodes, regPC);
+              if (fuel != null && regPC <= lastPC && --fuel.remaining <= 0L) {
+                fuel.exhausted();
+              }
+              if (sampler != null && regPC <= lastPC && --sampler.countdown <= 0) {
+                sampler.sample(regPC);
+              }
             } else {
               regPC += 2;
             }
@@ -1614,54 +1969,137 @@ public abstract class JJJVMInterpreter implements JJJVMConstants {
         }
       }
       catch (Throwable thr) {
-        JJJVMTryCatchRecord record = null;
-
-        for (final JJJVMTryCatchRecord r : method.getTryCatchRecords()) {
-          if (r.isActiveForAddress(lastPC)) {
-            final String exceptionClassName = r.getJvmFormattedClassName();
-            
-            if (exceptionClassName == null) {
-              // it process any exception, may be it is finally
-              record = r;
-              break;
-            }
-
-            if (provider.checkCast(caller, exceptionClassName, thr)) {
-              record = r;
-              break;
-            }
+        if (thr instanceof JJJVMSuspension) {
+          // save the frame and continue unwinding
+          ((JJJVMSuspension) thr).addFrame(saveFrame(caller, instance, method, cpool, lastPC, regPC, localMethodStack, stackBase, regSP, localVars));
+          throw thr;
+        }
 
+        final JJJVMTryCatchRecord record = findCatchRecord(provider, caller, method, lastPC, thr);
+        if (metrics != null) {
+          metrics.exceptionDispatched(record != null);
+          if (record == null) {
+            metrics.bytecodesExecuted(executedBytecodes);
           }
         }
+        if (JJJVMEvents.isEnabled()) {
+          JJJVMEvents.exception(method, findLineNumber(method, lastPC), thr, record != null);
+        }
+        if (JJJVMTrace.enabled) {
+          JJJVMTrace.buffer().exception(method, lastPC, thr, record != null);
+        }
 
         if (record != null) {
           localMethodStack[regSP++] = thr;
           regPC = record.getCodeAddress();
         } else {
-          int[][] lineNumberTable = method.getLineNumberTable();
-          if (lineNumberTable != null) {
-            int line=0;
-            for (int i=0;i<lineNumberTable.length;i++) {
-              line = lineNumberTable[i][1];
-              if (lastPC<lineNumberTable[i][0]) {
-                if (i>0) {
-                  line = lineNumberTable[i-1][1];
-                }
-                break;
-              }
-            }
-            StackTraceElement element = new StackTraceElement(caller.getClassName(),method.getName(),caller.getSourceFileName(), line);
-            thr.setStackTrace(new StackTraceElement[]{element});
-            throw thr;
-          } else {
-            throw thr;
-          }
+          JJJVMStackTrace.unwind(method, lastPC, thr);
+          throw thr;
         }
       }
     }
   }
 
-  private static int extractArgsNumber(final String methodSignature) {
+  // find exception handler for an instruction
+  private static JJJVMTryCatchRecord findCatchRecord(final JJJVMProvider provider, final JJJVMClass caller, final JJJVMMethod method, final int pc, final Throwable thr) throws Throwable {
+    // exhausted fuel can't be caught by interpreted code
+    if (thr instanceof JJJVMFuel.OutOfFuelError) {
+      return null;
+    }
+    for (final JJJVMTryCatchRecord r : method.getTryCatchRecords()) {
+      if (r.isActiveForAddress(pc)) {
+        final String exceptionClassName = r.getJvmFormattedClassName();
+
+        if (exceptionClassName == null) {
+          // it process any exception, may be it is finally
+          return r;
+        }
+
+        if (provider.checkCast(caller, exceptionClassName, thr)) {
+          return r;
+        }
+      }
+    }
+    return null;
+  }
+
+  // get analyzed data of a method, analyze it and cache in the method at first call
+  private static JJJVMMethodData prepareMethodData(final JJJVMClass klazz, final JJJVMMethod method) {
+    JJJVMMethodData result = (JJJVMMethodData) method.getInterpreterData();
+    if (result == null) {
+      result = JJJVMMethodData.analyze(method, klazz.getConstantPool());
+      method.setInterpreterData(result);
+    }
+    return result;
+  }
+
+  // process exception leaving a frame without the interpreter loop
+  static Throwable uncaughtException(final JJJVMMethod method, final int pc, final Throwable thr) {
+    if (JJJVMEvents.isEnabled()) {
+      JJJVMEvents.exception(method, findLineNumber(method, pc), thr, false);
+    }
+    if (JJJVMTrace.enabled) {
+      JJJVMTrace.buffer().exception(method, pc, thr, false);
+    }
+    JJJVMStackTrace.unwind(method, pc, thr);
+    return thr;
+  }
+
+  // find source line of a byte-code position, -1 if the method doesn't have line number table
+  static int findLineNumber(final JJJVMMethod method, final int pc) {
+    int[][] lineNumberTable = method.getLineNumberTable();
+    if (lineNumberTable == null) {
+      return -1;
+    }
+    int line=0;
+    for (int i=0;i<lineNumberTable.length;i++) {
+      line = lineNumberTable[i][1];
+      if (pc<lineNumberTable[i][0]) {
+        if (i>0) {
+          line = lineNumberTable[i-1][1];
+        }
+        break;
+      }
+    }
+    return line;
+  }
+
+  // save state of a method interrupted by suspension
+  private static JJJVMFrame saveFrame(final JJJVMClass caller, final JJJVMObject instance, final JJJVMMethod method, final JJJVMConstantPool cpool, final int pc, final int nextPC, final Object[] stack, final int stackBase, final int sp, final Object[] localVars) {
+    final byte[] code = method.getBytecode();
+    final int instruction = code[pc] & 0xFF;
+    boolean pushResult = false;
+    if (instruction >= 182 && instruction <= 186) {
+      // interrupted call, its result must be placed on the stack
+      final String signature = cpool.getSignature(readShortValueFromArray(code, pc + 1) & 0xFFFF);
+      pushResult = signature.charAt(signature.length() - 1) != TYPE_VOID;
+    }
+    return new JJJVMFrame(caller, instance, method, pc, nextPC, pushResult, Arrays.copyOfRange(stack, stackBase, sp), localVars.clone());
+  }
+
+  // bind intrinsic to a method call site, only calls of host methods can be bound
+  private static Object linkIntrinsic(final JJJVMClass caller, final JJJVMConstantPool cpool, final int methodRef) throws Throwable {
+    Object result = NO_INTRINSIC;
+    final String klazzName = cpool.getClassName(methodRef);
+    if (!klazzName.equals(caller.getClassName())) {
+      final JJJVMProvider provider = caller.getProvider();
+      final JJJVMIntrinsic intrinsic = provider.findIntrinsic(klazzName, cpool.getName(methodRef), cpool.getSignature(methodRef));
+      if (intrinsic != null && !(provider.resolveClass(klazzName) instanceof JJJVMClass)) {
+        result = intrinsic;
+      }
+    }
+    cpool.setLinkedItem(methodRef, result);
+    return result;
+  }
+
+  /**
+   * Get number of arguments of a method, every argument is counted as one
+   * independently on its type.
+   *
+   * @param methodSignature the method signature, must not be null
+   * @return number of arguments
+   */
+  static int extractArgsNumber(final String methodSignature) {
     synchronized (CACHED_NUMBER_OF_ARGS) {
       if (CACHED_NUMBER_OF_ARGS.containsKey(methodSignature)) {
         return CACHED_NUMBER_OF_ARGS.get(methodSignature);
@@ -0,0 +1,550 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPool;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import com.igormaznitsa.jjjvm.model.JJJVMTryCatchRecord;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Data prepared by the interpreter for a method byte-code. It contains string
+ * building chains, sequences like NEW StringBuilder, DUP, INVOKESPECIAL
+ * &lt;init&gt;, (load, INVOKEVIRTUAL append)*, INVOKEVIRTUAL toString where
+ * every appended value is either a constant or a local variable. Such chain is
+ * executed as one operation with pre-sized builder and without calls of the
+ * provider. Methods working only with int values can be translated into
+ * register code if it is enabled.
+ *
+ * @see JJJVMMethod#getInterpreterData()
+ * @see JJJVMInterpreter#setRegisterCode(boolean)
+ */
+final class JJJVMMethodData implements JJJVMConstants {
+
+  /**
+   * Data for methods which don't have anything to be optimized.
+   */
+  static final JJJVMMethodData EMPTY = new JJJVMMethodData(new int[0], new StringChain[0], null);
+
+  private static final char PART_CONSTANT = 0;
+  private static final char PART_NOT_NULL_STRING = 'N';
+  private static final char PART_CHAR_SEQUENCE = 'Q';
+  private static final char PART_STRING = 'T';
+
+  /**
+   * Sorted start positions of string chains.
+   */
+  private final int[] chainStarts;
+  private final StringChain[] chains;
+
+  /**
+   * Register code of the method, null if the method is executed by the stack
+   * interpreter.
+   */
+  final JJJVMRegisterCode registerCode;
+
+  private JJJVMMethodData(final int[] chainStarts, final StringChain[] chains, final JJJVMRegisterCode registerCode) {
+    this.chainStarts = chainStarts;
+    this.chains = chains;
+    this.registerCode = registerCode;
+  }
+
+  /**
+   * Find string chain started by NEW instruction at the position.
+   *
+   * @param pc position of the NEW instruction
+   * @return found chain or null
+   */
+  StringChain findStringChain(final int pc) {
+    if (this.chains.length == 0) {
+      return null;
+    }
+    final int index = Arrays.binarySearch(this.chainStarts, pc);
+    return index < 0 ? null : this.chains[index];
+  }
+
+  /**
+   * Analyze method byte-code.
+   *
+   * @param method the method, must not be null
+   * @param cpool  the constant pool of the method class, must not be null
+   * @return prepared data, must not be null
+   */
+  static JJJVMMethodData analyze(final JJJVMMethod method, final JJJVMConstantPool cpool) {
+    final byte[] code = method.getBytecode();
+    if (code == null) {
+      return EMPTY;
+    }
+    // translated methods don't contain NEW so that they don't have string chains
+    if (JJJVMInterpreter.isRegisterCode()) {
+      final JJJVMRegisterCode registerCode = JJJVMRegisterCode.translate(method, cpool);
+      if (registerCode != null) {
+        return new JJJVMMethodData(EMPTY.chainStarts, EMPTY.chains, registerCode);
+      }
+    }
+    // string chains start with NEW, skip methods which never executed NEW in the installed profile
+    final JJJVMOpcodeProfile profile = JJJVMOpcodeProfile.getInstalled();
+    if (profile != null) {
+      final String key = JJJVMOpcodeProfile.methodKey(method);
+      if (profile.containsMethod(key) && profile.getOpcodeCount(key, 187) == 0L) {
+        return EMPTY;
+      }
+    }
+    final JJJVMTryCatchRecord[] catchRecords = method.getTryCatchRecords();
+
+    final List<StringChain> found = new ArrayList<>();
+    int pc = 0;
+    while (pc < code.length) {
+      final int instruction = code[pc] & 0xFF;
+      if (instruction == 187) {
+        final StringChain chain = parseStringChain(code, pc, cpool);
+        if (chain != null && !isSplitByCatchBlock(catchRecords, pc, chain.endPC)) {
+          found.add(chain);
+          pc = chain.endPC;
+          continue;
+        }
+      }
+      pc = nextInstruction(code, pc);
+    }
+
+    if (found.isEmpty()) {
+      return EMPTY;
+    }
+    final int[] starts = new int[found.size()];
+    for (int i = 0; i < starts.length; i++) {
+      starts[i] = found.get(i).startPC;
+    }
+    return new JJJVMMethodData(starts, found.toArray(new StringChain[0]), null);
+  }
+
+  private static boolean isSplitByCatchBlock(final JJJVMTryCatchRecord[] records, final int start, final int end) {
+    for (final JJJVMTryCatchRecord r : records) {
+      if ((r.getStartPC() > start && r.getStartPC() < end)
+          || (r.getEndPC() > start && r.getEndPC() < end)
+          || (r.getCodeAddress() > start && r.getCodeAddress() < end)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static int readUnsignedShort(final byte[] code, final int offset) {
+    return ((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF);
+  }
+
+  /**
+   * Get position of the next instruction.
+   * {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-6.html}
+   */
+  private static int nextInstruction(final byte[] code, final int pc) {
+    final int instruction = code[pc] & 0xFF;
+    switch (instruction) {
+      case 16: // BIPUSH
+      case 18: // LDC
+      case 188: // NEWARRAY
+        return pc + 2;
+      case 21: // ILOAD
+      case 22: // LLOAD
+      case 23: // FLOAD
+      case 24: // DLOAD
+      case 25: // ALOAD
+      case 54: // ISTORE
+      case 55: // LSTORE
+      case 56: // FSTORE
+      case 57: // DSTORE
+      case 58: // ASTORE
+      case 169: // RET
+        return pc + 2;
+      case 17: // SIPUSH
+      case 19: // LDC_W
+      case 20: // LDC2_W
+      case 132: // IINC
+        return pc + 3;
+      case 153: // IFEQ
+      case 154: // IFNE
+      case 155: // IFLT
+      case 156: // IFGE
+      case 157: // IFGT
+      case 158: // IFLE
+      case 159: // IF_ICMPEQ
+      case 160: // IF_ICMPNE
+      case 161: // IF_ICMPLT
+      case 162: // IF_ICMPGE
+      case 163: // IF_ICMPGT
+      case 164: // IF_ICMPLE
+      case 165: // IF_ACMPEQ
+      case 166: // IF_ACMPNE
+      case 167: // GOTO
+      case 168: // JSR
+      case 178: // GETSTATIC
+      case 179: // PUTSTATIC
+      case 180: // GETFIELD
+      case 181: // PUTFIELD
+      case 182: // INVOKEVIRTUAL
+      case 183: // INVOKESPECIAL
+      case 184: // INVOKESTATIC
+      case 187: // NEW
+      case 189: // ANEWARRAY
+      case 192: // CHECKCAST
+      case 193: // INSTANCEOF
+      case 198: // IFNULL
+      case 199: // IFNONNULL
+        return pc + 3;
+      case 197: // MULTIANEWARRAY
+        return pc + 4;
+      case 185: // INVOKEINTERFACE
+      case 186: // INVOKEDYNAMIC
+      case 200: // GOTO_W
+      case 201: // JSR_W
+        return pc + 5;
+      case 170: { // TABLESWITCH
+        final int base = (pc + 4) & ~3;
+        final int low = readInt(code, base + 4);
+        final int high = readInt(code, base + 8);
+        return base + 12 + ((high - low + 1) << 2);
+      }
+      case 171: { // LOOKUPSWITCH
+        final int base = (pc + 4) & ~3;
+        final int pairs = readInt(code, base + 4);
+        return base + 8 + (pairs << 3);
+      }
+      case 196: // WIDE
+        return (code[pc + 1] & 0xFF) == 132 ? pc + 6 : pc + 4;
+      default:
+        return pc + 1;
+    }
+  }
+
+  private static int readInt(final byte[] code, final int offset) {
+    return (readUnsignedShort(code, offset) << 16) | readUnsignedShort(code, offset + 2);
+  }
+
+  private static boolean isBuilderClass(final String jvmFormattedClassName) {
+    return "java/lang/StringBuilder".equals(jvmFormattedClassName) || "java/lang/StringBuffer".equals(jvmFormattedClassName);
+  }
+
+  /**
+   * Parse string chain at position of NEW instruction.
+   *
+   * @return parsed chain or null if the code is not a string chain
+   */
+  private static StringChain parseStringChain(final byte[] code, final int start, final JJJVMConstantPool cpool) {
+    final String builderClass = cpool.getClassName(readUnsignedShort(code, start + 1));
+    if (!isBuilderClass(builderClass)) {
+      return null;
+    }
+    int pc = start + 3;
+    if (pc >= code.length || (code[pc] & 0xFF) != 89) { // DUP
+      return null;
+    }
+    pc++;
+
+    final StringChain.Builder chain = new StringChain.Builder(start);
+
+    final ValueSource initArg = ValueSource.parse(code, pc, cpool);
+    if (initArg != null) {
+      pc = initArg.nextPC;
+    }
+    if (!isCall(code, pc, 183, cpool, builderClass, "<init>")) {
+      return null;
+    }
+    final String initSignature = cpool.getSignature(readUnsignedShort(code, pc + 1));
+    if (initArg == null && "()V".equals(initSignature)) {
+      // nothing to add
+    } else if (initArg != null && "(Ljava/lang/String;)V".equals(initSignature)) {
+      if (!chain.add(initArg, PART_NOT_NULL_STRING)) {
+        return null;
+      }
+    } else {
+      return null;
+    }
+    pc += 3;
+
+    final String builderType = 'L' + builderClass + ';';
+    while (pc < code.length) {
+      final ValueSource value = ValueSource.parse(code, pc, cpool);
+      final int callPC = value == null ? pc : value.nextPC;
+      if (value == null) {
+        if (isCall(code, callPC, 182, cpool, builderClass, "toString")
+            && "()Ljava/lang/String;".equals(cpool.getSignature(readUnsignedShort(code, callPC + 1)))) {
+          return chain.build(callPC + 3);
+        }
+        return null;
+      }
+      if (!isCall(code, callPC, 182, cpool, builderClass, "append")) {
+        return null;
+      }
+      final String signature = cpool.getSignature(readUnsignedShort(code, callPC + 1));
+      if (!signature.endsWith(')' + builderType) || !chain.add(value, appendType(signature))) {
+        return null;
+      }
+      pc = callPC + 3;
+    }
+    return null;
+  }
+
+  private static char appendType(final String appendSignature) {
+    final String arg = appendSignature.substring(1, appendSignature.indexOf(')'));
+    if (arg.length() == 1) {
+      final char type = arg.charAt(0);
+      return type == TYPE_BYTE || type == TYPE_SHORT ? 0xFFFF : type;
+    }
+    switch (arg) {
+      case "Ljava/lang/String;":
+        return PART_STRING;
+      case "Ljava/lang/CharSequence;":
+        return PART_CHAR_SEQUENCE;
+      case "Ljava/lang/Object;":
+        return TYPE_CLASS;
+      default:
+        return 0xFFFF;
+    }
+  }
+
+  private static boolean isCall(final byte[] code, final int pc, final int instruction, final JJJVMConstantPool cpool, final String klazz, final String name) {
+    if (pc + 2 >= code.length || (code[pc] & 0xFF) != instruction) {
+      return false;
+    }
+    final int ref = readUnsignedShort(code, pc + 1);
+    return klazz.equals(cpool.getClassName(ref)) && name.equals(cpool.getName(ref));
+  }
+
+  /**
+   * Source of appended value, either constant or local variable.
+   */
+  private static final class ValueSource {
+
+    final boolean constant;
+    final Object value;
+    final int localIndex;
+    final int nextPC;
+
+    private ValueSource(final boolean constant, final Object value, final int localIndex, final int nextPC) {
+      this.constant = constant;
+      this.value = value;
+      this.localIndex = localIndex;
+      this.nextPC = nextPC;
+    }
+
+    static ValueSource parse(final byte[] code, final int pc, final JJJVMConstantPool cpool) {
+      if (pc >= code.length) {
+        return null;
+      }
+      final int instruction = code[pc] & 0xFF;
+      switch (instruction) {
+        case 1: // ACONST_NULL
+          return new ValueSource(true, null, -1, pc + 1);
+        case 2: // ICONST_M1
+        case 3: // ICONST_0
+        case 4: // ICONST_1
+        case 5: // ICONST_2
+        case 6: // ICONST_3
+        case 7: // ICONST_4
+        case 8: // ICONST_5
+          return new ValueSource(true, instruction - 3, -1, pc + 1);
+        case 9: // LCONST_0
+        case 10: // LCONST_1
+          return new ValueSource(true, (long) instruction - 9, -1, pc + 1);
+        case 11: // FCONST_0
+        case 12: // FCONST_1
+        case 13: // FCONST_2
+          return new ValueSource(true, (float) instruction - 11, -1, pc + 1);
+        case 14: // DCONST_0
+        case 15: // DCONST_1
+          return new ValueSource(true, (double) instruction - 14, -1, pc + 1);
+        case 16: // BIPUSH
+          return new ValueSource(true, (int) code[pc + 1], -1, pc + 2);
+        case 17: // SIPUSH
+          return new ValueSource(true, (int) (short) readUnsignedShort(code, pc + 1), -1, pc + 3);
+        case 18: // LDC
+        case 19: // LDC_W
+        case 20: { // LDC2_W
+          final int index = instruction == 18 ? code[pc + 1] & 0xFF : readUnsignedShort(code, pc + 1);
+          final int next = instruction == 18 ? pc + 2 : pc + 3;
+          switch (cpool.getItemType(index)) {
+            case JJJVMConstantPoolItem.CONSTANT_STRING:
+              return new ValueSource(true, cpool.getString(index), -1, next);
+            case JJJVMConstantPoolItem.CONSTANT_INTEGER:
+            case JJJVMConstantPoolItem.CONSTANT_FLOAT:
+            case JJJVMConstantPoolItem.CONSTANT_LONG:
+            case JJJVMConstantPoolItem.CONSTANT_DOUBLE:
+              return new ValueSource(true, cpool.getItemValue(index), -1, next);
+            default:
+              return null;
+          }
+        }
+        case 21: // ILOAD
+        case 22: // LLOAD
+        case 23: // FLOAD
+        case 24: // DLOAD
+        case 25: // ALOAD
+          return new ValueSource(false, null, code[pc + 1] & 0xFF, pc + 2);
+        default: {
+          if (instruction >= 26 && instruction <= 45) {
+            // xLOAD_n
+            return new ValueSource(false, null, (instruction - 26) & 3, pc + 1);
+          }
+          return null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Recognized string building chain.
+   */
+  static final class StringChain {
+
+    final int startPC;
+    final int endPC;
+    private final char[] types;
+    private final String[] constants;
+    private final int[] localIndexes;
+    private final int capacity;
+
+    private StringChain(final int startPC, final int endPC, final char[] types, final String[] constants, final int[] localIndexes) {
+      this.startPC = startPC;
+      this.endPC = endPC;
+      this.types = types;
+      this.constants = constants;
+      this.localIndexes = localIndexes;
+      int length = 0;
+      for (int i = 0; i < types.length; i++) {
+        length += types[i] == PART_CONSTANT ? constants[i].length() : 16;
+      }
+      this.capacity = length;
+    }
+
+    /**
+     * Build string.
+     *
+     * @param localVars local variables of the executed method
+     * @return built string, must not be null
+     * @throws Throwable it will be thrown by interpreted toString method
+     */
+    String execute(final Object[] localVars) throws Throwable {
+      final StringBuilder buffer = new StringBuilder(this.capacity);
+      for (int i = 0; i < this.types.length; i++) {
+        final char type = this.types[i];
+        if (type == PART_CONSTANT) {
+          buffer.append(this.constants[i]);
+        } else {
+          final Object value = localVars[this.localIndexes[i]];
+          if (value instanceof JJJVMObject) {
+            buffer.append(JJJVMInterpreter.stringValueOf(value));
+          } else {
+            append(buffer, type, value);
+          }
+        }
+      }
+      return buffer.toString();
+    }
+
+    private static void append(final StringBuilder buffer, final char type, final Object value) {
+      switch (type) {
+        case TYPE_INT:
+          buffer.append(value instanceof Character ? (Character) value : ((Number) value).intValue());
+          break;
+        case TYPE_CHAR:
+          buffer.append(value instanceof Character ? (Character) value : (char) ((Number) value).intValue());
+          break;
+        case TYPE_BOOLEAN:
+          buffer.append(value instanceof Boolean ? (Boolean) value : ((Number) value).intValue() != 0);
+          break;
+        case TYPE_LONG:
+          buffer.append(((Number) value).longValue());
+          break;
+        case TYPE_FLOAT:
+          buffer.append(((Number) value).floatValue());
+          break;
+        case TYPE_DOUBLE:
+          buffer.append(((Number) value).doubleValue());
+          break;
+        case PART_NOT_NULL_STRING:
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          buffer.append((String) value);
+          break;
+        case PART_STRING:
+          buffer.append((String) value);
+          break;
+        case PART_CHAR_SEQUENCE:
+          buffer.append((CharSequence) value);
+          break;
+        default:
+          buffer.append(value);
+          break;
+      }
+    }
+
+    static final class Builder {
+
+      private final int startPC;
+      private final StringBuilder constantBuffer = new StringBuilder();
+      private final List<Character> types = new ArrayList<>();
+      private final List<String> constants = new ArrayList<>();
+      private final List<Integer> localIndexes = new ArrayList<>();
+
+      Builder(final int startPC) {
+        this.startPC = startPC;
+      }
+
+      boolean add(final ValueSource source, final char type) {
+        if (type == 0xFFFF) {
+          return false;
+        }
+        if (source.constant) {
+          if (type == PART_NOT_NULL_STRING && source.value == null) {
+            return false;
+          }
+          append(this.constantBuffer, type, source.value);
+        } else {
+          flushConstant();
+          this.types.add(type);
+          this.constants.add(null);
+          this.localIndexes.add(source.localIndex);
+        }
+        return true;
+      }
+
+      private void flushConstant() {
+        if (this.constantBuffer.length() > 0) {
+          this.types.add(PART_CONSTANT);
+          this.constants.add(this.constantBuffer.toString());
+          this.localIndexes.add(-1);
+          this.constantBuffer.setLength(0);
+        }
+      }
+
+      StringChain build(final int endPC) {
+        flushConstant();
+        final char[] typeArray = new char[this.types.size()];
+        final int[] indexArray = new int[typeArray.length];
+        for (int i = 0; i < typeArray.length; i++) {
+          typeArray[i] = this.types.get(i);
+          indexArray[i] = this.localIndexes.get(i);
+        }
+        return new StringChain(this.startPC, endPC, typeArray, this.constants.toArray(new String[0]), indexArray);
+      }
+    }
+  }
+}
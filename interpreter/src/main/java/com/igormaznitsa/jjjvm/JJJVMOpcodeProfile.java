@@ -0,0 +1,456 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Profile of executed opcodes and opcode sequences (2, 3 and 4 opcodes) for
+ * every interpreted method, made by {@link JJJVMOpcodeProfiler}. The profile
+ * can be saved into a text file and loaded later, installed profile is used
+ * by the interpreter to select methods for fused handlers, for instance
+ * string building chains are looked for only in methods which executed NEW
+ * during profiling. Methods missing in the profile are processed as usual.
+ * <p>
+ * The profile is installed at startup if system property
+ * {@value #PROPERTY} contains path to a profile file, unreadable file is
+ * reported as warning through {@link System.Logger} and ignored.
+ * <p>
+ * File format is line based, lines started by '#' are comments:
+ * <pre>
+ * method com/some/Klazz.calc(I)I
+ * op ILOAD 1000
+ * seq ILOAD,ILOAD,IADD 400
+ * </pre>
+ */
+public final class JJJVMOpcodeProfile {
+
+  /**
+   * System property containing path to profile to be installed at startup.
+   */
+  public static final String PROPERTY = "com.igormaznitsa.jjjvm.opcodeProfile";
+
+  /**
+   * Max length of counted opcode sequences.
+   */
+  public static final int MAX_SEQUENCE = 4;
+
+  private static final String[] MNEMONICS = new String[]{
+      "NOP", "ACONST_NULL", "ICONST_M1", "ICONST_0", "ICONST_1", "ICONST_2", "ICONST_3", "ICONST_4",
+      "ICONST_5", "LCONST_0", "LCONST_1", "FCONST_0", "FCONST_1", "FCONST_2", "DCONST_0", "DCONST_1",
+      "BIPUSH", "SIPUSH", "LDC", "LDC_W", "LDC2_W", "ILOAD", "LLOAD", "FLOAD", "DLOAD", "ALOAD", "ILOAD_0",
+      "ILOAD_1", "ILOAD_2", "ILOAD_3", "LLOAD_0", "LLOAD_1", "LLOAD_2", "LLOAD_3", "FLOAD_0", "FLOAD_1",
+      "FLOAD_2", "FLOAD_3", "DLOAD_0", "DLOAD_1", "DLOAD_2", "DLOAD_3", "ALOAD_0", "ALOAD_1", "ALOAD_2",
+      "ALOAD_3", "IALOAD", "LALOAD", "FALOAD", "DALOAD", "AALOAD", "BALOAD", "CALOAD", "SALOAD", "ISTORE",
+      "LSTORE", "FSTORE", "DSTORE", "ASTORE", "ISTORE_0", "ISTORE_1", "ISTORE_2", "ISTORE_3", "LSTORE_0",
+      "LSTORE_1", "LSTORE_2", "LSTORE_3", "FSTORE_0", "FSTORE_1", "FSTORE_2", "FSTORE_3", "DSTORE_0",
+      "DSTORE_1", "DSTORE_2", "DSTORE_3", "ASTORE_0", "ASTORE_1", "ASTORE_2", "ASTORE_3", "IASTORE",
+      "LASTORE", "FASTORE", "DASTORE", "AASTORE", "BASTORE", "CASTORE", "SASTORE", "POP", "POP2", "DUP",
+      "DUP_X1", "DUP_X2", "DUP2", "DUP2_X1", "DUP2_X2", "SWAP", "IADD", "LADD", "FADD", "DADD", "ISUB",
+      "LSUB", "FSUB", "DSUB", "IMUL", "LMUL", "FMUL", "DMUL", "IDIV", "LDIV", "FDIV", "DDIV", "IREM", "LREM",
+      "FREM", "DREM", "INEG", "LNEG", "FNEG", "DNEG", "ISHL", "LSHL", "ISHR", "LSHR", "IUSHR", "LUSHR",
+      "IAND", "LAND", "IOR", "LOR", "IXOR", "LXOR", "IINC", "I2L", "I2F", "I2D", "L2I", "L2F", "L2D", "F2I",
+      "F2L", "F2D", "D2I", "D2L", "D2F", "I2B", "I2C", "I2S", "LCMP", "FCMPL", "FCMPG", "DCMPL", "DCMPG",
+      "IFEQ", "IFNE", "IFLT", "IFGE", "IFGT", "IFLE", "IF_ICMPEQ", "IF_ICMPNE", "IF_ICMPLT", "IF_ICMPGE",
+      "IF_ICMPGT", "IF_ICMPLE", "IF_ACMPEQ", "IF_ACMPNE", "GOTO", "JSR", "RET", "TABLESWITCH",
+      "LOOKUPSWITCH", "IRETURN", "LRETURN", "FRETURN", "DRETURN", "ARETURN", "RETURN", "GETSTATIC",
+      "PUTSTATIC", "GETFIELD", "PUTFIELD", "INVOKEVIRTUAL", "INVOKESPECIAL", "INVOKESTATIC",
+      "INVOKEINTERFACE", "INVOKEDYNAMIC", "NEW", "NEWARRAY", "ANEWARRAY", "ARRAYLENGTH", "ATHROW",
+      "CHECKCAST", "INSTANCEOF", "MONITORENTER", "MONITOREXIT", "WIDE", "MULTIANEWARRAY", "IFNULL",
+      "IFNONNULL", "GOTO_W", "JSR_W", "BREAKPOINT", null, null, null, null, null, null, null, null, null,
+      null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null,
+      null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null, null,
+      null, null, null, null, null, null, null, null, "IMPDEP1", "IMPDEP2"
+  };
+
+  private static final Map<String, Integer> OPCODES = new HashMap<>();
+
+  static {
+    for (int i = 0; i < MNEMONICS.length; i++) {
+      if (MNEMONICS[i] != null) {
+        OPCODES.put(MNEMONICS[i], i);
+      }
+    }
+  }
+
+  private static volatile JJJVMOpcodeProfile installed = loadStartupProfile(System.getProperty(PROPERTY));
+
+  /**
+   * Counters of a method.
+   */
+  static final class MethodData {
+
+    final long[] opcodes = new long[256];
+    final Map<Long, Long> sequences = new HashMap<>();
+  }
+
+  /**
+   * Opcode sequence with its counter.
+   */
+  public static final class Sequence {
+
+    private final int[] opcodes;
+    private final long count;
+
+    Sequence(final int[] opcodes, final long count) {
+      this.opcodes = opcodes;
+      this.count = count;
+    }
+
+    public int[] getOpcodes() {
+      return this.opcodes.clone();
+    }
+
+    public long getCount() {
+      return this.count;
+    }
+
+    @Override
+    public String toString() {
+      return sequenceName(this.opcodes) + ' ' + this.count;
+    }
+  }
+
+  private final Map<String, MethodData> methods;
+
+  JJJVMOpcodeProfile(final Map<String, MethodData> methods) {
+    this.methods = methods;
+  }
+
+  /**
+   * Load profile defined at startup.
+   *
+   * @param path the path to profile file, can be null
+   * @return the profile or null if path is not defined or the file can't be
+   * read
+   */
+  static JJJVMOpcodeProfile loadStartupProfile(final String path) {
+    if (path == null || path.isEmpty()) {
+      return null;
+    }
+    try {
+      return read(Paths.get(path));
+    } catch (IOException | RuntimeException ex) {
+      // wrong startup profile must not break the interpreter, it works without profile
+      System.getLogger(JJJVMOpcodeProfile.class.getName()).log(System.Logger.Level.WARNING, "Can't read opcode profile [" + path + "], it is ignored", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Install profile to be used by the interpreter for methods prepared after
+   * the call.
+   *
+   * @param profile the profile, null to remove installed profile
+   */
+  public static void install(final JJJVMOpcodeProfile profile) {
+    installed = profile;
+  }
+
+  /**
+   * Get installed profile.
+   *
+   * @return the installed profile or null
+   */
+  public static JJJVMOpcodeProfile getInstalled() {
+    return installed;
+  }
+
+  /**
+   * Get mnemonic of an opcode.
+   *
+   * @param opcode the opcode 0..255
+   * @return the mnemonic or the opcode number for unused opcodes
+   */
+  public static String mnemonic(final int opcode) {
+    final String result = MNEMONICS[opcode & 0xFF];
+    return result == null ? Integer.toString(opcode & 0xFF) : result;
+  }
+
+  /**
+   * Get opcode for mnemonic.
+   *
+   * @param mnemonic the mnemonic or opcode number, must not be null
+   * @return the opcode
+   * @throws IllegalArgumentException for unknown mnemonic
+   */
+  public static int opcode(final String mnemonic) {
+    final Integer result = OPCODES.get(mnemonic);
+    if (result != null) {
+      return result;
+    }
+    try {
+      final int value = Integer.parseInt(mnemonic);
+      if (value >= 0 && value <= 0xFF) {
+        return value;
+      }
+    } catch (NumberFormatException ex) {
+      // processed below
+    }
+    throw new IllegalArgumentException("Unknown opcode [" + mnemonic + ']');
+  }
+
+  /**
+   * Get key of a method used in profiles.
+   *
+   * @param method the method, must not be null
+   * @return the key like "com/some/Klazz.calc(I)I"
+   */
+  public static String methodKey(final JJJVMMethod method) {
+    return method.getDeclaringClass().getClassName() + '.' + method.getName() + method.getSignature();
+  }
+
+  static long sequenceKey(final int[] opcodes) {
+    long result = 0L;
+    for (final int opcode : opcodes) {
+      result = (result << 8) | (opcode & 0xFF);
+    }
+    return ((long) opcodes.length << 32) | result;
+  }
+
+  static int[] sequenceOpcodes(final long key) {
+    final int[] result = new int[(int) (key >>> 32)];
+    for (int i = result.length - 1, packed = (int) key; i >= 0; i--, packed >>>= 8) {
+      result[i] = packed & 0xFF;
+    }
+    return result;
+  }
+
+  private static String sequenceName(final int[] opcodes) {
+    final StringBuilder result = new StringBuilder();
+    for (int i = 0; i < opcodes.length; i++) {
+      if (i > 0) {
+        result.append(',');
+      }
+      result.append(mnemonic(opcodes[i]));
+    }
+    return result.toString();
+  }
+
+  /**
+   * Read profile from file.
+   *
+   * @param path the file, must not be null
+   * @return the profile, must not be null
+   * @throws IOException it will be thrown for transport errors and wrong format
+   */
+  public static JJJVMOpcodeProfile read(final Path path) throws IOException {
+    final Map<String, MethodData> methods = new HashMap<>();
+    try (final BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+      MethodData current = null;
+      int lineNumber = 0;
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.charAt(0) == '#') {
+          continue;
+        }
+        final String[] parts = line.split("\\s+");
+        try {
+          if ("method".equals(parts[0]) && parts.length == 2) {
+            current = methods.computeIfAbsent(parts[1], k -> new MethodData());
+          } else if (current != null && "op".equals(parts[0]) && parts.length == 3) {
+            current.opcodes[opcode(parts[1])] += Long.parseLong(parts[2]);
+          } else if (current != null && "seq".equals(parts[0]) && parts.length == 3) {
+            final String[] names = parts[1].split(",");
+            if (names.length < 2 || names.length > MAX_SEQUENCE) {
+              throw new IllegalArgumentException("Wrong sequence length");
+            }
+            final int[] opcodes = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+              opcodes[i] = opcode(names[i]);
+            }
+            current.sequences.merge(sequenceKey(opcodes), Long.parseLong(parts[2]), Long::sum);
+          } else {
+            throw new IllegalArgumentException("Unexpected line");
+          }
+        } catch (IllegalArgumentException ex) {
+          throw new IOException("Wrong opcode profile line " + lineNumber + " [" + line + ']', ex);
+        }
+      }
+    }
+    return new JJJVMOpcodeProfile(methods);
+  }
+
+  /**
+   * Write profile into file.
+   *
+   * @param path the file, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public void write(final Path path) throws IOException {
+    try (final Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writer.write("# JJJVM opcode profile\n");
+      for (final Map.Entry<String, MethodData> e : new TreeMap<>(this.methods).entrySet()) {
+        writer.write("method " + e.getKey() + '\n');
+        final long[] opcodes = e.getValue().opcodes;
+        for (int i = 0; i < opcodes.length; i++) {
+          if (opcodes[i] != 0L) {
+            writer.write("op " + mnemonic(i) + ' ' + opcodes[i] + '\n');
+          }
+        }
+        for (final Map.Entry<Long, Long> s : new TreeMap<>(e.getValue().sequences).entrySet()) {
+          writer.write("seq " + sequenceName(sequenceOpcodes(s.getKey())) + ' ' + s.getValue() + '\n');
+        }
+      }
+    }
+  }
+
+  /**
+   * Get keys of methods presented in the profile.
+   *
+   * @return unmodifiable set of method keys, must not be null
+   * @see #methodKey(JJJVMMethod)
+   */
+  public Set<String> getMethods() {
+    return Collections.unmodifiableSet(this.methods.keySet());
+  }
+
+  /**
+   * Check that the profile contains data of a method.
+   *
+   * @param methodKey the method key, must not be null
+   * @return true if the method was executed during profiling
+   */
+  public boolean containsMethod(final String methodKey) {
+    return this.methods.containsKey(methodKey);
+  }
+
+  /**
+   * Get number of executions of an opcode in all methods.
+   *
+   * @param opcode the opcode
+   * @return number of executions
+   */
+  public long getOpcodeCount(final int opcode) {
+    long result = 0L;
+    for (final MethodData data : this.methods.values()) {
+      result += data.opcodes[opcode & 0xFF];
+    }
+    return result;
+  }
+
+  /**
+   * Get number of executions of an opcode in a method.
+   *
+   * @param methodKey the method key, must not be null
+   * @param opcode    the opcode
+   * @return number of executions, zero if the method is unknown
+   */
+  public long getOpcodeCount(final String methodKey, final int opcode) {
+    final MethodData data = this.methods.get(methodKey);
+    return data == null ? 0L : data.opcodes[opcode & 0xFF];
+  }
+
+  /**
+   * Get number of executions of an opcode sequence in all methods.
+   *
+   * @param opcodes the sequence, 2..4 opcodes
+   * @return number of executions
+   */
+  public long getSequenceCount(final int... opcodes) {
+    final Long key = sequenceKey(opcodes);
+    long result = 0L;
+    for (final MethodData data : this.methods.values()) {
+      result += data.sequences.getOrDefault(key, 0L);
+    }
+    return result;
+  }
+
+  /**
+   * Get number of executions of an opcode sequence in a method.
+   *
+   * @param methodKey the method key, must not be null
+   * @param opcodes   the sequence, 2..4 opcodes
+   * @return number of executions, zero if the method is unknown
+   */
+  public long getSequenceCount(final String methodKey, final int... opcodes) {
+    final MethodData data = this.methods.get(methodKey);
+    return data == null ? 0L : data.sequences.getOrDefault(sequenceKey(opcodes), 0L);
+  }
+
+  /**
+   * Get the most frequent opcode sequences of all methods.
+   *
+   * @param length length of sequences, 2..4
+   * @param limit  max number of sequences
+   * @return sequences in descending order of their counters, must not be null
+   */
+  public List<Sequence> getHotSequences(final int length, final int limit) {
+    final Map<Long, Long> total = new HashMap<>();
+    for (final MethodData data : this.methods.values()) {
+      for (final Map.Entry<Long, Long> e : data.sequences.entrySet()) {
+        if ((int) (e.getKey() >>> 32) == length) {
+          total.merge(e.getKey(), e.getValue(), Long::sum);
+        }
+      }
+    }
+    final List<Sequence> result = new ArrayList<>(total.size());
+    for (final Map.Entry<Long, Long> e : total.entrySet()) {
+      result.add(new Sequence(sequenceOpcodes(e.getKey()), e.getValue()));
+    }
+    result.sort((a, b) -> Long.compare(b.count, a.count));
+    return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+  }
+
+  /**
+   * Write human readable report with opcode histogram and the most frequent
+   * sequences.
+   *
+   * @param out   the destination, must not be null
+   * @param limit max number of lines in every section
+   * @throws IOException it will be thrown for transport errors
+   */
+  public void writeReport(final Appendable out, final int limit) throws IOException {
+    final List<Sequence> opcodes = new ArrayList<>();
+    long total = 0L;
+    for (int i = 0; i < 256; i++) {
+      final long count = getOpcodeCount(i);
+      if (count != 0L) {
+        opcodes.add(new Sequence(new int[]{i}, count));
+        total += count;
+      }
+    }
+    opcodes.sort((a, b) -> Long.compare(b.count, a.count));
+
+    out.append("Executed opcodes: ").append(Long.toString(total)).append(", methods: ").append(Integer.toString(this.methods.size())).append('\n');
+    out.append("\nOpcodes:\n");
+    for (final Sequence s : opcodes.subList(0, Math.min(limit, opcodes.size()))) {
+      out.append(String.format("  %-16s %12d %6.2f%%%n", mnemonic(s.opcodes[0]), s.count, s.count * 100.0d / total));
+    }
+    for (int length = 2; length <= MAX_SEQUENCE; length++) {
+      out.append("\nSequences of ").append(Integer.toString(length)).append(":\n");
+      for (final Sequence s : getHotSequences(length, limit)) {
+        out.append(String.format("  %-48s %12d%n", sequenceName(s.opcodes), s.count));
+      }
+    }
+  }
+}
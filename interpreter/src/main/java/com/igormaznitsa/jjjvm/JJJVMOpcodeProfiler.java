@@ -0,0 +1,181 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation mode of the interpreter which counts every executed opcode
+ * and sequences of 2, 3 and 4 sequentially executed opcodes for every
+ * interpreted method. Sequences are counted in order of execution inside a
+ * frame, so that a jump makes sequence of the jump and its target. Collected
+ * data can be exported as {@link JJJVMOpcodeProfile}.
+ * <p>
+ * Only one opcode profiler is active at a time. While there is no active
+ * profiler the interpreter checks only a static flag per call.
+ */
+public final class JJJVMOpcodeProfiler {
+
+  /**
+   * Flag shows that there is an active profiler.
+   */
+  static volatile boolean active;
+
+  private static volatile JJJVMOpcodeProfiler current;
+
+  private final Map<JJJVMMethod, MethodCounters> methods = new ConcurrentHashMap<>();
+
+  /**
+   * Counters of a method.
+   */
+  static final class MethodCounters {
+
+    private final AtomicLongArray opcodes = new AtomicLongArray(256);
+    private final Map<Long, LongAdder> sequences = new ConcurrentHashMap<>();
+
+    /**
+     * Count executed opcode.
+     *
+     * @param window window of previous opcodes of the frame, the lowest 32
+     *               bits contain up to 4 last opcodes (the latest one in the
+     *               lowest byte) and higher bits contain their number
+     * @param opcode the executed opcode
+     * @return new window to be provided for the next opcode
+     */
+    long record(final long window, final int opcode) {
+      this.opcodes.incrementAndGet(opcode);
+      final long packed = ((window << 8) | opcode) & 0xFFFFFFFFL;
+      final int count = Math.min((int) (window >>> 32) + 1, JJJVMOpcodeProfile.MAX_SEQUENCE);
+      for (int length = 2; length <= count; length++) {
+        final long key = ((long) length << 32) | (packed & (0xFFFFFFFFL >>> ((4 - length) << 3)));
+        LongAdder counter = this.sequences.get(key);
+        if (counter == null) {
+          counter = this.sequences.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+      }
+      return ((long) count << 32) | packed;
+    }
+  }
+
+  private JJJVMOpcodeProfiler() {
+  }
+
+  /**
+   * Start new profiler, already active profiler is stopped.
+   *
+   * @return the started profiler, must not be null
+   */
+  public static JJJVMOpcodeProfiler start() {
+    final JJJVMOpcodeProfiler result = new JJJVMOpcodeProfiler();
+    synchronized (JJJVMOpcodeProfiler.class) {
+      current = result;
+      active = true;
+    }
+    return result;
+  }
+
+  /**
+   * Get active profiler.
+   *
+   * @return the active profiler or null
+   */
+  public static JJJVMOpcodeProfiler current() {
+    return current;
+  }
+
+  /**
+   * Stop the profiler if it is active, collected data are kept.
+   */
+  public void stop() {
+    synchronized (JJJVMOpcodeProfiler.class) {
+      if (current == this) {
+        active = false;
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Get counters of a method for the active profiler.
+   *
+   * @param method the method, must not be null
+   * @return the counters or null if there is no active profiler
+   */
+  static MethodCounters countersFor(final JJJVMMethod method) {
+    final JJJVMOpcodeProfiler profiler = current;
+    if (profiler == null) {
+      return null;
+    }
+    final MethodCounters result = profiler.methods.get(method);
+    return result == null ? profiler.methods.computeIfAbsent(method, k -> new MethodCounters()) : result;
+  }
+
+  /**
+   * Make snapshot of collected data.
+   *
+   * @return the profile, must not be null
+   */
+  public JJJVMOpcodeProfile toProfile() {
+    final Map<String, JJJVMOpcodeProfile.MethodData> result = new HashMap<>();
+    this.methods.forEach((method, counters) -> {
+      final JJJVMOpcodeProfile.MethodData data = result.computeIfAbsent(JJJVMOpcodeProfile.methodKey(method), k -> new JJJVMOpcodeProfile.MethodData());
+      for (int i = 0; i < 256; i++) {
+        data.opcodes[i] += counters.opcodes.get(i);
+      }
+      counters.sequences.forEach((key, counter) -> data.sequences.merge(key, counter.sum(), Long::sum));
+    });
+    return new JJJVMOpcodeProfile(result);
+  }
+
+  /**
+   * Write human readable report of collected data.
+   *
+   * @param out   the destination, must not be null
+   * @param limit max number of lines in every report section
+   * @throws IOException it will be thrown for transport errors
+   * @see JJJVMOpcodeProfile#writeReport(Appendable, int)
+   */
+  public void writeReport(final Appendable out, final int limit) throws IOException {
+    toProfile().writeReport(out, limit);
+  }
+
+  /**
+   * Write collected data as profile file which can be loaded by the
+   * interpreter.
+   *
+   * @param path the file, must not be null
+   * @throws IOException it will be thrown for transport errors
+   * @see JJJVMOpcodeProfile#PROPERTY
+   */
+  public void write(final Path path) throws IOException {
+    toProfile().write(path);
+  }
+
+  /**
+   * Remove all collected data.
+   */
+  public void reset() {
+    this.methods.clear();
+  }
+}
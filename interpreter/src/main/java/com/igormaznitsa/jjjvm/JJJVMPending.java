@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Pending result of a host method. If a host method called by interpreted
+ * code returns the object then the interpreter uses the completion value as
+ * the call result. A process executed by {@link JJJVMScheduler} is suspended
+ * until completion and its carrier thread is released, outside of processes
+ * the calling thread is blocked.
+ */
+public final class JJJVMPending {
+
+  final CompletableFuture<Object> future;
+
+  private JJJVMPending(final CompletableFuture<Object> future) {
+    this.future = future;
+  }
+
+  /**
+   * Make pending result completed by a completion stage.
+   *
+   * @param stage the stage providing the result, must not be null
+   * @return the pending result, must not be null
+   */
+  public static JJJVMPending of(final CompletionStage<?> stage) {
+    final CompletableFuture<Object> future = new CompletableFuture<>();
+    stage.whenComplete((value, error) -> {
+      if (error == null) {
+        future.complete(value);
+      } else {
+        future.completeExceptionally(error);
+      }
+    });
+    return new JJJVMPending(future);
+  }
+
+  /**
+   * Make pending result of the current process, it is completed by
+   * {@link JJJVMScheduler#unpark(JJJVMProcess, Object)}.
+   *
+   * @return the pending result, must not be null
+   * @throws IllegalStateException if there is no current process
+   */
+  public static JJJVMPending park() {
+    final JJJVMProcess process = JJJVMProcess.current();
+    if (process == null) {
+      throw new IllegalStateException("Park is allowed only inside a process");
+    }
+    final JJJVMPending result = new JJJVMPending(new CompletableFuture<>());
+    process.parked = result;
+    return result;
+  }
+
+  /**
+   * Get the result, the current process is suspended if it is allowed else the
+   * thread is blocked.
+   *
+   * @return the completion value
+   * @throws Throwable the completion error
+   */
+  Object await() throws Throwable {
+    final JJJVMProcess process = JJJVMProcess.current();
+    if (process != null && process.isSuspendable()) {
+      throw new JJJVMSuspension(this);
+    }
+    try {
+      return this.future.get();
+    } catch (ExecutionException ex) {
+      throw ex.getCause();
+    }
+  }
+}
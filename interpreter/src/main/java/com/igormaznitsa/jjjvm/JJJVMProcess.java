@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Interpreted method call executed by {@link JJJVMScheduler}. The process can
+ * be suspended only while all executed methods are interpreted ones called
+ * directly by interpreted code and no monitor is held, in other cases (for
+ * instance inside a lambda called by a host method) the process blocks its
+ * carrier thread as usual.
+ */
+public final class JJJVMProcess {
+
+  public enum State {
+    /**
+     * The process waits for a carrier thread.
+     */
+    RUNNABLE,
+    /**
+     * The process is executed by a carrier thread.
+     */
+    RUNNING,
+    /**
+     * The process waits for a pending result.
+     */
+    PARKED,
+    /**
+     * The process has been completed.
+     */
+    DONE
+  }
+
+  private static final ThreadLocal<JJJVMProcess> CURRENT = new ThreadLocal<>();
+
+  /**
+   * Flag shows that some process has been started, it allows to avoid thread
+   * local access while scheduler is not used.
+   */
+  static volatile boolean active;
+
+  final JJJVMScheduler scheduler;
+  final JJJVMMethod method;
+  final JJJVMObject instance;
+  final Object[] args;
+  final CompletableFuture<Object> result = new CompletableFuture<>();
+
+  volatile State state = State.RUNNABLE;
+  JJJVMFrame frames;
+  volatile JJJVMPending parked;
+  private int pinned;
+
+  JJJVMProcess(final JJJVMScheduler scheduler, final JJJVMMethod method, final JJJVMObject instance, final Object[] args) {
+    this.scheduler = scheduler;
+    this.method = method;
+    this.instance = instance;
+    this.args = args;
+  }
+
+  /**
+   * Get process executed by the current thread.
+   *
+   * @return the current process or null
+   */
+  public static JJJVMProcess current() {
+    return active ? CURRENT.get() : null;
+  }
+
+  static void setCurrent(final JJJVMProcess process) {
+    if (process == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(process);
+    }
+  }
+
+  /**
+   * Mark start or end of a region where the current process can't be
+   * suspended.
+   *
+   * @param enter true for start of the region, false for its end
+   */
+  static void pin(final boolean enter) {
+    if (active) {
+      final JJJVMProcess process = CURRENT.get();
+      if (process != null) {
+        process.pinned += enter ? 1 : -1;
+      }
+    }
+  }
+
+  boolean isSuspendable() {
+    return this.pinned == 0;
+  }
+
+  public JJJVMMethod getMethod() {
+    return this.method;
+  }
+
+  public State getState() {
+    return this.state;
+  }
+
+  /**
+   * Get frames saved during the last suspension.
+   *
+   * @return the outermost frame or null if the process is not suspended
+   */
+  public JJJVMFrame getSuspendedFrames() {
+    final State current = this.state;
+    return current == State.RUNNABLE || current == State.PARKED ? this.frames : null;
+  }
+
+  /**
+   * Get future to be completed by result of the process.
+   *
+   * @return the future, must not be null
+   */
+  public CompletableFuture<Object> getResult() {
+    return this.result;
+  }
+
+  @Override
+  public String toString() {
+    return "JJJVMProcess[" + this.method.getName() + this.method.getSignature() + ", " + this.state + ']';
+  }
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Profiler of interpreted code. It counts calls of every interpreted method,
+ * optionally measures self and total time of calls and takes samples of
+ * interpreted stacks at every N-th safepoint (method entry or backward jump).
+ * Samples are kept as collapsed stacks, the input format of flame graph tools,
+ * and as sample counters for every byte-code position.
+ * <p>
+ * Only one profiler is active at a time. While there is no active profiler the
+ * interpreter checks only a static flag per call. Frames of processes resumed
+ * by {@link JJJVMScheduler} are entered again without counting of new
+ * invocation, time of a suspended process is not measured.
+ */
+public final class JJJVMProfiler {
+
+  private static final ThreadLocal<Recorder> RECORDER = new ThreadLocal<>();
+
+  /**
+   * Flag shows that there is an active profiler, it allows to avoid thread
+   * local access while profiling is not used.
+   */
+  static volatile boolean active;
+
+  private static volatile JJJVMProfiler current;
+
+  private final int sampleInterval;
+  private final boolean timing;
+  private final Map<JJJVMMethod, MethodProfile> methods = new ConcurrentHashMap<>();
+  private final Map<String, LongAdder> stacks = new ConcurrentHashMap<>();
+
+  /**
+   * Collected data of an interpreted method.
+   */
+  public static final class MethodProfile {
+
+    private final JJJVMMethod method;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder selfNanos = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private volatile AtomicLongArray pcSamples;
+
+    MethodProfile(final JJJVMMethod method) {
+      this.method = method;
+    }
+
+    public JJJVMMethod getMethod() {
+      return this.method;
+    }
+
+    public long getInvocations() {
+      return this.invocations.sum();
+    }
+
+    /**
+     * Get time spent in the method without time of interpreted methods called
+     * by it, it is measured only if timing is enabled.
+     *
+     * @return time in nanoseconds
+     */
+    public long getSelfNanos() {
+      return this.selfNanos.sum();
+    }
+
+    /**
+     * Get time spent in the method together with called methods, it is
+     * measured only if timing is enabled. Time of recursive calls is counted
+     * several times.
+     *
+     * @return time in nanoseconds
+     */
+    public long getTotalNanos() {
+      return this.totalNanos.sum();
+    }
+
+    /**
+     * Get number of samples for every byte-code position of the method.
+     *
+     * @return array indexed by byte-code position, must not be null
+     */
+    public long[] getPcSamples() {
+      final AtomicLongArray samples = this.pcSamples;
+      final long[] result = new long[samples == null ? 0 : samples.length()];
+      for (int i = 0; i < result.length; i++) {
+        result[i] = samples.get(i);
+      }
+      return result;
+    }
+
+    void samplePc(final int pc) {
+      AtomicLongArray samples = this.pcSamples;
+      if (samples == null) {
+        synchronized (this) {
+          samples = this.pcSamples;
+          if (samples == null) {
+            samples = new AtomicLongArray(this.method.getBytecode().length);
+            this.pcSamples = samples;
+          }
+        }
+      }
+      samples.incrementAndGet(pc);
+    }
+
+    @Override
+    public String toString() {
+      return "MethodProfile[" + frameName(this.method, -1) + ", invocations=" + getInvocations() + ", self=" + getSelfNanos() + "ns, total=" + getTotalNanos() + "ns]";
+    }
+  }
+
+  /**
+   * Shadow stack of interpreted methods executed by a thread.
+   */
+  static final class Recorder {
+
+    private final JJJVMProfiler profiler;
+    private MethodProfile[] frames = new MethodProfile[64];
+    private int[] pcs = new int[64];
+    private long[] starts = new long[64];
+    private long[] children = new long[64];
+    private int depth;
+
+    /**
+     * Number of safepoints to the next sample, decremented by the interpreter.
+     */
+    int countdown;
+
+    Recorder(final JJJVMProfiler profiler) {
+      this.profiler = profiler;
+      this.countdown = profiler.sampleInterval;
+    }
+
+    void enter(final JJJVMMethod method, final boolean resumed) {
+      final MethodProfile profile = this.profiler.profileOf(method);
+      if (!resumed) {
+        profile.invocations.increment();
+      }
+      if (this.depth == this.frames.length) {
+        final int length = this.depth << 1;
+        this.frames = Arrays.copyOf(this.frames, length);
+        this.pcs = Arrays.copyOf(this.pcs, length);
+        this.starts = Arrays.copyOf(this.starts, length);
+        this.children = Arrays.copyOf(this.children, length);
+      }
+      this.frames[this.depth] = profile;
+      this.pcs[this.depth] = 0;
+      this.children[this.depth] = 0L;
+      if (this.profiler.timing) {
+        this.starts[this.depth] = System.nanoTime();
+      }
+      this.depth++;
+    }
+
+    void exit() {
+      final int index = --this.depth;
+      final MethodProfile profile = this.frames[index];
+      this.frames[index] = null;
+      if (this.profiler.timing) {
+        final long elapsed = System.nanoTime() - this.starts[index];
+        profile.totalNanos.add(elapsed);
+        profile.selfNanos.add(elapsed - this.children[index]);
+        if (index > 0) {
+          this.children[index - 1] += elapsed;
+        }
+      }
+    }
+
+    boolean isTop(final JJJVMMethod method) {
+      return this.depth > 0 && this.frames[this.depth - 1].method == method;
+    }
+
+    /**
+     * Save position of the top frame, it is used as position of the frame
+     * while called methods are executed.
+     *
+     * @param pc byte-code position
+     */
+    void call(final int pc) {
+      this.pcs[this.depth - 1] = pc;
+    }
+
+    /**
+     * Take sample of the stack.
+     *
+     * @param pc byte-code position of the top frame
+     */
+    void sample(final int pc) {
+      this.countdown = this.profiler.sampleInterval;
+      if (this.depth == 0) {
+        return;
+      }
+      this.pcs[this.depth - 1] = pc;
+      this.frames[this.depth - 1].samplePc(pc);
+
+      final StringBuilder buffer = new StringBuilder(this.depth * 48);
+      for (int i = 0; i < this.depth; i++) {
+        if (i > 0) {
+          buffer.append(';');
+        }
+        buffer.append(frameName(this.frames[i].method, this.pcs[i]));
+      }
+      this.profiler.stacks.computeIfAbsent(buffer.toString(), k -> new LongAdder()).increment();
+    }
+  }
+
+  private JJJVMProfiler(final int sampleInterval, final boolean timing) {
+    this.sampleInterval = sampleInterval;
+    this.timing = timing;
+  }
+
+  /**
+   * Start new profiler, already active profiler is stopped.
+   *
+   * @param sampleInterval number of safepoints between stack samples, zero to
+   *                       not take samples
+   * @param timing         true if time of every call must be measured
+   * @return the started profiler, must not be null
+   */
+  public static JJJVMProfiler start(final int sampleInterval, final boolean timing) {
+    if (sampleInterval < 0) {
+      throw new IllegalArgumentException("Sample interval must not be negative [" + sampleInterval + ']');
+    }
+    final JJJVMProfiler result = new JJJVMProfiler(sampleInterval, timing);
+    synchronized (JJJVMProfiler.class) {
+      current = result;
+      active = true;
+    }
+    return result;
+  }
+
+  /**
+   * Get active profiler.
+   *
+   * @return the active profiler or null
+   */
+  public static JJJVMProfiler current() {
+    return current;
+  }
+
+  /**
+   * Stop the profiler if it is active, collected data are kept.
+   */
+  public void stop() {
+    synchronized (JJJVMProfiler.class) {
+      if (current == this) {
+        active = false;
+        current = null;
+      }
+    }
+  }
+
+  /**
+   * Get recorder of the current thread for the active profiler.
+   *
+   * @return the recorder or null if there is no active profiler
+   */
+  static Recorder recorder() {
+    final JJJVMProfiler profiler = current;
+    if (profiler == null) {
+      return null;
+    }
+    Recorder result = RECORDER.get();
+    if (result == null || result.profiler != profiler) {
+      result = new Recorder(profiler);
+      RECORDER.set(result);
+    }
+    return result;
+  }
+
+  /**
+   * Get recorder of the current thread if the active profiler takes samples
+   * and the method is the top frame of the recorder.
+   *
+   * @param method the executed method, must not be null
+   * @return the recorder or null
+   */
+  static Recorder samplerFor(final JJJVMMethod method) {
+    final Recorder result = recorder();
+    return result != null && result.profiler.sampleInterval > 0 && result.isTop(method) ? result : null;
+  }
+
+  private MethodProfile profileOf(final JJJVMMethod method) {
+    final MethodProfile result = this.methods.get(method);
+    return result == null ? this.methods.computeIfAbsent(method, MethodProfile::new) : result;
+  }
+
+  /**
+   * Get collected data of methods.
+   *
+   * @return list of method profiles sorted by self time and number of calls,
+   * must not be null
+   */
+  public List<MethodProfile> getMethodProfiles() {
+    final List<MethodProfile> result = new ArrayList<>(this.methods.values());
+    result.sort((a, b) -> {
+      final int bySelf = Long.compare(b.getSelfNanos(), a.getSelfNanos());
+      return bySelf == 0 ? Long.compare(b.getInvocations(), a.getInvocations()) : bySelf;
+    });
+    return result;
+  }
+
+  /**
+   * Get collected data of a method.
+   *
+   * @param method the method, must not be null
+   * @return the method profile or null if the method has not been called
+   */
+  public MethodProfile getMethodProfile(final JJJVMMethod method) {
+    return this.methods.get(method);
+  }
+
+  /**
+   * Get sampled stacks.
+   *
+   * @return map of collapsed stacks to their sample counters, sorted by stacks
+   */
+  public Map<String, Long> getCollapsedStacks() {
+    final Map<String, Long> result = new TreeMap<>();
+    this.stacks.forEach((stack, counter) -> result.put(stack, counter.sum()));
+    return result;
+  }
+
+  /**
+   * Write sampled stacks in collapsed format, every line contains frames from
+   * the outermost one separated by semicolon and number of samples.
+   *
+   * @param out the destination, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public void writeCollapsed(final Appendable out) throws IOException {
+    for (final Map.Entry<String, Long> e : getCollapsedStacks().entrySet()) {
+      out.append(e.getKey()).append(' ').append(Long.toString(e.getValue())).append('\n');
+    }
+  }
+
+  /**
+   * Remove all collected data.
+   */
+  public void reset() {
+    this.methods.clear();
+    this.stacks.clear();
+  }
+
+  private static String frameName(final JJJVMMethod method, final int pc) {
+    final JJJVMClass klazz = method.getDeclaringClass();
+    final StringBuilder result = new StringBuilder();
+    result.append(klazz.getName()).append('.').append(method.getName());
+    if (pc >= 0) {
+      final int line = JJJVMInterpreter.findLineNumber(method, pc);
+      if (line >= 0) {
+        result.append(':').append(line);
+      }
+    }
+    return result.toString();
+  }
+}
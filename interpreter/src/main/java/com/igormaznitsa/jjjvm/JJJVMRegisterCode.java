@@ -0,0 +1,696 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPool;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMTryCatchRecord;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Register based code made for a method from its stack byte-code. Local
+ * variables, stack cells and constants are presented by virtual registers of
+ * an int array, loads of locals and constants are folded into operands of
+ * instructions and stores retarget the instruction produced the stored value,
+ * so that most of stack shuffling instructions don't need dispatch.
+ * <p>
+ * Only static not synchronized methods without exception handlers which work
+ * with int values (int arguments, int or void result, int arithmetic, locals,
+ * constants and branches) are translated, other methods are executed by the
+ * stack interpreter.
+ */
+final class JJJVMRegisterCode implements JJJVMConstants {
+
+  // every instruction takes 4 cells: operation, a, b, c
+  private static final int MOVE = 0; // r[a] = r[b]
+  private static final int INC = 1; // r[a] += b
+  private static final int ADD = 2; // r[a] = r[b] op r[c] for ADD..XOR
+  private static final int SUB = 3;
+  private static final int MUL = 4;
+  private static final int DIV = 5;
+  private static final int REM = 6;
+  private static final int SHL = 7;
+  private static final int SHR = 8;
+  private static final int USHR = 9;
+  private static final int AND = 10;
+  private static final int OR = 11;
+  private static final int XOR = 12;
+  private static final int NEG = 13; // r[a] = op r[b] for NEG..I2S
+  private static final int I2B = 14;
+  private static final int I2C = 15;
+  private static final int I2S = 16;
+  private static final int IFEQ = 17; // jump to c if r[a] op 0 for IFEQ..IFLE
+  private static final int IFNE = 18;
+  private static final int IFLT = 19;
+  private static final int IFGE = 20;
+  private static final int IFGT = 21;
+  private static final int IFLE = 22;
+  private static final int IFCMPEQ = 23; // jump to c if r[a] op r[b] for IFCMPEQ..IFCMPLE
+  private static final int IFCMPNE = 24;
+  private static final int IFCMPLT = 25;
+  private static final int IFCMPGE = 26;
+  private static final int IFCMPGT = 27;
+  private static final int IFCMPLE = 28;
+  private static final int GOTO = 29; // jump to c
+  private static final int RETURN = 30; // return r[a]
+  private static final int RETURN_VOID = 31;
+
+  private final int[] code;
+  private final int[] pcs;
+  private final int registers;
+  private final int constantBase;
+  private final int[] constants;
+  private final int arguments;
+
+  private JJJVMRegisterCode(final int[] code, final int[] pcs, final int registers, final int constantBase, final int[] constants, final int arguments) {
+    this.code = code;
+    this.pcs = pcs;
+    this.registers = registers;
+    this.constantBase = constantBase;
+    this.constants = constants;
+    this.arguments = arguments;
+  }
+
+  /**
+   * Get number of instructions.
+   *
+   * @return number of register instructions
+   */
+  int size() {
+    return this.code.length >> 2;
+  }
+
+  /**
+   * Execute the code.
+   *
+   * @param method the translated method, must not be null
+   * @param args   arguments of the method, must not be null
+   * @return result of the method
+   * @throws Throwable it will be thrown for division by zero
+   */
+  Object execute(final JJJVMMethod method, final Object[] args) throws Throwable {
+    final int[] r = new int[this.registers];
+    System.arraycopy(this.constants, 0, r, this.constantBase, this.constants.length);
+    for (int i = 0; i < this.arguments; i++) {
+      final Object arg = args[i];
+      r[i] = arg instanceof Character ? (Character) arg : ((Number) arg).intValue();
+    }
+
+    final int[] c = this.code;
+    int ip = 0;
+    while (true) {
+      switch (c[ip]) {
+        case MOVE:
+          r[c[ip + 1]] = r[c[ip + 2]];
+          break;
+        case INC:
+          r[c[ip + 1]] += c[ip + 2];
+          break;
+        case ADD:
+          r[c[ip + 1]] = r[c[ip + 2]] + r[c[ip + 3]];
+          break;
+        case SUB:
+          r[c[ip + 1]] = r[c[ip + 2]] - r[c[ip + 3]];
+          break;
+        case MUL:
+          r[c[ip + 1]] = r[c[ip + 2]] * r[c[ip + 3]];
+          break;
+        case DIV:
+        case REM: {
+          final int divisor = r[c[ip + 3]];
+          if (divisor == 0) {
+            throw JJJVMInterpreter.uncaughtException(method, this.pcs[ip >> 2], new ArithmeticException("/ by zero"));
+          }
+          r[c[ip + 1]] = c[ip] == DIV ? r[c[ip + 2]] / divisor : r[c[ip + 2]] % divisor;
+        }
+        break;
+        case SHL:
+          r[c[ip + 1]] = r[c[ip + 2]] << r[c[ip + 3]];
+          break;
+        case SHR:
+          r[c[ip + 1]] = r[c[ip + 2]] >> r[c[ip + 3]];
+          break;
+        case USHR:
+          r[c[ip + 1]] = r[c[ip + 2]] >>> r[c[ip + 3]];
+          break;
+        case AND:
+          r[c[ip + 1]] = r[c[ip + 2]] & r[c[ip + 3]];
+          break;
+        case OR:
+          r[c[ip + 1]] = r[c[ip + 2]] | r[c[ip + 3]];
+          break;
+        case XOR:
+          r[c[ip + 1]] = r[c[ip + 2]] ^ r[c[ip + 3]];
+          break;
+        case NEG:
+          r[c[ip + 1]] = -r[c[ip + 2]];
+          break;
+        case I2B:
+          r[c[ip + 1]] = (byte) r[c[ip + 2]];
+          break;
+        case I2C:
+          r[c[ip + 1]] = (char) r[c[ip + 2]];
+          break;
+        case I2S:
+          r[c[ip + 1]] = (short) r[c[ip + 2]];
+          break;
+        case IFEQ:
+          ip = r[c[ip + 1]] == 0 ? c[ip + 3] : ip + 4;
+          continue;
+        case IFNE:
+          ip = r[c[ip + 1]] != 0 ? c[ip + 3] : ip + 4;
+          continue;
+        case IFLT:
+          ip = r[c[ip + 1]] < 0 ? c[ip + 3] : ip + 4;
+          continue;
+        case IFGE:
+          ip = r[c[ip + 1]] >= 0 ? c[ip + 3] : ip + 4;
+          continue;
+        case IFGT:
+          ip = r[c[ip + 1]] > 0 ? c[ip + 3] : ip + 4;
+          continue;
+        case IFLE:
+          ip = r[c[ip + 1]] <= 0 ? c[ip + 3] : ip + 4;
+          continue;
+        case IFCMPEQ:
+          ip = r[c[ip + 1]] == r[c[ip + 2]] ? c[ip + 3] : ip + 4;
+          continue;
+        case IFCMPNE:
+          ip = r[c[ip + 1]] != r[c[ip + 2]] ? c[ip + 3] : ip + 4;
+          continue;
+        case IFCMPLT:
+          ip = r[c[ip + 1]] < r[c[ip + 2]] ? c[ip + 3] : ip + 4;
+          continue;
+        case IFCMPGE:
+          ip = r[c[ip + 1]] >= r[c[ip + 2]] ? c[ip + 3] : ip + 4;
+          continue;
+        case IFCMPGT:
+          ip = r[c[ip + 1]] > r[c[ip + 2]] ? c[ip + 3] : ip + 4;
+          continue;
+        case IFCMPLE:
+          ip = r[c[ip + 1]] <= r[c[ip + 2]] ? c[ip + 3] : ip + 4;
+          continue;
+        case GOTO:
+          ip = c[ip + 3];
+          continue;
+        case RETURN:
+          return r[c[ip + 1]];
+        case RETURN_VOID:
+          return null;
+        default:
+          throw new Error("Unexpected register instruction [" + c[ip] + ']');
+      }
+      ip += 4;
+    }
+  }
+
+  /**
+   * Translate method byte-code.
+   *
+   * @param method the method, must not be null
+   * @param cpool  the constant pool of the method class, must not be null
+   * @return translated code or null if the method can't be translated
+   */
+  static JJJVMRegisterCode translate(final JJJVMMethod method, final JJJVMConstantPool cpool) {
+    final byte[] bytecode = method.getBytecode();
+    final int flags = method.getFlags();
+    final JJJVMTryCatchRecord[] catchRecords = method.getTryCatchRecords();
+    if (bytecode == null || (flags & ACC_STATIC) == 0 || (flags & ACC_SYNCHRONIZED) != 0 || (catchRecords != null && catchRecords.length > 0)) {
+      return null;
+    }
+    final String signature = method.getSignature();
+    final int closing = signature.indexOf(')');
+    for (int i = 1; i < closing; i++) {
+      if (signature.charAt(i) != 'I') {
+        return null;
+      }
+    }
+    final String result = signature.substring(closing + 1);
+    if (!"I".equals(result) && !"V".equals(result)) {
+      return null;
+    }
+    final int[] depths = computeStackDepths(bytecode, cpool);
+    if (depths == null) {
+      return null;
+    }
+    return new Translator(method, cpool, bytecode, depths, closing - 1).translate();
+  }
+
+  private static int readShort(final byte[] code, final int offset) {
+    return (short) (((code[offset] & 0xFF) << 8) | (code[offset + 1] & 0xFF));
+  }
+
+  private static boolean isIntConstant(final JJJVMConstantPool cpool, final int index) {
+    return cpool.getItemType(index) == JJJVMConstantPoolItem.CONSTANT_INTEGER;
+  }
+
+  /**
+   * Compute stack depth before every instruction.
+   *
+   * @return depths indexed by byte-code position, -1 for not reachable
+   * positions, or null if the code contains not supported instructions
+   */
+  private static int[] computeStackDepths(final byte[] code, final JJJVMConstantPool cpool) {
+    final int[] depths = new int[code.length];
+    Arrays.fill(depths, -1);
+    final int[] work = new int[code.length];
+    int workSize = 0;
+    depths[0] = 0;
+    work[workSize++] = 0;
+    while (workSize > 0) {
+      final int pc = work[--workSize];
+      final int opcode = code[pc] & 0xFF;
+      int depth = depths[pc];
+      int length = 1;
+      int jump = -1;
+      boolean next = true;
+      if (opcode == 0) {
+        // NOP
+      } else if (opcode >= 2 && opcode <= 8) {
+        depth++;
+      } else if (opcode == 16 || opcode == 21) {
+        depth++;
+        length = 2;
+      } else if (opcode == 17) {
+        depth++;
+        length = 3;
+      } else if (opcode == 18 || opcode == 19) {
+        length = opcode == 18 ? 2 : 3;
+        if (!isIntConstant(cpool, opcode == 18 ? code[pc + 1] & 0xFF : readShort(code, pc + 1) & 0xFFFF)) {
+          return null;
+        }
+        depth++;
+      } else if (opcode >= 26 && opcode <= 29) {
+        depth++;
+      } else if (opcode == 54) {
+        depth--;
+        length = 2;
+      } else if (opcode >= 59 && opcode <= 62) {
+        depth--;
+      } else if (opcode == 87) {
+        depth--;
+      } else if (opcode == 89) {
+        depth++;
+      } else if (opcode == 96 || opcode == 100 || opcode == 104 || opcode == 108 || opcode == 112 || opcode == 120 || opcode == 122 || opcode == 124 || opcode == 126 || opcode == 128 || opcode == 130) {
+        depth--;
+      } else if (opcode == 116 || (opcode >= 145 && opcode <= 147)) {
+        // depth is not changed
+      } else if (opcode == 132) {
+        length = 3;
+      } else if (opcode >= 153 && opcode <= 158) {
+        depth--;
+        length = 3;
+        jump = pc + readShort(code, pc + 1);
+      } else if (opcode >= 159 && opcode <= 164) {
+        depth -= 2;
+        length = 3;
+        jump = pc + readShort(code, pc + 1);
+      } else if (opcode == 167) {
+        length = 3;
+        jump = pc + readShort(code, pc + 1);
+        next = false;
+      } else if (opcode == 172) {
+        depth--;
+        next = false;
+      } else if (opcode == 177) {
+        next = false;
+      } else {
+        return null;
+      }
+      if (depth < 0) {
+        return null;
+      }
+      if (jump >= 0) {
+        if (jump >= code.length) {
+          return null;
+        }
+        if (depths[jump] < 0) {
+          depths[jump] = depth;
+          work[workSize++] = jump;
+        } else if (depths[jump] != depth) {
+          return null;
+        }
+      }
+      if (next) {
+        final int nextPc = pc + length;
+        if (nextPc >= code.length) {
+          return null;
+        }
+        if (depths[nextPc] < 0) {
+          depths[nextPc] = depth;
+          work[workSize++] = nextPc;
+        } else if (depths[nextPc] != depth) {
+          return null;
+        }
+      }
+    }
+    return depths;
+  }
+
+  /**
+   * Translator of stack instructions, it keeps for every stack cell the
+   * register containing its value.
+   */
+  private static final class Translator {
+
+    private final JJJVMConstantPool cpool;
+    private final byte[] bytecode;
+    private final int[] depths;
+    private final boolean[] labels;
+    private final int maxLocals;
+    private final int stackBase;
+    private final int arguments;
+    private final Map<Integer, Integer> constants = new LinkedHashMap<>();
+    private final int[] stack;
+    private int depth;
+
+    private int[] code = new int[64];
+    private int[] pcs = new int[16];
+    private int size;
+    private int retargetable = -1;
+
+    Translator(final JJJVMMethod method, final JJJVMConstantPool cpool, final byte[] bytecode, final int[] depths, final int arguments) {
+      this.cpool = cpool;
+      this.bytecode = bytecode;
+      this.depths = depths;
+      this.maxLocals = Math.max(method.getMaxLocals(), arguments);
+      this.stackBase = this.maxLocals;
+      this.stack = new int[method.getMaxStackDepth() + 1];
+      this.arguments = arguments;
+      this.labels = new boolean[bytecode.length];
+    }
+
+    private int constant(final int value) {
+      return this.constants.computeIfAbsent(value, k -> -1 - this.constants.size());
+    }
+
+    private void emit(final int operation, final int a, final int b, final int c, final int pc) {
+      if (this.size << 2 == this.code.length) {
+        this.code = Arrays.copyOf(this.code, this.code.length << 1);
+      }
+      if (this.size == this.pcs.length) {
+        this.pcs = Arrays.copyOf(this.pcs, this.pcs.length << 1);
+      }
+      final int offset = this.size << 2;
+      this.code[offset] = operation;
+      this.code[offset + 1] = a;
+      this.code[offset + 2] = b;
+      this.code[offset + 3] = c;
+      this.pcs[this.size++] = pc;
+      this.retargetable = -1;
+    }
+
+    private void emitValue(final int operation, final int b, final int c, final int pc) {
+      final int target = this.stackBase + this.depth;
+      emit(operation, target, b, c, pc);
+      this.stack[this.depth++] = target;
+      this.retargetable = this.size - 1;
+    }
+
+    // make every stack cell kept in its own register
+    private void materialize(final int pc) {
+      for (int i = 0; i < this.depth; i++) {
+        final int own = this.stackBase + i;
+        if (this.stack[i] != own) {
+          emit(MOVE, own, this.stack[i], 0, pc);
+          this.stack[i] = own;
+        }
+      }
+    }
+
+    // stack cells referring the local variable get their own registers before change of the variable
+    private void detach(final int local, final int pc) {
+      for (int i = 0; i < this.depth; i++) {
+        if (this.stack[i] == local) {
+          emit(MOVE, this.stackBase + i, local, 0, pc);
+          this.stack[i] = this.stackBase + i;
+        }
+      }
+    }
+
+    private void store(final int local, final int pc) {
+      final int value = this.stack[--this.depth];
+      detach(local, pc);
+      if (this.retargetable >= 0 && this.retargetable == this.size - 1 && value == this.stackBase + this.depth && this.code[(this.retargetable << 2) + 1] == value) {
+        this.code[(this.retargetable << 2) + 1] = local;
+        this.retargetable = -1;
+      } else {
+        emit(MOVE, local, value, 0, pc);
+      }
+    }
+
+    JJJVMRegisterCode translate() {
+      final byte[] bc = this.bytecode;
+      for (int pc = 0; pc < bc.length; pc++) {
+        final int opcode = bc[pc] & 0xFF;
+        if (this.depths[pc] >= 0 && ((opcode >= 153 && opcode <= 164) || opcode == 167)) {
+          this.labels[pc + readShort(bc, pc + 1)] = true;
+        }
+      }
+
+      final int[] positions = new int[bc.length];
+      Arrays.fill(positions, -1);
+      final int[] jumps = new int[bc.length];
+      int jumpCount = 0;
+      boolean reachable = true;
+
+      int pc = 0;
+      while (pc < bc.length) {
+        if (this.depths[pc] < 0) {
+          pc++;
+          reachable = false;
+          continue;
+        }
+        if (this.labels[pc] || !reachable) {
+          if (reachable) {
+            materialize(pc);
+          }
+          this.depth = this.depths[pc];
+          for (int i = 0; i < this.depth; i++) {
+            this.stack[i] = this.stackBase + i;
+          }
+          this.retargetable = -1;
+        }
+        positions[pc] = this.size;
+        reachable = true;
+
+        final int opcode = bc[pc] & 0xFF;
+        int length = 1;
+        switch (opcode) {
+          case 0:
+            break;
+          case 2:
+          case 3:
+          case 4:
+          case 5:
+          case 6:
+          case 7:
+          case 8:
+            this.stack[this.depth++] = constant(opcode - 3);
+            break;
+          case 16:
+            this.stack[this.depth++] = constant(bc[pc + 1]);
+            length = 2;
+            break;
+          case 17:
+            this.stack[this.depth++] = constant(readShort(bc, pc + 1));
+            length = 3;
+            break;
+          case 18:
+          case 19: {
+            final int index = opcode == 18 ? bc[pc + 1] & 0xFF : readShort(bc, pc + 1) & 0xFFFF;
+            this.stack[this.depth++] = constant(((Number) this.cpool.getItemValue(index)).intValue());
+            length = opcode == 18 ? 2 : 3;
+          }
+          break;
+          case 21:
+            this.stack[this.depth++] = bc[pc + 1] & 0xFF;
+            length = 2;
+            break;
+          case 26:
+          case 27:
+          case 28:
+          case 29:
+            this.stack[this.depth++] = opcode - 26;
+            break;
+          case 54:
+            store(bc[pc + 1] & 0xFF, pc);
+            length = 2;
+            break;
+          case 59:
+          case 60:
+          case 61:
+          case 62:
+            store(opcode - 59, pc);
+            break;
+          case 87:
+            this.depth--;
+            break;
+          case 89:
+            this.stack[this.depth] = this.stack[this.depth - 1];
+            this.depth++;
+            break;
+          case 96:
+          case 100:
+          case 104:
+          case 108:
+          case 112:
+          case 120:
+          case 122:
+          case 124:
+          case 126:
+          case 128:
+          case 130: {
+            final int b = this.stack[--this.depth];
+            final int a = this.stack[--this.depth];
+            final int operation;
+            switch (opcode) {
+              case 96:
+                operation = ADD;
+                break;
+              case 100:
+                operation = SUB;
+                break;
+              case 104:
+                operation = MUL;
+                break;
+              case 108:
+                operation = DIV;
+                break;
+              case 112:
+                operation = REM;
+                break;
+              case 120:
+                operation = SHL;
+                break;
+              case 122:
+                operation = SHR;
+                break;
+              case 124:
+                operation = USHR;
+                break;
+              case 126:
+                operation = AND;
+                break;
+              case 128:
+                operation = OR;
+                break;
+              default:
+                operation = XOR;
+                break;
+            }
+            emitValue(operation, a, b, pc);
+          }
+          break;
+          case 116:
+          case 145:
+          case 146:
+          case 147: {
+            final int a = this.stack[--this.depth];
+            emitValue(opcode == 116 ? NEG : I2B + opcode - 145, a, 0, pc);
+          }
+          break;
+          case 132: {
+            final int local = bc[pc + 1] & 0xFF;
+            detach(local, pc);
+            emit(INC, local, bc[pc + 2], 0, pc);
+            length = 3;
+          }
+          break;
+          case 153:
+          case 154:
+          case 155:
+          case 156:
+          case 157:
+          case 158: {
+            final int a = this.stack[--this.depth];
+            materialize(pc);
+            jumps[jumpCount++] = this.size;
+            emit(IFEQ + opcode - 153, a, 0, pc + readShort(bc, pc + 1), pc);
+            length = 3;
+          }
+          break;
+          case 159:
+          case 160:
+          case 161:
+          case 162:
+          case 163:
+          case 164: {
+            final int b = this.stack[--this.depth];
+            final int a = this.stack[--this.depth];
+            materialize(pc);
+            jumps[jumpCount++] = this.size;
+            emit(IFCMPEQ + opcode - 159, a, b, pc + readShort(bc, pc + 1), pc);
+            length = 3;
+          }
+          break;
+          case 167:
+            materialize(pc);
+            jumps[jumpCount++] = this.size;
+            emit(GOTO, 0, 0, pc + readShort(bc, pc + 1), pc);
+            length = 3;
+            reachable = false;
+            break;
+          case 172:
+            emit(RETURN, this.stack[--this.depth], 0, 0, pc);
+            reachable = false;
+            break;
+          case 177:
+            emit(RETURN_VOID, 0, 0, 0, pc);
+            reachable = false;
+            break;
+          default:
+            throw new Error("Unexpected opcode [" + opcode + ']');
+        }
+        pc += length;
+      }
+
+      // jump targets are offsets of instructions in the code array
+      final int[] result = Arrays.copyOf(this.code, this.size << 2);
+      for (int i = 0; i < jumpCount; i++) {
+        final int offset = (jumps[i] << 2) + 3;
+        result[offset] = positions[result[offset]] << 2;
+      }
+
+      // constants are placed after locals and stack cells
+      final int constantBase = this.stackBase + this.stack.length;
+      final int[] constantValues = new int[this.constants.size()];
+      for (final Map.Entry<Integer, Integer> e : this.constants.entrySet()) {
+        constantValues[-1 - e.getValue()] = e.getKey();
+      }
+      for (int i = 0; i < this.size; i++) {
+        final int offset = i << 2;
+        final int operation = result[offset];
+        if (operation == INC || operation == GOTO || operation == RETURN_VOID) {
+          continue;
+        }
+        for (int j = 1; j <= 2; j++) {
+          if (result[offset + j] < 0) {
+            result[offset + j] = constantBase - 1 - result[offset + j];
+          }
+        }
+        if (operation >= ADD && operation <= XOR && result[offset + 3] < 0) {
+          result[offset + 3] = constantBase - 1 - result[offset + 3];
+        }
+      }
+      return new JJJVMRegisterCode(result, Arrays.copyOf(this.pcs, this.size), constantBase + constantValues.length, constantBase, constantValues, this.arguments);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduler executing many interpreted processes on small number of carrier
+ * threads. A process is suspended when its time slice is exhausted or when a
+ * host method returns {@link JJJVMPending}, frames of suspended process are
+ * kept in heap and the process is resumed later by any carrier thread.
+ * Processes are executed in FIFO order.
+ * <p>
+ * Processes must not keep monitors of host objects across suspension, so
+ * that processes are not suspended inside synchronized blocks and
+ * synchronized methods.
+ */
+public final class JJJVMScheduler implements AutoCloseable, JJJVMConstants {
+
+  private static final AtomicInteger SCHEDULER_COUNTER = new AtomicInteger();
+
+  private final ExecutorService carriers;
+  private final long timeSlice;
+  private final AtomicInteger aliveProcesses = new AtomicInteger();
+
+  /**
+   * Constructor.
+   *
+   * @param carrierThreads number of carrier threads, must be positive
+   * @param timeSlice      fuel budget of time slice, must be positive
+   * @see JJJVMFuel
+   */
+  public JJJVMScheduler(final int carrierThreads, final long timeSlice) {
+    if (carrierThreads <= 0) {
+      throw new IllegalArgumentException("Number of carrier threads must be positive [" + carrierThreads + ']');
+    }
+    if (timeSlice <= 0) {
+      throw new IllegalArgumentException("Time slice must be positive [" + timeSlice + ']');
+    }
+    this.timeSlice = timeSlice;
+    final String prefix = "jjjvm-carrier-" + SCHEDULER_COUNTER.incrementAndGet() + '-';
+    final AtomicInteger threadCounter = new AtomicInteger();
+    final ThreadFactory factory = r -> {
+      final Thread result = new Thread(r, prefix + threadCounter.incrementAndGet());
+      result.setDaemon(true);
+      return result;
+    };
+    this.carriers = Executors.newFixedThreadPool(carrierThreads, factory);
+    JJJVMProcess.active = true;
+  }
+
+  /**
+   * Submit interpreted method to be executed as a process.
+   *
+   * @param method   the method, must not be null
+   * @param instance the object instance for non-static method
+   * @param args     method arguments, can be null
+   * @return the process, must not be null
+   */
+  public JJJVMProcess submit(final JJJVMMethod method, final JJJVMObject instance, final Object[] args) {
+    final JJJVMProcess result = new JJJVMProcess(this, method, instance, args == null ? null : args.clone());
+    this.aliveProcesses.incrementAndGet();
+    schedule(result);
+    return result;
+  }
+
+  /**
+   * Complete pending result made by {@link JJJVMPending#park()} for a process.
+   *
+   * @param process the parked process, must not be null
+   * @param value   value to be returned to the process as result of the host
+   *                method call
+   * @return true if the process has been unparked, false if the process is
+   * not parked or already unparked
+   */
+  public boolean unpark(final JJJVMProcess process, final Object value) {
+    if (process.scheduler != this) {
+      throw new IllegalArgumentException("Process of other scheduler");
+    }
+    final JJJVMPending pending = process.parked;
+    return pending != null && pending.future.complete(value);
+  }
+
+  /**
+   * Get number of submitted but not completed processes.
+   *
+   * @return number of alive processes
+   */
+  public int getAliveProcesses() {
+    return this.aliveProcesses.get();
+  }
+
+  /**
+   * Stop carrier threads, suspended processes are not resumed anymore.
+   */
+  @Override
+  public void close() {
+    this.carriers.shutdownNow();
+  }
+
+  private void schedule(final JJJVMProcess process) {
+    process.state = JJJVMProcess.State.RUNNABLE;
+    this.carriers.execute(() -> run(process));
+  }
+
+  private void run(final JJJVMProcess process) {
+    process.state = JJJVMProcess.State.RUNNING;
+    JJJVMProcess.setCurrent(process);
+    JJJVMFuel.install(this.timeSlice, fuel -> {
+      if (process.isSuspendable()) {
+        throw new JJJVMSuspension(null);
+      }
+      return 0L;
+    });
+    try {
+      final JJJVMFrame frames = process.frames;
+      process.frames = null;
+      process.parked = null;
+
+      final Object result;
+      if (frames != null) {
+        result = JJJVMInterpreter.resume(frames);
+      } else if ((process.method.getFlags() & ACC_SYNCHRONIZED) != 0) {
+        // synchronized methods are executed without suspension
+        result = process.method.invoke(process.instance, process.args);
+      } else {
+        result = JJJVMInterpreter._invoke(process.method.getDeclaringClass(), process.instance, process.method, process.args, 0, null, null);
+      }
+      complete(process, result, null);
+    } catch (JJJVMSuspension ex) {
+      process.frames = ex.getFrames();
+      if (ex.pending == null) {
+        schedule(process);
+      } else {
+        process.state = JJJVMProcess.State.PARKED;
+        ex.pending.future.whenComplete((value, error) -> {
+          final JJJVMFrame innermost = process.frames.getInnermost();
+          innermost.value = value;
+          innermost.failure = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+          schedule(process);
+        });
+      }
+    } catch (Throwable thr) {
+      complete(process, null, JJJVMStackTrace.complete(thr));
+    } finally {
+      JJJVMFuel.uninstall();
+      JJJVMProcess.setCurrent(null);
+    }
+  }
+
+  private void complete(final JJJVMProcess process, final Object result, final Throwable error) {
+    process.state = JJJVMProcess.State.DONE;
+    this.aliveProcesses.decrementAndGet();
+    if (error == null) {
+      process.result.complete(result);
+    } else {
+      process.result.completeExceptionally(error);
+    }
+  }
+}
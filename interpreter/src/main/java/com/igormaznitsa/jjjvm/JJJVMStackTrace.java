@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builder of stack traces of exceptions passing interpreted frames. Every
+ * interpreted frame left by an exception adds a link with its stack trace
+ * element into chain of the current thread, nothing is made while exceptions
+ * are not thrown. When the exception leaves the interpreter through
+ * an entry point called by host code, the stack trace is built once from the
+ * chain and the original host stack trace of the exception: every run of
+ * interpreter frames in the host trace is replaced by interpreted frames
+ * executed by it and frames of the interpreter machinery are removed.
+ */
+final class JJJVMStackTrace {
+
+  private static final String INTERPRETER = JJJVMInterpreter.class.getName();
+  private static final String REGISTER_CODE = JJJVMRegisterCode.class.getName();
+  private static final String[] MACHINERY = new String[]{
+    "com.igormaznitsa.jjjvm.impl.",
+    JJJVMMethodData.class.getName(),
+    "java.lang.reflect.",
+    "java.lang.invoke.",
+    "jdk.internal.reflect.",
+    "sun.reflect."
+  };
+
+  private static final ThreadLocal<Chain> CHAIN = new ThreadLocal<>();
+
+  /**
+   * Interpreted frame left by exception. The frame is kept as a stack trace
+   * element so that the chain doesn't prevent unloading of its classes.
+   */
+  private static final class Link {
+
+    private final StackTraceElement element;
+    private final int segment;
+    private Link next;
+
+    Link(final JJJVMMethod method, final int pc, final int segment) {
+      final JJJVMClass klazz = method.getDeclaringClass();
+      this.element = new StackTraceElement(klazz.getName(), method.getName(), klazz.getSourceFileName(), JJJVMInterpreter.findLineNumber(method, pc));
+      this.segment = segment;
+    }
+  }
+
+  /**
+   * Frames left by the latest exception of a thread, from the innermost one.
+   * Frames passed between two entry points make a segment.
+   */
+  private static final class Chain {
+
+    private WeakReference<Throwable> thrown;
+    private StackTraceElement[] hostTrace;
+    private Link first;
+    private Link last;
+    private int segment;
+
+    boolean isFor(final Throwable thr) {
+      return this.thrown != null && this.thrown.get() == thr;
+    }
+  }
+
+  private JJJVMStackTrace() {
+  }
+
+  /**
+   * Register interpreted frame left by an exception.
+   *
+   * @param method the method of the frame, must not be null
+   * @param pc     the byte-code position of the exception
+   * @param thr    the exception, must not be null
+   */
+  static void unwind(final JJJVMMethod method, final int pc, final Throwable thr) {
+    Chain chain = CHAIN.get();
+    if (chain == null) {
+      chain = new Chain();
+      CHAIN.set(chain);
+    }
+    if (!chain.isFor(thr)) {
+      chain.thrown = new WeakReference<>(thr);
+      chain.hostTrace = null;
+      chain.first = null;
+      chain.last = null;
+      chain.segment = 0;
+    }
+    final Link link = new Link(method, pc, chain.segment);
+    if (chain.last == null) {
+      chain.first = link;
+    } else {
+      chain.last.next = link;
+    }
+    chain.last = link;
+  }
+
+  /**
+   * Build stack trace of an exception leaving the interpreter through an entry
+   * point. If the entry point is called by interpreted code through host code,
+   * the trace is rebuilt when the exception leaves the next entry point.
+   *
+   * @param thr the exception, must not be null
+   * @return the same exception
+   */
+  static Throwable complete(final Throwable thr) {
+    final Chain chain = CHAIN.get();
+    if (chain != null && chain.isFor(thr)) {
+      if (chain.hostTrace == null) {
+        chain.hostTrace = thr.getStackTrace();
+      }
+      thr.setStackTrace(build(chain));
+      chain.segment++;
+    }
+    return thr;
+  }
+
+  private static StackTraceElement[] build(final Chain chain) {
+    final List<List<StackTraceElement>> segments = new ArrayList<>();
+    for (Link link = chain.first; link != null; link = link.next) {
+      while (segments.size() <= link.segment) {
+        segments.add(new ArrayList<>());
+      }
+      segments.get(link.segment).add(link.element);
+    }
+
+    int runs = 0;
+    boolean inRun = false;
+    for (final StackTraceElement element : chain.hostTrace) {
+      final boolean interpreter = isInterpreter(element);
+      if (interpreter && !inRun) {
+        runs++;
+      }
+      inRun = interpreter;
+    }
+
+    final List<StackTraceElement> result = new ArrayList<>(chain.hostTrace.length);
+    if (runs < segments.size()) {
+      // the exception was made out of the frames which it has passed, only host frames below them are kept
+      for (final List<StackTraceElement> segment : segments) {
+        result.addAll(segment);
+      }
+      int lastInterpreterFrame = -1;
+      for (int i = 0; i < chain.hostTrace.length; i++) {
+        if (isInterpreter(chain.hostTrace[i])) {
+          lastInterpreterFrame = i;
+        }
+      }
+      for (int i = lastInterpreterFrame + 1; i < chain.hostTrace.length; i++) {
+        if (!isMachinery(chain.hostTrace[i])) {
+          result.add(chain.hostTrace[i]);
+        }
+      }
+    } else {
+      int run = -1;
+      inRun = false;
+      for (final StackTraceElement element : chain.hostTrace) {
+        if (isInterpreter(element)) {
+          if (!inRun) {
+            inRun = true;
+            run++;
+            if (run < segments.size()) {
+              result.addAll(segments.get(run));
+            }
+          }
+          continue;
+        }
+        inRun = false;
+        if (!isMachinery(element)) {
+          result.add(element);
+        }
+      }
+    }
+    return result.toArray(new StackTraceElement[0]);
+  }
+
+  // register code is executed by the interpreter so that its frames belong to the run
+  private static boolean isInterpreter(final StackTraceElement element) {
+    final String className = element.getClassName();
+    return INTERPRETER.equals(className) || REGISTER_CODE.equals(className);
+  }
+
+  private static boolean isMachinery(final StackTraceElement element) {
+    final String className = element.getClassName();
+    for (final String prefix : MACHINERY) {
+      if (className.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
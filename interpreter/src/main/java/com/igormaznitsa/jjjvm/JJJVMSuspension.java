@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+/**
+ * Signal unwinding interpreted methods of a suspended process, every method
+ * saves its frame into the signal. It is never visible for interpreted code
+ * and it doesn't have stack trace.
+ */
+final class JJJVMSuspension extends Error {
+
+  private static final long serialVersionUID = 4410918220457811322L;
+
+  /**
+   * Pending result caused suspension, null if the process yields its time
+   * slice.
+   */
+  final JJJVMPending pending;
+
+  /**
+   * The outermost frame saved so far.
+   */
+  private JJJVMFrame frames;
+
+  JJJVMSuspension(final JJJVMPending pending) {
+    super("Process suspended", null, false, false);
+    this.pending = pending;
+  }
+
+  /**
+   * Add frame of a method calling already saved frames.
+   *
+   * @param frame the frame, must not be null
+   */
+  void addFrame(final JJJVMFrame frame) {
+    frame.callee = this.frames;
+    this.frames = frame;
+  }
+
+  JJJVMFrame getFrames() {
+    return this.frames;
+  }
+}
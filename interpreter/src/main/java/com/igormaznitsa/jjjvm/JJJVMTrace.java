@@ -0,0 +1,425 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm;
+
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Execution trace kept in fixed size ring buffer of every thread. The
+ * interpreter writes method entries and exits, host calls and exceptions
+ * without allocation of objects, a record is two numbers (time, kind, depth
+ * and byte-code position) and references to already existing objects (method,
+ * names of called host method, exception). Only the latest records are
+ * kept so that the trace can be enabled all the time, records are decoded into
+ * readable form only by dump.
+ * <p>
+ * Suspension of a process is recorded as exit by exception of its frames, the
+ * frames are entered again when the process is resumed.
+ * <p>
+ * The trace is enabled at startup if system property {@value #PROPERTY}
+ * contains capacity of buffers, wrong value is reported as warning through
+ * {@link System.Logger} and ignored. Buffers of finished threads are removed
+ * by GC.
+ */
+public final class JJJVMTrace {
+
+  /**
+   * System property containing capacity of buffers to enable trace at startup.
+   */
+  public static final String PROPERTY = "com.igormaznitsa.jjjvm.trace";
+
+  /**
+   * Kind of trace record.
+   */
+  public enum Kind {
+    /**
+     * Entry of interpreted method.
+     */
+    ENTER,
+    /**
+     * Normal exit of interpreted method.
+     */
+    EXIT,
+    /**
+     * Exit of interpreted method by exception.
+     */
+    EXIT_BY_EXCEPTION,
+    /**
+     * Call of host method through provider.
+     */
+    HOST_CALL,
+    /**
+     * Exception caught by handler of interpreted method.
+     */
+    EXCEPTION_CAUGHT,
+    /**
+     * Exception leaving interpreted method.
+     */
+    EXCEPTION_THROWN
+  }
+
+  private static final Kind[] KINDS = Kind.values();
+
+  private static final ThreadLocal<Buffer> BUFFER = new ThreadLocal<>();
+  private static final Map<Thread, Buffer> BUFFERS = new WeakHashMap<>();
+
+  /**
+   * Flag shows that trace is enabled.
+   */
+  static volatile boolean enabled;
+
+  private static volatile int capacity;
+  private static volatile int generation;
+
+  static {
+    enableAtStartup(System.getProperty(PROPERTY));
+  }
+
+  /**
+   * Decoded trace record.
+   */
+  public static final class Entry {
+
+    private final Kind kind;
+    private final long nanoTime;
+    private final int depth;
+    private final int pc;
+    private final String text;
+
+    Entry(final Kind kind, final long nanoTime, final int depth, final int pc, final String text) {
+      this.kind = kind;
+      this.nanoTime = nanoTime;
+      this.depth = depth;
+      this.pc = pc;
+      this.text = text;
+    }
+
+    public Kind getKind() {
+      return this.kind;
+    }
+
+    /**
+     * Get time of the record.
+     *
+     * @return value of {@link System#nanoTime()}
+     */
+    public long getNanoTime() {
+      return this.nanoTime;
+    }
+
+    /**
+     * Get depth of interpreted calls of the thread.
+     *
+     * @return depth, the first entered method has depth 0
+     */
+    public int getDepth() {
+      return this.depth;
+    }
+
+    /**
+     * Get byte-code position of exception.
+     *
+     * @return the position or -1 for other records
+     */
+    public int getPc() {
+      return this.pc;
+    }
+
+    /**
+     * Get description of the record.
+     *
+     * @return the method, host method or exception description, must not be
+     * null
+     */
+    public String getText() {
+      return this.text;
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder result = new StringBuilder();
+      for (int i = 0; i < this.depth; i++) {
+        result.append("  ");
+      }
+      return result.append(this.kind).append(' ').append(this.text).toString();
+    }
+  }
+
+  /**
+   * Ring buffer of a thread, it is written only by its thread. Number of
+   * written records is published after the record data, so that other threads
+   * see complete records except ones overwritten while they are read.
+   */
+  static final class Buffer {
+
+    private static final int REFS = 3;
+    private static final VarHandle WRITTEN;
+
+    static {
+      try {
+        WRITTEN = MethodHandles.lookup().findVarHandle(Buffer.class, "written", long.class);
+      } catch (ReflectiveOperationException ex) {
+        throw new Error("Can't find field", ex);
+      }
+    }
+
+    private final String threadName;
+    private final int generation;
+    private final long[] words;
+    private final Object[] refs;
+    private final int mask;
+    private long written;
+    private int depth;
+
+    Buffer(final Thread thread, final int capacity, final int generation) {
+      this.threadName = thread.getName() + '#' + thread.getId();
+      this.generation = generation;
+      this.words = new long[capacity << 1];
+      this.refs = new Object[capacity * REFS];
+      this.mask = capacity - 1;
+    }
+
+    private void put(final Kind kind, final int depth, final int pc, final Object a, final Object b, final Object c) {
+      final long position = this.written;
+      final int index = (int) (position & this.mask);
+      this.words[index << 1] = System.nanoTime();
+      this.words[(index << 1) + 1] = ((long) kind.ordinal() << 56) | ((long) (depth & 0xFFFFFF) << 32) | (pc & 0xFFFFFFFFL);
+      final int refIndex = index * REFS;
+      this.refs[refIndex] = a;
+      this.refs[refIndex + 1] = b;
+      this.refs[refIndex + 2] = c;
+      WRITTEN.setRelease(this, position + 1);
+    }
+
+    void enter(final JJJVMMethod method) {
+      put(Kind.ENTER, this.depth++, -1, method, null, null);
+    }
+
+    void exit(final JJJVMMethod method, final boolean normal) {
+      this.depth = Math.max(0, this.depth - 1);
+      put(normal ? Kind.EXIT : Kind.EXIT_BY_EXCEPTION, this.depth, -1, method, null, null);
+    }
+
+    void hostCall(final String klazzName, final String methodName, final String signature) {
+      put(Kind.HOST_CALL, this.depth, -1, klazzName, methodName, signature);
+    }
+
+    void exception(final JJJVMMethod method, final int pc, final Throwable thr, final boolean caught) {
+      put(caught ? Kind.EXCEPTION_CAUGHT : Kind.EXCEPTION_THROWN, Math.max(0, this.depth - 1), pc, method, thr, null);
+    }
+
+    List<Entry> decode() {
+      final long end = (long) WRITTEN.getAcquire(this);
+      final long start = Math.max(0L, end - this.mask - 1);
+      final Entry[] entries = new Entry[(int) (end - start)];
+      for (long i = start; i < end; i++) {
+        entries[(int) (i - start)] = decode((int) (i & this.mask));
+      }
+      // records overwritten by the thread while they were read can be inconsistent
+      final long firstValid = Math.max(start, (long) WRITTEN.getAcquire(this) - this.mask - 1);
+      final List<Entry> result = new ArrayList<>((int) Math.max(0L, end - firstValid));
+      for (long i = firstValid; i < end; i++) {
+        final Entry entry = entries[(int) (i - start)];
+        if (entry != null) {
+          result.add(entry);
+        }
+      }
+      return result;
+    }
+
+    // decode record, null if the record is inconsistent
+    private Entry decode(final int index) {
+      final long time = this.words[index << 1];
+      final long header = this.words[(index << 1) + 1];
+      final int kindIndex = (int) (header >>> 56);
+      if (kindIndex >= KINDS.length) {
+        return null;
+      }
+      final Kind kind = KINDS[kindIndex];
+      final int refIndex = index * REFS;
+      final Object a = this.refs[refIndex];
+      final Object b = this.refs[refIndex + 1];
+      final Object c = this.refs[refIndex + 2];
+      final String text;
+      switch (kind) {
+        case HOST_CALL:
+          if (!(a instanceof String)) {
+            return null;
+          }
+          text = a + "." + b + c;
+          break;
+        case EXCEPTION_CAUGHT:
+        case EXCEPTION_THROWN:
+          if (!(a instanceof JJJVMMethod) || !(b instanceof Throwable)) {
+            return null;
+          }
+          text = describe((JJJVMMethod) a) + ' ' + b;
+          break;
+        default:
+          if (!(a instanceof JJJVMMethod)) {
+            return null;
+          }
+          text = describe((JJJVMMethod) a);
+          break;
+      }
+      return new Entry(kind, time, (int) ((header >>> 32) & 0xFFFFFF), (int) header, text);
+    }
+
+    private static String describe(final JJJVMMethod method) {
+      return method.getDeclaringClass().getName() + '.' + method.getName() + method.getSignature();
+    }
+  }
+
+  private JJJVMTrace() {
+  }
+
+  /**
+   * Enable trace, already collected records are removed.
+   *
+   * @param capacity number of records kept for every thread, it is rounded up
+   *                 to power of two
+   */
+  public static void enable(final int capacity) {
+    if (capacity <= 0 || capacity > (1 << 24)) {
+      throw new IllegalArgumentException("Wrong trace capacity [" + capacity + ']');
+    }
+    int size = 1;
+    while (size < capacity) {
+      size <<= 1;
+    }
+    synchronized (BUFFERS) {
+      BUFFERS.clear();
+      JJJVMTrace.capacity = size;
+      generation++;
+      enabled = true;
+    }
+  }
+
+  /**
+   * Enable trace by value of startup property, wrong value is reported as
+   * warning and trace stays disabled.
+   *
+   * @param value the capacity of buffers, can be null
+   * @return true if trace has been enabled, false otherwise
+   */
+  static boolean enableAtStartup(final String value) {
+    if (value == null || value.isEmpty()) {
+      return false;
+    }
+    try {
+      enable(Integer.parseInt(value.trim()));
+      return true;
+    } catch (IllegalArgumentException ex) {
+      // wrong startup property must not break the interpreter
+      System.getLogger(JJJVMTrace.class.getName()).log(System.Logger.Level.WARNING, "Wrong trace capacity [" + value + "], trace is disabled", ex);
+      return false;
+    }
+  }
+
+  /**
+   * Disable trace, collected records are kept.
+   */
+  public static void disable() {
+    enabled = false;
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get buffer of the current thread.
+   *
+   * @return the buffer, must not be null
+   */
+  static Buffer buffer() {
+    Buffer result = BUFFER.get();
+    if (result == null || result.generation != generation) {
+      final Thread thread = Thread.currentThread();
+      synchronized (BUFFERS) {
+        result = new Buffer(thread, capacity, generation);
+        BUFFERS.put(thread, result);
+      }
+      BUFFER.set(result);
+    }
+    return result;
+  }
+
+  /**
+   * Decode trace of the current thread.
+   *
+   * @return records from the oldest one, must not be null
+   */
+  public static List<Entry> dump() {
+    final Buffer buffer = BUFFER.get();
+    return buffer == null || buffer.generation != generation ? Collections.<Entry>emptyList() : buffer.decode();
+  }
+
+  /**
+   * Decode traces of all threads. Traces of running threads are read without
+   * locking of the threads, records overwritten by a thread while they are
+   * read are skipped.
+   *
+   * @return map of thread names (name#id) to their records, must not be null
+   */
+  public static Map<String, List<Entry>> dumpAll() {
+    final List<Buffer> buffers;
+    synchronized (BUFFERS) {
+      buffers = new ArrayList<>(BUFFERS.values());
+    }
+    final Map<String, List<Entry>> result = new TreeMap<>();
+    for (final Buffer buffer : buffers) {
+      result.put(buffer.threadName, buffer.decode());
+    }
+    return result;
+  }
+
+  /**
+   * Write decoded traces of all threads.
+   *
+   * @param out the destination, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public static void write(final Appendable out) throws IOException {
+    for (final Map.Entry<String, List<Entry>> e : dumpAll().entrySet()) {
+      out.append("Thread ").append(e.getKey()).append('\n');
+      long previous = -1L;
+      for (final Entry entry : e.getValue()) {
+        out.append(String.format("%+12dns ", previous < 0L ? 0L : entry.nanoTime - previous)).append(entry.toString()).append('\n');
+        previous = entry.nanoTime;
+      }
+    }
+  }
+
+  /**
+   * Remove all collected records.
+   */
+  public static void clear() {
+    synchronized (BUFFERS) {
+      BUFFERS.clear();
+      generation++;
+    }
+  }
+}
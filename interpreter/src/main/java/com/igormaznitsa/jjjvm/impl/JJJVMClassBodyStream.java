@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
+/**
+ * Data stream over the whole class file image, it knows its position in the
+ * image so that parsers can remember offsets of parts to be decoded later.
+ */
+final class JJJVMClassBodyStream extends DataInputStream {
+
+  private final byte[] body;
+
+  JJJVMClassBodyStream(final byte[] body, final int offset) {
+    super(new PositionedStream(body, offset));
+    this.body = body;
+  }
+
+  /**
+   * Get the whole class file image.
+   *
+   * @return the class file image, must not be null
+   */
+  byte[] getBody() {
+    return this.body;
+  }
+
+  /**
+   * Get the current offset in the class file image.
+   *
+   * @return offset of the next byte to be read
+   */
+  int getPosition() {
+    return ((PositionedStream) this.in).getPosition();
+  }
+
+  private static final class PositionedStream extends ByteArrayInputStream {
+
+    PositionedStream(final byte[] buffer, final int offset) {
+      super(buffer, offset, buffer.length - offset);
+    }
+
+    int getPosition() {
+      return this.pos;
+    }
+  }
+}
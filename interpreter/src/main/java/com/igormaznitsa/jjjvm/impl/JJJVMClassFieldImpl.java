@@ -17,11 +17,10 @@
 package com.igormaznitsa.jjjvm.impl;
 
 import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
 import com.igormaznitsa.jjjvm.model.JJJVMField;
 import com.igormaznitsa.jjjvm.model.JJJVMObject;
 
-import java.io.DataInputStream;
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -85,43 +84,22 @@ public final class JJJVMClassFieldImpl implements JJJVMField {
     }
   }
 
-  JJJVMClassFieldImpl(final JJJVMClassImpl declaringClass, final DataInputStream inStream) throws IOException {
+  JJJVMClassFieldImpl(final JJJVMClassImpl declaringClass, final JJJVMClassImage image, final int fieldIndex) {
     this.declaringClass = declaringClass;
-    int theConstantValueIndex = -1;
     this.staticValue = null;
 
-    // flags
-    this.flags = inStream.readUnsignedShort();
+    this.flags = image.getField(fieldIndex, JJJVMClassImage.FIELD_FLAGS);
 
-    // name
-    final int nameIndex = inStream.readUnsignedShort();
-    this.name = (String) declaringClass.getConstantPool().getItemAt(nameIndex).asString();
+    final int nameIndex = image.getField(fieldIndex, JJJVMClassImage.FIELD_NAME);
+    this.name = declaringClass.getConstantPool().getString(nameIndex);
 
-    // type
-    final int typeIndex = inStream.readUnsignedShort();
-    this.signature = (String) declaringClass.getConstantPool().getItemAt(typeIndex).asString();
+    final int typeIndex = image.getField(fieldIndex, JJJVMClassImage.FIELD_DESCRIPTOR);
+    this.signature = declaringClass.getConstantPool().getString(typeIndex);
     this.fieldUID = (nameIndex << 16) | typeIndex;
 
-    // attributes
-    int attributesCounter = inStream.readUnsignedShort();
-
-    while (--attributesCounter >= 0) {
-      final String attrName = (String) declaringClass.getConstantPool().getItemAt(inStream.readUnsignedShort()).asString();
-      if (ATRNAME_CONSTANTVALUE.equals(attrName)) {
-        final int attributeSize = inStream.readInt();
-        if (attributeSize != 2) {
-          throw new IOException("Wrong size for constant value attribute [" + attributeSize + ']');
-        }
-        theConstantValueIndex = inStream.readUnsignedShort();
-      } else {
-        // ignore all other attributes
-        JJJVMImplUtils.skip(inStream, inStream.readInt());
-      }
-    }
-
-    this.constantIndexInPool = theConstantValueIndex;
+    this.constantIndexInPool = image.getField(fieldIndex, JJJVMClassImage.FIELD_CONSTANT_VALUE);
     if ((this.flags & ACC_STATIC) != 0) {
-      if (theConstantValueIndex >= 0) {
+      if (this.constantIndexInPool >= 0) {
         this.staticValue = this.getConstantValue();
       } else {
         this.staticValue = DEFAULT_VALUES.get(this.signature);
@@ -153,7 +131,11 @@ public final class JJJVMClassFieldImpl implements JJJVMField {
     if (this.constantIndexInPool <= 0) {
       return null;
     }
-    return this.declaringClass.getConstantPool().getItemAt(this.constantIndexInPool).asObject();
+    final JJJVMConstantPoolImpl cpool = this.declaringClass.getConstantPool();
+    if (cpool.getItemType(this.constantIndexInPool) == JJJVMConstantPoolItem.CONSTANT_STRING) {
+      return cpool.getString(this.constantIndexInPool);
+    }
+    return cpool.getItemValue(this.constantIndexInPool);
   }
 
   public JJJVMClass getDeclaringClass() {
@@ -0,0 +1,501 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl;
+
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Parsed metadata of a class file: the constant pool table, the class header,
+ * field and method tables and class attributes. All parts are kept as flat
+ * arrays of numbers which are either indexes in the constant pool or offsets
+ * in the class file image, so that the image doesn't depend on any provider
+ * and can be written and read back without parsing of the class file. The
+ * image is immutable except caches of decoded constants and method code, so
+ * it can be shared by classes of several providers.
+ * {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.1}
+ */
+final class JJJVMClassImage implements JJJVMConstants {
+
+  static final int FIELD_FLAGS = 0;
+  static final int FIELD_NAME = 1;
+  static final int FIELD_DESCRIPTOR = 2;
+  static final int FIELD_CONSTANT_VALUE = 3;
+  static final int FIELD_RECORD_SIZE = 4;
+
+  static final int METHOD_FLAGS = 0;
+  static final int METHOD_NAME = 1;
+  static final int METHOD_DESCRIPTOR = 2;
+  static final int METHOD_MAX_STACK = 3;
+  static final int METHOD_MAX_LOCALS = 4;
+  static final int METHOD_CODE_OFFSET = 5;
+  static final int METHOD_RECORD_SIZE = 6;
+
+  static final int INNER_CLASS_RECORD_SIZE = 4;
+
+  private static final int[] NO_INDEXES = new int[0];
+
+  final byte[] classBody;
+  final int classFormatVersion;
+
+  /**
+   * Types of constant pool items, 0 for unused slots.
+   */
+  final byte[] cpTypes;
+
+  /**
+   * Values of constant pool items. Strings are presented by offset of their
+   * length field in the class body, references are packed as two unsigned
+   * shorts, long and double values are placed as high and low parts into two
+   * slots.
+   */
+  final int[] cpValues;
+
+  final int flags;
+  final int classNameIndex;
+  final int superClassNameIndex;
+  final int[] interfaceIndexes;
+
+  /**
+   * Field records, {@link #FIELD_RECORD_SIZE} numbers per field. Constant value
+   * index is -1 if the field doesn't have the attribute.
+   */
+  final int[] fields;
+
+  /**
+   * Method records, {@link #METHOD_RECORD_SIZE} numbers per method. Code offset
+   * points to the code length field of the Code attribute, it is -1 if the
+   * method doesn't have code.
+   */
+  final int[] methods;
+
+  /**
+   * Constant pool indexes of declared exceptions for every method.
+   */
+  final int[][] methodExceptions;
+
+  /**
+   * Inner class records, {@link #INNER_CLASS_RECORD_SIZE} numbers per record
+   * or null if there is no InnerClasses attribute.
+   */
+  final int[] innerClasses;
+
+  /**
+   * Constant pool index of the source file name, 0 if not defined.
+   */
+  final int sourceFileIndex;
+
+  /**
+   * Records of BootstrapMethods attribute, every record contains constant pool
+   * index of the method handle and indexes of static arguments, null if there
+   * is no the attribute.
+   */
+  final int[][] bootstrapMethods;
+
+  /**
+   * Decoded strings and boxed values of constant pool, filled on request.
+   */
+  final Object[] cpDecoded;
+
+  /**
+   * Decoded code of methods, filled on request.
+   */
+  final JJJVMClassMethodImpl.MethodBody[] methodBodies;
+
+  private JJJVMClassImage(
+      final byte[] classBody,
+      final int classFormatVersion,
+      final byte[] cpTypes,
+      final int[] cpValues,
+      final int flags,
+      final int classNameIndex,
+      final int superClassNameIndex,
+      final int[] interfaceIndexes,
+      final int[] fields,
+      final int[] methods,
+      final int[][] methodExceptions,
+      final int[] innerClasses,
+      final int sourceFileIndex,
+      final int[][] bootstrapMethods) {
+    this.classBody = classBody;
+    this.classFormatVersion = classFormatVersion;
+    this.cpTypes = cpTypes;
+    this.cpValues = cpValues;
+    this.flags = flags;
+    this.classNameIndex = classNameIndex;
+    this.superClassNameIndex = superClassNameIndex;
+    this.interfaceIndexes = interfaceIndexes;
+    this.fields = fields;
+    this.methods = methods;
+    this.methodExceptions = methodExceptions;
+    this.innerClasses = innerClasses;
+    this.sourceFileIndex = sourceFileIndex;
+    this.bootstrapMethods = bootstrapMethods;
+    this.cpDecoded = new Object[cpTypes.length];
+    this.methodBodies = new JJJVMClassMethodImpl.MethodBody[methods.length / METHOD_RECORD_SIZE];
+  }
+
+  /**
+   * Decode name of a class referenced from the constant pool without making
+   * the constant pool object.
+   *
+   * @param classRefIndex constant pool index of class reference, 0 for
+   *                      undefined class
+   * @return the JVM formatted class name or null for zero index
+   */
+  String decodeClassName(final int classRefIndex) {
+    if (classRefIndex == 0) {
+      return null;
+    }
+    final int offset = this.cpValues[this.cpValues[classRefIndex]];
+    final int length = ((this.classBody[offset] & 0xFF) << 8) | (this.classBody[offset + 1] & 0xFF);
+    return JJJVMImplUtils.decodeModifiedUtf8(this.classBody, offset + 2, length);
+  }
+
+  /**
+   * Parse class file image.
+   *
+   * @param classBody the class file image, must not be null
+   * @return parsed metadata of the class, must not be null
+   * @throws IOException it will be thrown for wrong format
+   */
+  static JJJVMClassImage parse(final byte[] classBody) throws IOException {
+    if (!JJJVMEvents.isEnabled()) {
+      return parseBody(classBody);
+    }
+    final Object event = JJJVMEvents.beginClassParse();
+    final JJJVMClassImage result = parseBody(classBody);
+    JJJVMEvents.endClassParse(event, result.decodeClassName(result.classNameIndex), classBody.length);
+    return result;
+  }
+
+  private static JJJVMClassImage parseBody(final byte[] classBody) throws IOException {
+    final JJJVMClassBodyStream inStream = new JJJVMClassBodyStream(classBody, 0);
+
+    if (inStream.readInt() != 0xCAFEBABE) {
+      throw new IOException("Not Java class");
+    }
+
+    final int classFormatVersion = inStream.readInt();
+
+    final int itemsNumber = inStream.readUnsignedShort();
+    final byte[] cpTypes = new byte[itemsNumber];
+    final int[] cpValues = new int[itemsNumber];
+    readConstantPool(inStream, cpTypes, cpValues);
+
+    final int flags = inStream.readUnsignedShort();
+    final int classNameIndex = inStream.readUnsignedShort();
+    final int superClassNameIndex = inStream.readUnsignedShort();
+
+    final int numberOfInterfaces = inStream.readUnsignedShort();
+    final int[] interfaceIndexes = numberOfInterfaces == 0 ? NO_INDEXES : new int[numberOfInterfaces];
+    for (int i = 0; i < numberOfInterfaces; i++) {
+      interfaceIndexes[i] = inStream.readUnsignedShort();
+    }
+
+    final int[] fields = new int[inStream.readUnsignedShort() * FIELD_RECORD_SIZE];
+    for (int i = 0; i < fields.length; i += FIELD_RECORD_SIZE) {
+      readField(inStream, classBody, cpTypes, cpValues, fields, i);
+    }
+
+    final int numberOfMethods = inStream.readUnsignedShort();
+    final int[] methods = new int[numberOfMethods * METHOD_RECORD_SIZE];
+    final int[][] methodExceptions = new int[numberOfMethods][];
+    for (int i = 0; i < numberOfMethods; i++) {
+      methodExceptions[i] = readMethod(inStream, classBody, cpTypes, cpValues, methods, i * METHOD_RECORD_SIZE);
+    }
+
+    int[] innerClasses = null;
+    int[][] bootstrapMethods = null;
+    int sourceFileIndex = 0;
+    int classAttributeNumber = inStream.readUnsignedShort();
+    while (--classAttributeNumber >= 0) {
+      final int nameIndex = inStream.readUnsignedShort();
+      final int dataSize = inStream.readInt();
+      if (utf8Equals(classBody, cpTypes, cpValues, nameIndex, ATTRNAME_INNERCLASSES)) {
+        innerClasses = new int[inStream.readUnsignedShort() * INNER_CLASS_RECORD_SIZE];
+        for (int i = 0; i < innerClasses.length; i++) {
+          innerClasses[i] = inStream.readUnsignedShort();
+        }
+      } else if (utf8Equals(classBody, cpTypes, cpValues, nameIndex, ATTRNAME_SOURCEFILE)) {
+        sourceFileIndex = inStream.readUnsignedShort();
+      } else if (utf8Equals(classBody, cpTypes, cpValues, nameIndex, ATTRNAME_BOOTSTRAPMETHODS)) {
+        bootstrapMethods = new int[inStream.readUnsignedShort()][];
+        for (int i = 0; i < bootstrapMethods.length; i++) {
+          final int methodHandleIndex = inStream.readUnsignedShort();
+          final int[] record = new int[inStream.readUnsignedShort() + 1];
+          record[0] = methodHandleIndex;
+          for (int a = 1; a < record.length; a++) {
+            record[a] = inStream.readUnsignedShort();
+          }
+          bootstrapMethods[i] = record;
+        }
+      } else {
+        JJJVMImplUtils.skip(inStream, dataSize);
+      }
+    }
+
+    return new JJJVMClassImage(classBody, classFormatVersion, cpTypes, cpValues, flags, classNameIndex,
+        superClassNameIndex, interfaceIndexes, fields, methods, methodExceptions, innerClasses, sourceFileIndex, bootstrapMethods);
+  }
+
+  private static void readConstantPool(final JJJVMClassBodyStream inStream, final byte[] types, final int[] values) throws IOException {
+    int index = 1;
+    while (index < types.length) {
+      final int recordType = inStream.readUnsignedByte();
+      types[index] = (byte) recordType;
+      switch (recordType) {
+        case JJJVMConstantPoolItem.CONSTANT_UTF8: {
+          values[index] = inStream.getPosition();
+          JJJVMImplUtils.skip(inStream, inStream.readUnsignedShort());
+        }
+        break;
+        case JJJVMConstantPoolItem.CONSTANT_UNICODE: {
+          values[index] = inStream.getPosition();
+          JJJVMImplUtils.skip(inStream, inStream.readUnsignedShort() << 1);
+        }
+        break;
+        case JJJVMConstantPoolItem.CONSTANT_INTEGER:
+        case JJJVMConstantPoolItem.CONSTANT_FLOAT: {
+          values[index] = inStream.readInt();
+        }
+        break;
+        case JJJVMConstantPoolItem.CONSTANT_LONG:
+        case JJJVMConstantPoolItem.CONSTANT_DOUBLE: {
+          values[index++] = inStream.readInt();
+          values[index] = inStream.readInt();
+        }
+        break;
+        case JJJVMConstantPoolItem.CONSTANT_CLASSREF:
+        case JJJVMConstantPoolItem.CONSTANT_STRING:
+        case JJJVMConstantPoolItem.CONSTANT_METHODTYPE: {
+          values[index] = inStream.readUnsignedShort();
+        }
+        break;
+        case JJJVMConstantPoolItem.CONSTANT_FIELDREF:
+        case JJJVMConstantPoolItem.CONSTANT_METHODREF:
+        case JJJVMConstantPoolItem.CONSTANT_INTERFACEMETHOD:
+        case JJJVMConstantPoolItem.CONSTANT_NAMETYPEREF:
+        case JJJVMConstantPoolItem.CONSTANT_INVOKEDYNAMIC: {
+          values[index] = inStream.readInt();
+        }
+        break;
+        case JJJVMConstantPoolItem.CONSTANT_METHODHANDLE: {
+          final int kind = inStream.readUnsignedByte();
+          values[index] = (kind << 16) | inStream.readUnsignedShort();
+        }
+        break;
+        default: {
+          throw new IOException("Unsupported constant pool item [" + recordType + ']');
+        }
+      }
+      index++;
+    }
+  }
+
+  private static void readField(final JJJVMClassBodyStream inStream, final byte[] body, final byte[] types, final int[] values, final int[] fields, final int offset) throws IOException {
+    fields[offset + FIELD_FLAGS] = inStream.readUnsignedShort();
+    fields[offset + FIELD_NAME] = inStream.readUnsignedShort();
+    fields[offset + FIELD_DESCRIPTOR] = inStream.readUnsignedShort();
+
+    int constantValueIndex = -1;
+    int attributesCounter = inStream.readUnsignedShort();
+    while (--attributesCounter >= 0) {
+      final int nameIndex = inStream.readUnsignedShort();
+      final int attributeSize = inStream.readInt();
+      if (utf8Equals(body, types, values, nameIndex, ATRNAME_CONSTANTVALUE)) {
+        if (attributeSize != 2) {
+          throw new IOException("Wrong size for constant value attribute [" + attributeSize + ']');
+        }
+        constantValueIndex = inStream.readUnsignedShort();
+      } else {
+        // ignore all other attributes
+        JJJVMImplUtils.skip(inStream, attributeSize);
+      }
+    }
+    fields[offset + FIELD_CONSTANT_VALUE] = constantValueIndex;
+  }
+
+  private static int[] readMethod(final JJJVMClassBodyStream inStream, final byte[] body, final byte[] types, final int[] values, final int[] methods, final int offset) throws IOException {
+    methods[offset + METHOD_FLAGS] = inStream.readUnsignedShort();
+    methods[offset + METHOD_NAME] = inStream.readUnsignedShort();
+    methods[offset + METHOD_DESCRIPTOR] = inStream.readUnsignedShort();
+    methods[offset + METHOD_MAX_STACK] = -1;
+    methods[offset + METHOD_MAX_LOCALS] = -1;
+    methods[offset + METHOD_CODE_OFFSET] = -1;
+
+    int[] exceptions = NO_INDEXES;
+    int numberOfAttrs = inStream.readUnsignedShort();
+    while (--numberOfAttrs >= 0) {
+      final int nameIndex = inStream.readUnsignedShort();
+      final int attributeDataLen = inStream.readInt();
+      if (utf8Equals(body, types, values, nameIndex, ATTRNAME_EXCEPTIONS)) {
+        // exceptions which can be thrown by the method
+        final int numberOfExceptions = inStream.readUnsignedShort();
+        exceptions = numberOfExceptions == 0 ? NO_INDEXES : new int[numberOfExceptions];
+        for (int i = 0; i < numberOfExceptions; i++) {
+          exceptions[i] = inStream.readUnsignedShort();
+        }
+      } else if (utf8Equals(body, types, values, nameIndex, ATTRNAME_CODE)) {
+        // only remember where the code is, it will be decoded during the first call
+        methods[offset + METHOD_MAX_STACK] = inStream.readUnsignedShort();
+        methods[offset + METHOD_MAX_LOCALS] = inStream.readUnsignedShort();
+        methods[offset + METHOD_CODE_OFFSET] = inStream.getPosition();
+        JJJVMImplUtils.skip(inStream, attributeDataLen - 4);
+      } else {
+        // skip other attribute data
+        JJJVMImplUtils.skip(inStream, attributeDataLen);
+      }
+    }
+    return exceptions;
+  }
+
+  /**
+   * Compare UTF8 item of constant pool with ASCII string without decoding.
+   */
+  private static boolean utf8Equals(final byte[] body, final byte[] types, final int[] values, final int index, final String ascii) {
+    if (index <= 0 || index >= types.length || types[index] != JJJVMConstantPoolItem.CONSTANT_UTF8) {
+      return false;
+    }
+    final int offset = values[index];
+    final int length = ((body[offset] & 0xFF) << 8) | (body[offset + 1] & 0xFF);
+    if (length != ascii.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (body[offset + 2 + i] != ascii.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int getNumberOfFields() {
+    return this.fields.length / FIELD_RECORD_SIZE;
+  }
+
+  int getNumberOfMethods() {
+    return this.methods.length / METHOD_RECORD_SIZE;
+  }
+
+  int getField(final int fieldIndex, final int part) {
+    return this.fields[fieldIndex * FIELD_RECORD_SIZE + part];
+  }
+
+  int getMethod(final int methodIndex, final int part) {
+    return this.methods[methodIndex * METHOD_RECORD_SIZE + part];
+  }
+
+  /**
+   * Write the metadata, the class file image is not written.
+   *
+   * @param out the target stream, must not be null
+   * @throws IOException it will be thrown for transport errors
+   * @see #read(ByteBuffer, byte[])
+   */
+  void write(final DataOutputStream out) throws IOException {
+    out.writeInt(this.classFormatVersion);
+    out.writeInt(this.cpTypes.length);
+    out.write(this.cpTypes);
+    writeInts(out, this.cpValues);
+    out.writeShort(this.flags);
+    out.writeShort(this.classNameIndex);
+    out.writeShort(this.superClassNameIndex);
+    out.writeShort(this.sourceFileIndex);
+    writeIntArray(out, this.interfaceIndexes);
+    writeIntArray(out, this.fields);
+    writeIntArray(out, this.methods);
+    for (final int[] exceptions : this.methodExceptions) {
+      writeIntArray(out, exceptions);
+    }
+    if (this.innerClasses == null) {
+      out.writeInt(-1);
+    } else {
+      writeIntArray(out, this.innerClasses);
+    }
+    if (this.bootstrapMethods == null) {
+      out.writeInt(-1);
+    } else {
+      out.writeInt(this.bootstrapMethods.length);
+      for (final int[] record : this.bootstrapMethods) {
+        writeIntArray(out, record);
+      }
+    }
+  }
+
+  /**
+   * Read metadata written by {@link #write(DataOutputStream)}.
+   *
+   * @param buffer    buffer positioned at the start of metadata, must not be
+   *                  null
+   * @param classBody the class file image which the metadata has been made for,
+   *                  must not be null
+   * @return the read metadata, must not be null
+   */
+  static JJJVMClassImage read(final ByteBuffer buffer, final byte[] classBody) {
+    final int classFormatVersion = buffer.getInt();
+    final byte[] cpTypes = new byte[buffer.getInt()];
+    buffer.get(cpTypes);
+    final int[] cpValues = readInts(buffer, cpTypes.length);
+    final int flags = buffer.getShort() & 0xFFFF;
+    final int classNameIndex = buffer.getShort() & 0xFFFF;
+    final int superClassNameIndex = buffer.getShort() & 0xFFFF;
+    final int sourceFileIndex = buffer.getShort() & 0xFFFF;
+    final int[] interfaceIndexes = readIntArray(buffer);
+    final int[] fields = readIntArray(buffer);
+    final int[] methods = readIntArray(buffer);
+    final int[][] methodExceptions = new int[methods.length / METHOD_RECORD_SIZE][];
+    for (int i = 0; i < methodExceptions.length; i++) {
+      methodExceptions[i] = readIntArray(buffer);
+    }
+    final int[] innerClasses = readIntArray(buffer);
+    final int numberOfBootstrapMethods = buffer.getInt();
+    final int[][] bootstrapMethods = numberOfBootstrapMethods < 0 ? null : new int[numberOfBootstrapMethods][];
+    for (int i = 0; i < numberOfBootstrapMethods; i++) {
+      bootstrapMethods[i] = readIntArray(buffer);
+    }
+    return new JJJVMClassImage(classBody, classFormatVersion, cpTypes, cpValues, flags, classNameIndex,
+        superClassNameIndex, interfaceIndexes, fields, methods, methodExceptions, innerClasses, sourceFileIndex, bootstrapMethods);
+  }
+
+  private static void writeInts(final DataOutputStream out, final int[] array) throws IOException {
+    for (final int i : array) {
+      out.writeInt(i);
+    }
+  }
+
+  private static void writeIntArray(final DataOutputStream out, final int[] array) throws IOException {
+    out.writeInt(array.length);
+    writeInts(out, array);
+  }
+
+  private static int[] readInts(final ByteBuffer buffer, final int length) {
+    final int[] result = length == 0 ? NO_INDEXES : new int[length];
+    buffer.asIntBuffer().get(result);
+    buffer.position(buffer.position() + (length << 2));
+    return result;
+  }
+
+  private static int[] readIntArray(final ByteBuffer buffer) {
+    final int length = buffer.getInt();
+    return length < 0 ? null : readInts(buffer, length);
+  }
+}
@@ -17,6 +17,7 @@
 package com.igormaznitsa.jjjvm.impl;
 
 import com.igormaznitsa.jjjvm.JJJVMInterpreter;
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
 import com.igormaznitsa.jjjvm.model.JJJVMClass;
 import com.igormaznitsa.jjjvm.model.JJJVMField;
 import com.igormaznitsa.jjjvm.model.JJJVMInnerClassRecord;
@@ -61,9 +62,41 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
   private final JJJVMConstantPoolImpl constantPool;
   private final JJJVMInnerClassRecord[] innerClasses;
   private final String sourceFile;
+  private final byte[] classBody;
+  private final JJJVMClassImage image;
+  private volatile boolean initialized;
 
-  private static final Map<String, String> loadingClasses = new ConcurrentHashMap<String, String>();
-  private static final Set<String> classesInClinit = Collections.synchronizedSet(new HashSet<String>());
+  private static final Map<ProviderClassKey, String> loadingClasses = new ConcurrentHashMap<ProviderClassKey, String>();
+  private static final Set<ProviderClassKey> classesInClinit = Collections.synchronizedSet(new HashSet<ProviderClassKey>());
+
+  /**
+   * Key of class in scope of its provider, the same class can be loaded by
+   * several providers in the same time.
+   */
+  private static final class ProviderClassKey {
+
+    private final JJJVMProvider provider;
+    private final String className;
+
+    ProviderClassKey(final JJJVMProvider provider, final String className) {
+      this.provider = provider;
+      this.className = className;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(this.provider) * 31 + this.className.hashCode();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+      if (obj instanceof ProviderClassKey) {
+        final ProviderClassKey that = (ProviderClassKey) obj;
+        return this.provider == that.provider && this.className.equals(that.className);
+      }
+      return false;
+    }
+  }
 
   // constructor for test purposes
   public JJJVMClassImpl() {
@@ -78,6 +111,8 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
     this.declaredFields = null;
     this.innerClasses = EMPTY_INNERCLASS_ARRAY;
     this.sourceFile = null;
+    this.classBody = null;
+    this.image = null;
   }
 
   /**
@@ -90,70 +125,178 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
    * @throws Throwable it will be thrown for errors
    */
   public JJJVMClassImpl(final InputStream in, final JJJVMProvider provider) throws Throwable {
-    assertNotNull("Provider is not defined", provider);
-    assertNotNull("InputStream is null", in);
+    this(readClassBody(in), provider);
+  }
 
-    this.provider = provider;
+  /**
+   * It parses and create instance of class which represented by its class file
+   * image. The array is kept by the class because method code is decoded from
+   * it only during the first call, so it must not be changed after the call.
+   *
+   * @param classBody array contains the compiled java class, must not be null
+   * @param provider  a provider which implements misc service methods to
+   *                  process byte code and resolve classes, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  public JJJVMClassImpl(final byte[] classBody, final JJJVMProvider provider) throws Throwable {
+    this(classBody, provider, true);
+  }
 
-    final DataInputStream inStream = in instanceof DataInputStream ? (DataInputStream) in : new DataInputStream(in);
+  /**
+   * It parses and create instance of class which represented by its class file
+   * image.
+   *
+   * @param classBody                array contains the compiled java class, must
+   *                                 not be null
+   * @param provider                 a provider which implements misc service
+   *                                 methods to process byte code and resolve
+   *                                 classes, must not be null
+   * @param executeStaticInitializer false if the static initializer must not be
+   *                                 executed, static fields get only their default
+   *                                 and constant values in the case
+   * @throws Throwable it will be thrown for errors
+   */
+  public JJJVMClassImpl(final byte[] classBody, final JJJVMProvider provider, final boolean executeStaticInitializer) throws Throwable {
+    this(JJJVMClassImage.parse(assertClassBody(classBody)), provider, executeStaticInitializer);
+  }
 
-    if (inStream.readInt() != 0xCAFEBABE) {
-      throw new IOException("Not Java class");
-    }
+  /**
+   * Create instance of class for already parsed metadata.
+   *
+   * @param image                    parsed metadata of the class, must not be
+   *                                 null
+   * @param provider                 a provider which implements misc service
+   *                                 methods to process byte code and resolve
+   *                                 classes, must not be null
+   * @param executeStaticInitializer false if the static initializer must not be
+   *                                 executed
+   * @throws Throwable it will be thrown for errors
+   */
+  JJJVMClassImpl(final JJJVMClassImage image, final JJJVMProvider provider, final boolean executeStaticInitializer) throws Throwable {
+    assertNotNull("Provider is not defined", provider);
 
-    this.classFileFormatVersion = inStream.readInt();
-    this.constantPool = new JJJVMConstantPoolImpl(this, inStream);
-    this.flags = inStream.readUnsignedShort();
-    this.classNameIndex = inStream.readUnsignedShort();
+    this.provider = provider;
+    this.image = image;
+    this.classBody = image.classBody;
+    this.classFileFormatVersion = image.classFormatVersion;
+    this.constantPool = new JJJVMConstantPoolImpl(this, image);
+    this.flags = image.flags;
+    this.classNameIndex = image.classNameIndex;
+    this.superClassNameIndex = image.superClassNameIndex;
+
+    final int[] interfaceIndexes = image.interfaceIndexes;
+    this.implementedInterfaces = interfaceIndexes.length == 0 ? EMPTY_STRING_ARRAY : new String[interfaceIndexes.length];
+    for (int i = 0; i < interfaceIndexes.length; i++) {
+      this.implementedInterfaces[i] = this.constantPool.getString(interfaceIndexes[i]);
+    }
+    this.declaredFields = loadFields(image);
+    this.declaredMethods = loadMethods(image);
+    this.sourceFile = image.sourceFileIndex == 0 ? null : this.constantPool.getString(image.sourceFileIndex);
+
+    final int[] innerClassRecords = image.innerClasses;
+    if (innerClassRecords == null) {
+      this.innerClasses = EMPTY_INNERCLASS_ARRAY;
+    } else {
+      this.innerClasses = new JJJVMInnerClassRecord[innerClassRecords.length / JJJVMClassImage.INNER_CLASS_RECORD_SIZE];
+      for (int i = 0, offset = 0; i < this.innerClasses.length; i++, offset += JJJVMClassImage.INNER_CLASS_RECORD_SIZE) {
+        this.innerClasses[i] = new JJJVMInnerClassRecord(this, innerClassRecords[offset], innerClassRecords[offset + 1], innerClassRecords[offset + 2], innerClassRecords[offset + 3]);
+      }
+    }
 
-    loadingClasses.put(this.getClassName(), this.getClassName());
+    final ProviderClassKey classKey = new ProviderClassKey(provider, this.getClassName());
+    loadingClasses.put(classKey, this.getClassName());
 
     try {
-      this.superClassNameIndex = inStream.readUnsignedShort();
-      final int numberOfInterfaces = inStream.readUnsignedShort();
-      this.implementedInterfaces = numberOfInterfaces == 0 ? EMPTY_STRING_ARRAY : new String[numberOfInterfaces];
-      for (int i = 0; i < numberOfInterfaces; i++) {
-        final String interfaceClassName = this.constantPool.getItemAt(inStream.readUnsignedShort()).asString();
-        this.implementedInterfaces[i] = interfaceClassName;
+      for (final String interfaceClassName : this.implementedInterfaces) {
         this.provider.resolveClass(interfaceClassName);
       }
-      this.declaredFields = loadFields(inStream);
-      this.declaredMethods = loadMethods(inStream);
-
-      JJJVMInnerClassRecord[] detectedInnerClassess = null;
-      String sourceFileName = null;
-      int classAttributeNumber = inStream.readUnsignedShort();
-      while (--classAttributeNumber >= 0) {
-        final int nameIndex = inStream.readUnsignedShort();
-        final int dataSize = inStream.readInt();
-        final String attrName = this.constantPool.getItemAt(nameIndex).asString();
-        if (ATTRNAME_INNERCLASSES.equals(attrName)) {
-          detectedInnerClassess = readInnerClasses(inStream);
-        } else if (ATTRNAME_SOURCEFILE.equals(attrName)) {
-          sourceFileName = this.constantPool.getItemAt(inStream.readUnsignedShort()).asString();
-        } else {
-          JJJVMImplUtils.skip(inStream, dataSize);
+      final String nestedClassPrefix = this.getClassName() + '$';
+      for (final JJJVMInnerClassRecord record : this.innerClasses) {
+        final String innerClassName = record.getInnerClassInfo().asString();
+        // the attribute also lists nested classes of other classes used by the class, for instance MethodHandles$Lookup for lambdas
+        if (!innerClassName.startsWith(nestedClassPrefix) || isClassLoading(provider, innerClassName)) {
+          continue;
         }
+        this.provider.resolveInnerClass(this, record);
       }
-      this.sourceFile = sourceFileName;
-      this.innerClasses = detectedInnerClassess == null ? EMPTY_INNERCLASS_ARRAY : detectedInnerClassess;
-
-      final JJJVMMethod clinitMethod = findMethod("<clinit>", "()V");
-      if (clinitMethod != null && (clinitMethod.getFlags() & ACC_NATIVE) == 0 && !this.classesInClinit.contains(this.getClassName())) {
-        try {
-          this.classesInClinit.add(this.getClassName());
-          clinitMethod.invoke(null, null);
-        } catch (Throwable thr) {
-          throw new InvocationTargetException(thr, "Error during <clinit> [" + clinitMethod.getDeclaringClass().getName() + ']');
-        } finally {
-          this.classesInClinit.remove(this.getClassName());
-        }
+
+      if (executeStaticInitializer) {
+        initialize();
       }
 
       this.provider.registerExternalClass(this.getClassName(), this);
     } finally {
-      loadingClasses.remove(getClassName());
+      loadingClasses.remove(classKey);
+    }
+  }
+
+  /**
+   * Check that the static initializer of the class has been executed.
+   *
+   * @return true if the class is initialized, false otherwise
+   */
+  public boolean isInitialized() {
+    return this.initialized;
+  }
+
+  /**
+   * Execute the static initializer of the class if it has not been executed
+   * yet. Classes created without execution of their static initializer, for
+   * instance during bulk preloading, can be initialized later by the call.
+   *
+   * @throws Throwable it will be thrown for errors in the static initializer
+   */
+  public void initialize() throws Throwable {
+    if (this.initialized) {
+      return;
+    }
+    final ProviderClassKey classKey = new ProviderClassKey(this.provider, this.getClassName());
+    final JJJVMMethod clinitMethod = findMethod("<clinit>", "()V");
+    if (clinitMethod != null && (clinitMethod.getFlags() & ACC_NATIVE) == 0 && !classesInClinit.contains(classKey)) {
+      final Object event = JJJVMEvents.isEnabled() ? JJJVMEvents.beginClassInitialization() : null;
+      boolean failed = false;
+      try {
+        classesInClinit.add(classKey);
+        clinitMethod.invoke(null, null);
+      } catch (Throwable thr) {
+        failed = true;
+        throw new InvocationTargetException(thr, "Error during <clinit> [" + clinitMethod.getDeclaringClass().getName() + ']');
+      } finally {
+        classesInClinit.remove(classKey);
+        if (event != null) {
+          JJJVMEvents.endClassInitialization(event, this.getName(), failed);
+        }
+      }
     }
+    this.initialized = true;
+  }
+
+  private static byte[] assertClassBody(final byte[] classBody) {
+    assertNotNull("Class body is null", classBody);
+    return classBody;
+  }
+
+  private static byte[] readClassBody(final InputStream in) throws IOException {
+    assertNotNull("InputStream is null", in);
+    return in.readAllBytes();
+  }
+
+  /**
+   * Get the class file image which the class has been parsed from.
+   *
+   * @return the class file image, must not be changed
+   */
+  byte[] getClassBody() {
+    return this.classBody;
+  }
+
+  /**
+   * Get parsed metadata of the class.
+   *
+   * @return the parsed metadata, must not be null
+   */
+  JJJVMClassImage getImage() {
+    return this.image;
   }
 
   public JJJVMProvider getProvider() {
@@ -170,22 +313,6 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
     return this.sourceFile;
   }
 
-  private JJJVMInnerClassRecord[] readInnerClasses(final DataInputStream inStream) throws Throwable {
-    final int numberOfClassess = inStream.readUnsignedShort();
-
-    final JJJVMInnerClassRecord[] result = new JJJVMInnerClassRecord[numberOfClassess];
-    for (int i = 0; i < numberOfClassess; i++) {
-      final JJJVMInnerClassRecord record = new JJJVMInnerClassRecord(this, inStream);
-      result[i] = record;
-      if (isClassLoading(record.getInnerClassInfo().asString())) {
-        continue;
-      }
-      this.provider.resolveInnerClass(this, record);
-    }
-
-    return result;
-  }
-
   /**
    * Check, is the class still in loading mode.
    *
@@ -194,7 +321,19 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
    * otherwise
    */
   public static boolean isClassLoading(final String qualifiedClassName) {
-    return loadingClasses.containsKey(qualifiedClassName);
+    return loadingClasses.containsValue(qualifiedClassName);
+  }
+
+  /**
+   * Check, is the class still in loading mode for a provider.
+   *
+   * @param provider           the provider loading the class, must not be null
+   * @param qualifiedClassName class name to check, must not be null
+   * @return true if the class with the name is still in the loading list of the
+   * provider, false otherwise
+   */
+  public static boolean isClassLoading(final JJJVMProvider provider, final String qualifiedClassName) {
+    return loadingClasses.containsKey(new ProviderClassKey(provider, qualifiedClassName));
   }
 
   /**
@@ -224,7 +363,7 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
    *                   errors
    */
   public Object resolveSuperclass() throws Throwable {
-    return this.provider.resolveClass(this.constantPool.getItemAt(this.superClassNameIndex).asString());
+    return this.provider.resolveClass(this.constantPool.getString(this.superClassNameIndex));
   }
 
   /**
@@ -248,7 +387,7 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
    * @return class name in jvm format like "java/lang/Object$1"
    */
   public String getClassName() {
-    return this.constantPool.getItemAt(this.classNameIndex).asString();
+    return this.constantPool.getString(this.classNameIndex);
   }
 
   /**
@@ -293,21 +432,21 @@ public final class JJJVMClassImpl extends JJJVMInterpreter implements JJJVMClass
     return methodName + '.' + methodSignature;
   }
 
-  private Map<String, JJJVMMethod> loadMethods(final DataInputStream inStream) throws IOException {
-    final int numberOfMethods = inStream.readUnsignedShort();
+  private Map<String, JJJVMMethod> loadMethods(final JJJVMClassImage image) {
+    final int numberOfMethods = image.getNumberOfMethods();
     final Map<String, JJJVMMethod> result = new HashMap<String, JJJVMMethod>(numberOfMethods);
     for (int i = 0; i < numberOfMethods; i++) {
-      final JJJVMMethod newMethod = new JJJVMClassMethodImpl(this, inStream);
+      final JJJVMMethod newMethod = new JJJVMClassMethodImpl(this, image, i);
       result.put(makeMethodUID(newMethod.getName(), newMethod.getSignature()), newMethod);
     }
     return result;
   }
 
-  private Map<String, JJJVMField> loadFields(final DataInputStream inStream) throws Throwable {
-    final int numberOfFields = inStream.readUnsignedShort();
+  private Map<String, JJJVMField> loadFields(final JJJVMClassImage image) {
+    final int numberOfFields = image.getNumberOfFields();
     final Map<String, JJJVMField> result = new HashMap<String, JJJVMField>(numberOfFields);
     for (int i = 0; i < numberOfFields; i++) {
-      final JJJVMField newField = new JJJVMClassFieldImpl(this, inStream);
+      final JJJVMField newField = new JJJVMClassFieldImpl(this, image, i);
       result.put(newField.getName(), newField);
     }
     return result;
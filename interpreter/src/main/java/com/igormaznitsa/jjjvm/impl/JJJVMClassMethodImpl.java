@@ -25,95 +25,98 @@ import java.io.IOException;
 
 public final class JJJVMClassMethodImpl implements JJJVMMethod {
 
-  private final JJJVMClass declaringClass;
+  private final JJJVMClassImpl declaringClass;
   private final int flags;
   private final String name;
   private final String signature;
   private final String[] declaredExceptions;
-  private final JJJVMTryCatchRecord[] catchBlocks;
   private final int maxStackDepth;
   private final int maxLocals;
-  private final byte[] bytecode;
-  private final int[][] lineNumberTable;
   private final boolean clinit;
-  
-  JJJVMClassMethodImpl(final JJJVMClassImpl declaringClass, final DataInputStream inStream) throws IOException {
+
+  /**
+   * Offset of the code length field of the Code attribute in the class body,
+   * -1 if the method doesn't have code.
+   */
+  private final int codeOffset;
+
+  /**
+   * Parsed class metadata, decoded code of the method is kept there so that it
+   * is shared by all classes made for the same metadata.
+   */
+  private final JJJVMClassImage image;
+  private final int methodIndex;
+
+  JJJVMClassMethodImpl(final JJJVMClassImpl declaringClass, final JJJVMClassImage image, final int methodIndex) {
     final JJJVMConstantPoolImpl cpool = declaringClass.getConstantPool();
 
     this.declaringClass = declaringClass;
-    this.flags = inStream.readUnsignedShort();
-    final int nameIndex = inStream.readUnsignedShort();
-    final int descriptorIndex = inStream.readUnsignedShort();
-    this.name = cpool.getItemAt(nameIndex).asString();
-    this.signature = cpool.getItemAt(descriptorIndex).asString();
+    this.image = image;
+    this.methodIndex = methodIndex;
+    this.flags = image.getMethod(methodIndex, JJJVMClassImage.METHOD_FLAGS);
+    this.name = cpool.getString(image.getMethod(methodIndex, JJJVMClassImage.METHOD_NAME));
+    this.signature = cpool.getString(image.getMethod(methodIndex, JJJVMClassImage.METHOD_DESCRIPTOR));
 
     this.clinit = (this.flags & ACC_STATIC)==ACC_STATIC && this.name.equals("<clinit>") && this.signature.equals("()V");
-    
-    int numberOfAttrs = inStream.readUnsignedShort();
 
-    String[] declExceptions = null;
-    int lmaxStackDepth = -1;
-    int lmaxLocalVars = -1;
-    byte[] lbytecode = null;
-    int[][] lineNumbers = null;
-    JJJVMTryCatchRecord[] lcatchBlocks = null;
-
-    while (--numberOfAttrs >= 0) {
-      final String attrName = cpool.getItemAt(inStream.readUnsignedShort()).asString();
-      // read the size of the attribute data
-      final int attributeDataLen = inStream.readInt();
-      if (ATTRNAME_EXCEPTIONS.equals(attrName)) {
-        // read exceptions table for the method i.e. the tail contains exceptions which can be thrown by the method
-        final int numberOfExceptions = inStream.readUnsignedShort();
-        declExceptions = numberOfExceptions == 0 ? EMPTY_STRING_ARRAY : new String[numberOfExceptions];
-        for (int li = 0; li < numberOfExceptions; li++) {
-          declExceptions[li] = cpool.getItemAt(inStream.readUnsignedShort()).asString();
-        }
-      } else {
-        if (ATTRNAME_CODE.equals(attrName)) {
-          // read the method bytecode and its attributes
-          lmaxStackDepth = inStream.readUnsignedShort();
-          lmaxLocalVars = inStream.readUnsignedShort();
-          lbytecode = new byte[inStream.readInt()];
-          inStream.readFully(lbytecode);
-          // read the table of exception processors for the bytecode
-          final int catchBlockNumber = inStream.readUnsignedShort();
-          lcatchBlocks = catchBlockNumber == 0 ? EMPTY_CATCBLOCK_ARRAY : new JJJVMTryCatchRecord[catchBlockNumber];
-          for (int li = 0; li < lcatchBlocks.length; li++) {
-            lcatchBlocks[li] = new JJJVMTryCatchRecord(cpool, inStream);
-          }
-
-          int numberOfAttributes = inStream.readUnsignedShort();
-          while (--numberOfAttributes >= 0) {
-            final int attrNameIndex = inStream.readUnsignedShort();
-            final int attrDataSize = inStream.readInt();
-            final String codeAttrName = cpool.getItemAt(attrNameIndex).asString();
-            if (ATTRNAME_LINENUMBERTABLE.equals(codeAttrName)) {
-              lineNumbers = readLineNumberTable(inStream);
-            } else {
-              // skip all other attributes in the code attribute
-              JJJVMImplUtils.skip(inStream, attrDataSize);
-            }
-          }
-        } else {
-          // skip other attribute data
-          JJJVMImplUtils.skip(inStream, attributeDataLen);
-        }
+    final int[] exceptionIndexes = image.methodExceptions[methodIndex];
+    // it would be good for us to keep arrays as objects but null
+    this.declaredExceptions = exceptionIndexes.length == 0 ? EMPTY_STRING_ARRAY : new String[exceptionIndexes.length];
+    for (int i = 0; i < exceptionIndexes.length; i++) {
+      this.declaredExceptions[i] = cpool.getString(exceptionIndexes[i]);
+    }
+
+    this.maxStackDepth = image.getMethod(methodIndex, JJJVMClassImage.METHOD_MAX_STACK);
+    this.maxLocals = image.getMethod(methodIndex, JJJVMClassImage.METHOD_MAX_LOCALS);
+    this.codeOffset = image.getMethod(methodIndex, JJJVMClassImage.METHOD_CODE_OFFSET);
+  }
+
+  /**
+   * Get decoded method code, it will be decoded from the class body if it has
+   * not been made yet.
+   *
+   * @return decoded method body, must not be null
+   */
+  private MethodBody getBody() {
+    MethodBody result = this.image.methodBodies[this.methodIndex];
+    if (result == null) {
+      try {
+        result = this.codeOffset < 0 ? MethodBody.NO_CODE : readBody(new JJJVMClassBodyStream(this.declaringClass.getClassBody(), this.codeOffset));
+      } catch (IOException ex) {
+        throw new IllegalStateException("Can't decode code of method " + this, ex);
       }
+      // the body is immutable so that concurrent decoding is harmless
+      this.image.methodBodies[this.methodIndex] = result;
     }
-    // it would be good for us to keep arrays as objects but null
-    if (declExceptions == null) {
-      declExceptions = new String[0];
+    return result;
+  }
+
+  private MethodBody readBody(final JJJVMClassBodyStream inStream) throws IOException {
+    final JJJVMConstantPoolImpl cpool = this.declaringClass.getConstantPool();
+
+    final byte[] lbytecode = new byte[inStream.readInt()];
+    inStream.readFully(lbytecode);
+    // read the table of exception processors for the bytecode
+    final int catchBlockNumber = inStream.readUnsignedShort();
+    final JJJVMTryCatchRecord[] lcatchBlocks = catchBlockNumber == 0 ? EMPTY_CATCBLOCK_ARRAY : new JJJVMTryCatchRecord[catchBlockNumber];
+    for (int li = 0; li < lcatchBlocks.length; li++) {
+      lcatchBlocks[li] = new JJJVMTryCatchRecord(cpool, inStream);
     }
-    if (lcatchBlocks == null) {
-      lcatchBlocks = new JJJVMTryCatchRecord[0];
+
+    int[][] lineNumbers = null;
+    int numberOfAttributes = inStream.readUnsignedShort();
+    while (--numberOfAttributes >= 0) {
+      final int attrNameIndex = inStream.readUnsignedShort();
+      final int attrDataSize = inStream.readInt();
+      final String codeAttrName = cpool.getString(attrNameIndex);
+      if (ATTRNAME_LINENUMBERTABLE.equals(codeAttrName)) {
+        lineNumbers = readLineNumberTable(inStream);
+      } else {
+        // skip all other attributes in the code attribute
+        JJJVMImplUtils.skip(inStream, attrDataSize);
+      }
     }
-    this.lineNumberTable = lineNumbers;
-    this.declaredExceptions = declExceptions;
-    this.catchBlocks = lcatchBlocks;
-    this.maxStackDepth = lmaxStackDepth;
-    this.maxLocals = lmaxLocalVars;
-    this.bytecode = lbytecode;
+    return new MethodBody(lbytecode, lcatchBlocks, lineNumbers);
   }
 
   @Override
@@ -128,7 +131,7 @@ public final class JJJVMClassMethodImpl implements JJJVMMethod {
    * @return array of pairs code offset : line number
    * @throws Throwable
    */
-  private int[][] readLineNumberTable(final DataInputStream inStream) throws IOException {
+  private static int[][] readLineNumberTable(final DataInputStream inStream) throws IOException {
     final int numberOfRecordsInTable = inStream.readUnsignedShort();
     int[][] result = new int[numberOfRecordsInTable][2];
     for (int i = 0; i < numberOfRecordsInTable; i++) {
@@ -138,11 +141,22 @@ public final class JJJVMClassMethodImpl implements JJJVMMethod {
     return result;
   }
 
+  public Object getInterpreterData() {
+    return getBody().interpreterData;
+  }
+
+  public void setInterpreterData(final Object data) {
+    final MethodBody body = getBody();
+    if (body != MethodBody.NO_CODE) {
+      body.interpreterData = data;
+    }
+  }
+
   public int[][] getLineNumberTable() {
-      return lineNumberTable;
+    return getBody().lineNumberTable;
   }
 
-    public String[] getDeclaredExceptions() {
+  public String[] getDeclaredExceptions() {
     return this.declaredExceptions;
   }
 
@@ -158,7 +172,7 @@ public final class JJJVMClassMethodImpl implements JJJVMMethod {
   }
 
   public JJJVMTryCatchRecord[] getTryCatchRecords() {
-    return this.catchBlocks;
+    return getBody().catchBlocks;
   }
 
   public String getName() {
@@ -182,11 +196,34 @@ public final class JJJVMClassMethodImpl implements JJJVMMethod {
   }
 
   public byte[] getBytecode() {
-    return this.bytecode;
+    return getBody().bytecode;
   }
 
   @Override
   public String toString() {
     return this.getClass().getCanonicalName() + '[' + this.declaringClass.getName() + '#' + this.getName() + ' ' + this.getSignature() + ']';
   }
+
+  /**
+   * Decoded code attribute of a method.
+   */
+  static final class MethodBody {
+
+    static final MethodBody NO_CODE = new MethodBody(null, EMPTY_CATCBLOCK_ARRAY, null);
+
+    final byte[] bytecode;
+    final JJJVMTryCatchRecord[] catchBlocks;
+    final int[][] lineNumberTable;
+
+    /**
+     * Data prepared by the interpreter, it depends only on the byte-code.
+     */
+    volatile Object interpreterData;
+
+    MethodBody(final byte[] bytecode, final JJJVMTryCatchRecord[] catchBlocks, final int[][] lineNumberTable) {
+      this.bytecode = bytecode;
+      this.catchBlocks = catchBlocks;
+      this.lineNumberTable = lineNumberTable;
+    }
+  }
 }
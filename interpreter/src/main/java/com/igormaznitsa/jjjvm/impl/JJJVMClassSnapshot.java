@@ -0,0 +1,269 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl;
+
+import com.igormaznitsa.jjjvm.model.JJJVMProvider;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32C;
+
+/**
+ * Snapshot of parsed class metadata. It allows to write parsed constant pools,
+ * class headers, field and method tables of classes into a file and to make
+ * classes from the metadata during next start without parsing of class files.
+ * The snapshot file is mapped into memory and every record is bound to the
+ * class file image which it has been made for through its length and CRC32C,
+ * if the provided class file doesn't match the record then the record is not
+ * used and the class must be parsed.
+ * <p>
+ * Snapshot layout, all numbers are big-endian:
+ * <pre>
+ * header  : int magic 'JJJS', short version, short reserved, int classes
+ * index   : per class: UTF name, int record offset, int class body length,
+ *           int class body CRC32C
+ * records : parsed metadata of classes
+ * </pre>
+ *
+ * @see JJJVMClassImpl
+ */
+public final class JJJVMClassSnapshot {
+
+  static final int MAGIC = 0x4A4A4A53;
+  static final int VERSION = 2;
+
+  private final Path path;
+  private final ByteBuffer snapshot;
+  private final Map<String, Record> records;
+
+  private static final class Record {
+
+    final int offset;
+    final int bodyLength;
+    final int bodyCrc;
+
+    Record(final int offset, final int bodyLength, final int bodyCrc) {
+      this.offset = offset;
+      this.bodyLength = bodyLength;
+      this.bodyCrc = bodyCrc;
+    }
+  }
+
+  /**
+   * Open snapshot file.
+   *
+   * @param path path to the snapshot file, must not be null
+   * @throws IOException it will be thrown if the file can't be opened or has
+   *                     wrong format
+   */
+  public JJJVMClassSnapshot(final Path path) throws IOException {
+    this.path = path;
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot is too big for mapping [" + path + ']');
+      }
+      if (size < 12L) {
+        throw new IOException("Not class snapshot [" + path + ']');
+      }
+      this.snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+    }
+
+    if (this.snapshot.getInt(0) != MAGIC) {
+      throw new IOException("Not class snapshot [" + path + ']');
+    }
+    final int version = this.snapshot.getShort(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported class snapshot version " + version + " [" + path + ']');
+    }
+
+    final ByteBuffer index = this.snapshot.duplicate();
+    index.position(8);
+    final int classes = index.getInt();
+    final Map<String, Record> map = new HashMap<>(classes * 2);
+    try {
+      for (int i = 0; i < classes; i++) {
+        final byte[] name = new byte[index.getShort() & 0xFFFF];
+        index.get(name);
+        map.put(JJJVMImplUtils.decodeModifiedUtf8(name, 0, name.length), new Record(index.getInt(), index.getInt(), index.getInt()));
+      }
+    } catch (RuntimeException ex) {
+      throw new IOException("Broken class snapshot index [" + path + ']', ex);
+    }
+    this.records = map;
+  }
+
+  /**
+   * Write snapshot of parsed metadata of classes into file.
+   *
+   * @param classes classes to be written, must not be null
+   * @param path    the target file path, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public static void write(final Collection<JJJVMClassImpl> classes, final Path path) throws IOException {
+    try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+      write(classes, out);
+    }
+  }
+
+  /**
+   * Write snapshot of parsed metadata of classes into stream, the stream is not
+   * closed.
+   *
+   * @param classes classes to be written, must not be null
+   * @param out     the target stream, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public static void write(final Collection<JJJVMClassImpl> classes, final OutputStream out) throws IOException {
+    final ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+    final DataOutputStream index = new DataOutputStream(indexBuffer);
+    final ByteArrayOutputStream recordsBuffer = new ByteArrayOutputStream();
+    final DataOutputStream records = new DataOutputStream(recordsBuffer);
+
+    final int[] offsets = new int[classes.size()];
+    int counter = 0;
+    for (final JJJVMClassImpl klazz : classes) {
+      final JJJVMClassImage image = klazz.getImage();
+      if (image == null) {
+        throw new IllegalArgumentException("Class doesn't have parsed metadata [" + klazz + ']');
+      }
+      final CRC32C crc = new CRC32C();
+      crc.update(image.classBody);
+
+      index.writeUTF(klazz.getClassName());
+      offsets[counter++] = records.size();
+      index.writeInt(0);
+      index.writeInt(image.classBody.length);
+      index.writeInt((int) crc.getValue());
+      image.write(records);
+    }
+    index.flush();
+    records.flush();
+
+    final int recordsOffset = 12 + indexBuffer.size();
+    final ByteBuffer indexData = ByteBuffer.wrap(indexBuffer.toByteArray());
+    int position = 0;
+    for (int i = 0; i < counter; i++) {
+      position += 2 + (indexData.getShort(position) & 0xFFFF);
+      indexData.putInt(position, offsets[i] + recordsOffset);
+      position += 12;
+    }
+
+    final DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeShort(VERSION);
+    data.writeShort(0);
+    data.writeInt(counter);
+    data.write(indexData.array());
+    recordsBuffer.writeTo(data);
+    data.flush();
+  }
+
+  /**
+   * Check that snapshot contains record for a class.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @return true if there is record for the class, false otherwise
+   */
+  public boolean contains(final String jvmFormattedClassName) {
+    return this.records.containsKey(jvmFormattedClassName);
+  }
+
+  /**
+   * Get names of all classes in the snapshot.
+   *
+   * @return set of JVM formatted class names, must not be null
+   */
+  public Set<String> getClassNames() {
+    return Collections.unmodifiableSet(this.records.keySet());
+  }
+
+  /**
+   * Get number of classes in the snapshot.
+   *
+   * @return number of classes
+   */
+  public int size() {
+    return this.records.size();
+  }
+
+  /**
+   * Make class from snapshot record. The class is completely initialized like
+   * parsed one, its super interfaces and inner classes are resolved and static
+   * initializer is executed.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @param classBody             the class file image, must not be null
+   * @param provider              the provider for the class, must not be null
+   * @return the class or null if there is no record for the class or the class
+   * file image doesn't match the record
+   * @throws Throwable it will be thrown for errors
+   */
+  public JJJVMClassImpl restore(final String jvmFormattedClassName, final byte[] classBody, final JJJVMProvider provider) throws Throwable {
+    return restore(jvmFormattedClassName, classBody, provider, true);
+  }
+
+  /**
+   * Make class from snapshot record.
+   *
+   * @param jvmFormattedClassName    the JVM formatted class name, must not be
+   *                                 null
+   * @param classBody                the class file image, must not be null
+   * @param provider                 the provider for the class, must not be null
+   * @param executeStaticInitializer false if the static initializer must not be
+   *                                 executed
+   * @return the class or null if there is no record for the class or the class
+   * file image doesn't match the record
+   * @throws Throwable it will be thrown for errors
+   */
+  public JJJVMClassImpl restore(final String jvmFormattedClassName, final byte[] classBody, final JJJVMProvider provider, final boolean executeStaticInitializer) throws Throwable {
+    final JJJVMClassImage image = findImage(jvmFormattedClassName, classBody);
+    return image == null ? null : new JJJVMClassImpl(image, provider, executeStaticInitializer);
+  }
+
+  JJJVMClassImage findImage(final String jvmFormattedClassName, final byte[] classBody) {
+    final Record record = this.records.get(jvmFormattedClassName);
+    if (record == null || record.bodyLength != classBody.length) {
+      return null;
+    }
+    final CRC32C crc = new CRC32C();
+    crc.update(classBody);
+    if ((int) crc.getValue() != record.bodyCrc) {
+      return null;
+    }
+    final ByteBuffer buffer = this.snapshot.duplicate();
+    buffer.position(record.offset);
+    return JJJVMClassImage.read(buffer, classBody);
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '[' + this.path + ']';
+  }
+}
@@ -18,108 +18,204 @@ package com.igormaznitsa.jjjvm.impl;
 import com.igormaznitsa.jjjvm.model.JJJVMClass;
 import com.igormaznitsa.jjjvm.model.JJJVMConstantPool;
 import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
-import java.io.DataInputStream;
-import java.io.IOException;
+import com.igormaznitsa.jjjvm.model.JJJVMProvider;
 
+/**
+ * Compact constant pool. Types and values of items are kept in parallel arrays
+ * and strings are decoded from the class body only during the first request.
+ * {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.4}
+ */
 public class JJJVMConstantPoolImpl implements JJJVMConstantPool {
 
-  private final JJJVMConstantPoolItem[] records;
   private final JJJVMClass klazz;
+  private final byte[] classBody;
+
+  /**
+   * Types of items, 0 for unused slots.
+   */
+  private final byte[] types;
+
+  /**
+   * Values of items. Strings are presented by offset of their length field in
+   * the class body, references are packed as two unsigned shorts, long and
+   * double values are placed as high and low parts into two slots.
+   */
+  private final int[] values;
+
+  /**
+   * Decoded strings and boxed values, filled on request. The array is shared
+   * among all classes made for the same class image, its items are immutable
+   * so that racy filling is harmless.
+   */
+  private final Object[] decoded;
 
-  public JJJVMConstantPoolImpl(final JJJVMClass klazz, final DataInputStream inStream) throws IOException {
-    int index = 0;
+  private final int[][] bootstrapMethods;
 
+  /**
+   * Objects linked by the interpreter, they depend on the provider so that the
+   * array is not shared among classes.
+   */
+  private final Object[] linked;
+
+  JJJVMConstantPoolImpl(final JJJVMClass klazz, final JJJVMClassImage image) {
     this.klazz = klazz;
+    this.classBody = image.classBody;
+    this.types = image.cpTypes;
+    this.values = image.cpValues;
+    this.decoded = image.cpDecoded;
+    this.bootstrapMethods = image.bootstrapMethods;
+    this.linked = new Object[image.cpTypes.length];
+  }
 
-    int itemsNumber = inStream.readUnsignedShort();
-    this.records = new JJJVMConstantPoolItem[itemsNumber];
-    this.records[index++] = null;
-    itemsNumber--;
+  public JJJVMClass getDeclaringClass() {
+    return this.klazz;
+  }
 
-    final StringBuilder strBuffer = new StringBuilder(128);
+  public JJJVMConstantPoolItem getItemAt(final int index) {
+    return this.types[index] == 0 ? null : new JJJVMConstantPoolItem(this, index);
+  }
 
-    while (itemsNumber > 0) {
-      boolean doubleRecordItem = false;
-      final int recordType = inStream.readUnsignedByte();
-      final Object recordValue;
-      switch (recordType) {
-        case JJJVMConstantPoolItem.CONSTANT_UTF8: {
-          recordValue = inStream.readUTF();
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_UNICODE: {
-          final int len = inStream.readUnsignedShort();
-          for (int i = 0; i < len; i++) {
-            char ch_char = (char) inStream.readUnsignedShort();
-            strBuffer.append(ch_char);
-          }
-          recordValue = strBuffer.toString();
-          strBuffer.setLength(0);
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_INTEGER: {
-          recordValue = inStream.readInt();
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_FLOAT: {
-          recordValue = inStream.readFloat();
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_LONG: {
-          recordValue = inStream.readLong();
-          doubleRecordItem = true;
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_DOUBLE: {
-          recordValue = inStream.readDouble();
-          doubleRecordItem = true;
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_CLASSREF:
-        case JJJVMConstantPoolItem.CONSTANT_STRING: {
-          recordValue = inStream.readUnsignedShort();
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_FIELDREF:
-        case JJJVMConstantPoolItem.CONSTANT_METHODREF:
-        case JJJVMConstantPoolItem.CONSTANT_INTERFACEMETHOD:
-        case JJJVMConstantPoolItem.CONSTANT_NAMETYPEREF:
-        case JJJVMConstantPoolItem.CONSTANT_METHODHANDLE:
-        case JJJVMConstantPoolItem.CONSTANT_INVOKEDYNAMIC: {
-          final int high = inStream.readUnsignedShort();
-          final int low = inStream.readUnsignedShort();
-          recordValue = (high << 16) | low;
-        }
-        break;
-        case JJJVMConstantPoolItem.CONSTANT_METHODTYPE: {
-          final int descIndex = inStream.readUnsignedShort();
-          recordValue = descIndex;
-        }
-        break;
-        default: {
-          throw new IOException("Unsupported constant pool item [" + recordType + ']');
+  public int size() {
+    return this.types.length;
+  }
+
+  public int getItemType(final int index) {
+    return this.types[index];
+  }
+
+  public Object getItemValue(final int index) {
+    final int type = this.types[index];
+    switch (type) {
+      case JJJVMConstantPoolItem.CONSTANT_UTF8:
+      case JJJVMConstantPoolItem.CONSTANT_UNICODE:
+        return decodeString(index);
+      case JJJVMConstantPoolItem.CONSTANT_INTEGER:
+      case JJJVMConstantPoolItem.CONSTANT_FLOAT:
+      case JJJVMConstantPoolItem.CONSTANT_LONG:
+      case JJJVMConstantPoolItem.CONSTANT_DOUBLE: {
+        Object result = this.decoded[index];
+        if (result == null) {
+          result = makeNumber(type, index);
+          this.decoded[index] = result;
         }
+        return result;
       }
+      case 0:
+        throw new IllegalArgumentException("Unused constant pool slot [" + index + ']');
+      default:
+        return this.values[index];
+    }
+  }
+
+  private Object makeNumber(final int type, final int index) {
+    switch (type) {
+      case JJJVMConstantPoolItem.CONSTANT_INTEGER:
+        return this.values[index];
+      case JJJVMConstantPoolItem.CONSTANT_FLOAT:
+        return Float.intBitsToFloat(this.values[index]);
+      case JJJVMConstantPoolItem.CONSTANT_LONG:
+        return readLong(index);
+      case JJJVMConstantPoolItem.CONSTANT_DOUBLE:
+        return Double.longBitsToDouble(readLong(index));
+      default:
+        throw new Error("Unexpected type [" + type + ']');
+    }
+  }
+
+  private long readLong(final int index) {
+    return ((long) this.values[index] << 32) | (this.values[index + 1] & 0xFFFFFFFFL);
+  }
 
-      this.records[index++] = new JJJVMConstantPoolItem(this, recordType, recordValue);
-      if (doubleRecordItem) {
-        itemsNumber--;
-        index++;
+  private String decodeString(final int index) {
+    String result = (String) this.decoded[index];
+    if (result == null) {
+      final int offset = this.values[index];
+      final int length = ((this.classBody[offset] & 0xFF) << 8) | (this.classBody[offset + 1] & 0xFF);
+      if (this.types[index] == JJJVMConstantPoolItem.CONSTANT_UTF8) {
+        result = JJJVMImplUtils.decodeModifiedUtf8(this.classBody, offset + 2, length);
+      } else {
+        final char[] chars = new char[length];
+        for (int i = 0, pos = offset + 2; i < length; i++, pos += 2) {
+          chars[i] = (char) (((this.classBody[pos] & 0xFF) << 8) | (this.classBody[pos + 1] & 0xFF));
+        }
+        result = new String(chars);
+      }
+      final JJJVMProvider provider = this.klazz == null ? null : this.klazz.getProvider();
+      if (provider != null) {
+        result = provider.internString(result);
       }
-      itemsNumber--;
+      this.decoded[index] = result;
     }
+    return result;
   }
 
-  public JJJVMClass getDeclaringClass() {
-    return this.klazz;
+  public String getString(final int index) {
+    switch (this.types[index]) {
+      case JJJVMConstantPoolItem.CONSTANT_UTF8:
+      case JJJVMConstantPoolItem.CONSTANT_UNICODE:
+        return decodeString(index);
+      case JJJVMConstantPoolItem.CONSTANT_CLASSREF:
+      case JJJVMConstantPoolItem.CONSTANT_STRING:
+      case JJJVMConstantPoolItem.CONSTANT_METHODTYPE:
+        return decodeString(this.values[index]);
+      default:
+        throw new IllegalArgumentException("Type is not compatible with String [" + this.types[index] + ']');
+    }
   }
 
-  public JJJVMConstantPoolItem getItemAt(final int index) {
-    return this.records[index];
+  public String getClassName(final int index) {
+    switch (this.types[index]) {
+      case JJJVMConstantPoolItem.CONSTANT_CLASSREF:
+        return decodeString(this.values[index]);
+      case JJJVMConstantPoolItem.CONSTANT_METHODREF:
+      case JJJVMConstantPoolItem.CONSTANT_INTERFACEMETHOD:
+      case JJJVMConstantPoolItem.CONSTANT_FIELDREF:
+        return getClassName(this.values[index] >>> 16);
+      default:
+        throw new IllegalArgumentException("Illegal constant pool item");
+    }
   }
 
-  public int size() {
-    return this.records.length;
+  public String getName(final int index) {
+    switch (this.types[index]) {
+      case JJJVMConstantPoolItem.CONSTANT_NAMETYPEREF:
+        return decodeString(this.values[index] >>> 16);
+      case JJJVMConstantPoolItem.CONSTANT_METHODREF:
+      case JJJVMConstantPoolItem.CONSTANT_INTERFACEMETHOD:
+      case JJJVMConstantPoolItem.CONSTANT_FIELDREF:
+      case JJJVMConstantPoolItem.CONSTANT_INVOKEDYNAMIC:
+        return decodeString(this.values[this.values[index] & 0xFFFF] >>> 16);
+      default:
+        throw new IllegalArgumentException("Illegal constant pool item");
+    }
+  }
+
+  public String getSignature(final int index) {
+    switch (this.types[index]) {
+      case JJJVMConstantPoolItem.CONSTANT_NAMETYPEREF:
+        return decodeString(this.values[index] & 0xFFFF);
+      case JJJVMConstantPoolItem.CONSTANT_METHODREF:
+      case JJJVMConstantPoolItem.CONSTANT_INTERFACEMETHOD:
+      case JJJVMConstantPoolItem.CONSTANT_FIELDREF:
+      case JJJVMConstantPoolItem.CONSTANT_INVOKEDYNAMIC:
+        return decodeString(this.values[this.values[index] & 0xFFFF] & 0xFFFF);
+      default:
+        throw new IllegalArgumentException("Illegal constant pool item");
+    }
   }
 
+  public int[] getBootstrapMethod(final int bootstrapIndex) {
+    if (this.bootstrapMethods == null || bootstrapIndex < 0 || bootstrapIndex >= this.bootstrapMethods.length) {
+      return null;
+    }
+    return this.bootstrapMethods[bootstrapIndex].clone();
+  }
+
+  public Object getLinkedItem(final int index) {
+    return this.linked[index];
+  }
+
+  public void setLinkedItem(final int index, final Object value) {
+    this.linked[index] = value;
+  }
 }
@@ -3,6 +3,7 @@ package com.igormaznitsa.jjjvm.impl;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.lang.reflect.AccessibleObject;
+import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -28,6 +29,68 @@ public abstract class JJJVMImplUtils {
     }
   }
 
+  /**
+   * Decode string in modified UTF-8 format used by class files.
+   * {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.4.7}
+   *
+   * @param buffer array contains encoded string, must not be null
+   * @param offset offset of the first encoded byte
+   * @param length number of encoded bytes
+   * @return decoded string, must not be null
+   * @throws IllegalArgumentException if the data is malformed
+   */
+  public static String decodeModifiedUtf8(final byte[] buffer, final int offset, final int length) {
+    final int end = offset + length;
+    int index = offset;
+    while (index < end && buffer[index] >= 0) {
+      index++;
+    }
+    if (index == end) {
+      return new String(buffer, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    final char[] chars = new char[length];
+    int charIndex = 0;
+    for (int i = offset; i < index; i++) {
+      chars[charIndex++] = (char) buffer[i];
+    }
+
+    while (index < end) {
+      final int b = buffer[index++] & 0xFF;
+      switch (b >> 4) {
+        case 0:
+        case 1:
+        case 2:
+        case 3:
+        case 4:
+        case 5:
+        case 6:
+        case 7: {
+          chars[charIndex++] = (char) b;
+        }
+        break;
+        case 12:
+        case 13: {
+          if (index >= end) {
+            throw new IllegalArgumentException("Malformed modified UTF-8 data");
+          }
+          chars[charIndex++] = (char) (((b & 0x1F) << 6) | (buffer[index++] & 0x3F));
+        }
+        break;
+        case 14: {
+          if (index + 1 >= end) {
+            throw new IllegalArgumentException("Malformed modified UTF-8 data");
+          }
+          chars[charIndex++] = (char) (((b & 0x0F) << 12) | ((buffer[index++] & 0x3F) << 6) | (buffer[index++] & 0x3F));
+        }
+        break;
+        default:
+          throw new IllegalArgumentException("Malformed modified UTF-8 data");
+      }
+    }
+    return new String(chars, 0, charIndex);
+  }
+
   public static void skip(final DataInputStream stream, final int bytesToSkip) throws IOException {
     if (stream.skipBytes(bytesToSkip) != bytesToSkip) {
       throw new IOException("Can't skip " + bytesToSkip + " byte(s)");
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl;
+
+import com.igormaznitsa.jjjvm.model.JJJVMProvider;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parsed class file which is not linked to any provider yet. Parsing doesn't
+ * touch provider state so that many classes can be prepared in parallel and
+ * linked later in their dependency order.
+ *
+ * @see JJJVMClassImpl#initialize()
+ */
+public final class JJJVMPreparedClass {
+
+  private final JJJVMClassImage image;
+  private final String className;
+  private final String superClassName;
+  private final String[] interfaceNames;
+  private final List<String> nestedClassNames;
+
+  private JJJVMPreparedClass(final JJJVMClassImage image) {
+    this.image = image;
+    this.className = image.decodeClassName(image.classNameIndex);
+    this.superClassName = image.decodeClassName(image.superClassNameIndex);
+    this.interfaceNames = new String[image.interfaceIndexes.length];
+    for (int i = 0; i < this.interfaceNames.length; i++) {
+      this.interfaceNames[i] = image.decodeClassName(image.interfaceIndexes[i]);
+    }
+
+    final int[] innerClasses = image.innerClasses;
+    if (innerClasses == null) {
+      this.nestedClassNames = Collections.emptyList();
+    } else {
+      final String nestedClassPrefix = this.className + '$';
+      final List<String> nested = new ArrayList<>();
+      for (int i = 0; i < innerClasses.length; i += JJJVMClassImage.INNER_CLASS_RECORD_SIZE) {
+        final String innerClassName = image.decodeClassName(innerClasses[i]);
+        if (innerClassName != null && innerClassName.startsWith(nestedClassPrefix)) {
+          nested.add(innerClassName);
+        }
+      }
+      this.nestedClassNames = Collections.unmodifiableList(nested);
+    }
+  }
+
+  /**
+   * Parse class file or find its metadata in shared images or snapshot.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be
+   *                              null
+   * @param classBody             the class file image, must not be null
+   * @param snapshot              snapshot of class metadata, can be null
+   * @param shared                shared class metadata, can be null
+   * @return the prepared class, must not be null
+   * @throws IOException it will be thrown for wrong class format
+   */
+  public static JJJVMPreparedClass prepare(final String jvmFormattedClassName, final byte[] classBody, final JJJVMClassSnapshot snapshot, final JJJVMSharedClassImages shared) throws IOException {
+    JJJVMClassImage image;
+    if (shared != null) {
+      image = shared.findImage(jvmFormattedClassName, classBody, snapshot);
+    } else {
+      image = snapshot == null ? null : snapshot.findImage(jvmFormattedClassName, classBody);
+      if (image == null) {
+        image = JJJVMClassImage.parse(classBody);
+      }
+    }
+    final JJJVMPreparedClass result = new JJJVMPreparedClass(image);
+    if (!jvmFormattedClassName.equals(result.className)) {
+      throw new IOException("Unexpected class name [" + result.className + "!=" + jvmFormattedClassName + ']');
+    }
+    return result;
+  }
+
+  public String getClassName() {
+    return this.className;
+  }
+
+  /**
+   * Get name of the superclass.
+   *
+   * @return the JVM formatted name or null for java/lang/Object
+   */
+  public String getSuperClassName() {
+    return this.superClassName;
+  }
+
+  /**
+   * Get names of directly implemented interfaces.
+   *
+   * @return array of JVM formatted names, must not be null
+   */
+  public String[] getInterfaceNames() {
+    return this.interfaceNames.clone();
+  }
+
+  /**
+   * Get names of nested classes declared by the class, they are resolved
+   * during linking of the class.
+   *
+   * @return list of JVM formatted names, must not be null
+   */
+  public List<String> getNestedClassNames() {
+    return this.nestedClassNames;
+  }
+
+  /**
+   * Make class for a provider, the static initializer is not executed.
+   *
+   * @param provider the provider of the class, must not be null
+   * @return the class, must not be null
+   * @throws Throwable it will be thrown for errors during linking
+   */
+  public JJJVMClassImpl makeClass(final JJJVMProvider provider) throws Throwable {
+    return new JJJVMClassImpl(this.image, provider, false);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl;
+
+import com.igormaznitsa.jjjvm.model.JJJVMProvider;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of parsed class metadata shared among several providers. Every
+ * provider gets its own class object keeping static field values and
+ * initialization state, but the class file image, the constant pool tables
+ * and decoded method code are shared by all providers which loaded the same
+ * class file. Metadata is kept only while some class made for it is alive.
+ *
+ * @see JJJVMClassImpl
+ */
+public final class JJJVMSharedClassImages {
+
+  private final Map<String, ImageReference> images = new ConcurrentHashMap<>();
+  private final ReferenceQueue<JJJVMClassImage> queue = new ReferenceQueue<>();
+
+  private static final class ImageReference extends WeakReference<JJJVMClassImage> {
+
+    private final String className;
+
+    ImageReference(final String className, final JJJVMClassImage image, final ReferenceQueue<JJJVMClassImage> queue) {
+      super(image, queue);
+      this.className = className;
+    }
+  }
+
+  private void expungeStaleEntries() {
+    ImageReference ref;
+    while ((ref = (ImageReference) this.queue.poll()) != null) {
+      this.images.remove(ref.className, ref);
+    }
+  }
+
+  /**
+   * Make class for a provider. If there is shared metadata made for the same
+   * class file then it is used, otherwise the class file is parsed or its
+   * metadata is taken from snapshot and the result is shared.
+   *
+   * @param jvmFormattedClassName    the JVM formatted class name, must not be
+   *                                 null
+   * @param classBody                the class file image, must not be null
+   * @param provider                 the provider of the class, must not be null
+   * @param snapshot                 snapshot of class metadata to be used
+   *                                 instead of parsing, can be null
+   * @param executeStaticInitializer false if the static initializer must not be
+   *                                 executed
+   * @return the class for the provider, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  public JJJVMClassImpl makeClass(final String jvmFormattedClassName, final byte[] classBody, final JJJVMProvider provider, final JJJVMClassSnapshot snapshot, final boolean executeStaticInitializer) throws Throwable {
+    return new JJJVMClassImpl(findImage(jvmFormattedClassName, classBody, snapshot), provider, executeStaticInitializer);
+  }
+
+  JJJVMClassImage findImage(final String jvmFormattedClassName, final byte[] classBody, final JJJVMClassSnapshot snapshot) throws IOException {
+    expungeStaleEntries();
+
+    final ImageReference ref = this.images.get(jvmFormattedClassName);
+    final JJJVMClassImage found = ref == null ? null : ref.get();
+    if (found != null && (found.classBody == classBody || Arrays.equals(found.classBody, classBody))) {
+      return found;
+    }
+
+    JJJVMClassImage result = snapshot == null ? null : snapshot.findImage(jvmFormattedClassName, classBody);
+    if (result == null) {
+      result = JJJVMClassImage.parse(classBody);
+    }
+    this.images.put(jvmFormattedClassName, new ImageReference(jvmFormattedClassName, result, this.queue));
+    return result;
+  }
+
+  /**
+   * Check that two classes share the same metadata.
+   *
+   * @param klazz1 the first class, must not be null
+   * @param klazz2 the second class, must not be null
+   * @return true if the classes share metadata, false otherwise
+   */
+  public static boolean isSharedMetadata(final JJJVMClassImpl klazz1, final JJJVMClassImpl klazz2) {
+    return klazz1.getImage() == klazz2.getImage();
+  }
+
+  /**
+   * Get number of registered metadata records, some of them can be already
+   * collected.
+   *
+   * @return number of records
+   */
+  public int size() {
+    expungeStaleEntries();
+    return this.images.size();
+  }
+
+  /**
+   * Remove all records, already made classes keep their metadata.
+   */
+  public void clear() {
+    this.images.clear();
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Class data loader for class bundles made by {@link JSEClassBundleWriter}.
+ * The bundle file is mapped into memory and a class is found through the
+ * perfect hash index by two hash calculations and one name comparison, there
+ * is neither any index building during opening nor decompression. The loader
+ * is safe for concurrent use.
+ * <p>
+ * Bundle layout, all numbers are big-endian:
+ * <pre>
+ * header     : int magic 'JJJB', short version, short reserved, int entries,
+ *              int buckets, int seed, int displacements offset,
+ *              int slots offset, int number of slots, int reserved
+ * buckets    : int displacement per bucket
+ * slots      : int name offset, int name length, int body offset, int body length
+ *              per slot, name length is -1 for empty slot
+ * names      : UTF-8 encoded JVM formatted class names
+ * bodies     : class bodies, every body is aligned by 8 bytes
+ * </pre>
+ *
+ * @see JSEClassBundleWriter
+ */
+public class JSEClassBundleLoader implements JSEProviderImpl.ClassDataLoader, Closeable {
+
+  static final int MAGIC = 0x4A4A4A42;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 36;
+  static final int SLOT_SIZE = 16;
+  static final int BODY_ALIGNMENT = 8;
+
+  private final Path path;
+  private final ByteBuffer bundle;
+  private final int entries;
+  private final int buckets;
+  private final int seed;
+  private final int displacementsOffset;
+  private final int slotsOffset;
+  private final int slots;
+  private volatile boolean closed;
+
+  /**
+   * Open a class bundle.
+   *
+   * @param path path to the bundle file, must not be null
+   * @throws IOException it will be thrown if the file can't be opened or has
+   *                     wrong format
+   */
+  public JSEClassBundleLoader(final Path path) throws IOException {
+    this.path = path;
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Bundle is too big for mapping [" + path + ']');
+      }
+      if (size < HEADER_SIZE) {
+        throw new IOException("Not class bundle [" + path + ']');
+      }
+      this.bundle = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+    }
+
+    if (this.bundle.getInt(0) != MAGIC) {
+      throw new IOException("Not class bundle [" + path + ']');
+    }
+    final int version = this.bundle.getShort(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported class bundle version " + version + " [" + path + ']');
+    }
+    this.entries = this.bundle.getInt(8);
+    this.buckets = this.bundle.getInt(12);
+    this.seed = this.bundle.getInt(16);
+    this.displacementsOffset = this.bundle.getInt(20);
+    this.slotsOffset = this.bundle.getInt(24);
+    this.slots = this.bundle.getInt(28);
+
+    if (this.buckets <= 0 || this.slots < this.entries
+        || this.displacementsOffset + (long) this.buckets * 4 > this.bundle.capacity()
+        || this.slotsOffset + (long) this.slots * SLOT_SIZE > this.bundle.capacity()) {
+      throw new IOException("Broken class bundle header [" + path + ']');
+    }
+  }
+
+  /**
+   * Hash function for the bundle index, it is calculated over UTF-16 chars
+   * of a name so that lookup doesn't need to encode the name.
+   *
+   * @param name the name to be hashed, must not be null
+   * @param seed the seed of hash
+   * @return non-negative hash value
+   */
+  static int hash(final String name, final int seed) {
+    int h = 0x811C9DC5 ^ seed;
+    for (int i = 0; i < name.length(); i++) {
+      h ^= name.charAt(i);
+      h *= 0x01000193;
+    }
+    // final mixing from MurmurHash3
+    h ^= h >>> 16;
+    h *= 0x85EBCA6B;
+    h ^= h >>> 13;
+    h *= 0xC2B2AE35;
+    h ^= h >>> 16;
+    return h & 0x7FFFFFFF;
+  }
+
+  private void assertNotClosed() throws IOException {
+    if (this.closed) {
+      throw new IOException("Loader is closed");
+    }
+  }
+
+  private boolean nameEquals(final int offset, final int length, final String name) {
+    if (length < name.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      final byte b = this.bundle.get(offset + i);
+      if (b < 0) {
+        // non-ASCII name, compare decoded one
+        final byte[] buffer = new byte[length];
+        final ByteBuffer nameBuffer = this.bundle.duplicate();
+        nameBuffer.position(offset);
+        nameBuffer.get(buffer);
+        return name.equals(new String(buffer, StandardCharsets.UTF_8));
+      }
+      if (i >= name.length() || name.charAt(i) != b) {
+        return false;
+      }
+    }
+    return length == name.length();
+  }
+
+  private int findSlot(final String jvmFormattedClassName) {
+    if (this.entries == 0) {
+      return -1;
+    }
+    final int bucket = hash(jvmFormattedClassName, this.seed) % this.buckets;
+    final int displacement = this.bundle.getInt(this.displacementsOffset + (bucket << 2));
+    final int slot = hash(jvmFormattedClassName, displacement) % this.slots;
+    final int slotOffset = this.slotsOffset + slot * SLOT_SIZE;
+    final int nameLength = this.bundle.getInt(slotOffset + 4);
+    if (nameLength < 0 || !nameEquals(this.bundle.getInt(slotOffset), nameLength, jvmFormattedClassName)) {
+      return -1;
+    }
+    return slotOffset;
+  }
+
+  /**
+   * Check that the bundle contains a class.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @return true if the bundle contains the class, false otherwise
+   */
+  public boolean contains(final String jvmFormattedClassName) {
+    return findSlot(jvmFormattedClassName) >= 0;
+  }
+
+  /**
+   * Get number of classes in the bundle.
+   *
+   * @return number of classes
+   */
+  public int size() {
+    return this.entries;
+  }
+
+  /**
+   * Get names of all classes in the bundle.
+   *
+   * @return set of JVM formatted class names, must not be null
+   */
+  @Override
+  public Set<String> getClassNames() {
+    final Set<String> result = new LinkedHashSet<>();
+    for (int i = 0; i < this.slots; i++) {
+      final int slotOffset = this.slotsOffset + i * SLOT_SIZE;
+      final int nameLength = this.bundle.getInt(slotOffset + 4);
+      if (nameLength >= 0) {
+        final byte[] buffer = new byte[nameLength];
+        final ByteBuffer nameBuffer = this.bundle.duplicate();
+        nameBuffer.position(this.bundle.getInt(slotOffset));
+        nameBuffer.get(buffer);
+        result.add(new String(buffer, StandardCharsets.UTF_8));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Find class body as read only view of the mapped bundle, without copying.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @return buffer contains the class body or null if class not found
+   * @throws IOException it will be thrown if the loader is closed
+   */
+  public ByteBuffer findClassBuffer(final String jvmFormattedClassName) throws IOException {
+    assertNotClosed();
+    final int slotOffset = findSlot(jvmFormattedClassName);
+    if (slotOffset < 0) {
+      return null;
+    }
+    final int bodyOffset = this.bundle.getInt(slotOffset + 8);
+    final int bodyLength = this.bundle.getInt(slotOffset + 12);
+    final ByteBuffer result = this.bundle.duplicate();
+    result.limit(bodyOffset + bodyLength);
+    result.position(bodyOffset);
+    return result.slice().asReadOnlyBuffer();
+  }
+
+  @Override
+  public byte[] loadClassBody(final String jvmFormattedClassName) throws IOException {
+    final ByteBuffer buffer = findClassBuffer(jvmFormattedClassName);
+    if (buffer == null) {
+      return null;
+    }
+    final byte[] result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+
+  /**
+   * Close the loader. Mapped memory is released by GC when all buffers made by
+   * the loader become unreachable.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + '[' + this.path + ']';
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of class bundles, single file archives with perfect hash index which
+ * are read by {@link JSEClassBundleLoader}. The index is built with the
+ * "hash, displace and compress" scheme: names are distributed among buckets by
+ * the first hash and every bucket gets its displacement value which places all
+ * its names into free slots without collisions.
+ *
+ * @see JSEClassBundleLoader
+ */
+public class JSEClassBundleWriter {
+
+  private static final int MAX_DISPLACEMENT_ATTEMPTS = 1 << 20;
+  private static final int MAX_SEED_ATTEMPTS = 64;
+
+  private final Map<String, byte[]> classes = new LinkedHashMap<>();
+
+  /**
+   * Add class into bundle.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @param classBody             the class body, must not be null
+   * @return the writer
+   * @throws IllegalArgumentException if the class is already added
+   */
+  public JSEClassBundleWriter add(final String jvmFormattedClassName, final byte[] classBody) {
+    if (jvmFormattedClassName == null) {
+      throw new NullPointerException("Class name is null");
+    }
+    if (classBody == null) {
+      throw new NullPointerException("Class body is null");
+    }
+    if (this.classes.containsKey(jvmFormattedClassName)) {
+      throw new IllegalArgumentException("Class is already added [" + jvmFormattedClassName + ']');
+    }
+    this.classes.put(jvmFormattedClassName, classBody);
+    return this;
+  }
+
+  /**
+   * Add classes provided by a loader.
+   *
+   * @param loader     the loader to provide class bodies, must not be null
+   * @param classNames JVM formatted names of classes to be added, must not be
+   *                   null
+   * @return the writer
+   * @throws IOException it will be thrown if a class can't be loaded
+   */
+  public JSEClassBundleWriter addAll(final JSEProviderImpl.ClassDataLoader loader, final Collection<String> classNames) throws IOException {
+    for (final String name : classNames) {
+      final byte[] body = loader.loadClassBody(name);
+      if (body == null) {
+        throw new IOException("Can't find body for class '" + name + '\'');
+      }
+      add(name, body);
+    }
+    return this;
+  }
+
+  /**
+   * Get number of added classes.
+   *
+   * @return number of classes
+   */
+  public int size() {
+    return this.classes.size();
+  }
+
+  /**
+   * Write the bundle into file.
+   *
+   * @param path the target file path, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public void write(final Path path) throws IOException {
+    try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+      write(out);
+    }
+  }
+
+  /**
+   * Write the bundle into stream, the stream is not closed.
+   *
+   * @param out the target stream, must not be null
+   * @throws IOException it will be thrown for transport errors
+   */
+  public void write(final OutputStream out) throws IOException {
+    final List<String> names = new ArrayList<>(this.classes.keySet());
+    final int entries = names.size();
+    final int buckets = Math.max(1, entries / 2);
+    final int slots = Math.max(1, entries + entries / 8);
+
+    int seed = 0x9E3779B9;
+    final int[] displacements = new int[buckets];
+    final int[] slotToName = new int[slots];
+    int attempt = 0;
+    while (!buildIndex(names, seed, displacements, slotToName)) {
+      if (++attempt >= MAX_SEED_ATTEMPTS) {
+        throw new IOException("Can't build perfect hash index for " + entries + " classes");
+      }
+      seed = seed * 31 + 0x61C88647;
+    }
+
+    final byte[][] encodedNames = new byte[entries][];
+    for (int i = 0; i < entries; i++) {
+      encodedNames[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    final int displacementsOffset = JSEClassBundleLoader.HEADER_SIZE;
+    final int slotsOffset = displacementsOffset + buckets * 4;
+    final int namesOffset = slotsOffset + slots * JSEClassBundleLoader.SLOT_SIZE;
+
+    final int[] nameOffsets = new int[entries];
+    final int[] bodyOffsets = new int[entries];
+    int pos = namesOffset;
+    for (int i = 0; i < entries; i++) {
+      nameOffsets[i] = pos;
+      pos += encodedNames[i].length;
+    }
+    for (int i = 0; i < entries; i++) {
+      pos = align(pos);
+      bodyOffsets[i] = pos;
+      pos += this.classes.get(names.get(i)).length;
+    }
+
+    final DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(JSEClassBundleLoader.MAGIC);
+    data.writeShort(JSEClassBundleLoader.VERSION);
+    data.writeShort(0);
+    data.writeInt(entries);
+    data.writeInt(buckets);
+    data.writeInt(seed);
+    data.writeInt(displacementsOffset);
+    data.writeInt(slotsOffset);
+    data.writeInt(slots);
+    data.writeInt(0);
+
+    for (final int d : displacements) {
+      data.writeInt(d);
+    }
+    for (final int nameIndex : slotToName) {
+      if (nameIndex < 0) {
+        data.writeInt(0);
+        data.writeInt(-1);
+        data.writeInt(0);
+        data.writeInt(0);
+      } else {
+        data.writeInt(nameOffsets[nameIndex]);
+        data.writeInt(encodedNames[nameIndex].length);
+        data.writeInt(bodyOffsets[nameIndex]);
+        data.writeInt(this.classes.get(names.get(nameIndex)).length);
+      }
+    }
+    for (final byte[] name : encodedNames) {
+      data.write(name);
+    }
+    for (int i = 0; i < entries; i++) {
+      while (data.size() < bodyOffsets[i]) {
+        data.write(0);
+      }
+      data.write(this.classes.get(names.get(i)));
+    }
+    data.flush();
+  }
+
+  private static int align(final int value) {
+    final int mask = JSEClassBundleLoader.BODY_ALIGNMENT - 1;
+    return (value + mask) & ~mask;
+  }
+
+  private static boolean buildIndex(final List<String> names, final int seed, final int[] displacements, final int[] slotToName) {
+    final int buckets = displacements.length;
+    final int slots = slotToName.length;
+
+    final List<List<Integer>> bucketContent = new ArrayList<>(buckets);
+    for (int i = 0; i < buckets; i++) {
+      bucketContent.add(new ArrayList<>());
+    }
+    for (int i = 0; i < names.size(); i++) {
+      bucketContent.get(JSEClassBundleLoader.hash(names.get(i), seed) % buckets).add(i);
+    }
+
+    final Integer[] order = new Integer[buckets];
+    for (int i = 0; i < buckets; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> bucketContent.get(b).size() - bucketContent.get(a).size());
+
+    Arrays.fill(displacements, 0);
+    Arrays.fill(slotToName, -1);
+    final boolean[] occupied = new boolean[slots];
+    final int[] candidate = new int[names.size()];
+
+    for (final int bucket : order) {
+      final List<Integer> content = bucketContent.get(bucket);
+      if (content.isEmpty()) {
+        break;
+      }
+      boolean placed = false;
+      for (int d = 1; d < MAX_DISPLACEMENT_ATTEMPTS && !placed; d++) {
+        placed = true;
+        for (int i = 0; i < content.size(); i++) {
+          final int slot = JSEClassBundleLoader.hash(names.get(content.get(i)), d) % slots;
+          boolean busy = occupied[slot];
+          for (int j = 0; j < i && !busy; j++) {
+            busy = candidate[j] == slot;
+          }
+          if (busy) {
+            placed = false;
+            break;
+          }
+          candidate[i] = slot;
+        }
+        if (placed) {
+          displacements[bucket] = d;
+          for (int i = 0; i < content.size(); i++) {
+            occupied[candidate[i]] = true;
+            slotToName[candidate[i]] = content.get(i);
+          }
+        }
+      }
+      if (!placed) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Cache of resolved classes of a provider, both interpreted and host ones.
+ * Bounded and reference based caches allow to unload classes: when an evicted
+ * class is not referenced by any object or running method anymore, its
+ * constant pool, decoded code and static field values become garbage. Next
+ * resolving of evicted class loads it again and executes its static
+ * initializer, so that only classes which static state can be lost must be
+ * loaded by providers with evicting caches.
+ * <p>
+ * Caches are not thread safe, the provider makes all calls under lock of the
+ * cache object.
+ *
+ * @see JSEProviderImpl#JSEProviderImpl(JSEProviderImpl.ClassDataLoader, JSEClassCache)
+ */
+public abstract class JSEClassCache {
+
+  private Consumer<String> evictionListener;
+
+  /**
+   * Make cache which keeps all classes forever.
+   *
+   * @return new cache, must not be null
+   */
+  public static JSEClassCache unbounded() {
+    return new Unbounded();
+  }
+
+  /**
+   * Make cache which keeps limited number of classes, the least recently used
+   * class is evicted if the limit is reached.
+   *
+   * @param maxClasses max number of classes in the cache, must be positive
+   * @return new cache, must not be null
+   */
+  public static JSEClassCache lru(final int maxClasses) {
+    if (maxClasses <= 0) {
+      throw new IllegalArgumentException("Max number of classes must be positive [" + maxClasses + ']');
+    }
+    return new Lru(maxClasses);
+  }
+
+  /**
+   * Make cache which keeps classes only while they are referenced from
+   * outside.
+   *
+   * @return new cache, must not be null
+   */
+  public static JSEClassCache weak() {
+    return new ReferenceBased(false);
+  }
+
+  /**
+   * Make cache which keeps classes while there is enough memory.
+   *
+   * @return new cache, must not be null
+   */
+  public static JSEClassCache soft() {
+    return new ReferenceBased(true);
+  }
+
+  /**
+   * Set listener to be notified about evicted classes.
+   *
+   * @param listener listener getting name of evicted class, can be null
+   */
+  void setEvictionListener(final Consumer<String> listener) {
+    this.evictionListener = listener;
+  }
+
+  /**
+   * Notify listener about evicted class.
+   *
+   * @param jvmFormattedClassName name of the evicted class, must not be null
+   */
+  protected void fireEvicted(final String jvmFormattedClassName) {
+    final Consumer<String> listener = this.evictionListener;
+    if (listener != null) {
+      listener.accept(jvmFormattedClassName);
+    }
+  }
+
+  /**
+   * Find class.
+   *
+   * @param jvmFormattedClassName the jvm formatted class name, must not be null
+   * @return found class or null
+   */
+  public abstract Object get(String jvmFormattedClassName);
+
+  /**
+   * Check that class is in the cache.
+   *
+   * @param jvmFormattedClassName the jvm formatted class name, must not be null
+   * @return true if the cache contains the class, false otherwise
+   */
+  public boolean containsKey(final String jvmFormattedClassName) {
+    return get(jvmFormattedClassName) != null;
+  }
+
+  /**
+   * Place class into cache.
+   *
+   * @param jvmFormattedClassName the jvm formatted class name, must not be null
+   * @param klazz                 the class object, must not be null
+   */
+  public abstract void put(String jvmFormattedClassName, Object klazz);
+
+  /**
+   * Remove class from cache, the listener is not notified.
+   *
+   * @param jvmFormattedClassName the jvm formatted class name, must not be null
+   * @return removed class or null
+   */
+  public abstract Object remove(String jvmFormattedClassName);
+
+  /**
+   * Get number of classes in the cache.
+   *
+   * @return number of classes
+   */
+  public abstract int size();
+
+  /**
+   * Get all classes currently presented in the cache.
+   *
+   * @return list of classes, must not be null
+   */
+  public abstract List<Object> values();
+
+  /**
+   * Remove all classes, the listener is not notified.
+   */
+  public abstract void clear();
+
+  private static class Unbounded extends JSEClassCache {
+
+    protected final Map<String, Object> classes;
+
+    Unbounded() {
+      this.classes = new HashMap<>();
+    }
+
+    Unbounded(final Map<String, Object> map) {
+      this.classes = map;
+    }
+
+    @Override
+    public Object get(final String jvmFormattedClassName) {
+      return this.classes.get(jvmFormattedClassName);
+    }
+
+    @Override
+    public boolean containsKey(final String jvmFormattedClassName) {
+      return this.classes.containsKey(jvmFormattedClassName);
+    }
+
+    @Override
+    public void put(final String jvmFormattedClassName, final Object klazz) {
+      this.classes.put(jvmFormattedClassName, klazz);
+    }
+
+    @Override
+    public Object remove(final String jvmFormattedClassName) {
+      return this.classes.remove(jvmFormattedClassName);
+    }
+
+    @Override
+    public int size() {
+      return this.classes.size();
+    }
+
+    @Override
+    public List<Object> values() {
+      return new ArrayList<>(this.classes.values());
+    }
+
+    @Override
+    public void clear() {
+      this.classes.clear();
+    }
+  }
+
+  private static final class Lru extends Unbounded {
+
+    Lru(final int maxClasses) {
+      super(new LruMap(maxClasses));
+      ((LruMap) this.classes).owner = this;
+    }
+  }
+
+  private static final class LruMap extends LinkedHashMap<String, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxClasses;
+    private transient JSEClassCache owner;
+
+    LruMap(final int maxClasses) {
+      super(16, 0.75f, true);
+      this.maxClasses = maxClasses;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, Object> eldest) {
+      if (size() > this.maxClasses) {
+        this.owner.fireEvicted(eldest.getKey());
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private static final class ReferenceBased extends JSEClassCache {
+
+    private final boolean soft;
+    private final Map<String, Reference<Object>> classes = new HashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+    private interface NamedReference {
+
+      String getName();
+    }
+
+    private static final class NamedWeakReference extends WeakReference<Object> implements NamedReference {
+
+      private final String name;
+
+      NamedWeakReference(final String name, final Object value, final ReferenceQueue<Object> queue) {
+        super(value, queue);
+        this.name = name;
+      }
+
+      @Override
+      public String getName() {
+        return this.name;
+      }
+    }
+
+    private static final class NamedSoftReference extends SoftReference<Object> implements NamedReference {
+
+      private final String name;
+
+      NamedSoftReference(final String name, final Object value, final ReferenceQueue<Object> queue) {
+        super(value, queue);
+        this.name = name;
+      }
+
+      @Override
+      public String getName() {
+        return this.name;
+      }
+    }
+
+    ReferenceBased(final boolean soft) {
+      this.soft = soft;
+    }
+
+    private void expungeStaleEntries() {
+      Reference<?> ref;
+      while ((ref = this.queue.poll()) != null) {
+        final String name = ((NamedReference) ref).getName();
+        if (this.classes.get(name) == ref) {
+          this.classes.remove(name);
+          fireEvicted(name);
+        }
+      }
+    }
+
+    @Override
+    public Object get(final String jvmFormattedClassName) {
+      expungeStaleEntries();
+      final Reference<Object> ref = this.classes.get(jvmFormattedClassName);
+      return ref == null ? null : ref.get();
+    }
+
+    @Override
+    public void put(final String jvmFormattedClassName, final Object klazz) {
+      expungeStaleEntries();
+      this.classes.put(jvmFormattedClassName, this.soft
+          ? new NamedSoftReference(jvmFormattedClassName, klazz, this.queue)
+          : new NamedWeakReference(jvmFormattedClassName, klazz, this.queue));
+    }
+
+    @Override
+    public Object remove(final String jvmFormattedClassName) {
+      expungeStaleEntries();
+      final Reference<Object> ref = this.classes.remove(jvmFormattedClassName);
+      return ref == null ? null : ref.get();
+    }
+
+    @Override
+    public int size() {
+      expungeStaleEntries();
+      return this.classes.size();
+    }
+
+    @Override
+    public List<Object> values() {
+      expungeStaleEntries();
+      final List<Object> result = new ArrayList<>(this.classes.size());
+      for (final Iterator<Reference<Object>> i = this.classes.values().iterator(); i.hasNext(); ) {
+        final Object klazz = i.next().get();
+        if (klazz != null) {
+          result.add(klazz);
+        }
+      }
+      return result;
+    }
+
+    @Override
+    public void clear() {
+      this.classes.clear();
+    }
+  }
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import com.igormaznitsa.jjjvm.impl.JJJVMClassImpl;
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import com.igormaznitsa.jjjvm.model.JJJVMField;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Snapshot of static state of interpreted classes. It writes values of static
+ * fields of all classes loaded by a provider together with all reachable
+ * {@link JJJVMObject} instances and arrays, and restores them into a fresh
+ * provider without execution of static initializers. Shared references and
+ * cycles in the object graph are kept. Strings, boxed primitives and classes
+ * are supported out of the box, other host objects are processed by
+ * registered codecs.
+ * <p>
+ * Stream layout, all numbers are big-endian:
+ * <pre>
+ * header  : int magic 'JJJH', short version, short reserved, int classes
+ * classes : UTF name per class
+ * statics : per class: int fields, per field: UTF name, value
+ * value   : byte tag, tag specific data
+ * </pre>
+ *
+ * @see JSEProviderImpl#resolveClassWithoutInitialization(String)
+ */
+public class JSEHeapSnapshot {
+
+  static final int MAGIC = 0x4A4A4A48;
+  static final int VERSION = 1;
+
+  private static final int TAG_NULL = 0;
+  private static final int TAG_INT = 1;
+  private static final int TAG_LONG = 2;
+  private static final int TAG_FLOAT = 3;
+  private static final int TAG_DOUBLE = 4;
+  private static final int TAG_BOOLEAN = 5;
+  private static final int TAG_BYTE = 6;
+  private static final int TAG_SHORT = 7;
+  private static final int TAG_CHAR = 8;
+  private static final int TAG_STRING = 9;
+  private static final int TAG_REFERENCE = 10;
+  private static final int TAG_OBJECT = 11;
+  private static final int TAG_ARRAY = 12;
+  private static final int TAG_CLASS = 13;
+  private static final int TAG_HOST = 14;
+
+  private final Map<Class<?>, HostObjectCodec<?>> codecsForTypes = new HashMap<>();
+  private final Map<String, HostObjectCodec<?>> codecsForNames = new HashMap<>();
+
+  /**
+   * Codec to write and read host objects which are not supported by the
+   * snapshot out of the box.
+   *
+   * @param <T> type of processed objects
+   */
+  public interface HostObjectCodec<T> {
+
+    /**
+     * Get class of processed objects, only objects of exactly the class are
+     * passed to the codec.
+     *
+     * @return the class of processed objects, must not be null
+     */
+    Class<T> getType();
+
+    /**
+     * Write object.
+     *
+     * @param value the object to be written, must not be null
+     * @param out   the target stream, must not be null
+     * @throws IOException it will be thrown for transport errors
+     */
+    void write(T value, DataOutputStream out) throws IOException;
+
+    /**
+     * Read object.
+     *
+     * @param in the source stream, must not be null
+     * @return the read object
+     * @throws IOException it will be thrown for transport errors
+     */
+    T read(DataInputStream in) throws IOException;
+  }
+
+  /**
+   * Register codec for host objects.
+   *
+   * @param codec the codec, must not be null
+   * @return the snapshot
+   */
+  public JSEHeapSnapshot addCodec(final HostObjectCodec<?> codec) {
+    this.codecsForTypes.put(codec.getType(), codec);
+    this.codecsForNames.put(codec.getType().getName(), codec);
+    return this;
+  }
+
+  /**
+   * Write static state of all classes loaded by a provider into file.
+   *
+   * @param provider the provider, must not be null
+   * @param path     the target file path, must not be null
+   * @throws IOException it will be thrown for transport errors or unsupported
+   *                     values
+   */
+  public void write(final JSEProviderImpl provider, final Path path) throws IOException {
+    try (final OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+      write(provider, out);
+    }
+  }
+
+  /**
+   * Write static state of all classes loaded by a provider into stream, the
+   * stream is not closed.
+   *
+   * @param provider the provider, must not be null
+   * @param out      the target stream, must not be null
+   * @throws IOException it will be thrown for transport errors or unsupported
+   *                     values
+   */
+  public void write(final JSEProviderImpl provider, final OutputStream out) throws IOException {
+    final List<JJJVMClassImpl> classes = provider.getLoadedClasses();
+    final DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeShort(VERSION);
+    data.writeShort(0);
+    data.writeInt(classes.size());
+    for (final JJJVMClassImpl klazz : classes) {
+      data.writeUTF(klazz.getClassName());
+    }
+
+    final Map<Object, Integer> written = new IdentityHashMap<>();
+    for (final JJJVMClassImpl klazz : classes) {
+      final List<JJJVMField> statics = new ArrayList<>();
+      for (final JJJVMField field : klazz.getAllDeclaredFields().values()) {
+        if ((field.getFlags() & JJJVMConstants.ACC_STATIC) != 0) {
+          statics.add(field);
+        }
+      }
+      data.writeInt(statics.size());
+      for (final JJJVMField field : statics) {
+        data.writeUTF(field.getName());
+        writeValue(data, field.getStaticValue(), written);
+      }
+    }
+    data.flush();
+  }
+
+  /**
+   * Restore static state from file into a provider. All classes are loaded
+   * without execution of their static initializers.
+   *
+   * @param provider the provider, must not be null
+   * @param path     the source file path, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  public void restore(final JSEProviderImpl provider, final Path path) throws Throwable {
+    try (final InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+      restore(provider, in);
+    }
+  }
+
+  /**
+   * Restore static state from stream into a provider, the stream is not
+   * closed.
+   *
+   * @param provider the provider, must not be null
+   * @param in       the source stream, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  public void restore(final JSEProviderImpl provider, final InputStream in) throws Throwable {
+    final DataInputStream data = new DataInputStream(in);
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not heap snapshot");
+    }
+    final int version = data.readUnsignedShort();
+    if (version != VERSION) {
+      throw new IOException("Unsupported heap snapshot version [" + version + ']');
+    }
+    data.readUnsignedShort();
+
+    final JJJVMClass[] classes = new JJJVMClass[data.readInt()];
+    for (int i = 0; i < classes.length; i++) {
+      final String className = data.readUTF();
+      final Object klazz = provider.resolveClassWithoutInitialization(className);
+      if (!(klazz instanceof JJJVMClass)) {
+        throw new IOException("Can't load class [" + className + ']');
+      }
+      classes[i] = (JJJVMClass) klazz;
+    }
+
+    final List<Object> read = new ArrayList<>();
+    for (final JJJVMClass klazz : classes) {
+      int fields = data.readInt();
+      while (--fields >= 0) {
+        final String fieldName = data.readUTF();
+        final Object value = readValue(data, provider, read);
+        final JJJVMField field = klazz.findDeclaredField(fieldName);
+        if (field == null) {
+          throw new IOException("Unknown static field [" + klazz.getClassName() + '#' + fieldName + ']');
+        }
+        field.setStaticValue(value, true);
+      }
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String value) throws IOException {
+    final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void writeValue(final DataOutputStream out, final Object value, final Map<Object, Integer> written) throws IOException {
+    if (value == null) {
+      out.writeByte(TAG_NULL);
+    } else if (value instanceof Integer) {
+      out.writeByte(TAG_INT);
+      out.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      out.writeByte(TAG_LONG);
+      out.writeLong((Long) value);
+    } else if (value instanceof Float) {
+      out.writeByte(TAG_FLOAT);
+      out.writeFloat((Float) value);
+    } else if (value instanceof Double) {
+      out.writeByte(TAG_DOUBLE);
+      out.writeDouble((Double) value);
+    } else if (value instanceof Boolean) {
+      out.writeByte(TAG_BOOLEAN);
+      out.writeBoolean((Boolean) value);
+    } else if (value instanceof Byte) {
+      out.writeByte(TAG_BYTE);
+      out.writeByte((Byte) value);
+    } else if (value instanceof Short) {
+      out.writeByte(TAG_SHORT);
+      out.writeShort((Short) value);
+    } else if (value instanceof Character) {
+      out.writeByte(TAG_CHAR);
+      out.writeChar((Character) value);
+    } else if (value instanceof String) {
+      out.writeByte(TAG_STRING);
+      writeString(out, (String) value);
+    } else if (value instanceof JJJVMClass) {
+      out.writeByte(TAG_CLASS);
+      writeString(out, ((JJJVMClass) value).getClassName());
+    } else if (value instanceof Class) {
+      out.writeByte(TAG_CLASS);
+      writeString(out, ((Class<?>) value).getName().replace('.', '/'));
+    } else {
+      final Integer id = written.get(value);
+      if (id != null) {
+        out.writeByte(TAG_REFERENCE);
+        out.writeInt(id);
+        return;
+      }
+
+      if (value instanceof JJJVMObject) {
+        written.put(value, written.size());
+        final JJJVMObject obj = (JJJVMObject) value;
+        out.writeByte(TAG_OBJECT);
+        writeString(out, obj.getDeclaringClass().getClassName());
+        final Map<String, Object> fields = obj.getFieldValues();
+        out.writeInt(fields.size());
+        for (final Map.Entry<String, Object> e : fields.entrySet()) {
+          out.writeUTF(e.getKey());
+          writeValue(out, e.getValue(), written);
+        }
+      } else if (value.getClass().isArray()) {
+        written.put(value, written.size());
+        writeArray(out, value, written);
+      } else {
+        final HostObjectCodec<Object> codec = (HostObjectCodec<Object>) this.codecsForTypes.get(value.getClass());
+        if (codec == null) {
+          throw new IOException("Unsupported host object [" + value.getClass().getName() + ']');
+        }
+        written.put(value, written.size());
+        out.writeByte(TAG_HOST);
+        writeString(out, value.getClass().getName());
+        codec.write(value, out);
+      }
+    }
+  }
+
+  private void writeArray(final DataOutputStream out, final Object array, final Map<Object, Integer> written) throws IOException {
+    final Class<?> componentType = array.getClass().getComponentType();
+    final int length = Array.getLength(array);
+    out.writeByte(TAG_ARRAY);
+    writeString(out, componentType.getName());
+    out.writeInt(length);
+    if (componentType == int.class) {
+      for (final int v : (int[]) array) {
+        out.writeInt(v);
+      }
+    } else if (componentType == long.class) {
+      for (final long v : (long[]) array) {
+        out.writeLong(v);
+      }
+    } else if (componentType == byte.class) {
+      out.write((byte[]) array);
+    } else if (componentType == char.class) {
+      for (final char v : (char[]) array) {
+        out.writeChar(v);
+      }
+    } else if (componentType == short.class) {
+      for (final short v : (short[]) array) {
+        out.writeShort(v);
+      }
+    } else if (componentType == boolean.class) {
+      for (final boolean v : (boolean[]) array) {
+        out.writeBoolean(v);
+      }
+    } else if (componentType == float.class) {
+      for (final float v : (float[]) array) {
+        out.writeFloat(v);
+      }
+    } else if (componentType == double.class) {
+      for (final double v : (double[]) array) {
+        out.writeDouble(v);
+      }
+    } else {
+      for (final Object v : (Object[]) array) {
+        writeValue(out, v, written);
+      }
+    }
+  }
+
+  private Object readValue(final DataInputStream in, final JSEProviderImpl provider, final List<Object> read) throws Throwable {
+    final int tag = in.readUnsignedByte();
+    switch (tag) {
+      case TAG_NULL:
+        return null;
+      case TAG_INT:
+        return in.readInt();
+      case TAG_LONG:
+        return in.readLong();
+      case TAG_FLOAT:
+        return in.readFloat();
+      case TAG_DOUBLE:
+        return in.readDouble();
+      case TAG_BOOLEAN:
+        return in.readBoolean();
+      case TAG_BYTE:
+        return in.readByte();
+      case TAG_SHORT:
+        return in.readShort();
+      case TAG_CHAR:
+        return in.readChar();
+      case TAG_STRING:
+        return readString(in);
+      case TAG_CLASS:
+        return provider.resolveClass(readString(in));
+      case TAG_REFERENCE: {
+        final int id = in.readInt();
+        if (id < 0 || id >= read.size()) {
+          throw new IOException("Wrong object reference [" + id + ']');
+        }
+        return read.get(id);
+      }
+      case TAG_OBJECT: {
+        final String className = readString(in);
+        final Object klazz = provider.resolveClass(className);
+        if (!(klazz instanceof JJJVMClass)) {
+          throw new IOException("Not interpreted class [" + className + ']');
+        }
+        final JJJVMObject result = new JJJVMObject((JJJVMClass) klazz, null);
+        read.add(result);
+        int fields = in.readInt();
+        while (--fields >= 0) {
+          final String fieldName = in.readUTF();
+          result.setFieldValue(fieldName, readValue(in, provider, read), false);
+        }
+        return result;
+      }
+      case TAG_ARRAY:
+        return readArray(in, provider, read);
+      case TAG_HOST: {
+        final String className = readString(in);
+        final HostObjectCodec<?> codec = this.codecsForNames.get(className);
+        if (codec == null) {
+          throw new IOException("There is no codec for host object [" + className + ']');
+        }
+        final int id = read.size();
+        read.add(null);
+        final Object result = codec.read(in);
+        read.set(id, result);
+        return result;
+      }
+      default:
+        throw new IOException("Unexpected value tag [" + tag + ']');
+    }
+  }
+
+  private Object readArray(final DataInputStream in, final JSEProviderImpl provider, final List<Object> read) throws Throwable {
+    final String componentName = readString(in);
+    final int length = in.readInt();
+    final Object result;
+    switch (componentName) {
+      case "int": {
+        final int[] array = new int[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readInt();
+        }
+        result = array;
+      }
+      break;
+      case "long": {
+        final long[] array = new long[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readLong();
+        }
+        result = array;
+      }
+      break;
+      case "byte": {
+        final byte[] array = new byte[length];
+        read.add(array);
+        in.readFully(array);
+        result = array;
+      }
+      break;
+      case "char": {
+        final char[] array = new char[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readChar();
+        }
+        result = array;
+      }
+      break;
+      case "short": {
+        final short[] array = new short[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readShort();
+        }
+        result = array;
+      }
+      break;
+      case "boolean": {
+        final boolean[] array = new boolean[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readBoolean();
+        }
+        result = array;
+      }
+      break;
+      case "float": {
+        final float[] array = new float[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readFloat();
+        }
+        result = array;
+      }
+      break;
+      case "double": {
+        final double[] array = new double[length];
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = in.readDouble();
+        }
+        result = array;
+      }
+      break;
+      default: {
+        final Object[] array = (Object[]) Array.newInstance(Class.forName(componentName), length);
+        read.add(array);
+        for (int i = 0; i < length; i++) {
+          array[i] = readValue(in, provider, read);
+        }
+        result = array;
+      }
+      break;
+    }
+    return result;
+  }
+}
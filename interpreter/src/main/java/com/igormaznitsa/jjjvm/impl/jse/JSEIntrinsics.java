@@ -0,0 +1,299 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import com.igormaznitsa.jjjvm.JJJVMInterpreter;
+import com.igormaznitsa.jjjvm.model.JJJVMIntrinsic;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of intrinsics for host methods. Default registry contains
+ * intrinsics for the most often called methods of Math, Integer, String,
+ * StringBuilder and System classes, embedders can register their own ones.
+ * Registration must be made before classes calling the methods are executed,
+ * because call sites are linked only once.
+ *
+ * @see JJJVMIntrinsic
+ * @see JSEProviderImpl#getIntrinsics()
+ */
+public final class JSEIntrinsics {
+
+  private final Map<String, JJJVMIntrinsic> intrinsics = new ConcurrentHashMap<>();
+
+  /**
+   * Make registry with default intrinsics.
+   *
+   * @return new registry, must not be null
+   */
+  public static JSEIntrinsics defaults() {
+    final JSEIntrinsics result = new JSEIntrinsics();
+    registerMath(result);
+    registerInteger(result);
+    registerString(result);
+    registerStringBuilder(result);
+    registerSystem(result);
+    return result;
+  }
+
+  private static String makeKey(final String jvmFormattedClassName, final String methodName, final String methodSignature) {
+    return jvmFormattedClassName + '.' + methodName + methodSignature;
+  }
+
+  /**
+   * Register intrinsic for a host method, already registered intrinsic for the
+   * method is replaced.
+   *
+   * @param jvmFormattedClassName the jvm formatted name of the class which is
+   *                              owner of the method, must not be null
+   * @param methodName            the method name, must not be null
+   * @param methodSignature       the method signature, must not be null
+   * @param intrinsic             the intrinsic, must not be null
+   */
+  public void register(final String jvmFormattedClassName, final String methodName, final String methodSignature, final JJJVMIntrinsic intrinsic) {
+    if (intrinsic == null) {
+      throw new NullPointerException("Intrinsic must not be null");
+    }
+    this.intrinsics.put(makeKey(jvmFormattedClassName, methodName, methodSignature), intrinsic);
+  }
+
+  /**
+   * Remove intrinsic for a host method.
+   *
+   * @param jvmFormattedClassName the jvm formatted name of the class which is
+   *                              owner of the method, must not be null
+   * @param methodName            the method name, must not be null
+   * @param methodSignature       the method signature, must not be null
+   * @return removed intrinsic or null
+   */
+  public JJJVMIntrinsic unregister(final String jvmFormattedClassName, final String methodName, final String methodSignature) {
+    return this.intrinsics.remove(makeKey(jvmFormattedClassName, methodName, methodSignature));
+  }
+
+  /**
+   * Find intrinsic for a host method.
+   *
+   * @param jvmFormattedClassName the jvm formatted name of the class which is
+   *                              owner of the method, must not be null
+   * @param methodName            the method name, must not be null
+   * @param methodSignature       the method signature, must not be null
+   * @return found intrinsic or null
+   */
+  public JJJVMIntrinsic find(final String jvmFormattedClassName, final String methodName, final String methodSignature) {
+    return this.intrinsics.get(makeKey(jvmFormattedClassName, methodName, methodSignature));
+  }
+
+  /**
+   * Get number of registered intrinsics.
+   *
+   * @return number of intrinsics
+   */
+  public int size() {
+    return this.intrinsics.size();
+  }
+
+  private static int toInt(final Object value) {
+    return value instanceof Character ? (Character) value : ((Number) value).intValue();
+  }
+
+  private static char toChar(final Object value) {
+    return value instanceof Character ? (Character) value : (char) ((Number) value).intValue();
+  }
+
+  private static long toLong(final Object value) {
+    return ((Number) value).longValue();
+  }
+
+  private static float toFloat(final Object value) {
+    return ((Number) value).floatValue();
+  }
+
+  private static double toDouble(final Object value) {
+    return ((Number) value).doubleValue();
+  }
+
+  private static void registerMath(final JSEIntrinsics registry) {
+    final String klazz = "java/lang/Math";
+    registry.register(klazz, "abs", "(I)I", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.abs(toInt(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "abs", "(J)J", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.abs(toLong(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "abs", "(F)F", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.abs(toFloat(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "abs", "(D)D", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.abs(toDouble(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "max", "(II)I", (caller, stack, sp) -> {
+      stack[sp - 2] = Math.max(toInt(stack[sp - 2]), toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "min", "(II)I", (caller, stack, sp) -> {
+      stack[sp - 2] = Math.min(toInt(stack[sp - 2]), toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "max", "(JJ)J", (caller, stack, sp) -> {
+      stack[sp - 2] = Math.max(toLong(stack[sp - 2]), toLong(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "min", "(JJ)J", (caller, stack, sp) -> {
+      stack[sp - 2] = Math.min(toLong(stack[sp - 2]), toLong(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "max", "(DD)D", (caller, stack, sp) -> {
+      stack[sp - 2] = Math.max(toDouble(stack[sp - 2]), toDouble(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "min", "(DD)D", (caller, stack, sp) -> {
+      stack[sp - 2] = Math.min(toDouble(stack[sp - 2]), toDouble(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "sqrt", "(D)D", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.sqrt(toDouble(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "floor", "(D)D", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.floor(toDouble(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "ceil", "(D)D", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.ceil(toDouble(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "sin", "(D)D", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.sin(toDouble(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "cos", "(D)D", (caller, stack, sp) -> {
+      stack[sp - 1] = Math.cos(toDouble(stack[sp - 1]));
+      return sp;
+    });
+  }
+
+  private static void registerInteger(final JSEIntrinsics registry) {
+    final String klazz = "java/lang/Integer";
+    registry.register(klazz, "parseInt", "(Ljava/lang/String;)I", (caller, stack, sp) -> {
+      stack[sp - 1] = Integer.parseInt((String) stack[sp - 1]);
+      return sp;
+    });
+    registry.register(klazz, "valueOf", "(I)Ljava/lang/Integer;", (caller, stack, sp) -> {
+      stack[sp - 1] = Integer.valueOf(toInt(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "toString", "(I)Ljava/lang/String;", (caller, stack, sp) -> {
+      stack[sp - 1] = Integer.toString(toInt(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "intValue", "()I", (caller, stack, sp) -> {
+      stack[sp - 1] = ((Integer) stack[sp - 1]).intValue();
+      return sp;
+    });
+    registry.register(klazz, "compare", "(II)I", (caller, stack, sp) -> {
+      stack[sp - 2] = Integer.compare(toInt(stack[sp - 2]), toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+  }
+
+  private static void registerString(final JSEIntrinsics registry) {
+    final String klazz = "java/lang/String";
+    registry.register(klazz, "length", "()I", (caller, stack, sp) -> {
+      stack[sp - 1] = ((String) stack[sp - 1]).length();
+      return sp;
+    });
+    registry.register(klazz, "isEmpty", "()Z", (caller, stack, sp) -> {
+      stack[sp - 1] = ((String) stack[sp - 1]).isEmpty();
+      return sp;
+    });
+    registry.register(klazz, "charAt", "(I)C", (caller, stack, sp) -> {
+      stack[sp - 2] = ((String) stack[sp - 2]).charAt(toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "hashCode", "()I", (caller, stack, sp) -> {
+      stack[sp - 1] = ((String) stack[sp - 1]).hashCode();
+      return sp;
+    });
+    registry.register(klazz, "equals", "(Ljava/lang/Object;)Z", (caller, stack, sp) -> {
+      stack[sp - 2] = ((String) stack[sp - 2]).equals(stack[sp - 1]);
+      return sp - 1;
+    });
+    registry.register(klazz, "indexOf", "(I)I", (caller, stack, sp) -> {
+      stack[sp - 2] = ((String) stack[sp - 2]).indexOf(toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "substring", "(I)Ljava/lang/String;", (caller, stack, sp) -> {
+      stack[sp - 2] = ((String) stack[sp - 2]).substring(toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "substring", "(II)Ljava/lang/String;", (caller, stack, sp) -> {
+      stack[sp - 3] = ((String) stack[sp - 3]).substring(toInt(stack[sp - 2]), toInt(stack[sp - 1]));
+      return sp - 2;
+    });
+    registry.register(klazz, "valueOf", "(I)Ljava/lang/String;", (caller, stack, sp) -> {
+      stack[sp - 1] = String.valueOf(toInt(stack[sp - 1]));
+      return sp;
+    });
+    registry.register(klazz, "valueOf", "(Ljava/lang/Object;)Ljava/lang/String;", (caller, stack, sp) -> {
+      stack[sp - 1] = JJJVMInterpreter.stringValueOf(stack[sp - 1]);
+      return sp;
+    });
+  }
+
+  private static void registerStringBuilder(final JSEIntrinsics registry) {
+    final String klazz = "java/lang/StringBuilder";
+    registry.register(klazz, "append", "(Ljava/lang/String;)Ljava/lang/StringBuilder;", (caller, stack, sp) -> {
+      stack[sp - 2] = ((StringBuilder) stack[sp - 2]).append((String) stack[sp - 1]);
+      return sp - 1;
+    });
+    registry.register(klazz, "append", "(Ljava/lang/Object;)Ljava/lang/StringBuilder;", (caller, stack, sp) -> {
+      stack[sp - 2] = ((StringBuilder) stack[sp - 2]).append(JJJVMInterpreter.stringValueOf(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "append", "(I)Ljava/lang/StringBuilder;", (caller, stack, sp) -> {
+      stack[sp - 2] = ((StringBuilder) stack[sp - 2]).append(toInt(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "append", "(J)Ljava/lang/StringBuilder;", (caller, stack, sp) -> {
+      stack[sp - 2] = ((StringBuilder) stack[sp - 2]).append(toLong(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "append", "(C)Ljava/lang/StringBuilder;", (caller, stack, sp) -> {
+      stack[sp - 2] = ((StringBuilder) stack[sp - 2]).append(toChar(stack[sp - 1]));
+      return sp - 1;
+    });
+    registry.register(klazz, "length", "()I", (caller, stack, sp) -> {
+      stack[sp - 1] = ((StringBuilder) stack[sp - 1]).length();
+      return sp;
+    });
+    registry.register(klazz, "toString", "()Ljava/lang/String;", (caller, stack, sp) -> {
+      stack[sp - 1] = stack[sp - 1].toString();
+      return sp;
+    });
+  }
+
+  private static void registerSystem(final JSEIntrinsics registry) {
+    registry.register("java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", (caller, stack, sp) -> {
+      System.arraycopy(stack[sp - 5], toInt(stack[sp - 4]), stack[sp - 3], toInt(stack[sp - 2]), toInt(stack[sp - 1]));
+      return sp - 5;
+    });
+  }
+}
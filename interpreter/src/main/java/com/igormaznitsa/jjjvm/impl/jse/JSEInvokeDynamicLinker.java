@@ -0,0 +1,614 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import com.igormaznitsa.jjjvm.JJJVMInterpreter;
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPool;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
+import com.igormaznitsa.jjjvm.model.JJJVMConstants;
+import com.igormaznitsa.jjjvm.model.JJJVMIntrinsic;
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import java.io.Serializable;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandleProxies;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Linker of INVOKEDYNAMIC call sites and method constants for
+ * {@link JSEProviderImpl}. Supported bootstrap methods are
+ * StringConcatFactory.makeConcat, StringConcatFactory.makeConcatWithConstants,
+ * LambdaMetafactory.metafactory and LambdaMetafactory.altMetafactory. String
+ * concatenation is made by a recipe prepared during linking. Lambdas are
+ * instances of the host functional interface made by LambdaMetafactory once
+ * per call site, the functional method calls entry method of this class with
+ * bound implementation target and captured values, so that it calls either
+ * interpreted or host implementation method without reflection.
+ * {@link https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-6.html#jvms-6.5.invokedynamic}
+ */
+final class JSEInvokeDynamicLinker implements JJJVMConstants {
+
+  private static final int REF_GET_FIELD = 1;
+  private static final int REF_GET_STATIC = 2;
+  private static final int REF_PUT_FIELD = 3;
+  private static final int REF_PUT_STATIC = 4;
+  private static final int REF_INVOKE_VIRTUAL = 5;
+  private static final int REF_INVOKE_STATIC = 6;
+  private static final int REF_INVOKE_SPECIAL = 7;
+  private static final int REF_NEW_INVOKE_SPECIAL = 8;
+  private static final int REF_INVOKE_INTERFACE = 9;
+
+  private static final int FLAG_SERIALIZABLE = 1;
+  private static final int FLAG_MARKERS = 2;
+  private static final int FLAG_BRIDGES = 4;
+
+  private static final char TAG_ARG = '\u0001';
+  private static final char TAG_CONST = '\u0002';
+
+  /**
+   * Max number of captured and functional method arguments of lambdas made by
+   * LambdaMetafactory, it is number of entry methods.
+   */
+  private static final int MAX_ENTRY_ARITY = 8;
+
+  private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+  private static final MethodHandle GENERIC_ENTRY;
+  private static final MethodHandle PROXY_FACTORY;
+
+  static {
+    try {
+      GENERIC_ENTRY = LOOKUP.findVirtual(LambdaTarget.class, "callFunctional", MethodType.methodType(Object.class, Object[].class));
+      PROXY_FACTORY = LOOKUP.findStatic(JSEInvokeDynamicLinker.class, "makeProxyLambda",
+          MethodType.methodType(Object.class, Class.class, MethodType.class, MethodHandle.class, Object[].class));
+    } catch (ReflectiveOperationException ex) {
+      throw new Error("Can't find lambda entry", ex);
+    }
+  }
+
+  private JSEInvokeDynamicLinker() {
+  }
+
+  /**
+   * Link INVOKEDYNAMIC call site.
+   *
+   * @param provider      the provider of the caller, must not be null
+   * @param caller        the class containing the call site, must not be null
+   * @param callSiteIndex index of INVOKEDYNAMIC item in the constant pool
+   * @return the linked call site, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  static JJJVMIntrinsic link(final JSEProviderImpl provider, final JJJVMClass caller, final int callSiteIndex) throws Throwable {
+    final JJJVMConstantPool cpool = caller.getConstantPool();
+    final int bootstrapIndex = (Integer) cpool.getItemValue(callSiteIndex) >>> 16;
+    final int[] bootstrap = cpool.getBootstrapMethod(bootstrapIndex);
+    if (bootstrap == null) {
+      throw new Error("Can't find bootstrap method [" + bootstrapIndex + ']');
+    }
+
+    final int bootstrapRef = (Integer) cpool.getItemValue(bootstrap[0]) & 0xFFFF;
+    final String bootstrapClass = cpool.getClassName(bootstrapRef);
+    final String bootstrapName = cpool.getName(bootstrapRef);
+
+    final String name = cpool.getName(callSiteIndex);
+    final String descriptor = cpool.getSignature(callSiteIndex);
+
+    if ("java/lang/invoke/StringConcatFactory".equals(bootstrapClass)) {
+      if ("makeConcatWithConstants".equals(bootstrapName)) {
+        return linkConcat(cpool, descriptor, cpool.getString(bootstrap[1]), bootstrap, 2);
+      } else if ("makeConcat".equals(bootstrapName)) {
+        return linkConcat(cpool, descriptor, null, bootstrap, 1);
+      }
+    } else if ("java/lang/invoke/LambdaMetafactory".equals(bootstrapClass)
+        && ("metafactory".equals(bootstrapName) || "altMetafactory".equals(bootstrapName))) {
+      return linkLambda(provider, caller, name, descriptor, bootstrap);
+    }
+    throw new UnsupportedOperationException("Unsupported bootstrap method [" + bootstrapClass + '.' + bootstrapName + ']');
+  }
+
+  /**
+   * Resolve METHODTYPE or METHODHANDLE item. Only items which refer host
+   * classes can be resolved.
+   *
+   * @param provider      the provider of the caller, must not be null
+   * @param caller        the class containing the item, must not be null
+   * @param constantIndex index of the item in the constant pool
+   * @return MethodType or MethodHandle object, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  static Object linkMethodConstant(final JSEProviderImpl provider, final JJJVMClass caller, final int constantIndex) throws Throwable {
+    final JJJVMConstantPool cpool = caller.getConstantPool();
+    if (cpool.getItemType(constantIndex) == JJJVMConstantPoolItem.CONSTANT_METHODTYPE) {
+      return makeMethodType(provider, cpool.getString(constantIndex));
+    }
+
+    final int value = (Integer) cpool.getItemValue(constantIndex);
+    final int kind = value >>> 16;
+    final int ref = value & 0xFFFF;
+    final Class<?> owner = resolveHostClass(provider, cpool.getClassName(ref));
+    final String name = cpool.getName(ref);
+    final String descriptor = cpool.getSignature(ref);
+    final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+    switch (kind) {
+      case REF_GET_FIELD:
+        return lookup.findGetter(owner, name, makeFieldType(provider, descriptor));
+      case REF_GET_STATIC:
+        return lookup.findStaticGetter(owner, name, makeFieldType(provider, descriptor));
+      case REF_PUT_FIELD:
+        return lookup.findSetter(owner, name, makeFieldType(provider, descriptor));
+      case REF_PUT_STATIC:
+        return lookup.findStaticSetter(owner, name, makeFieldType(provider, descriptor));
+      case REF_INVOKE_VIRTUAL:
+      case REF_INVOKE_INTERFACE:
+        return lookup.findVirtual(owner, name, makeMethodType(provider, descriptor));
+      case REF_INVOKE_STATIC:
+        return lookup.findStatic(owner, name, makeMethodType(provider, descriptor));
+      case REF_NEW_INVOKE_SPECIAL:
+        return lookup.findConstructor(owner, makeMethodType(provider, descriptor));
+      default:
+        throw new UnsupportedOperationException("Unsupported method handle kind [" + kind + ']');
+    }
+  }
+
+  private static Class<?> resolveHostClass(final JSEProviderImpl provider, final String jvmFormattedClassName) throws Throwable {
+    final Object resolved = provider.resolveClass(jvmFormattedClassName);
+    if (resolved instanceof Class) {
+      return (Class<?>) resolved;
+    }
+    throw new UnsupportedOperationException("Only host classes are supported [" + jvmFormattedClassName + ']');
+  }
+
+  private static Class<?> makeFieldType(final JSEProviderImpl provider, final String fieldDescriptor) throws Throwable {
+    return provider.parseArgsFromMethodSignature('(' + fieldDescriptor + ')')[0];
+  }
+
+  private static MethodType makeMethodType(final JSEProviderImpl provider, final String methodDescriptor) throws Throwable {
+    final String returnDescriptor = methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    final Class<?> returnType = returnDescriptor.charAt(0) == TYPE_VOID ? void.class : makeFieldType(provider, returnDescriptor);
+    return MethodType.methodType(returnType, provider.parseArgsFromMethodSignature(methodDescriptor));
+  }
+
+  /**
+   * Get types of method arguments, arrays are presented by
+   * {@link JJJVMConstants#TYPE_CLASS}.
+   */
+  private static char[] parseArgumentTypes(final String methodDescriptor) {
+    final StringBuilder result = new StringBuilder();
+    int i = 1;
+    while (methodDescriptor.charAt(i) != ')') {
+      char chr = methodDescriptor.charAt(i);
+      if (chr == TYPE_ARRAY) {
+        while (methodDescriptor.charAt(i) == TYPE_ARRAY) {
+          i++;
+        }
+        if (methodDescriptor.charAt(i) == TYPE_CLASS) {
+          i = methodDescriptor.indexOf(';', i);
+        }
+        chr = TYPE_CLASS;
+      } else if (chr == TYPE_CLASS) {
+        i = methodDescriptor.indexOf(';', i);
+      }
+      result.append(chr);
+      i++;
+    }
+    final char[] types = new char[result.length()];
+    result.getChars(0, types.length, types, 0);
+    return types;
+  }
+
+  private static char getReturnType(final String methodDescriptor) {
+    final char result = methodDescriptor.charAt(methodDescriptor.indexOf(')') + 1);
+    return result == TYPE_ARRAY ? TYPE_CLASS : result;
+  }
+
+  private static String constantToString(final JJJVMConstantPool cpool, final int index) {
+    switch (cpool.getItemType(index)) {
+      case JJJVMConstantPoolItem.CONSTANT_STRING:
+      case JJJVMConstantPoolItem.CONSTANT_CLASSREF:
+        return cpool.getString(index);
+      default:
+        return String.valueOf(cpool.getItemValue(index));
+    }
+  }
+
+  private static JJJVMIntrinsic linkConcat(final JJJVMConstantPool cpool, final String descriptor, final String recipe, final int[] bootstrap, final int firstConstant) {
+    final char[] argTypes = parseArgumentTypes(descriptor);
+    final String[] parts = new String[argTypes.length + 1];
+
+    if (recipe == null) {
+      for (int i = 0; i < parts.length; i++) {
+        parts[i] = "";
+      }
+    } else {
+      final StringBuilder buffer = new StringBuilder();
+      int partIndex = 0;
+      int constIndex = firstConstant;
+      for (int i = 0; i < recipe.length(); i++) {
+        final char chr = recipe.charAt(i);
+        if (chr == TAG_ARG) {
+          parts[partIndex++] = buffer.toString();
+          buffer.setLength(0);
+        } else if (chr == TAG_CONST) {
+          buffer.append(constantToString(cpool, bootstrap[constIndex++]));
+        } else {
+          buffer.append(chr);
+        }
+      }
+      if (partIndex != argTypes.length) {
+        throw new IllegalArgumentException("Wrong concatenation recipe [" + recipe + ']');
+      }
+      parts[partIndex] = buffer.toString();
+    }
+
+    int constLength = 0;
+    for (final String s : parts) {
+      constLength += s.length();
+    }
+    final int estimatedLength = constLength + (argTypes.length << 3);
+
+    return (caller, stack, sp) -> {
+      final int start = sp - argTypes.length;
+      final StringBuilder buffer = new StringBuilder(estimatedLength);
+      buffer.append(parts[0]);
+      for (int i = 0; i < argTypes.length; i++) {
+        appendValue(buffer, argTypes[i], stack[start + i]);
+        buffer.append(parts[i + 1]);
+      }
+      stack[start] = buffer.toString();
+      return start + 1;
+    };
+  }
+
+  private static void appendValue(final StringBuilder buffer, final char type, final Object value) throws Throwable {
+    switch (type) {
+      case TYPE_BOOLEAN:
+        buffer.append(value instanceof Boolean ? (Boolean) value : toInt(value) != 0);
+        break;
+      case TYPE_CHAR:
+        buffer.append(value instanceof Character ? (Character) value : (char) toInt(value));
+        break;
+      case TYPE_BYTE:
+      case TYPE_SHORT:
+      case TYPE_INT:
+        buffer.append(toInt(value));
+        break;
+      case TYPE_LONG:
+        buffer.append(((Number) value).longValue());
+        break;
+      case TYPE_FLOAT:
+        buffer.append(((Number) value).floatValue());
+        break;
+      case TYPE_DOUBLE:
+        buffer.append(((Number) value).doubleValue());
+        break;
+      default: {
+        buffer.append(JJJVMInterpreter.stringValueOf(value));
+      }
+      break;
+    }
+  }
+
+  private static int toInt(final Object value) {
+    return value instanceof Character ? (Character) value : ((Number) value).intValue();
+  }
+
+  /**
+   * Implementation method of a lambda.
+   */
+  private static final class LambdaTarget {
+
+    private final JSEProviderImpl provider;
+    private final JJJVMClass caller;
+    private final int kind;
+    private final String className;
+    private final String methodName;
+    private final String descriptor;
+    private final char[] argTypes;
+    private final char returnType;
+    private final Object resolvedClass;
+    private final JJJVMMethod method;
+    private final Class<?> functionalReturnType;
+
+    LambdaTarget(final JSEProviderImpl provider, final JJJVMClass caller, final int kind, final String className, final String methodName, final String descriptor, final Class<?> functionalReturnType) throws Throwable {
+      this.provider = provider;
+      this.functionalReturnType = functionalReturnType;
+      this.caller = caller;
+      this.kind = kind;
+      this.className = className;
+      this.methodName = methodName;
+      this.descriptor = descriptor;
+      this.argTypes = parseArgumentTypes(descriptor);
+      this.returnType = kind == REF_NEW_INVOKE_SPECIAL ? TYPE_CLASS : getReturnType(descriptor);
+      this.resolvedClass = className.equals(caller.getClassName()) ? caller : provider.resolveClass(className);
+      if (this.resolvedClass instanceof JJJVMClass && kind != REF_NEW_INVOKE_SPECIAL) {
+        this.method = ((JJJVMClass) this.resolvedClass).findMethod(methodName, descriptor);
+        if (this.method == null) {
+          throw new Error("Can't find lambda implementation method [" + className + '.' + methodName + descriptor + ']');
+        }
+      } else {
+        this.method = null;
+      }
+    }
+
+    /**
+     * Call the implementation method for the functional method.
+     *
+     * @param allArgs captured values followed by arguments of the functional
+     *                method, must not be null
+     * @return result adapted to the return type of the functional method
+     * @throws Throwable it will be thrown by the implementation method
+     */
+    Object callFunctional(final Object[] allArgs) throws Throwable {
+      return adaptResult(this.functionalReturnType, call(allArgs));
+    }
+
+    private Object call(final Object[] allArgs) throws Throwable {
+      final boolean hasReceiver = this.kind == REF_INVOKE_VIRTUAL || this.kind == REF_INVOKE_INTERFACE || this.kind == REF_INVOKE_SPECIAL;
+      final Object receiver = hasReceiver ? allArgs[0] : null;
+      final Object[] args = new Object[this.argTypes.length];
+      final int offset = hasReceiver ? 1 : 0;
+      final boolean interpreted = this.resolvedClass instanceof JJJVMClass || receiver instanceof JJJVMObject;
+      for (int i = 0; i < args.length; i++) {
+        args[i] = convertArgument(this.argTypes[i], allArgs[i + offset], interpreted);
+      }
+
+      final Object result;
+      if (this.kind == REF_NEW_INVOKE_SPECIAL) {
+        if (this.resolvedClass instanceof JJJVMClass) {
+          result = ((JJJVMClass) this.resolvedClass).newInstance(this.descriptor, args, null, null);
+        } else {
+          result = this.provider.invoke(this.caller, null, this.className, "<init>", this.descriptor, args);
+        }
+      } else if (receiver instanceof JJJVMObject) {
+        final JJJVMMethod target = this.kind == REF_INVOKE_SPECIAL
+            ? this.method
+            : ((JJJVMObject) receiver).getDeclaringClass().findMethod(this.methodName, this.descriptor);
+        if (target == null) {
+          throw new Error("Can't find method [" + this.methodName + this.descriptor + ']');
+        }
+        result = target.invoke((JJJVMObject) receiver, args);
+      } else if (this.method != null) {
+        result = this.method.invoke(null, args);
+      } else {
+        result = this.provider.invoke(this.caller, receiver, this.className, this.methodName, this.descriptor, args);
+      }
+      return convertResult(this.returnType, result);
+    }
+
+    private static Object convertArgument(final char type, final Object value, final boolean interpreted) {
+      if (value == null) {
+        return null;
+      }
+      switch (type) {
+        case TYPE_BOOLEAN:
+          if (interpreted && value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+          }
+          return value;
+        case TYPE_CHAR:
+        case TYPE_BYTE:
+        case TYPE_SHORT:
+        case TYPE_INT:
+          return interpreted || type == TYPE_INT ? toInt(value) : value;
+        case TYPE_LONG:
+          return ((Number) value).longValue();
+        case TYPE_FLOAT:
+          return ((Number) value).floatValue();
+        case TYPE_DOUBLE:
+          return ((Number) value).doubleValue();
+        default:
+          return value;
+      }
+    }
+
+    private static Object convertResult(final char type, final Object value) {
+      if (value == null) {
+        return null;
+      }
+      switch (type) {
+        case TYPE_BOOLEAN:
+          return value instanceof Boolean ? value : toInt(value) != 0;
+        case TYPE_CHAR:
+          return value instanceof Character ? value : (char) toInt(value);
+        default:
+          return value;
+      }
+    }
+  }
+
+  private static JJJVMIntrinsic linkLambda(final JSEProviderImpl provider, final JJJVMClass caller, final String samName, final String descriptor, final int[] bootstrap) throws Throwable {
+    final JJJVMConstantPool cpool = caller.getConstantPool();
+
+    final String interfaceName = descriptor.substring(descriptor.indexOf(')') + 2, descriptor.length() - 1);
+    final Class<?> samInterface = resolveHostClass(provider, interfaceName);
+    final MethodType samType = makeMethodType(provider, cpool.getString(bootstrap[1]));
+    final List<Class<?>> markers = new ArrayList<>();
+    final List<MethodType> bridges = new ArrayList<>();
+
+    if (bootstrap.length > 4) {
+      // altMetafactory
+      final int flags = (Integer) cpool.getItemValue(bootstrap[4]);
+      int argIndex = 5;
+      if ((flags & FLAG_MARKERS) != 0) {
+        int markersNumber = (Integer) cpool.getItemValue(bootstrap[argIndex++]);
+        while (--markersNumber >= 0) {
+          markers.add(resolveHostClass(provider, cpool.getClassName(bootstrap[argIndex++])));
+        }
+      }
+      if ((flags & FLAG_SERIALIZABLE) != 0 && !markers.contains(Serializable.class)) {
+        // only marked, interpreted implementation can't be deserialized by host
+        markers.add(Serializable.class);
+      }
+      if ((flags & FLAG_BRIDGES) != 0) {
+        int bridgesNumber = (Integer) cpool.getItemValue(bootstrap[argIndex++]);
+        while (--bridgesNumber >= 0) {
+          bridges.add(makeMethodType(provider, cpool.getString(bootstrap[argIndex++])));
+        }
+      }
+    }
+
+    final int handle = (Integer) cpool.getItemValue(bootstrap[2]);
+    final int implRef = handle & 0xFFFF;
+    final LambdaTarget target = new LambdaTarget(provider, caller, handle >>> 16,
+        cpool.getClassName(implRef), cpool.getName(implRef), cpool.getSignature(implRef), samType.returnType());
+    final int capturedNumber = parseArgumentTypes(descriptor).length;
+    final int arity = capturedNumber + samType.parameterCount();
+
+    boolean visible = arity <= MAX_ENTRY_ARITY && isVisibleForLinker(samInterface);
+    for (final Class<?> marker : markers) {
+      visible &= isVisibleForLinker(marker);
+    }
+
+    // factory takes array of captured values and returns lambda instance
+    final MethodHandle factory;
+    if (visible) {
+      final MethodType entryType = MethodType.genericMethodType(arity).insertParameterTypes(0, LambdaTarget.class);
+      final MethodHandle entry = LOOKUP.findStatic(JSEInvokeDynamicLinker.class, "entry" + arity, entryType);
+      final MethodType factoryType = MethodType.genericMethodType(capturedNumber)
+          .insertParameterTypes(0, LambdaTarget.class)
+          .changeReturnType(samInterface);
+
+      final List<Object> args = new ArrayList<>();
+      args.add(samType);
+      args.add(entry);
+      args.add(samType);
+      args.add((markers.isEmpty() ? 0 : FLAG_MARKERS) | (bridges.isEmpty() ? 0 : FLAG_BRIDGES));
+      if (!markers.isEmpty()) {
+        args.add(markers.size());
+        args.addAll(markers);
+      }
+      if (!bridges.isEmpty()) {
+        args.add(bridges.size());
+        args.addAll(bridges);
+      }
+
+      final CallSite site = LambdaMetafactory.altMetafactory(LOOKUP, samName, factoryType, args.toArray());
+      factory = site.getTarget()
+          .bindTo(target)
+          .asSpreader(Object[].class, capturedNumber)
+          .asType(MethodType.methodType(Object.class, Object[].class));
+    } else {
+      // interface is not visible for the linker class loader or too many arguments, marker interfaces are lost
+      final MethodHandle entry = GENERIC_ENTRY.bindTo(target).asCollector(Object[].class, arity);
+      factory = MethodHandles.insertArguments(PROXY_FACTORY, 0, samInterface, samType, entry);
+    }
+
+    if (capturedNumber == 0) {
+      final Object instance = (Object) factory.invokeExact(new Object[0]);
+      return (c, stack, sp) -> {
+        stack[sp] = instance;
+        return sp + 1;
+      };
+    } else {
+      return (c, stack, sp) -> {
+        final int start = sp - capturedNumber;
+        final Object[] captured = new Object[capturedNumber];
+        System.arraycopy(stack, start, captured, 0, capturedNumber);
+        stack[start] = (Object) factory.invokeExact(captured);
+        return start + 1;
+      };
+    }
+  }
+
+  private static boolean isVisibleForLinker(final Class<?> klazz) {
+    try {
+      return Class.forName(klazz.getName(), false, JSEInvokeDynamicLinker.class.getClassLoader()) == klazz;
+    } catch (ClassNotFoundException ex) {
+      return false;
+    }
+  }
+
+  private static Object makeProxyLambda(final Class<?> samInterface, final MethodType samType, final MethodHandle entry, final Object[] captured) {
+    return MethodHandleProxies.asInterfaceInstance(samInterface, MethodHandles.insertArguments(entry, 0, captured).asType(samType));
+  }
+
+  private static Object adaptResult(final Class<?> type, final Object value) {
+    if (value == null || !type.isPrimitive()) {
+      return value;
+    }
+    if (type == boolean.class) {
+      return value instanceof Boolean ? value : toInt(value) != 0;
+    }
+    if (type == char.class) {
+      return value instanceof Character ? value : (char) toInt(value);
+    }
+    final Number number = value instanceof Character ? Integer.valueOf((Character) value) : (Number) value;
+    if (type == int.class) {
+      return number.intValue();
+    }
+    if (type == long.class) {
+      return number.longValue();
+    }
+    if (type == double.class) {
+      return number.doubleValue();
+    }
+    if (type == float.class) {
+      return number.floatValue();
+    }
+    if (type == short.class) {
+      return number.shortValue();
+    }
+    if (type == byte.class) {
+      return number.byteValue();
+    }
+    return value;
+  }
+
+  // entry methods called by functional methods of lambdas made by LambdaMetafactory, they receive captured values followed by arguments
+
+  private static Object entry0(final LambdaTarget target) throws Throwable {
+    return target.callFunctional(new Object[0]);
+  }
+
+  private static Object entry1(final LambdaTarget target, final Object a0) throws Throwable {
+    return target.callFunctional(new Object[]{a0});
+  }
+
+  private static Object entry2(final LambdaTarget target, final Object a0, final Object a1) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1});
+  }
+
+  private static Object entry3(final LambdaTarget target, final Object a0, final Object a1, final Object a2) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1, a2});
+  }
+
+  private static Object entry4(final LambdaTarget target, final Object a0, final Object a1, final Object a2, final Object a3) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1, a2, a3});
+  }
+
+  private static Object entry5(final LambdaTarget target, final Object a0, final Object a1, final Object a2, final Object a3, final Object a4) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1, a2, a3, a4});
+  }
+
+  private static Object entry6(final LambdaTarget target, final Object a0, final Object a1, final Object a2, final Object a3, final Object a4, final Object a5) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1, a2, a3, a4, a5});
+  }
+
+  private static Object entry7(final LambdaTarget target, final Object a0, final Object a1, final Object a2, final Object a3, final Object a4, final Object a5, final Object a6) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1, a2, a3, a4, a5, a6});
+  }
+
+  private static Object entry8(final LambdaTarget target, final Object a0, final Object a1, final Object a2, final Object a3, final Object a4, final Object a5, final Object a6, final Object a7) throws Throwable {
+    return target.callFunctional(new Object[]{a0, a1, a2, a3, a4, a5, a6, a7});
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import com.igormaznitsa.jjjvm.JJJVMInterpreter;
+import com.igormaznitsa.jjjvm.model.JJJVMMetrics;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics collected by lock-free counters and exported as MXBean.
+ * <pre>
+ * final JSEMetrics metrics = new JSEMetrics();
+ * JJJVMInterpreter.setMetrics(metrics);
+ * metrics.register("main");
+ * </pre>
+ */
+public final class JSEMetrics implements JJJVMMetrics, JSEMetricsMXBean {
+
+  /**
+   * Domain of registered MXBean names.
+   */
+  public static final String DOMAIN = "com.igormaznitsa.jjjvm";
+
+  private final LongAdder bytecodes = new LongAdder();
+  private final LongAdder interpretedCalls = new LongAdder();
+  private final LongAdder hostCalls = new LongAdder();
+  private final LongAdder intrinsicCalls = new LongAdder();
+  private final LongAdder invokeDynamicCalls = new LongAdder();
+  private final LongAdder inlineCacheHits = new LongAdder();
+  private final LongAdder inlineCacheMisses = new LongAdder();
+  private final LongAdder classCacheHits = new LongAdder();
+  private final LongAdder classCacheMisses = new LongAdder();
+  private final LongAdder checkCastCacheHits = new LongAdder();
+  private final LongAdder checkCastCacheMisses = new LongAdder();
+  private final LongAdder framesAllocated = new LongAdder();
+  private final LongAdder exceptionsCaught = new LongAdder();
+  private final LongAdder exceptionsUncaught = new LongAdder();
+  private final LongAdder classesLoaded = new LongAdder();
+  private final LongAdder classesEvicted = new LongAdder();
+
+  private volatile ObjectName registeredName;
+
+  /**
+   * Make metrics and install them into the interpreter.
+   *
+   * @return installed metrics, must not be null
+   * @see JJJVMInterpreter#setMetrics(JJJVMMetrics)
+   */
+  public static JSEMetrics install() {
+    final JSEMetrics result = new JSEMetrics();
+    JJJVMInterpreter.setMetrics(result);
+    return result;
+  }
+
+  /**
+   * Register the metrics in the platform MBean server with name
+   * "com.igormaznitsa.jjjvm:type=Metrics,name=&lt;name&gt;".
+   *
+   * @param name value of the name key, must not be null
+   * @return registered name, must not be null
+   * @throws JMException if the metrics can't be registered
+   */
+  public synchronized ObjectName register(final String name) throws JMException {
+    if (this.registeredName != null) {
+      throw new IllegalStateException("Already registered [" + this.registeredName + ']');
+    }
+    final ObjectName objectName = new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    this.registeredName = objectName;
+    return objectName;
+  }
+
+  /**
+   * Unregister the metrics from the platform MBean server if they are
+   * registered.
+   *
+   * @throws JMException if the metrics can't be unregistered
+   */
+  public synchronized void unregister() throws JMException {
+    final ObjectName objectName = this.registeredName;
+    if (objectName != null) {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      if (server.isRegistered(objectName)) {
+        server.unregisterMBean(objectName);
+      }
+      this.registeredName = null;
+    }
+  }
+
+  @Override
+  public void bytecodesExecuted(final int count) {
+    this.bytecodes.add(count);
+  }
+
+  @Override
+  public void call(final CallKind kind) {
+    switch (kind) {
+      case INTERPRETED:
+        this.interpretedCalls.increment();
+        break;
+      case HOST:
+        this.hostCalls.increment();
+        break;
+      case INTRINSIC:
+        this.intrinsicCalls.increment();
+        break;
+      default:
+        this.invokeDynamicCalls.increment();
+        break;
+    }
+  }
+
+  @Override
+  public void inlineCache(final boolean hit) {
+    (hit ? this.inlineCacheHits : this.inlineCacheMisses).increment();
+  }
+
+  @Override
+  public void classCache(final boolean hit) {
+    (hit ? this.classCacheHits : this.classCacheMisses).increment();
+  }
+
+  @Override
+  public void checkCastCache(final boolean hit) {
+    (hit ? this.checkCastCacheHits : this.checkCastCacheMisses).increment();
+  }
+
+  @Override
+  public void frameAllocated() {
+    this.framesAllocated.increment();
+  }
+
+  @Override
+  public void exceptionDispatched(final boolean caught) {
+    (caught ? this.exceptionsCaught : this.exceptionsUncaught).increment();
+  }
+
+  @Override
+  public void classLoaded() {
+    this.classesLoaded.increment();
+  }
+
+  @Override
+  public void classEvicted() {
+    this.classesEvicted.increment();
+  }
+
+  @Override
+  public long getBytecodesExecuted() {
+    return this.bytecodes.sum();
+  }
+
+  @Override
+  public long getInterpretedCalls() {
+    return this.interpretedCalls.sum();
+  }
+
+  @Override
+  public long getHostCalls() {
+    return this.hostCalls.sum();
+  }
+
+  @Override
+  public long getIntrinsicCalls() {
+    return this.intrinsicCalls.sum();
+  }
+
+  @Override
+  public long getInvokeDynamicCalls() {
+    return this.invokeDynamicCalls.sum();
+  }
+
+  @Override
+  public long getInlineCacheHits() {
+    return this.inlineCacheHits.sum();
+  }
+
+  @Override
+  public long getInlineCacheMisses() {
+    return this.inlineCacheMisses.sum();
+  }
+
+  @Override
+  public double getInlineCacheHitRate() {
+    return rate(this.inlineCacheHits, this.inlineCacheMisses);
+  }
+
+  @Override
+  public long getClassCacheHits() {
+    return this.classCacheHits.sum();
+  }
+
+  @Override
+  public long getClassCacheMisses() {
+    return this.classCacheMisses.sum();
+  }
+
+  @Override
+  public double getClassCacheHitRate() {
+    return rate(this.classCacheHits, this.classCacheMisses);
+  }
+
+  @Override
+  public long getCheckCastCacheHits() {
+    return this.checkCastCacheHits.sum();
+  }
+
+  @Override
+  public long getCheckCastCacheMisses() {
+    return this.checkCastCacheMisses.sum();
+  }
+
+  @Override
+  public double getCheckCastCacheHitRate() {
+    return rate(this.checkCastCacheHits, this.checkCastCacheMisses);
+  }
+
+  @Override
+  public long getFramesAllocated() {
+    return this.framesAllocated.sum();
+  }
+
+  @Override
+  public long getExceptionsCaught() {
+    return this.exceptionsCaught.sum();
+  }
+
+  @Override
+  public long getExceptionsUncaught() {
+    return this.exceptionsUncaught.sum();
+  }
+
+  @Override
+  public long getClassesLoaded() {
+    return this.classesLoaded.sum();
+  }
+
+  @Override
+  public long getClassesEvicted() {
+    return this.classesEvicted.sum();
+  }
+
+  @Override
+  public void reset() {
+    for (final LongAdder counter : new LongAdder[]{this.bytecodes, this.interpretedCalls, this.hostCalls, this.intrinsicCalls,
+        this.invokeDynamicCalls, this.inlineCacheHits, this.inlineCacheMisses, this.classCacheHits, this.classCacheMisses, this.checkCastCacheHits,
+        this.checkCastCacheMisses, this.framesAllocated, this.exceptionsCaught, this.exceptionsUncaught, this.classesLoaded,
+        this.classesEvicted}) {
+      counter.reset();
+    }
+  }
+
+  private static double rate(final LongAdder hits, final LongAdder misses) {
+    final long hitCount = hits.sum();
+    final long total = hitCount + misses.sum();
+    return total == 0L ? 0.0d : (double) hitCount / total;
+  }
+}
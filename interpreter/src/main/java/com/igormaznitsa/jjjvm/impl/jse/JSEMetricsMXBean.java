@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.impl.jse;
+
+/**
+ * Management interface of interpreter metrics. Hit rates are in range 0..1,
+ * they are zero if there were no requests.
+ *
+ * @see JSEMetrics
+ */
+public interface JSEMetricsMXBean {
+
+  long getBytecodesExecuted();
+
+  long getInterpretedCalls();
+
+  long getHostCalls();
+
+  long getIntrinsicCalls();
+
+  long getInvokeDynamicCalls();
+
+  long getInlineCacheHits();
+
+  long getInlineCacheMisses();
+
+  double getInlineCacheHitRate();
+
+  long getClassCacheHits();
+
+  long getClassCacheMisses();
+
+  double getClassCacheHitRate();
+
+  long getCheckCastCacheHits();
+
+  long getCheckCastCacheMisses();
+
+  double getCheckCastCacheHitRate();
+
+  long getFramesAllocated();
+
+  long getExceptionsCaught();
+
+  long getExceptionsUncaught();
+
+  long getClassesLoaded();
+
+  long getClassesEvicted();
+
+  /**
+   * Reset all counters.
+   */
+  void reset();
+}
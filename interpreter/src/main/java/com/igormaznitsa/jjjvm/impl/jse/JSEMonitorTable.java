@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Table of monitors for host objects. Objects are compared by identity and
+ * referenced weakly, monitors are reentrant and a monitor is kept in the table
+ * only while some thread owns it or waits for it, so that memory used by the
+ * table is bounded by number of currently locked objects. The table is split
+ * into independently locked segments to decrease contention.
+ */
+public final class JSEMonitorTable {
+
+  private static final int DEFAULT_SEGMENTS = 16;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  /**
+   * Monitor entry, it is kept in the table while its user counter is not
+   * zero.
+   */
+  private static final class Monitor extends WeakReference<Object> {
+
+    final int hash;
+    final ReentrantLock lock = new ReentrantLock();
+    Monitor next;
+    int users;
+
+    Monitor(final Object object, final int hash, final Monitor next, final ReferenceQueue<Object> queue) {
+      super(object, queue);
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+
+  private static final class Segment {
+
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private Monitor[] table = new Monitor[8];
+    private int count;
+
+    private void expungeStaleEntries() {
+      Object ref;
+      while ((ref = this.queue.poll()) != null) {
+        remove((Monitor) ref);
+      }
+    }
+
+    private void remove(final Monitor monitor) {
+      final int index = monitor.hash & (this.table.length - 1);
+      Monitor prev = null;
+      for (Monitor m = this.table[index]; m != null; prev = m, m = m.next) {
+        if (m == monitor) {
+          if (prev == null) {
+            this.table[index] = m.next;
+          } else {
+            prev.next = m.next;
+          }
+          this.count--;
+          return;
+        }
+      }
+    }
+
+    private void resize() {
+      final Monitor[] newTable = new Monitor[this.table.length << 1];
+      for (Monitor m : this.table) {
+        while (m != null) {
+          final Monitor next = m.next;
+          final int index = m.hash & (newTable.length - 1);
+          m.next = newTable[index];
+          newTable[index] = m;
+          m = next;
+        }
+      }
+      this.table = newTable;
+    }
+
+    Monitor find(final Object object, final int hash) {
+      for (Monitor m = this.table[hash & (this.table.length - 1)]; m != null; m = m.next) {
+        if (m.hash == hash && m.get() == object) {
+          return m;
+        }
+      }
+      return null;
+    }
+
+    synchronized Monitor acquire(final Object object, final int hash) {
+      expungeStaleEntries();
+      Monitor result = find(object, hash);
+      if (result == null) {
+        if (this.count >= (this.table.length * 3) >> 2) {
+          resize();
+        }
+        final int index = hash & (this.table.length - 1);
+        result = new Monitor(object, hash, this.table[index], this.queue);
+        this.table[index] = result;
+        this.count++;
+      }
+      result.users++;
+      return result;
+    }
+
+    synchronized Monitor get(final Object object, final int hash) {
+      return find(object, hash);
+    }
+
+    synchronized void release(final Monitor monitor) {
+      if (--monitor.users == 0) {
+        remove(monitor);
+      }
+    }
+
+    synchronized int size() {
+      expungeStaleEntries();
+      return this.count;
+    }
+  }
+
+  public JSEMonitorTable() {
+    this(DEFAULT_SEGMENTS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param segments number of segments, it will be rounded up to power of two
+   */
+  public JSEMonitorTable(final int segments) {
+    if (segments <= 0) {
+      throw new IllegalArgumentException("Number of segments must be positive [" + segments + ']');
+    }
+    int size = 1;
+    while (size < segments) {
+      size <<= 1;
+    }
+    this.segments = new Segment[size];
+    for (int i = 0; i < size; i++) {
+      this.segments[i] = new Segment();
+    }
+    this.segmentMask = size - 1;
+  }
+
+  private static int hash(final Object object) {
+    final int h = System.identityHashCode(object);
+    return h ^ (h >>> 16);
+  }
+
+  private Segment segmentFor(final int hash) {
+    return this.segments[(hash >>> 8) & this.segmentMask];
+  }
+
+  /**
+   * Lock monitor of an object, the call is blocked until the monitor is
+   * acquired. The same thread can lock the monitor several times.
+   *
+   * @param object the object to be locked, must not be null
+   * @throws InterruptedException if the thread has been interrupted during
+   *                              waiting
+   */
+  public void lock(final Object object) throws InterruptedException {
+    final int hash = hash(object);
+    final Segment segment = segmentFor(hash);
+    final Monitor monitor = segment.acquire(object, hash);
+    try {
+      if (JJJVMEvents.isEnabled()) {
+        // contention is recorded only for busy monitor, interruption is checked like by lockInterruptibly
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (!monitor.lock.tryLock()) {
+          final Object event = JJJVMEvents.beginMonitorContention();
+          monitor.lock.lockInterruptibly();
+          JJJVMEvents.endMonitorContention(event, object.getClass().getName());
+        }
+      } else {
+        monitor.lock.lockInterruptibly();
+      }
+    } catch (InterruptedException ex) {
+      segment.release(monitor);
+      throw ex;
+    }
+  }
+
+  /**
+   * Unlock monitor of an object.
+   *
+   * @param object the object to be unlocked, must not be null
+   * @throws IllegalMonitorStateException if the current thread doesn't own
+   *                                      monitor of the object
+   */
+  public void unlock(final Object object) {
+    final int hash = hash(object);
+    final Segment segment = segmentFor(hash);
+    final Monitor monitor = segment.get(object, hash);
+    if (monitor == null) {
+      throw new IllegalMonitorStateException("Object is not locked");
+    }
+    monitor.lock.unlock();
+    segment.release(monitor);
+  }
+
+  /**
+   * Check that monitor of an object is locked by some thread.
+   *
+   * @param object the object to check, must not be null
+   * @return true if the object is locked, false otherwise
+   */
+  public boolean isLocked(final Object object) {
+    final int hash = hash(object);
+    final Monitor monitor = segmentFor(hash).get(object, hash);
+    return monitor != null && monitor.lock.isLocked();
+  }
+
+  /**
+   * Get number of monitors in the table.
+   *
+   * @return number of monitors which are locked or waited
+   */
+  public int size() {
+    int result = 0;
+    for (final Segment s : this.segments) {
+      result += s.size();
+    }
+    return result;
+  }
+}
@@ -16,27 +16,43 @@
 
 package com.igormaznitsa.jjjvm.impl.jse;
 
+import com.igormaznitsa.jjjvm.JJJVMInterpreter;
 import com.igormaznitsa.jjjvm.impl.JJJVMClassImpl;
+import com.igormaznitsa.jjjvm.impl.JJJVMClassSnapshot;
+import com.igormaznitsa.jjjvm.impl.JJJVMPreparedClass;
+import com.igormaznitsa.jjjvm.impl.JJJVMSharedClassImages;
 import com.igormaznitsa.jjjvm.impl.JJJVMImplUtils;
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
 import com.igormaznitsa.jjjvm.model.JJJVMClass;
 import com.igormaznitsa.jjjvm.model.JJJVMInnerClassRecord;
+import com.igormaznitsa.jjjvm.model.JJJVMIntrinsic;
+import com.igormaznitsa.jjjvm.model.JJJVMMetrics;
 import com.igormaznitsa.jjjvm.model.JJJVMObject;
 import com.igormaznitsa.jjjvm.model.JJJVMProvider;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Semaphore;
-import org.objenesis.Objenesis;
-import org.objenesis.ObjenesisStd;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Implementation of provider optimized for Java SE 1.5+.
@@ -44,22 +60,111 @@ import org.objenesis.ObjenesisStd;
  */
 public class JSEProviderImpl implements JJJVMProvider {
 
-  protected static final Objenesis OBJENESIS = new ObjenesisStd();
-  protected final Map<String, Object> classCache = new HashMap<>();
+  protected final JSEClassCache classCache;
   protected final Map<String, Class<?>[]> parsedArgsCache = new HashMap<>();
   protected final Map<String, Map<String, Boolean>> cachedCast = new HashMap<>();
+  protected final Map<String, Map<String, MethodHandle>> constructorCache = new ConcurrentHashMap<>();
   protected final ClassDataLoader classDataLoader;
-  protected final Map<Object, Semaphore> monitors = new ConcurrentHashMap<>();
+  protected final JSEMonitorTable monitors = new JSEMonitorTable();
+  protected final JSEIntrinsics intrinsics = JSEIntrinsics.defaults();
+  protected final Map<String, WeakReference<String>> stringTable = new WeakHashMap<>();
+  protected volatile JJJVMClassSnapshot classSnapshot;
+  protected volatile JJJVMSharedClassImages sharedClassImages;
+  protected boolean staticInitializersDisabled;
 
   public JSEProviderImpl() {
-    this.classDataLoader = jvmFormattedClassName -> null;
+    this(jvmFormattedClassName -> null);
   }
 
   public JSEProviderImpl(final ClassDataLoader classLoader) {
+    this(classLoader, JSEClassCache.unbounded());
+  }
+
+  /**
+   * Constructor allows to define cache of resolved classes.
+   *
+   * @param classLoader loader of class bodies, must not be null
+   * @param classCache  cache for resolved classes, must not be null and must
+   *                    not be shared with other providers
+   * @see JSEClassCache#lru(int)
+   * @see JSEClassCache#weak()
+   */
+  public JSEProviderImpl(final ClassDataLoader classLoader, final JSEClassCache classCache) {
     if (classLoader == null) {
       throw new NullPointerException("Loader is null");
     }
+    if (classCache == null) {
+      throw new NullPointerException("Class cache is null");
+    }
     this.classDataLoader = classLoader;
+    this.classCache = classCache;
+    this.classCache.setEvictionListener(this::onClassEvicted);
+  }
+
+  /**
+   * Called when a class is evicted from the class cache, it removes all
+   * information about the class kept by the provider.
+   *
+   * @param jvmFormattedClassName the jvm formatted name of evicted class, must
+   *                              not be null
+   */
+  protected void onClassEvicted(final String jvmFormattedClassName) {
+    final JJJVMMetrics metrics = JJJVMInterpreter.getMetrics();
+    if (metrics != null) {
+      metrics.classEvicted();
+    }
+    final String normalizedName = JJJVMClassImpl.normalizeClassName(jvmFormattedClassName);
+    this.constructorCache.remove(jvmFormattedClassName);
+    synchronized (this.cachedCast) {
+      this.cachedCast.remove(jvmFormattedClassName);
+      for (final Map<String, Boolean> record : this.cachedCast.values()) {
+        record.remove(jvmFormattedClassName);
+        record.remove(normalizedName);
+      }
+    }
+  }
+
+  /**
+   * Get cache of resolved classes.
+   *
+   * @return the class cache, must not be null
+   */
+  public JSEClassCache getClassCache() {
+    return this.classCache;
+  }
+
+  /**
+   * Get table of monitors used for synchronization on host objects.
+   *
+   * @return the monitor table, must not be null
+   */
+  public JSEMonitorTable getMonitorTable() {
+    return this.monitors;
+  }
+
+  /**
+   * Get registry of intrinsics for host methods, it can be changed to register
+   * intrinsics of embedder.
+   *
+   * @return the intrinsic registry, must not be null
+   */
+  public JSEIntrinsics getIntrinsics() {
+    return this.intrinsics;
+  }
+
+  @Override
+  public JJJVMIntrinsic linkInvokeDynamic(final JJJVMClass caller, final int callSiteIndex) throws Throwable {
+    return JSEInvokeDynamicLinker.link(this, caller, callSiteIndex);
+  }
+
+  @Override
+  public Object linkMethodConstant(final JJJVMClass caller, final int constantIndex) throws Throwable {
+    return JSEInvokeDynamicLinker.linkMethodConstant(this, caller, constantIndex);
+  }
+
+  @Override
+  public JJJVMIntrinsic findIntrinsic(final String jvmFormattedClassName, final String methodName, final String methodSignature) {
+    return this.intrinsics.find(jvmFormattedClassName, methodName, methodSignature);
   }
 
   private static Object[] castArgs(final Class<?>[] types, final Object[] args) {
@@ -252,7 +357,232 @@ public class JSEProviderImpl implements JJJVMProvider {
       throw new ClassNotFoundException(
           "Can't find body for class '" + jvmFormattedClassName + '\'');
     }
-    return new JJJVMClassImpl(new ByteArrayInputStream(classBody), this);
+    final JJJVMMetrics metrics = JJJVMInterpreter.getMetrics();
+    if (metrics != null) {
+      metrics.classLoaded();
+    }
+    final boolean executeStaticInitializer = !this.staticInitializersDisabled;
+    final JJJVMClassSnapshot snapshot = this.classSnapshot;
+    final JJJVMSharedClassImages shared = this.sharedClassImages;
+    if (shared != null) {
+      return shared.makeClass(jvmFormattedClassName, classBody, this, snapshot, executeStaticInitializer);
+    }
+    if (snapshot != null) {
+      final JJJVMClassImpl restored = snapshot.restore(jvmFormattedClassName, classBody, this, executeStaticInitializer);
+      if (restored != null) {
+        return restored;
+      }
+    }
+    return new JJJVMClassImpl(classBody, this, executeStaticInitializer);
+  }
+
+  /**
+   * Resolve class but don't execute static initializers of the class and all
+   * classes loaded during the resolving. It is used to restore static state
+   * saved before.
+   *
+   * @param jvmFormattedClassName the jvm formatted name of the class, must not
+   *                              be null
+   * @return object representing class defined by the name, must not be null
+   * @throws Throwable it will be thrown for errors
+   * @see JSEHeapSnapshot
+   */
+  public Object resolveClassWithoutInitialization(final String jvmFormattedClassName) throws Throwable {
+    synchronized (this.classCache) {
+      final boolean prev = this.staticInitializersDisabled;
+      this.staticInitializersDisabled = true;
+      try {
+        return resolveClass(jvmFormattedClassName);
+      } finally {
+        this.staticInitializersDisabled = prev;
+      }
+    }
+  }
+
+  /**
+   * Set snapshot of parsed class metadata to be used instead of parsing of
+   * class files provided by the class data loader. Classes which are not in
+   * the snapshot or don't match their records are parsed.
+   *
+   * @param snapshot the snapshot, can be null to parse all classes
+   */
+  public void setClassSnapshot(final JJJVMClassSnapshot snapshot) {
+    this.classSnapshot = snapshot;
+  }
+
+  /**
+   * Set registry of class metadata shared with other providers. Classes loaded
+   * by the provider get their own static fields but share parsed constant
+   * pools and method code with classes loaded from the same class files by
+   * other providers using the same registry.
+   *
+   * @param images the registry, can be null to not share metadata
+   */
+  public void setSharedClassImages(final JJJVMSharedClassImages images) {
+    this.sharedClassImages = images;
+  }
+
+  /**
+   * Get current registry of shared class metadata.
+   *
+   * @return the registry or null if not defined
+   */
+  public JJJVMSharedClassImages getSharedClassImages() {
+    return this.sharedClassImages;
+  }
+
+  /**
+   * Get current snapshot of parsed class metadata.
+   *
+   * @return the snapshot or null if not defined
+   */
+  public JJJVMClassSnapshot getClassSnapshot() {
+    return this.classSnapshot;
+  }
+
+  /**
+   * Get all classes loaded by the provider through the class data loader, for
+   * instance to write them into snapshot.
+   *
+   * @return list of loaded classes, must not be null
+   * @see JJJVMClassSnapshot#write(java.util.Collection, java.nio.file.Path)
+   */
+  public List<JJJVMClassImpl> getLoadedClasses() {
+    final List<JJJVMClassImpl> result = new ArrayList<>();
+    synchronized (this.classCache) {
+      for (final Object klazz : this.classCache.values()) {
+        if (klazz instanceof JJJVMClassImpl) {
+          result.add((JJJVMClassImpl) klazz);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Preload all classes provided by the class data loader.
+   *
+   * @param pool pool to parse class files in parallel, null to parse them in
+   *             the current thread
+   * @return preloaded classes in their initialization order, must not be null
+   * @throws Throwable it will be thrown for errors
+   * @throws UnsupportedOperationException if the loader can't list its
+   *                                       classes
+   * @see #preload(Collection, ForkJoinPool)
+   */
+  public List<JJJVMClass> preloadAll(final ForkJoinPool pool) throws Throwable {
+    final Set<String> names = this.classDataLoader.getClassNames();
+    if (names == null) {
+      throw new UnsupportedOperationException("Class data loader can't list its classes");
+    }
+    return preload(names, pool);
+  }
+
+  /**
+   * Preload classes in bulk. Class files are loaded and parsed in parallel,
+   * then classes are linked in their dependency order (superclasses,
+   * interfaces and nested classes first) and their static initializers are
+   * executed in the same order, unless static initializers are disabled.
+   * Already resolved classes are not reloaded.
+   *
+   * @param jvmFormattedClassNames JVM formatted names of classes, must not be
+   *                               null
+   * @param pool                   pool to parse class files in parallel, null
+   *                               to parse them in the current thread
+   * @return preloaded classes in their initialization order, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  public List<JJJVMClass> preload(final Collection<String> jvmFormattedClassNames, final ForkJoinPool pool) throws Throwable {
+    final JJJVMClassSnapshot snapshot = this.classSnapshot;
+    final JJJVMSharedClassImages shared = this.sharedClassImages;
+
+    final List<Callable<JJJVMPreparedClass>> tasks = new ArrayList<>(jvmFormattedClassNames.size());
+    for (final String name : new LinkedHashSet<>(jvmFormattedClassNames)) {
+      tasks.add(() -> {
+        final byte[] classBody = this.classDataLoader.loadClassBody(name);
+        if (classBody == null) {
+          throw new ClassNotFoundException("Can't find body for class '" + name + '\'');
+        }
+        return JJJVMPreparedClass.prepare(name, classBody, snapshot, shared);
+      });
+    }
+
+    final Map<String, JJJVMPreparedClass> prepared = new LinkedHashMap<>();
+    if (pool == null) {
+      for (final Callable<JJJVMPreparedClass> task : tasks) {
+        final JJJVMPreparedClass klazz = task.call();
+        prepared.put(klazz.getClassName(), klazz);
+      }
+    } else {
+      for (final Future<JJJVMPreparedClass> future : pool.invokeAll(tasks)) {
+        try {
+          final JJJVMPreparedClass klazz = future.get();
+          prepared.put(klazz.getClassName(), klazz);
+        } catch (ExecutionException ex) {
+          throw ex.getCause();
+        }
+      }
+    }
+
+    final List<JJJVMClass> result = new ArrayList<>(prepared.size());
+    synchronized (this.classCache) {
+      final Set<String> visited = new HashSet<>();
+      final List<JJJVMClassImpl> created = new ArrayList<>();
+      for (final String name : prepared.keySet()) {
+        link(name, prepared, visited, result, created);
+      }
+      if (!this.staticInitializersDisabled) {
+        try {
+          for (final JJJVMClass klazz : result) {
+            if (klazz instanceof JJJVMClassImpl) {
+              ((JJJVMClassImpl) klazz).initialize();
+            }
+          }
+        } catch (Throwable thr) {
+          // created classes which have not been initialized are dropped to be loaded again by next resolving
+          for (final JJJVMClassImpl klazz : created) {
+            if (!klazz.isInitialized() && this.classCache.get(klazz.getClassName()) == klazz) {
+              this.classCache.remove(klazz.getClassName());
+            }
+          }
+          throw thr;
+        }
+      }
+    }
+    return result;
+  }
+
+  private void link(final String name, final Map<String, JJJVMPreparedClass> prepared, final Set<String> visited, final List<JJJVMClass> result, final List<JJJVMClassImpl> created) throws Throwable {
+    final JJJVMPreparedClass klazz = prepared.get(name);
+    if (klazz == null || !visited.add(name)) {
+      return;
+    }
+    final String superClassName = klazz.getSuperClassName();
+    if (superClassName != null) {
+      link(superClassName, prepared, visited, result, created);
+    }
+    for (final String interfaceName : klazz.getInterfaceNames()) {
+      link(interfaceName, prepared, visited, result, created);
+    }
+    for (final String nestedName : klazz.getNestedClassNames()) {
+      link(nestedName, prepared, visited, result, created);
+    }
+
+    Object linked = this.classCache.get(name);
+    if (linked == null) {
+      // a class could be resolved during linking of classes depending on it
+      final JJJVMClassImpl made = klazz.makeClass(this);
+      created.add(made);
+      linked = made;
+      this.classCache.put(name, linked);
+      final JJJVMMetrics metrics = JJJVMInterpreter.getMetrics();
+      if (metrics != null) {
+        metrics.classLoaded();
+      }
+    }
+    if (linked instanceof JJJVMClass) {
+      result.add((JJJVMClass) linked);
+    }
   }
 
   public JJJVMClass resolveInnerClass(final JJJVMClass caller,
@@ -268,12 +598,14 @@ public class JSEProviderImpl implements JJJVMProvider {
       result = (JJJVMClass) this.classCache.get(innerClassName);
       if (result == null) {
         if (outerClassName != null && !this.classCache.containsKey(outerClassName) &&
-            !JJJVMClassImpl.isClassLoading(outerClassName)) {
+            !JJJVMClassImpl.isClassLoading(this, outerClassName)) {
           final JJJVMClass outerClass = loadClassFromLoader(outerClassName);
           this.classCache.put(outerClassName, outerClass);
           result = (JJJVMClass) this.classCache.get(innerClassName);
           if (result == null) {
-            throw new Error("Unexpected state, inner class [" + innerClassName + "] is not loaded");
+            // the inner class can be already evicted from the class cache
+            result = loadClassFromLoader(innerClassName);
+            this.classCache.put(innerClassName, result);
           }
         } else {
           result = loadClassFromLoader(innerClassName);
@@ -306,6 +638,10 @@ public class JSEProviderImpl implements JJJVMProvider {
     Object result;
     synchronized (this.classCache) {
       result = this.classCache.get(jvmFormattedClassName);
+      final JJJVMMetrics metrics = JJJVMInterpreter.getMetrics();
+      if (metrics != null) {
+        metrics.classCache(result != null);
+      }
       if (result == null) {
         try {
           result = loadClassFromLoader(jvmFormattedClassName);
@@ -318,16 +654,87 @@ public class JSEProviderImpl implements JJJVMProvider {
     return result;
   }
 
+  @Override
+  public String internString(final String value) {
+    // the table is weak so that strings of evicted classes can be collected
+    synchronized (this.stringTable) {
+      final WeakReference<String> ref = this.stringTable.get(value);
+      final String result = ref == null ? null : ref.get();
+      if (result != null) {
+        return result;
+      }
+      this.stringTable.put(value, new WeakReference<>(value));
+      return value;
+    }
+  }
+
   public Object allocate(final JJJVMClass caller, final String jvmFormattedClassName)
       throws Throwable {
     final Object klazz = resolveClass(jvmFormattedClassName);
     if (klazz instanceof JJJVMClass) {
       return ((JJJVMClass) klazz).newInstance(false);
     } else {
-      return OBJENESIS.newInstance((Class<?>) klazz);
+      return new HostAllocation((Class<?>) klazz);
+    }
+  }
+
+  /**
+   * Marker of not initialized instance of a host class. Host objects can't be
+   * allocated separately from their constructor call so that the real object
+   * is created by call of the constructor and the interpreter replaces the
+   * marker by the result.
+   */
+  protected static final class HostAllocation {
+
+    private final Class<?> klazz;
+
+    HostAllocation(final Class<?> klazz) {
+      this.klazz = klazz;
+    }
+
+    public Class<?> getAllocatedClass() {
+      return this.klazz;
+    }
+
+    @Override
+    public String toString() {
+      return "HostAllocation[" + this.klazz.getName() + ']';
     }
   }
 
+  /**
+   * Find cached constructor handle of a host class, the handle takes arguments
+   * as an object array.
+   *
+   * @param jvmFormattedClassName the jvm formatted class name, must not be null
+   * @param klazz                 the class, must not be null
+   * @param methodSignature       the constructor signature, must not be null
+   * @param paramClasses          the constructor argument types, must not be null
+   * @return the constructor handle, must not be null
+   * @throws Throwable it will be thrown if the constructor can't be found
+   */
+  protected MethodHandle findConstructorHandle(final String jvmFormattedClassName, final Class<?> klazz, final String methodSignature, final Class<?>[] paramClasses) throws Throwable {
+    final Map<String, MethodHandle> handles = this.constructorCache.computeIfAbsent(jvmFormattedClassName, k -> new ConcurrentHashMap<>());
+    MethodHandle result = handles.get(methodSignature);
+    if (result == null) {
+      if (Modifier.isAbstract(klazz.getModifiers())) {
+        throw new Error("Attempt directly instantiate abstract class " + klazz.getName());
+      }
+
+      Constructor<?> constructor;
+      try {
+        constructor = klazz.getConstructor(paramClasses);
+      } catch (NoSuchMethodException ex) {
+        constructor = klazz.getDeclaredConstructor(paramClasses);
+      }
+      constructor.setAccessible(true);
+      final MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+      result = handle.asType(handle.type().generic()).asSpreader(Object[].class, paramClasses.length);
+      handles.put(methodSignature, result);
+    }
+    return result;
+  }
+
   public Object invoke(
       final JJJVMClass caller,
       final Object instance,
@@ -339,6 +746,18 @@ public class JSEProviderImpl implements JJJVMProvider {
     if ("java/lang/Object".equals(jvmFormattedClassName) && methodName.startsWith("<")) {
       return null;
     }
+    if (!JJJVMEvents.isEnabled()) {
+      return invokeHost(instance, jvmFormattedClassName, methodName, methodSignature, arguments);
+    }
+    final Object event = JJJVMEvents.beginHostCall();
+    try {
+      return invokeHost(instance, jvmFormattedClassName, methodName, methodSignature, arguments);
+    } finally {
+      JJJVMEvents.endHostCall(event, jvmFormattedClassName, methodName, methodSignature);
+    }
+  }
+
+  private Object invokeHost(final Object instance, final String jvmFormattedClassName, final String methodName, final String methodSignature, final Object[] arguments) throws Throwable {
 
     final Object resolvedClass = resolveClass(jvmFormattedClassName);
     Class<?>[] paramClasses;
@@ -352,19 +771,9 @@ public class JSEProviderImpl implements JJJVMProvider {
 
     final Class<?> klazz = (Class<?>) resolvedClass;
     if ("<init>".equals(methodName)) {
-      // constructor
-      if (Modifier.isAbstract(klazz.getModifiers())) {
-        throw new Error("Attempt directly instantiate abstract class " + klazz.getName());
-      }
-
-      Constructor<?> constructor;
-      try {
-        constructor = klazz.getConstructor(paramClasses);
-      } catch (NoSuchMethodException ex) {
-        constructor = klazz.getDeclaredConstructor(paramClasses);
-      }
-      constructor.setAccessible(true);
-      return constructor.newInstance(castArgs(constructor.getParameterTypes(), arguments));
+      // constructor, the instance is an allocation marker which is replaced by the result
+      final MethodHandle constructor = findConstructorHandle(jvmFormattedClassName, klazz, methodSignature, paramClasses);
+      return (Object) constructor.invokeExact(castArgs(paramClasses, arguments));
     } else {
       final Method method = findMethod(klazz, methodName, paramClasses);
       JJJVMImplUtils.makeAccessible(method);
@@ -488,6 +897,7 @@ public class JSEProviderImpl implements JJJVMProvider {
     if ("java/lang/Object".equals(jvmFormattedClassName)) {
       return true;
     }
+    final JJJVMMetrics metrics = JJJVMInterpreter.getMetrics();
     synchronized (this.cachedCast) {
       final Map<String, Boolean> record =
           this.cachedCast.computeIfAbsent(jvmFormattedClassName, k -> new HashMap<>());
@@ -498,6 +908,9 @@ public class JSEProviderImpl implements JJJVMProvider {
         final String objClassName = jjjvmObj.getDeclaringClass().getClassName();
 
         Boolean flag = record.get(objClassName);
+        if (metrics != null) {
+          metrics.checkCastCache(flag != null);
+        }
         if (flag == null) {
           result =
               findClassForNameInHierarchy(jjjvmObj.getDeclaringClass(), jvmFormattedClassName) !=
@@ -509,6 +922,9 @@ public class JSEProviderImpl implements JJJVMProvider {
       } else {
         final String klazzName = value.getClass().getName();
         Boolean flag = record.get(klazzName);
+        if (metrics != null) {
+          metrics.checkCastCache(flag != null);
+        }
         if (flag == null) {
           final Object theclazz = this.resolveClass(jvmFormattedClassName);
           try {
@@ -534,10 +950,6 @@ public class JSEProviderImpl implements JJJVMProvider {
     }
   }
 
-  private Semaphore findMonitor(final Object object) {
-    return monitors.computeIfAbsent(object, k -> new Semaphore(1));
-  }
-
   public void doMonitor(final JJJVMClass caller, final Object object, boolean lock)
       throws Throwable {
     if (object instanceof JJJVMObject) {
@@ -549,9 +961,9 @@ public class JSEProviderImpl implements JJJVMProvider {
       }
     } else {
       if (lock) {
-        this.findMonitor(object).acquire();
+        this.monitors.lock(object);
       } else {
-        this.findMonitor(object).release();
+        this.monitors.unlock(object);
       }
     }
   }
@@ -653,6 +1065,17 @@ public class JSEProviderImpl implements JJJVMProvider {
      * @throws IOException it must be throws for transport error
      */
     byte[] loadClassBody(String jvmFormattedClassName) throws IOException;
+
+    /**
+     * Get names of all classes provided by the loader, it is used for bulk
+     * preloading.
+     *
+     * @return set of JVM formatted class names or null if the loader can't
+     * list its classes
+     */
+    default Set<String> getClassNames() {
+      return null;
+    }
   }
 
 }
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class data loader which takes class bodies from jar and zip archives. Every
+ * archive is mapped into memory and its central directory is indexed into a
+ * hash table during opening, so that every lookup doesn't touch the archive
+ * structure anymore. Stored entries are served directly from the mapped
+ * memory, deflated ones are inflated by pooled inflaters straight into the
+ * result array. If several archives contain the same class then the first one
+ * wins, like for class path. The loader is safe for concurrent use.
+ * {@link https://pkware.cachefly.net/webdocs/casestudies/APPNOTE.TXT}
+ */
+public class JSEZipClassDataLoader implements JSEProviderImpl.ClassDataLoader, Closeable {
+
+  private static final int SIGNATURE_LOCAL_HEADER = 0x04034B50;
+  private static final int SIGNATURE_CENTRAL_HEADER = 0x02014B50;
+  private static final int SIGNATURE_END_OF_CENTRAL_DIR = 0x06054B50;
+  private static final int SIGNATURE_ZIP64_END_OF_CENTRAL_DIR = 0x06064B50;
+  private static final int SIGNATURE_ZIP64_LOCATOR = 0x07064B50;
+
+  private static final int SIZE_LOCAL_HEADER = 30;
+  private static final int SIZE_CENTRAL_HEADER = 46;
+  private static final int SIZE_END_OF_CENTRAL_DIR = 22;
+  private static final int SIZE_ZIP64_LOCATOR = 20;
+  private static final int MAX_ARCHIVE_COMMENT = 0xFFFF;
+
+  private static final int EXTRA_ZIP64 = 0x0001;
+
+  private static final int METHOD_STORED = 0;
+  private static final int METHOD_DEFLATED = 8;
+
+  private static final String CLASS_EXTENSION = ".class";
+
+  private final Map<String, Entry> index;
+  private final Queue<Inflater> inflaterPool = new ConcurrentLinkedQueue<>();
+  private volatile boolean closed;
+
+  /**
+   * Open archives and index their content.
+   *
+   * @param archives paths to jar or zip files in the lookup order, must not be
+   *                 null
+   * @throws IOException it will be thrown if an archive can't be opened or it
+   *                     has wrong format
+   */
+  public JSEZipClassDataLoader(final Path... archives) throws IOException {
+    this(Arrays.asList(archives));
+  }
+
+  /**
+   * Open archives and index their content.
+   *
+   * @param archives paths to jar or zip files in the lookup order, must not be
+   *                 null
+   * @throws IOException it will be thrown if an archive can't be opened or it
+   *                     has wrong format
+   */
+  public JSEZipClassDataLoader(final List<Path> archives) throws IOException {
+    if (archives == null) {
+      throw new NullPointerException("Archive list is null");
+    }
+    final Map<String, Entry> map = new HashMap<>();
+    for (final Path path : archives) {
+      indexArchive(path, map);
+    }
+    this.index = map;
+  }
+
+  private static ByteBuffer mapArchive(final Path path) throws IOException {
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Archive is too big for mapping [" + path + ']');
+      }
+      final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+      return mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+  }
+
+  private static int findEndOfCentralDirectory(final ByteBuffer archive, final Path path) throws IOException {
+    final int lowest = Math.max(0, archive.limit() - SIZE_END_OF_CENTRAL_DIR - MAX_ARCHIVE_COMMENT);
+    for (int pos = archive.limit() - SIZE_END_OF_CENTRAL_DIR; pos >= lowest; pos--) {
+      if (archive.getInt(pos) == SIGNATURE_END_OF_CENTRAL_DIR) {
+        return pos;
+      }
+    }
+    throw new IOException("Can't find end of central directory, may be not zip archive [" + path + ']');
+  }
+
+  private static int toIntOffset(final long value, final Path path) throws IOException {
+    if (value < 0L || value > Integer.MAX_VALUE) {
+      throw new IOException("Wrong offset in archive [" + path + ']');
+    }
+    return (int) value;
+  }
+
+  private void indexArchive(final Path path, final Map<String, Entry> map) throws IOException {
+    final ByteBuffer archive = mapArchive(path);
+
+    final int endPos = findEndOfCentralDirectory(archive, path);
+    long entriesNumber = archive.getShort(endPos + 10) & 0xFFFF;
+    long centralDirOffset = archive.getInt(endPos + 16) & 0xFFFFFFFFL;
+
+    if (entriesNumber == 0xFFFF || centralDirOffset == 0xFFFFFFFFL) {
+      final int locatorPos = endPos - SIZE_ZIP64_LOCATOR;
+      if (locatorPos >= 0 && archive.getInt(locatorPos) == SIGNATURE_ZIP64_LOCATOR) {
+        final int zip64EndPos = toIntOffset(archive.getLong(locatorPos + 8), path);
+        if (archive.getInt(zip64EndPos) != SIGNATURE_ZIP64_END_OF_CENTRAL_DIR) {
+          throw new IOException("Wrong ZIP64 end of central directory [" + path + ']');
+        }
+        entriesNumber = archive.getLong(zip64EndPos + 32);
+        centralDirOffset = archive.getLong(zip64EndPos + 48);
+      }
+    }
+
+    int pos = toIntOffset(centralDirOffset, path);
+    for (long i = 0; i < entriesNumber; i++) {
+      if (archive.getInt(pos) != SIGNATURE_CENTRAL_HEADER) {
+        throw new IOException("Wrong central directory record at " + pos + " [" + path + ']');
+      }
+      final int flags = archive.getShort(pos + 8) & 0xFFFF;
+      final int method = archive.getShort(pos + 10) & 0xFFFF;
+      long compressedSize = archive.getInt(pos + 20) & 0xFFFFFFFFL;
+      long size = archive.getInt(pos + 24) & 0xFFFFFFFFL;
+      final int nameLength = archive.getShort(pos + 28) & 0xFFFF;
+      final int extraLength = archive.getShort(pos + 30) & 0xFFFF;
+      final int commentLength = archive.getShort(pos + 32) & 0xFFFF;
+      long localHeaderOffset = archive.getInt(pos + 42) & 0xFFFFFFFFL;
+
+      final int namePos = pos + SIZE_CENTRAL_HEADER;
+      final String name = readName(archive, namePos, nameLength);
+
+      if (size == 0xFFFFFFFFL || compressedSize == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+        // values are in the ZIP64 extra field, they are placed in fixed order but only if the main field is overflowed
+        int extraPos = namePos + nameLength;
+        final int extraEnd = extraPos + extraLength;
+        while (extraPos + 4 <= extraEnd) {
+          final int tag = archive.getShort(extraPos) & 0xFFFF;
+          final int dataSize = archive.getShort(extraPos + 2) & 0xFFFF;
+          if (tag == EXTRA_ZIP64) {
+            int valuePos = extraPos + 4;
+            if (size == 0xFFFFFFFFL) {
+              size = archive.getLong(valuePos);
+              valuePos += 8;
+            }
+            if (compressedSize == 0xFFFFFFFFL) {
+              compressedSize = archive.getLong(valuePos);
+              valuePos += 8;
+            }
+            if (localHeaderOffset == 0xFFFFFFFFL) {
+              localHeaderOffset = archive.getLong(valuePos);
+            }
+            break;
+          }
+          extraPos += 4 + dataSize;
+        }
+      }
+
+      if (name.endsWith(CLASS_EXTENSION) && !name.startsWith("META-INF/")) {
+        final String className = name.substring(0, name.length() - CLASS_EXTENSION.length());
+        if (!map.containsKey(className)) {
+          if ((flags & 1) != 0) {
+            throw new IOException("Encrypted entries are not supported [" + name + ']');
+          }
+          if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+            throw new IOException("Unsupported compression method " + method + " [" + name + ']');
+          }
+          if (size > Integer.MAX_VALUE) {
+            throw new IOException("Too big class entry [" + name + ']');
+          }
+          map.put(className, new Entry(path, archive, method, toIntOffset(localHeaderOffset, path), toIntOffset(compressedSize, path), (int) size));
+        }
+      }
+
+      pos = namePos + nameLength + extraLength + commentLength;
+    }
+  }
+
+  private static String readName(final ByteBuffer archive, final int pos, final int length) {
+    final byte[] buffer = new byte[length];
+    final ByteBuffer nameBuffer = archive.duplicate();
+    nameBuffer.position(pos);
+    nameBuffer.get(buffer);
+    return new String(buffer, StandardCharsets.UTF_8);
+  }
+
+  private void assertNotClosed() throws IOException {
+    if (this.closed) {
+      throw new IOException("Loader is closed");
+    }
+  }
+
+  /**
+   * Check that the loader contains a class.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @return true if there is body for the class, false otherwise
+   */
+  public boolean contains(final String jvmFormattedClassName) {
+    return this.index.containsKey(jvmFormattedClassName);
+  }
+
+  /**
+   * Get names of all classes provided by the loader.
+   *
+   * @return unmodifiable set of JVM formatted class names, must not be null
+   */
+  @Override
+  public Set<String> getClassNames() {
+    return Collections.unmodifiableSet(this.index.keySet());
+  }
+
+  /**
+   * Find class body as byte buffer. For stored entries the buffer is a read
+   * only view of the mapped archive so that there is no any copying.
+   *
+   * @param jvmFormattedClassName the JVM formatted class name, must not be null
+   * @return buffer contains the class body or null if class not found
+   * @throws IOException it will be thrown for broken archive
+   */
+  public ByteBuffer findClassBuffer(final String jvmFormattedClassName) throws IOException {
+    assertNotClosed();
+    final Entry entry = this.index.get(jvmFormattedClassName);
+    if (entry == null) {
+      return null;
+    }
+    final ByteBuffer data = entry.data();
+    return entry.method == METHOD_STORED ? data.asReadOnlyBuffer() : ByteBuffer.wrap(inflate(entry, data));
+  }
+
+  @Override
+  public byte[] loadClassBody(final String jvmFormattedClassName) throws IOException {
+    assertNotClosed();
+    final Entry entry = this.index.get(jvmFormattedClassName);
+    if (entry == null) {
+      return null;
+    }
+    final ByteBuffer data = entry.data();
+    if (entry.method == METHOD_STORED) {
+      final byte[] result = new byte[entry.size];
+      data.get(result);
+      return result;
+    } else {
+      return inflate(entry, data);
+    }
+  }
+
+  private byte[] inflate(final Entry entry, final ByteBuffer data) throws IOException {
+    Inflater inflater = this.inflaterPool.poll();
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    try {
+      final byte[] result = new byte[entry.size];
+      inflater.setInput(data);
+      int filled = 0;
+      while (filled < result.length) {
+        final int inflated = inflater.inflate(result, filled, result.length - filled);
+        if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Unexpected end of deflated entry [" + entry + ']');
+        }
+        filled += inflated;
+      }
+      return result;
+    } catch (DataFormatException ex) {
+      throw new IOException("Can't inflate entry [" + entry + ']', ex);
+    } finally {
+      inflater.reset();
+      if (this.closed) {
+        inflater.end();
+      } else {
+        this.inflaterPool.offer(inflater);
+      }
+    }
+  }
+
+  /**
+   * Close the loader and release pooled resources. Mapped memory is released
+   * by GC when all buffers made by the loader become unreachable.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    Inflater inflater;
+    while ((inflater = this.inflaterPool.poll()) != null) {
+      inflater.end();
+    }
+  }
+
+  @Override
+  public String toString() {
+    final List<Path> archives = new ArrayList<>();
+    for (final Entry e : this.index.values()) {
+      if (!archives.contains(e.archivePath)) {
+        archives.add(e.archivePath);
+      }
+    }
+    return this.getClass().getSimpleName() + archives;
+  }
+
+  /**
+   * Indexed archive entry.
+   */
+  private static final class Entry {
+
+    private final Path archivePath;
+    private final ByteBuffer archive;
+    private final int method;
+    private final int localHeaderOffset;
+    private final int compressedSize;
+    private final int size;
+
+    private Entry(final Path archivePath, final ByteBuffer archive, final int method, final int localHeaderOffset, final int compressedSize, final int size) {
+      this.archivePath = archivePath;
+      this.archive = archive;
+      this.method = method;
+      this.localHeaderOffset = localHeaderOffset;
+      this.compressedSize = compressedSize;
+      this.size = size;
+    }
+
+    /**
+     * Make view to the entry data, the local header is read every time because
+     * its extra field can differ from the central one.
+     *
+     * @return view of the entry data, must not be null
+     * @throws IOException if the local header is wrong
+     */
+    ByteBuffer data() throws IOException {
+      if (this.archive.getInt(this.localHeaderOffset) != SIGNATURE_LOCAL_HEADER) {
+        throw new IOException("Wrong local header [" + this + ']');
+      }
+      final int nameLength = this.archive.getShort(this.localHeaderOffset + 26) & 0xFFFF;
+      final int extraLength = this.archive.getShort(this.localHeaderOffset + 28) & 0xFFFF;
+      final int start = this.localHeaderOffset + SIZE_LOCAL_HEADER + nameLength + extraLength;
+      final int length = this.method == METHOD_STORED ? this.size : this.compressedSize;
+
+      final ByteBuffer result = this.archive.duplicate();
+      result.limit(start + length);
+      result.position(start);
+      return result.slice();
+    }
+
+    @Override
+    public String toString() {
+      return this.archivePath + "@" + this.localHeaderOffset;
+    }
+  }
+}
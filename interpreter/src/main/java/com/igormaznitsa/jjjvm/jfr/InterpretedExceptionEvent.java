@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Exception passing an interpreted frame.
+ * <p>
+ * The event is made for every interpreted frame which the exception passes,
+ * the caught flag shows that the frame has a handler for the exception.
+ */
+@Name("com.igormaznitsa.jjjvm.InterpretedException")
+@Label("Interpreted Exception")
+@Category({"JJJVM", "Interpreter"})
+@Description("Exception passing an interpreted frame")
+@StackTrace(false)
+public final class InterpretedExceptionEvent extends Event {
+
+  @Label("Exception Class")
+  public String exceptionClass;
+
+  @Label("Message")
+  public String message;
+
+  @Label("Class")
+  public String className;
+
+  @Label("Method")
+  public String methodName;
+
+  @Label("Line")
+  public int line;
+
+  @Label("Caught")
+  public boolean caught;
+}
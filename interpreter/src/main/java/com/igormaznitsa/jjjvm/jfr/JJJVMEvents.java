@@ -0,0 +1,256 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.jfr;
+
+import com.igormaznitsa.jjjvm.model.JJJVMMethod;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Support of JDK Flight Recorder events made by the interpreter. Events are
+ * created only while some recording is running, so that without recordings
+ * the interpreter checks only a static flag. Every event type can be enabled,
+ * disabled or get other threshold through recording settings as usual.
+ * <p>
+ * Events are made only by methods of the class and passed to callers as
+ * objects, so that other classes don't refer event classes and work on
+ * runtimes without the jdk.jfr module, events are never made there.
+ */
+public final class JJJVMEvents {
+
+  private static volatile boolean enabled;
+
+  static {
+    try {
+      Listener.register();
+    } catch (LinkageError | SecurityException | IllegalStateException ex) {
+      // flight recorder is not allowed or not available, events are not made
+      enabled = false;
+    }
+  }
+
+  /**
+   * Holder of the recorder listener, it is loaded only during registration so
+   * that absence of flight recorder is detected there.
+   */
+  private static final class Listener implements FlightRecorderListener {
+
+    static void register() {
+      FlightRecorder.addListener(new Listener());
+    }
+
+    @Override
+    public void recorderInitialized(final FlightRecorder recorder) {
+      refresh(recorder);
+    }
+
+    @Override
+    public void recordingStateChanged(final Recording recording) {
+      refresh(FlightRecorder.getFlightRecorder());
+    }
+
+    private static void refresh(final FlightRecorder recorder) {
+      boolean running = false;
+      for (final Recording recording : recorder.getRecordings()) {
+        if (recording.getState() == RecordingState.RUNNING) {
+          running = true;
+          break;
+        }
+      }
+      enabled = running;
+    }
+  }
+
+  private JJJVMEvents() {
+  }
+
+  /**
+   * Check that some recording is running and events should be made.
+   *
+   * @return true if events should be made, false otherwise
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Start event of interpreted method call.
+   *
+   * @return the started event, must be passed to
+   * {@link #endMethodInvocation(Object, JJJVMMethod)}
+   */
+  public static Object beginMethodInvocation() {
+    final MethodInvocationEvent event = new MethodInvocationEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End event of interpreted method call.
+   *
+   * @param event  the started event, must not be null
+   * @param method the called method, must not be null
+   */
+  public static void endMethodInvocation(final Object event, final JJJVMMethod method) {
+    final MethodInvocationEvent e = (MethodInvocationEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.className = method.getDeclaringClass().getName();
+      e.methodName = method.getName();
+      e.signature = method.getSignature();
+      e.commit();
+    }
+  }
+
+  /**
+   * Start event of host method call.
+   *
+   * @return the started event, must be passed to
+   * {@link #endHostCall(Object, String, String, String)}
+   */
+  public static Object beginHostCall() {
+    final HostCallEvent event = new HostCallEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End event of host method call.
+   *
+   * @param event      the started event, must not be null
+   * @param className  the jvm formatted name of the host class
+   * @param methodName the method name
+   * @param signature  the method signature
+   */
+  public static void endHostCall(final Object event, final String className, final String methodName, final String signature) {
+    final HostCallEvent e = (HostCallEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.className = className;
+      e.methodName = methodName;
+      e.signature = signature;
+      e.commit();
+    }
+  }
+
+  /**
+   * Start event of waiting for a monitor.
+   *
+   * @return the started event, must be passed to
+   * {@link #endMonitorContention(Object, String)}
+   */
+  public static Object beginMonitorContention() {
+    final MonitorContentionEvent event = new MonitorContentionEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End event of waiting for a monitor.
+   *
+   * @param event        the started event, must not be null
+   * @param monitorClass the name of class of the monitor object
+   */
+  public static void endMonitorContention(final Object event, final String monitorClass) {
+    final MonitorContentionEvent e = (MonitorContentionEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.monitorClass = monitorClass;
+      e.commit();
+    }
+  }
+
+  /**
+   * Start event of class file parsing.
+   *
+   * @return the started event, must be passed to
+   * {@link #endClassParse(Object, String, int)}
+   */
+  public static Object beginClassParse() {
+    final ClassParseEvent event = new ClassParseEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End event of class file parsing.
+   *
+   * @param event     the started event, must not be null
+   * @param className the name of the parsed class
+   * @param size      the size of the class file
+   */
+  public static void endClassParse(final Object event, final String className, final int size) {
+    final ClassParseEvent e = (ClassParseEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.className = className;
+      e.size = size;
+      e.commit();
+    }
+  }
+
+  /**
+   * Start event of static initialization of interpreted class.
+   *
+   * @return the started event, must be passed to
+   * {@link #endClassInitialization(Object, String, boolean)}
+   */
+  public static Object beginClassInitialization() {
+    final ClassInitializationEvent event = new ClassInitializationEvent();
+    event.begin();
+    return event;
+  }
+
+  /**
+   * End event of static initialization of interpreted class.
+   *
+   * @param event     the started event, must not be null
+   * @param className the name of the class
+   * @param failed    true if the initializer has thrown exception
+   */
+  public static void endClassInitialization(final Object event, final String className, final boolean failed) {
+    final ClassInitializationEvent e = (ClassInitializationEvent) event;
+    e.end();
+    if (e.shouldCommit()) {
+      e.className = className;
+      e.failed = failed;
+      e.commit();
+    }
+  }
+
+  /**
+   * Make event for an exception passing an interpreted frame.
+   *
+   * @param method the interpreted method, must not be null
+   * @param line   the source line, negative if unknown
+   * @param thr    the exception, must not be null
+   * @param caught true if the method has handler for the exception
+   */
+  public static void exception(final JJJVMMethod method, final int line, final Throwable thr, final boolean caught) {
+    final InterpretedExceptionEvent event = new InterpretedExceptionEvent();
+    if (event.shouldCommit()) {
+      event.exceptionClass = thr.getClass().getName();
+      event.message = thr.getMessage();
+      event.className = method.getDeclaringClass().getName();
+      event.methodName = method.getName();
+      event.line = line;
+      event.caught = caught;
+      event.commit();
+    }
+  }
+}
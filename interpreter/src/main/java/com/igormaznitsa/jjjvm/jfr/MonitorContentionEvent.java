@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Waiting for a monitor locked by another thread.
+ */
+@Name("com.igormaznitsa.jjjvm.MonitorContention")
+@Label("Monitor Contention")
+@Category({"JJJVM", "Interpreter"})
+@Description("Waiting for a monitor locked by another thread")
+@Threshold("1 ms")
+public final class MonitorContentionEvent extends Event {
+
+  @Label("Monitor Class")
+  public String monitorClass;
+}
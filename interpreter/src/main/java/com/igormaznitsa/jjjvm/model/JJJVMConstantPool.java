@@ -18,6 +18,10 @@ package com.igormaznitsa.jjjvm.model;
 /**
  * Describes a class constant pool.
  * {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.4}
+ * <p>
+ * Index based accessors have default implementations working through
+ * {@link #getItemAt(int)} with items keeping their own data, implementations
+ * keeping data in their own structures should override them.
  */
 public interface JJJVMConstantPool {
 
@@ -42,4 +46,112 @@ public interface JJJVMConstantPool {
    * @return the constant pool item for its index.
    */
   JJJVMConstantPoolItem getItemAt(int itemIndex);
+
+  /**
+   * Get type of constant pool item.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the type of the item, 0 for unused slots
+   * @see JJJVMConstantPoolItem#CONSTANT_UTF8
+   */
+  default int getItemType(int itemIndex) {
+    final JJJVMConstantPoolItem item = getItemAt(itemIndex);
+    return item == null ? 0 : item.getType();
+  }
+
+  /**
+   * Get value of constant pool item as object. Multi-value items are packed
+   * into Integer.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the value of the item
+   */
+  default Object getItemValue(int itemIndex) {
+    final JJJVMConstantPoolItem item = getItemAt(itemIndex);
+    return item == null ? null : item.getValue();
+  }
+
+  /**
+   * Get string presentation of UTF8, STRING, CLASSREF items and descriptor of
+   * METHODTYPE items.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the string value, must not be null
+   * @throws IllegalArgumentException if the item is not compatible with String
+   */
+  default String getString(int itemIndex) {
+    return getItemAt(itemIndex).asString();
+  }
+
+  /**
+   * Get jvm formatted class name for CLASSREF, FIELDREF, METHODREF and
+   * INTERFACEMETHOD items.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the class name, must not be null
+   * @throws IllegalArgumentException if the item doesn't contain class name
+   */
+  default String getClassName(int itemIndex) {
+    return getItemAt(itemIndex).getClassName();
+  }
+
+  /**
+   * Get name for NAMETYPEREF, FIELDREF, METHODREF, INTERFACEMETHOD and
+   * INVOKEDYNAMIC items.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the name, must not be null
+   * @throws IllegalArgumentException if the item doesn't contain name
+   */
+  default String getName(int itemIndex) {
+    return getItemAt(itemIndex).getName();
+  }
+
+  /**
+   * Get signature for NAMETYPEREF, FIELDREF, METHODREF, INTERFACEMETHOD and
+   * INVOKEDYNAMIC items.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the signature, must not be null
+   * @throws IllegalArgumentException if the item doesn't contain signature
+   */
+  default String getSignature(int itemIndex) {
+    return getItemAt(itemIndex).getSignature();
+  }
+
+  /**
+   * Get record of the BootstrapMethods class attribute.
+   * {@link https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-4.html#jvms-4.7.23}
+   *
+   * @param bootstrapIndex index of the bootstrap method in the attribute, it is
+   * the high part of the INVOKEDYNAMIC item value
+   * @return array contains constant pool index of the method handle in the
+   * first cell and indexes of static arguments in next cells, null if there is
+   * no such record
+   */
+  default int[] getBootstrapMethod(int bootstrapIndex) {
+    return null;
+  }
+
+  /**
+   * Get object linked by the interpreter to a constant pool item, for
+   * instance bound intrinsic of a method call site. Linked objects belong to
+   * the class of the provider and they are not shared with other providers.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @return the linked object or null if the item is not linked yet
+   */
+  default Object getLinkedItem(int itemIndex) {
+    return null;
+  }
+
+  /**
+   * Link object to a constant pool item. Linking must be idempotent because
+   * concurrent threads can link the same item.
+   *
+   * @param itemIndex the index of constant pool item.
+   * @param value     the object to be linked, can be null to drop link
+   */
+  default void setLinkedItem(int itemIndex, Object value) {
+  }
 }
@@ -16,8 +16,9 @@
 package com.igormaznitsa.jjjvm.model;
 
 /**
- * Describing structure and contains data of a constant pool item. Data for
- * multi-field items presented as packed integer object
+ * Item of a constant pool. It is either light view to an item whose data is
+ * kept by the pool and the view is made on request, or an item keeping its own
+ * data. Data for multi-field items presented as packed integer object
  */
 public class JJJVMConstantPoolItem {
 
@@ -111,13 +112,19 @@ public class JJJVMConstantPoolItem {
   public static final int CONSTANT_INVOKEDYNAMIC = 18;
 
   /**
-   * The Field contains the type of class pool item.
+   * The Index of the item in the owning constant pool, -1 if the item keeps
+   * its own data.
+   */
+  protected final int index;
+
+  /**
+   * The Field contains the type of the item if it keeps its own data.
    */
   protected final int type;
 
   /**
-   * The Value contains content of the class pool item as Object, multi-value
-   * items are packed as Integer
+   * The Value contains content of the item as Object if it keeps its own
+   * data, multi-value items are packed as Integer
    */
   protected final Object value;
 
@@ -126,123 +133,135 @@ public class JJJVMConstantPoolItem {
    */
   protected final JJJVMConstantPool cpool;
 
+  /**
+   * Make view to an item kept by the constant pool.
+   *
+   * @param cp    the owning constant pool, must not be null
+   * @param index the index of the item in the pool
+   */
+  public JJJVMConstantPoolItem(final JJJVMConstantPool cp, final int index) {
+    this.cpool = cp;
+    this.index = index;
+    this.type = 0;
+    this.value = null;
+  }
+
+  /**
+   * Make item keeping its own data.
+   *
+   * @param cp    the owning constant pool, must not be null
+   * @param type  the type of the item
+   * @param value the value of the item, multi-value items are packed as
+   *              Integer
+   */
   public JJJVMConstantPoolItem(final JJJVMConstantPool cp, final int type, final Object value) {
     this.cpool = cp;
+    this.index = -1;
     this.type = type;
     this.value = value;
   }
 
+  public int getIndex() {
+    return this.index;
+  }
+
   public int getType() {
-    return this.type;
+    return this.index < 0 ? this.type : this.cpool.getItemType(this.index);
   }
 
   public Object getValue() {
-    return this.value;
+    return this.index < 0 ? this.value : this.cpool.getItemValue(this.index);
   }
 
   public int asInt() {
-    return (Integer) this.value;
+    return (Integer) this.getValue();
   }
 
   public Integer asInteger() {
-    return (Integer) this.value;
+    return (Integer) this.getValue();
   }
 
   public Double asDouble() {
-    return (Double) this.value;
+    return (Double) this.getValue();
   }
 
   public Float asFloat() {
-    return (Float) this.value;
+    return (Float) this.getValue();
   }
 
   public Long asLong() {
-    return (Long) this.value;
+    return (Long) this.getValue();
   }
 
   public String asString() {
+    if (this.index >= 0) {
+      return this.cpool.getString(this.index);
+    }
     switch (this.type) {
       case CONSTANT_UTF8:
       case CONSTANT_UNICODE:
         return (String) this.value;
       case CONSTANT_CLASSREF:
       case CONSTANT_STRING:
-        return (String) this.cpool.getItemAt(this.asInt()).asObject();
+      case CONSTANT_METHODTYPE:
+        return this.cpool.getString(this.asInt());
       default:
         throw new IllegalArgumentException("Type is not compatible with String [" + this.type + ']');
     }
   }
 
-  private int extractHighUShort() {
-    return this.asInt() >>> 16;
-  }
-
-  private int extractLowUShort() {
-    return this.asInt() & 0xFFFF;
-  }
-
   public String getClassName() {
-    final String result;
+    if (this.index >= 0) {
+      return this.cpool.getClassName(this.index);
+    }
     switch (this.type) {
-      case CONSTANT_CLASSREF: {
-        result = this.cpool.getItemAt(this.asInt()).asString();
-      }
-      break;
+      case CONSTANT_CLASSREF:
+        return this.cpool.getString(this.asInt());
       case CONSTANT_METHODREF:
       case CONSTANT_INTERFACEMETHOD:
-      case CONSTANT_FIELDREF: {
-        result = this.cpool.getItemAt(extractHighUShort()).asString();
-      }
-      break;
-      default: {
+      case CONSTANT_FIELDREF:
+        return this.cpool.getString(this.asInt() >>> 16);
+      default:
         throw new IllegalArgumentException("Illegal constant pool item");
-      }
     }
-    return result;
   }
 
   public String getSignature() {
-    final String result;
+    if (this.index >= 0) {
+      return this.cpool.getSignature(this.index);
+    }
     switch (this.type) {
-      case CONSTANT_NAMETYPEREF: {
-        result = this.cpool.getItemAt(this.extractLowUShort()).asString();
-      }
-      break;
+      case CONSTANT_NAMETYPEREF:
+        return this.cpool.getString(this.asInt() & 0xFFFF);
       case CONSTANT_METHODREF:
       case CONSTANT_INTERFACEMETHOD:
-      case CONSTANT_FIELDREF: {
-        result = this.cpool.getItemAt(this.cpool.getItemAt(extractLowUShort()).extractLowUShort()).asString();
-      }
-      break;
-      default: {
+      case CONSTANT_FIELDREF:
+      case CONSTANT_INVOKEDYNAMIC:
+        return this.cpool.getSignature(this.asInt() & 0xFFFF);
+      default:
         throw new IllegalArgumentException("Illegal constant pool item");
-      }
     }
-    return result;
   }
 
   public String getName() {
-    final String result;
+    if (this.index >= 0) {
+      return this.cpool.getName(this.index);
+    }
     switch (this.type) {
-      case CONSTANT_NAMETYPEREF: {
-        result = this.cpool.getItemAt(this.extractHighUShort()).asString();
-      }
-      break;
+      case CONSTANT_NAMETYPEREF:
+        return this.cpool.getString(this.asInt() >>> 16);
       case CONSTANT_METHODREF:
       case CONSTANT_INTERFACEMETHOD:
-      case CONSTANT_FIELDREF: {
-        result = this.cpool.getItemAt(this.cpool.getItemAt(this.extractLowUShort()).extractHighUShort()).asString();
-      }
-      break;
-      default: {
+      case CONSTANT_FIELDREF:
+      case CONSTANT_INVOKEDYNAMIC:
+        return this.cpool.getName(this.asInt() & 0xFFFF);
+      default:
         throw new IllegalArgumentException("Illegal constant pool item");
-      }
     }
-    return result;
   }
 
   public Object asObject() {
-    return this.value;
+    return this.getValue();
   }
 
 }
@@ -52,6 +52,7 @@ public interface JJJVMConstants {
   public static final String ATTRNAME_INNERCLASSES = "InnerClasses";
   public static final String ATTRNAME_SOURCEFILE = "SourceFile";
   public static final String ATTRNAME_LINENUMBERTABLE = "LineNumberTable";
+  public static final String ATTRNAME_BOOTSTRAPMETHODS = "BootstrapMethods";
 
   public static final String[] EMPTY_STRING_ARRAY = new String[0];
   public static final JJJVMInnerClassRecord[] EMPTY_INNERCLASS_ARRAY = new JJJVMInnerClassRecord[0];
@@ -0,0 +1,48 @@
+/* 
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.model;
+
+/**
+ * Hand-written implementation of a host method which works directly on the
+ * interpreter stack instead of reflection call. The interpreter binds an
+ * intrinsic to INVOKEVIRTUAL and INVOKESTATIC call site during the first
+ * execution, only if the owner class of the called method is a host class.
+ * Linked INVOKEDYNAMIC call sites are presented by the same interface.
+ * <p>
+ * Arguments are placed on the stack top, one cell per argument and the last
+ * argument in the top cell, the object instance for virtual methods is placed
+ * just below the first argument. Values of boolean, byte, char and short
+ * arguments can be presented by any Number or Character object. The intrinsic
+ * must remove the arguments and the instance from the stack and push result
+ * for non-void method into one cell.
+ *
+ * @see JJJVMProvider#findIntrinsic(String, String, String)
+ * @see JJJVMProvider#linkInvokeDynamic(JJJVMClass, int)
+ */
+@FunctionalInterface
+public interface JJJVMIntrinsic {
+
+  /**
+   * Execute the method.
+   *
+   * @param caller the class calling the method, must not be null
+   * @param stack  the interpreter stack, must not be null
+   * @param sp     the stack pointer, index of the first free cell
+   * @return new stack pointer after the call
+   * @throws Throwable it will be thrown by the called method
+   */
+  int execute(JJJVMClass caller, Object[] stack, int sp) throws Throwable;
+}
@@ -105,4 +105,25 @@ public interface JJJVMMethod extends JJJVMConstants {
    * @return true if it is static void <linit(), false otherwise.
    */
   public boolean isClinit();
+
+  /**
+   * Get data prepared by the interpreter for the method byte-code, for
+   * instance recognized instruction sequences to be executed as one operation.
+   * The data depends only on the byte-code so that it can be shared by all
+   * classes made for the same class file.
+   *
+   * @return the data or null if it is not prepared yet
+   */
+  default Object getInterpreterData() {
+    return null;
+  }
+
+  /**
+   * Save data prepared by the interpreter for the method byte-code. Concurrent
+   * threads can prepare and save equal data.
+   *
+   * @param data the data to be saved, can be null
+   */
+  default void setInterpreterData(final Object data) {
+  }
 }
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.model;
+
+/**
+ * Receiver of interpreter metrics. Methods are called from many threads so
+ * that implementations must be thread safe and cheap, all methods do nothing
+ * by default. While metrics are not installed the interpreter doesn't collect
+ * anything.
+ *
+ * @see com.igormaznitsa.jjjvm.JJJVMInterpreter#setMetrics(JJJVMMetrics)
+ */
+public interface JJJVMMetrics {
+
+  /**
+   * Kind of executed call.
+   */
+  enum CallKind {
+    /**
+     * Call of interpreted method.
+     */
+    INTERPRETED,
+    /**
+     * Call of host method or constructor through provider.
+     */
+    HOST,
+    /**
+     * Call of host method executed by bound intrinsic.
+     */
+    INTRINSIC,
+    /**
+     * Execution of linked INVOKEDYNAMIC call site, string concatenation or
+     * lambda creation.
+     */
+    INVOKEDYNAMIC
+  }
+
+  /**
+   * Called when an interpreted method exits, normally or by exception.
+   *
+   * @param count number of byte-code instructions executed by the method
+   *              without its callees
+   */
+  default void bytecodesExecuted(int count) {
+  }
+
+  /**
+   * Called for every call made by interpreted code.
+   *
+   * @param kind kind of the call, must not be null
+   */
+  default void call(CallKind kind) {
+  }
+
+  /**
+   * Called for every execution of a call site which has linked target kept
+   * in the constant pool, it is a bound intrinsic or linked INVOKEDYNAMIC call
+   * site. Call sites without such target are not counted.
+   *
+   * @param hit true if the target was already linked, false if it has been
+   *            linked by the execution
+   */
+  default void inlineCache(boolean hit) {
+  }
+
+  /**
+   * Called for every class resolving through the class cache.
+   *
+   * @param hit true if the class was found in the cache
+   */
+  default void classCache(boolean hit) {
+  }
+
+  /**
+   * Called for every type check through the cache of check results.
+   *
+   * @param hit true if the result was found in the cache
+   */
+  default void checkCastCache(boolean hit) {
+  }
+
+  /**
+   * Called when an interpreted method allocates its own stack or local
+   * variable array instead of reusing provided ones.
+   */
+  default void frameAllocated() {
+  }
+
+  /**
+   * Called when an exception is processed by an interpreted frame.
+   *
+   * @param caught true if the frame has handler for the exception, false if
+   *               the exception leaves the frame
+   */
+  default void exceptionDispatched(boolean caught) {
+  }
+
+  /**
+   * Called when a class is loaded through class data loader.
+   */
+  default void classLoaded() {
+  }
+
+  /**
+   * Called when a class is evicted from class cache.
+   */
+  default void classEvicted() {
+  }
+}
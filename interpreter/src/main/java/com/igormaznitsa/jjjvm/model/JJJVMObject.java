@@ -16,6 +16,8 @@
 package com.igormaznitsa.jjjvm.model;
 
 import com.igormaznitsa.jjjvm.JJJVMInterpreter;
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -78,6 +80,15 @@ public final class JJJVMObject {
     this.fieldValues.put(fieldName, value);
   }
 
+  /**
+   * Get values of all fields of the object.
+   *
+   * @return unmodifiable map of field values, must not be null
+   */
+  public Map<String, Object> getFieldValues() {
+    return Collections.unmodifiableMap(this.fieldValues);
+  }
+
   public JJJVMObject(final JJJVMClass klazz, final Object extraData) throws Throwable {
     this.baseClass = klazz;
     this.extraData = extraData;
@@ -116,7 +127,19 @@ public final class JJJVMObject {
   }
 
   public void lock() throws InterruptedException {
-    this.monitor.lockInterruptibly();
+    if (JJJVMEvents.isEnabled()) {
+      // contention is recorded only for busy monitor, interruption is checked like by lockInterruptibly
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (!this.monitor.tryLock()) {
+        final Object event = JJJVMEvents.beginMonitorContention();
+        this.monitor.lockInterruptibly();
+        JJJVMEvents.endMonitorContention(event, this.baseClass.getName());
+      }
+    } else {
+      this.monitor.lockInterruptibly();
+    }
   }
 
   public void unlock() {
@@ -206,4 +206,63 @@ public interface JJJVMProvider extends JJJVMConstants {
    * @see #resolveClass(java.lang.String)
    */
   JJJVMClass resolveInnerClass(JJJVMClass caller, JJJVMInnerClassRecord innerClassRecord) throws Throwable;
+
+  /**
+   * Get canonical instance of a string decoded from a class constant pool. It
+   * allows to share equal names and descriptors among all classes of the
+   * provider.
+   *
+   * @param value the decoded string, must not be null
+   * @return the canonical instance of the string, must not be null
+   */
+  default String internString(final String value) {
+    return value;
+  }
+
+  /**
+   * Find intrinsic for a host method. The interpreter calls it once per call
+   * site and keeps the result, so that changes made after linking don't affect
+   * already linked call sites.
+   *
+   * @param jvmFormattedClassName the jvm formatted name
+   * {@link https://docs.oracle.com/javase/specs/jvms/se7/html/jvms-4.html#jvms-4.2}
+   * of the class which is owner of the method, must not be null
+   * @param methodName the method name, must not be null
+   * @param methodSignature the method signature in standard JVM format, must
+   * not be null
+   * @return found intrinsic or null if the method must be called through
+   * {@link #invoke(JJJVMClass, Object, String, String, String, Object[])}
+   */
+  default JJJVMIntrinsic findIntrinsic(final String jvmFormattedClassName, final String methodName, final String methodSignature) {
+    return null;
+  }
+
+  /**
+   * Link INVOKEDYNAMIC call site. The interpreter calls it once per constant
+   * pool item and keeps the result.
+   * {@link https://docs.oracle.com/javase/specs/jvms/se8/html/jvms-6.html#jvms-6.5.invokedynamic}
+   *
+   * @param caller the class containing the call site, must not be null
+   * @param callSiteIndex index of INVOKEDYNAMIC item in the constant pool of
+   * the caller
+   * @return linked call site working on the interpreter stack in the same way
+   * as intrinsics, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  default JJJVMIntrinsic linkInvokeDynamic(final JJJVMClass caller, final int callSiteIndex) throws Throwable {
+    throw new UnsupportedOperationException("INVOKEDYNAMIC is not supported");
+  }
+
+  /**
+   * Resolve METHODTYPE or METHODHANDLE constant pool item loaded by LDC. The
+   * interpreter calls it once per constant pool item and keeps the result.
+   *
+   * @param caller the class containing the constant, must not be null
+   * @param constantIndex index of the item in the constant pool of the caller
+   * @return resolved constant, must not be null
+   * @throws Throwable it will be thrown for errors
+   */
+  default Object linkMethodConstant(final JJJVMClass caller, final int constantIndex) throws Throwable {
+    throw new UnsupportedOperationException("Method type and Method handle is not supported");
+  }
 }
@@ -3,6 +3,7 @@ package com.igormaznitsa.jjjvm;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
@@ -11,8 +12,17 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.igormaznitsa.jjjvm.impl.JJJVMClassImpl;
+import com.igormaznitsa.jjjvm.impl.JJJVMClassSnapshot;
+import com.igormaznitsa.jjjvm.impl.JJJVMSharedClassImages;
+import com.igormaznitsa.jjjvm.impl.jse.JSEClassCache;
+import com.igormaznitsa.jjjvm.impl.jse.JSEHeapSnapshot;
+import com.igormaznitsa.jjjvm.impl.jse.JSEMetrics;
+import com.igormaznitsa.jjjvm.impl.jse.JSEMonitorTable;
 import com.igormaznitsa.jjjvm.impl.jse.JSEProviderImpl;
+import com.igormaznitsa.jjjvm.jfr.JJJVMEvents;
 import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPool;
+import com.igormaznitsa.jjjvm.model.JJJVMConstantPoolItem;
 import com.igormaznitsa.jjjvm.model.JJJVMMethod;
 import com.igormaznitsa.jjjvm.model.JJJVMObject;
 import com.igormaznitsa.jjjvm.model.JJJVMProvider;
@@ -20,14 +30,41 @@ import com.igormaznitsa.jjjvm.testclasses.TestObject;
 import com.igormaznitsa.jjjvm.utils.Branch;
 import com.igormaznitsa.jjjvm.utils.TestHelper;
 import com.igormaznitsa.jjjvm.utils.TestProviderImpl;
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import org.apache.bcel.generic.ACONST_NULL;
 import org.apache.bcel.generic.ALOAD;
 import org.apache.bcel.generic.ARETURN;
@@ -1469,6 +1506,82 @@ public class JJJVMInterpreterTest extends TestHelper implements JSEProviderImpl.
     assertEquals(2, counter.get());
   }
 
+  @Test
+  public void testMONITORENTER_MONITOREXIT_hostObjectReentrantAndIdentityBased() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JSEMonitorTable monitors = provider.getMonitorTable();
+    final String obj = new String("monitor");
+    final String equalObj = new String("monitor");
+
+    final JJJVMClassImpl enter = prepareTestClass(provider, Type.OBJECT, new ALOAD(1), new MONITORENTER(), new ALOAD(1), new ARETURN());
+    final JJJVMClassImpl exit = prepareTestClass(provider, Type.OBJECT, new ALOAD(1), new MONITOREXIT(), new ALOAD(1), new ARETURN());
+
+    executeTestMethod(enter, Object.class, null, obj);
+    executeTestMethod(enter, Object.class, null, obj);
+    assertTrue(monitors.isLocked(obj));
+    assertFalse(monitors.isLocked(equalObj));
+    assertEquals(1, monitors.size());
+
+    final AtomicBoolean lockedByOtherThread = new AtomicBoolean();
+    final Thread thread = new Thread(() -> {
+      try {
+        monitors.lock(equalObj);
+        lockedByOtherThread.set(true);
+        monitors.unlock(equalObj);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    thread.start();
+    thread.join(5000L);
+    assertTrue(lockedByOtherThread.get());
+
+    executeTestMethod(exit, Object.class, null, obj);
+    assertTrue(monitors.isLocked(obj));
+    executeTestMethod(exit, Object.class, null, obj);
+    assertFalse(monitors.isLocked(obj));
+    assertEquals(0, monitors.size());
+
+    try {
+      executeTestMethod(exit, Object.class, null, obj);
+      fail("Must throw IllegalMonitorStateException");
+    } catch (IllegalMonitorStateException ex) {
+    }
+  }
+
+  private static void assertInterruptedLock(final JSEMonitorTable monitors, final JJJVMObject object) {
+    Thread.currentThread().interrupt();
+    try {
+      object.lock();
+      fail("Must throw InterruptedException");
+    } catch (InterruptedException ex) {
+      assertFalse(object.isLocked());
+    }
+
+    Thread.currentThread().interrupt();
+    try {
+      monitors.lock(object);
+      fail("Must throw InterruptedException");
+    } catch (InterruptedException ex) {
+      assertFalse(monitors.isLocked(object));
+      assertEquals(0, monitors.size());
+    }
+  }
+
+  @Test
+  public void testMonitor_InterruptedThreadDoesntLockFreeMonitor() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMObject object = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestObject").newInstance(true);
+
+    assertInterruptedLock(provider.getMonitorTable(), object);
+    try (final Recording recording = new Recording()) {
+      recording.enable("com.igormaznitsa.jjjvm.MonitorContention").withThreshold(Duration.ZERO);
+      recording.start();
+      assertTrue(JJJVMEvents.isEnabled());
+      assertInterruptedLock(provider.getMonitorTable(), object);
+    }
+  }
+
   @Test
   public void testIntegration_TestTableswitch() throws Throwable {
     final JSEProviderImpl provider = new JSEProviderImpl(this);
@@ -1616,6 +1729,1028 @@ public class JJJVMInterpreterTest extends TestHelper implements JSEProviderImpl.
     assertEquals("com.igormaznitsa.jjjvm.testclasses.TestInnerClasses.NonStaticClass", testKlazz.getCanonicalName());
   }
 
+  @Test
+  public void testLazyMethodBody() throws Throwable {
+    final JJJVMProvider provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestThrow");
+
+    final JJJVMMethod throwDIFF = testKlazz.findMethod("throwDIFF", "(I)V");
+    final byte[] bytecode = throwDIFF.getBytecode();
+    assertNotNull(bytecode);
+    assertSame(bytecode, throwDIFF.getBytecode());
+    assertTrue(throwDIFF.getTryCatchRecords().length > 0);
+    assertNotNull(throwDIFF.getLineNumberTable());
+    assertTrue(throwDIFF.getMaxLocals() > 0);
+    assertTrue(throwDIFF.getMaxStackDepth() > 0);
+  }
+
+  @Test
+  public void testConstantPool_LazyDecodedAndDeduplicated() throws Throwable {
+    final JJJVMProvider provider = new JSEProviderImpl(this);
+    final JJJVMClass klazz1 = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestThrow");
+    final JJJVMClass klazz2 = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestInvoke");
+
+    assertSame(klazz1.findDeclaredMethod("<init>", "()V").getName(), klazz2.findDeclaredMethod("<init>", "()V").getName());
+    assertSame(klazz1.findDeclaredMethod("<init>", "()V").getSignature(), klazz2.findDeclaredMethod("<init>", "()V").getSignature());
+
+    final JJJVMClassImpl test = prepareTestClass(new TestProviderImpl(), Type.INT);
+    assertEquals(CONST_INT, test.getConstantPool().getItemAt(CP_INT).asInt());
+    assertEquals(CONST_LNG, test.getConstantPool().getItemAt(CP_LONG).asLong().longValue());
+    assertEquals(CONST_DBL, test.getConstantPool().getItemAt(CP_DOUBLE).asDouble(), 0.0d);
+    assertEquals(CONST_FLT, test.getConstantPool().getItemAt(CP_FLOAT).asFloat(), 0.0f);
+    assertEquals(CONST_STR, test.getConstantPool().getItemAt(CP_STRING).asString());
+    assertEquals(CONST_CLASS, test.getConstantPool().getItemAt(CP_CLASS).getClassName());
+    assertNull(test.getConstantPool().getItemAt(CP_LONG + 1));
+  }
+
+  @Test
+  public void testConstantPool_ItemBasedPoolWorksThroughDefaultAccessors() {
+    final JJJVMConstantPoolItem[] items = new JJJVMConstantPoolItem[7];
+    final JJJVMConstantPool cpool = new JJJVMConstantPool() {
+      @Override
+      public JJJVMClass getDeclaringClass() {
+        return null;
+      }
+
+      @Override
+      public int size() {
+        return items.length;
+      }
+
+      @Override
+      public JJJVMConstantPoolItem getItemAt(final int itemIndex) {
+        return items[itemIndex];
+      }
+    };
+    items[1] = new JJJVMConstantPoolItem(cpool, JJJVMConstantPoolItem.CONSTANT_UTF8, "java/lang/String");
+    items[2] = new JJJVMConstantPoolItem(cpool, JJJVMConstantPoolItem.CONSTANT_CLASSREF, 1);
+    items[3] = new JJJVMConstantPoolItem(cpool, JJJVMConstantPoolItem.CONSTANT_UTF8, "length");
+    items[4] = new JJJVMConstantPoolItem(cpool, JJJVMConstantPoolItem.CONSTANT_UTF8, "()I");
+    items[5] = new JJJVMConstantPoolItem(cpool, JJJVMConstantPoolItem.CONSTANT_NAMETYPEREF, (3 << 16) | 4);
+    items[6] = new JJJVMConstantPoolItem(cpool, JJJVMConstantPoolItem.CONSTANT_METHODREF, (2 << 16) | 5);
+
+    assertEquals(0, cpool.getItemType(0));
+    assertEquals(JJJVMConstantPoolItem.CONSTANT_METHODREF, cpool.getItemType(6));
+    assertEquals("java/lang/String", cpool.getString(2));
+    assertEquals("java/lang/String", cpool.getClassName(6));
+    assertEquals("length", cpool.getName(6));
+    assertEquals("()I", cpool.getSignature(6));
+    assertEquals("()I", items[5].getSignature());
+    assertEquals(-1, items[6].getIndex());
+  }
+
+  @Test
+  public void testClassSnapshot_RestoreAndFallback() throws Throwable {
+    final String className = "com/igormaznitsa/jjjvm/testclasses/TestInnerClasses";
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    provider.resolveClass(className);
+
+    final File file = File.createTempFile("jjjvm", ".snapshot");
+    file.deleteOnExit();
+    JJJVMClassSnapshot.write(provider.getLoadedClasses(), file.toPath());
+
+    final JJJVMClassSnapshot snapshot = new JJJVMClassSnapshot(file.toPath());
+    assertEquals(provider.getLoadedClasses().size(), snapshot.size());
+    assertTrue(snapshot.contains(className));
+
+    final byte[] changedBody = Arrays.copyOf(loadClassBody(className), loadClassBody(className).length + 1);
+    assertNull(snapshot.restore(className, changedBody, new JSEProviderImpl(this)));
+    assertNull(snapshot.restore("some/unknown/Klazz", changedBody, new JSEProviderImpl(this)));
+
+    final JSEProviderImpl restoredProvider = new JSEProviderImpl(this);
+    restoredProvider.setClassSnapshot(snapshot);
+    final JJJVMClass restored = (JJJVMClass) restoredProvider.resolveClass(className);
+    assertEquals(0, JJJVMClassImpl.getNumberOfLoadingClasses());
+    assertEquals("TestInnerClasses.java", restored.getSourceFileName());
+    assertEquals(96, restored.findMethod("test", "(II)I").invoke(restored.newInstance(true), new Object[]{123, 456}));
+  }
+
+  @Test
+  public void testHeapSnapshot_RestoreStaticsWithoutClinit() throws Throwable {
+    final String className = "com/igormaznitsa/jjjvm/testclasses/TestStaticState";
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass klazz = (JJJVMClass) provider.resolveClass(className);
+    final Object stamp = klazz.findMethod("stamp", "()J").invoke(null, null);
+
+    final File file = File.createTempFile("jjjvm", ".heap");
+    file.deleteOnExit();
+    new JSEHeapSnapshot().write(provider, file.toPath());
+
+    final JSEProviderImpl restoredProvider = new JSEProviderImpl(this);
+    new JSEHeapSnapshot().restore(restoredProvider, file.toPath());
+    final JJJVMClass restored = (JJJVMClass) restoredProvider.resolveClass(className);
+    assertNotSame(klazz, restored);
+
+    assertEquals(stamp, restored.findMethod("stamp", "()J").invoke(null, null));
+    assertEquals(49, restored.findMethod("square", "(I)I").invoke(null, new Object[]{7}));
+    assertEquals(4, restored.findMethod("ringSum", "()I").invoke(null, null));
+    assertEquals("25", restored.findMethod("name", "()Ljava/lang/String;").invoke(null, null));
+  }
+
+  @Test
+  public void testSharedClassImages_SharedCodeAndSeparatedStatics() throws Throwable {
+    final String className = "com/igormaznitsa/jjjvm/testclasses/TestInvoke";
+    final JJJVMSharedClassImages images = new JJJVMSharedClassImages();
+
+    final JSEProviderImpl provider1 = new JSEProviderImpl(this);
+    provider1.setSharedClassImages(images);
+    final JSEProviderImpl provider2 = new JSEProviderImpl(this);
+    provider2.setSharedClassImages(images);
+
+    final JJJVMClassImpl klazz1 = (JJJVMClassImpl) provider1.resolveClass(className);
+    final JJJVMClassImpl klazz2 = (JJJVMClassImpl) provider2.resolveClass(className);
+    assertNotSame(klazz1, klazz2);
+    assertTrue(JJJVMSharedClassImages.isSharedMetadata(klazz1, klazz2));
+    assertSame(klazz1.findDeclaredMethod("calc", "(I)I").getBytecode(), klazz2.findDeclaredMethod("calc", "(I)I").getBytecode());
+
+    final JJJVMObject obj = klazz1.newInstance(true);
+    assertEquals(60, klazz1.findDeclaredMethod("calc", "(I)I").invoke(obj, new Object[]{10}));
+    assertSame(obj, klazz1.readStaticField("runnable"));
+    assertNull(klazz2.readStaticField("runnable"));
+  }
+
+  @Test
+  public void testClassCache_Lru() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this, JSEClassCache.lru(2));
+    final Object invoke = provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvoke");
+    assertSame(invoke, provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvoke"));
+
+    provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestThrow");
+    provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestObject");
+    assertEquals(2, provider.getClassCache().size());
+    assertFalse(provider.getClassCache().containsKey("com/igormaznitsa/jjjvm/testclasses/TestInvoke"));
+
+    final JJJVMClass reloaded = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvoke");
+    assertNotSame(invoke, reloaded);
+    assertEquals(60, reloaded.findMethod("calc", "(I)I").invoke(reloaded.newInstance(true), new Object[]{10}));
+    assertTrue(provider.getClassCache().size() <= 2);
+  }
+
+  @Test
+  public void testClassCache_WeakUnloading() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this, JSEClassCache.weak());
+    final WeakReference<Object> ref = new WeakReference<Object>(provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvoke"));
+    for (int i = 0; i < 100 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertNull("Class must be unloaded", ref.get());
+    assertFalse(provider.getClassCache().containsKey("com/igormaznitsa/jjjvm/testclasses/TestInvoke"));
+    assertNotNull(provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvoke"));
+  }
+
+  @Test
+  public void testIntegration_TestIntrinsics() throws Throwable {
+    final List<String> reflectionCalls = Collections.synchronizedList(new ArrayList<>());
+    final JSEProviderImpl provider = new JSEProviderImpl(this) {
+      @Override
+      public Object invoke(final JJJVMClass caller, final Object instance, final String jvmFormattedClassName, final String methodName, final String methodSignature, final Object[] arguments) throws Throwable {
+        reflectionCalls.add(jvmFormattedClassName + '.' + methodName);
+        return super.invoke(caller, instance, jvmFormattedClassName, methodName, methodSignature, arguments);
+      }
+    };
+    final AtomicInteger sqrtCalls = new AtomicInteger();
+    provider.getIntrinsics().register("java/lang/Math", "sqrt", "(D)D", (caller, stack, sp) -> {
+      sqrtCalls.incrementAndGet();
+      stack[sp - 1] = Math.sqrt(((Number) stack[sp - 1]).doubleValue());
+      return sp;
+    });
+
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestIntrinsics");
+
+    assertEquals(3L, testKlazz.findMethod("absLong", "(J)J").invoke(null, new Object[]{-3L}));
+    assertEquals(14, testKlazz.findMethod("calc", "(II)I").invoke(null, new Object[]{3, 7}));
+    assertEquals(4.0d, testKlazz.findMethod("sqrt", "(D)D").invoke(null, new Object[]{16.0d}));
+    assertEquals(2.0d, testKlazz.findMethod("sqrt", "(D)D").invoke(null, new Object[]{4.0d}));
+    assertEquals(2, sqrtCalls.get());
+    assertEquals(12 + 2 + '1', testKlazz.findMethod("parse", "(Ljava/lang/String;)I").invoke(null, new Object[]{"12"}));
+    assertEquals("ab12x", testKlazz.findMethod("concat", "(Ljava/lang/String;IC)Ljava/lang/String;").invoke(null, new Object[]{"ab", 12, 'x'}));
+    assertArrayEquals(new int[]{1, 2, 3}, (int[]) testKlazz.findMethod("copy", "([I)[I").invoke(null, new Object[]{new int[]{1, 2, 3}}));
+
+    assertTrue(reflectionCalls.isEmpty());
+
+    try {
+      testKlazz.findMethod("parse", "(Ljava/lang/String;)I").invoke(null, new Object[]{"abc"});
+      fail("Must throw NumberFormatException");
+    } catch (NumberFormatException ex) {
+    }
+  }
+
+  @Test
+  public void testIntegration_TestStringChains() throws Throwable {
+    final List<String> reflectionCalls = Collections.synchronizedList(new ArrayList<>());
+    final JSEProviderImpl provider = new JSEProviderImpl(this) {
+      @Override
+      public Object invoke(final JJJVMClass caller, final Object instance, final String jvmFormattedClassName, final String methodName, final String methodSignature, final Object[] arguments) throws Throwable {
+        reflectionCalls.add(jvmFormattedClassName + '.' + methodName);
+        return super.invoke(caller, instance, jvmFormattedClassName, methodName, methodSignature, arguments);
+      }
+    };
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestStringChains");
+
+    assertEquals("a1btrue21.52.5", testKlazz.findMethod("constants", "()Ljava/lang/String;").invoke(null, null));
+    final JJJVMMethod mixed = testKlazz.findMethod("mixed", "(Ljava/lang/String;ICZLjava/lang/Object;)Ljava/lang/String;");
+    assertEquals("<x, 1, c, true, [1]>", mixed.invoke(null, new Object[]{"x", 1, (int) 'c', 1, Collections.singletonList(1)}));
+    assertEquals("<null, -2, z, false, null>", mixed.invoke(null, new Object[]{null, -2, 'z', false, null}));
+    assertEquals("-12345678901", testKlazz.findMethod("withLong", "(J)Ljava/lang/String;").invoke(null, new Object[]{-12345678901L}));
+    assertEquals("0.25", testKlazz.findMethod("withDouble", "(D)Ljava/lang/String;").invoke(null, new Object[]{0.25d}));
+    assertEquals("hello!", testKlazz.findMethod("initByString", "(Ljava/lang/String;)Ljava/lang/String;").invoke(null, new Object[]{"hello"}));
+    assertEquals("buf7", testKlazz.findMethod("buffer", "(Ljava/lang/String;I)Ljava/lang/String;").invoke(null, new Object[]{"buf", 7}));
+    assertEquals("01234", testKlazz.findMethod("inLoop", "(I)Ljava/lang/String;").invoke(null, new Object[]{5}));
+    assertTrue(reflectionCalls.isEmpty());
+
+    final JJJVMClass indyKlazz = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvokeDynamic");
+    final JJJVMObject interpreted = indyKlazz.newInstance("(Ljava/lang/String;)V", new Object[]{"pre-"}, null, null);
+    assertEquals("<x, 1, c, true, TestInvokeDynamic(pre-)>", mixed.invoke(null, new Object[]{"x", 1, (int) 'c', 1, interpreted}));
+    assertEquals("a=x, b=1, c=c, e=true, f=TestInvokeDynamic(pre-).", indyKlazz.findMethod("concat", "(Ljava/lang/String;ICZLjava/lang/Object;)Ljava/lang/String;").invoke(null, new Object[]{"x", 1, (int) 'c', 1, interpreted}));
+
+    try {
+      testKlazz.findMethod("initByString", "(Ljava/lang/String;)Ljava/lang/String;").invoke(null, new Object[]{null});
+      fail("Must throw NPE");
+    } catch (NullPointerException ex) {
+    }
+
+    assertEquals("3abc", testKlazz.findMethod("notFused", "(Ljava/lang/String;)Ljava/lang/String;").invoke(null, new Object[]{"abc"}));
+    assertTrue(reflectionCalls.contains("java/lang/StringBuilder.<init>"));
+  }
+
+  @Test
+  public void testIntegration_TestInvokeDynamic() throws Throwable {
+    final String className = "com/igormaznitsa/jjjvm/testclasses/TestInvokeDynamic";
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = (JJJVMClass) provider.resolveClass(className);
+    final JJJVMObject obj = testKlazz.newInstance("(Ljava/lang/String;)V", new Object[]{"pre-"}, null, null);
+
+    final JJJVMMethod concat = testKlazz.findMethod("concat", "(Ljava/lang/String;ICZLjava/lang/Object;)Ljava/lang/String;");
+    assertEquals("a=x, b=1, c=c, e=true, f=TestInvokeDynamic(pre-).", concat.invoke(null, new Object[]{"x", 1, (int) 'c', 1, obj}));
+    assertEquals("a=null, b=-5, c=z, e=false, f=null.", concat.invoke(null, new Object[]{null, -5, 'z', 0, null}));
+    assertEquals("value=5", testKlazz.findMethod("concat", "(J)Ljava/lang/String;").invoke(null, new Object[]{5L}));
+
+    assertEquals(34, testKlazz.findMethod("applyOperator", "(II)I").invoke(null, new Object[]{3, 4}));
+    assertEquals(13, testKlazz.findMethod("capture", "(ILjava/lang/String;)I").invoke(null, new Object[]{10, "abc"}));
+    assertEquals(212, testKlazz.findMethod("methodReferences", "(Ljava/lang/String;)I").invoke(null, new Object[]{"12"}));
+    assertEquals(Boolean.TRUE, testKlazz.findMethod("predicate", "(Ljava/lang/String;)Z").invoke(null, new Object[]{"abcd"}));
+    assertEquals(Boolean.FALSE, testKlazz.findMethod("predicate", "(Ljava/lang/String;)Z").invoke(null, new Object[]{"abc"}));
+    assertEquals(Collections.singletonList("one"), testKlazz.findMethod("constructor", "()Ljava/util/List;").invoke(null, null));
+    assertEquals("pre-txt", testKlazz.findMethod("instanceLambda", "(Ljava/lang/String;)Ljava/lang/String;").invoke(obj, new Object[]{"txt"}));
+
+    final JJJVMMethod nonCapturing = testKlazz.findMethod("nonCapturing", "()Ljava/util/function/Supplier;");
+    final Supplier<?> supplier = (Supplier<?>) nonCapturing.invoke(obj, null);
+    assertSame(supplier, nonCapturing.invoke(obj, null));
+    assertEquals("const", supplier.get());
+    assertFalse(Proxy.isProxyClass(supplier.getClass()));
+
+    final File file = File.createTempFile("jjjvm", ".snapshot");
+    file.deleteOnExit();
+    JJJVMClassSnapshot.write(provider.getLoadedClasses(), file.toPath());
+    final JSEProviderImpl restoredProvider = new JSEProviderImpl(this);
+    restoredProvider.setClassSnapshot(new JJJVMClassSnapshot(file.toPath()));
+    final JJJVMClass restored = (JJJVMClass) restoredProvider.resolveClass(className);
+    assertEquals(13, restored.findMethod("capture", "(ILjava/lang/String;)I").invoke(null, new Object[]{10, "abc"}));
+  }
+
+  @Test
+  public void testProfiler_CountsTimesAndCollapsedStacks() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+    final JJJVMMethod sum = testKlazz.findMethod("sum", "(I)I");
+    final JJJVMMethod add = testKlazz.findMethod("add", "(II)I");
+
+    final JJJVMProfiler profiler = JJJVMProfiler.start(10, true);
+    try {
+      assertSame(profiler, JJJVMProfiler.current());
+      assertEquals(499500, sum.invoke(null, new Object[]{1000}));
+    } finally {
+      profiler.stop();
+    }
+    assertNull(JJJVMProfiler.current());
+    assertEquals(499500, sum.invoke(null, new Object[]{1000}));
+
+    final JJJVMProfiler.MethodProfile sumProfile = profiler.getMethodProfile(sum);
+    final JJJVMProfiler.MethodProfile addProfile = profiler.getMethodProfile(add);
+    assertEquals(1L, sumProfile.getInvocations());
+    assertEquals(1000L, addProfile.getInvocations());
+    assertTrue(sumProfile.getTotalNanos() >= sumProfile.getSelfNanos());
+    assertTrue(sumProfile.getTotalNanos() >= addProfile.getTotalNanos());
+    assertEquals(2, profiler.getMethodProfiles().size());
+
+    long pcSamples = 0L;
+    for (final long counter : sumProfile.getPcSamples()) {
+      pcSamples += counter;
+    }
+    for (final long counter : addProfile.getPcSamples()) {
+      pcSamples += counter;
+    }
+
+    final String frame = "com.igormaznitsa.jjjvm.testclasses.TestProcesses.";
+    long stackSamples = 0L;
+    boolean nestedFound = false;
+    for (final Map.Entry<String, Long> e : profiler.getCollapsedStacks().entrySet()) {
+      assertTrue(e.getKey(), e.getKey().matches("(" + Pattern.quote(frame) + "(sum|add):\\d+;?)+"));
+      nestedFound |= e.getKey().contains(";" + frame + "add:");
+      stackSamples += e.getValue();
+    }
+    assertTrue(nestedFound);
+    assertEquals(pcSamples, stackSamples);
+    assertTrue(stackSamples >= 190L);
+
+    final StringBuilder collapsed = new StringBuilder();
+    profiler.writeCollapsed(collapsed);
+    for (final String line : collapsed.toString().split("\n")) {
+      assertTrue(line, line.matches("\\S+ \\d+"));
+    }
+
+    profiler.reset();
+    assertTrue(profiler.getCollapsedStacks().isEmpty());
+  }
+
+  @Test
+  public void testOpcodeProfiler_HistogramSequencesAndProfileFile() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+    final JJJVMMethod sum = testKlazz.findMethod("sum", "(I)I");
+    final JJJVMMethod add = testKlazz.findMethod("add", "(II)I");
+
+    final JJJVMOpcodeProfiler profiler = JJJVMOpcodeProfiler.start();
+    try {
+      assertSame(profiler, JJJVMOpcodeProfiler.current());
+      assertEquals(499500, sum.invoke(null, new Object[]{1000}));
+    } finally {
+      profiler.stop();
+    }
+    assertNull(JJJVMOpcodeProfiler.current());
+    assertEquals(499500, sum.invoke(null, new Object[]{1000}));
+
+    final JJJVMOpcodeProfile profile = profiler.toProfile();
+    final String addKey = JJJVMOpcodeProfile.methodKey(add);
+    assertEquals("com/igormaznitsa/jjjvm/testclasses/TestProcesses.add(II)I", addKey);
+    assertTrue(profile.containsMethod(JJJVMOpcodeProfile.methodKey(sum)));
+    assertEquals(1000L, profile.getOpcodeCount(addKey, JJJVMOpcodeProfile.opcode("IADD")));
+    assertEquals(1000L, profile.getOpcodeCount(addKey, 172));
+    assertEquals(0L, profile.getOpcodeCount(addKey, 187));
+    assertEquals(1000L, profile.getSequenceCount(addKey, 26, 27));
+    assertEquals(1000L, profile.getSequenceCount(addKey, 26, 27, 96));
+    assertEquals(1000L, profile.getSequenceCount(addKey, 26, 27, 96, 172));
+    assertEquals(0L, profile.getSequenceCount(addKey, 27, 26));
+    assertTrue(profile.getSequenceCount(26, 27, 96, 172) >= 1000L);
+
+    final List<JJJVMOpcodeProfile.Sequence> hot = profile.getHotSequences(4, 3);
+    assertTrue(hot.size() <= 3);
+    assertTrue(hot.get(0).getCount() >= 1000L);
+    assertEquals(4, hot.get(0).getOpcodes().length);
+
+    final StringBuilder report = new StringBuilder();
+    profiler.writeReport(report, 5);
+    assertTrue(report.toString(), report.toString().contains("ILOAD_0,ILOAD_1,IADD,IRETURN"));
+    assertTrue(report.toString().contains("Sequences of 3:"));
+
+    final File file = File.createTempFile("jjjvm", ".opprofile");
+    file.deleteOnExit();
+    profiler.write(file.toPath());
+    final JJJVMOpcodeProfile restored = JJJVMOpcodeProfile.read(file.toPath());
+    assertEquals(profile.getMethods(), restored.getMethods());
+    for (int i = 0; i < 256; i++) {
+      assertEquals(profile.getOpcodeCount(i), restored.getOpcodeCount(i));
+    }
+    assertEquals(1000L, restored.getSequenceCount(addKey, 26, 27, 96, 172));
+
+    profiler.reset();
+    assertTrue(profiler.toProfile().getMethods().isEmpty());
+  }
+
+  @Test
+  public void testOpcodeProfile_WrongStartupProfileIsIgnored() throws Throwable {
+    assertNull(JJJVMOpcodeProfile.loadStartupProfile(null));
+    assertNull(JJJVMOpcodeProfile.loadStartupProfile(""));
+    final File file = File.createTempFile("jjjvm", ".profile");
+    file.deleteOnExit();
+    Files.write(file.toPath(), "op ILOAD 10\n".getBytes(StandardCharsets.UTF_8));
+    assertNull(JJJVMOpcodeProfile.loadStartupProfile(file.getAbsolutePath()));
+    assertNull(JJJVMOpcodeProfile.loadStartupProfile(file.getAbsolutePath() + ".missing"));
+  }
+
+  @Test
+  public void testOpcodeProfile_InstalledProfileDisablesStringChainsOfColdMethods() throws Throwable {
+    final File file = File.createTempFile("jjjvm", ".opprofile");
+    file.deleteOnExit();
+    Files.write(file.toPath(), Arrays.asList(
+        "# profile without NEW",
+        "method com/igormaznitsa/jjjvm/testclasses/TestStringChains.mixed(Ljava/lang/String;ICZLjava/lang/Object;)Ljava/lang/String;",
+        "op ALOAD_0 1",
+        "seq ALOAD_0,ARETURN 1"), StandardCharsets.UTF_8);
+
+    final List<String> reflectionCalls = Collections.synchronizedList(new ArrayList<>());
+    final JSEProviderImpl provider = new JSEProviderImpl(this) {
+      @Override
+      public Object invoke(final JJJVMClass caller, final Object instance, final String jvmFormattedClassName, final String methodName, final String methodSignature, final Object[] arguments) throws Throwable {
+        reflectionCalls.add(jvmFormattedClassName + '.' + methodName);
+        return super.invoke(caller, instance, jvmFormattedClassName, methodName, methodSignature, arguments);
+      }
+    };
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestStringChains");
+
+    JJJVMOpcodeProfile.install(JJJVMOpcodeProfile.read(file.toPath()));
+    try {
+      assertEquals("01234", testKlazz.findMethod("inLoop", "(I)Ljava/lang/String;").invoke(null, new Object[]{5}));
+      assertTrue(reflectionCalls.isEmpty());
+      final JJJVMMethod mixed = testKlazz.findMethod("mixed", "(Ljava/lang/String;ICZLjava/lang/Object;)Ljava/lang/String;");
+      assertEquals("<x, 1, c, true, null>", mixed.invoke(null, new Object[]{"x", 1, 'c', true, null}));
+      assertTrue(reflectionCalls.contains("java/lang/StringBuilder.<init>"));
+    } finally {
+      JJJVMOpcodeProfile.install(null);
+    }
+
+    try {
+      Files.write(file.toPath(), Collections.singletonList("op WRONG 1"), StandardCharsets.UTF_8);
+      JJJVMOpcodeProfile.read(file.toPath());
+      fail("Must throw IOException");
+    } catch (IOException ex) {
+      assertTrue(ex.getMessage().contains("line 1"));
+    }
+  }
+
+  @Test
+  public void testTrace_DumpAllWhileThreadsWrite() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass throwKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestThrow");
+    final JJJVMObject thrower = throwKlazz.newInstance("()V", null, null, null);
+    final JJJVMMethod throwDIFF = throwKlazz.findMethod("throwDIFF", "(I)V");
+
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicInteger dumps = new AtomicInteger();
+    JJJVMTrace.enable(8);
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final List<Future<?>> writers = new ArrayList<>();
+      for (int i = 0; i < 2; i++) {
+        writers.add(executor.submit(() -> {
+          while (!stop.get()) {
+            try {
+              throwDIFF.invoke(thrower, new Object[]{2});
+            } catch (IllegalStateException ex) {
+              // expected
+            } catch (Throwable thr) {
+              throw new RuntimeException(thr);
+            }
+          }
+          return null;
+        }));
+      }
+      final long deadline = System.currentTimeMillis() + 300L;
+      while (System.currentTimeMillis() < deadline) {
+        for (final List<JJJVMTrace.Entry> entries : JJJVMTrace.dumpAll().values()) {
+          for (final JJJVMTrace.Entry e : entries) {
+            assertNotNull(e.getText());
+          }
+        }
+        dumps.incrementAndGet();
+      }
+      stop.set(true);
+      for (final Future<?> writer : writers) {
+        writer.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      stop.set(true);
+      executor.shutdownNow();
+      JJJVMTrace.disable();
+    }
+    assertTrue(dumps.get() > 0);
+  }
+
+  @Test
+  public void testTrace_WrongStartupCapacityIsIgnored() {
+    try {
+      assertFalse(JJJVMTrace.enableAtStartup(null));
+      assertFalse(JJJVMTrace.enableAtStartup("many"));
+      assertFalse(JJJVMTrace.enableAtStartup("-1"));
+      assertFalse(JJJVMTrace.isEnabled());
+      assertTrue(JJJVMTrace.enableAtStartup(" 16 "));
+      assertTrue(JJJVMTrace.isEnabled());
+    } finally {
+      JJJVMTrace.disable();
+      JJJVMTrace.clear();
+    }
+  }
+
+  @Test
+  public void testTrace_RingBufferOfThread() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass processes = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+    final JJJVMClass throwKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestThrow");
+    final JJJVMObject thrower = throwKlazz.newInstance("()V", null, null, null);
+    final JJJVMMethod sum = processes.findMethod("sum", "(I)I");
+
+    JJJVMTrace.enable(100);
+    try {
+      assertTrue(JJJVMTrace.isEnabled());
+      assertEquals(3, sum.invoke(null, new Object[]{3}));
+      try {
+        throwKlazz.findMethod("throwDIFF", "(I)V").invoke(thrower, new Object[]{2});
+        fail("Must throw ISE");
+      } catch (IllegalStateException ex) {
+      }
+    } finally {
+      JJJVMTrace.disable();
+    }
+    assertEquals(3, sum.invoke(null, new Object[]{3}));
+
+    final List<JJJVMTrace.Entry> entries = JJJVMTrace.dump();
+    final List<JJJVMTrace.Kind> kinds = new ArrayList<>();
+    for (final JJJVMTrace.Entry e : entries) {
+      kinds.add(e.getKind());
+    }
+    assertEquals(Arrays.asList(
+        JJJVMTrace.Kind.ENTER,
+        JJJVMTrace.Kind.ENTER, JJJVMTrace.Kind.EXIT,
+        JJJVMTrace.Kind.ENTER, JJJVMTrace.Kind.EXIT,
+        JJJVMTrace.Kind.ENTER, JJJVMTrace.Kind.EXIT,
+        JJJVMTrace.Kind.EXIT,
+        JJJVMTrace.Kind.ENTER,
+        JJJVMTrace.Kind.HOST_CALL,
+        JJJVMTrace.Kind.EXCEPTION_CAUGHT,
+        JJJVMTrace.Kind.HOST_CALL,
+        JJJVMTrace.Kind.EXCEPTION_THROWN,
+        JJJVMTrace.Kind.EXIT_BY_EXCEPTION), kinds);
+    assertEquals("com.igormaznitsa.jjjvm.testclasses.TestProcesses.sum(I)I", entries.get(0).getText());
+    assertEquals(0, entries.get(0).getDepth());
+    assertEquals(1, entries.get(1).getDepth());
+    assertEquals("java/lang/NullPointerException.<init>(Ljava/lang/String;)V", entries.get(9).getText());
+    assertTrue(entries.get(10).getText(), entries.get(10).getText().endsWith("java.lang.NullPointerException: npe"));
+    assertTrue(entries.get(10).getPc() >= 0);
+    assertTrue(entries.get(12).getText().contains("IllegalStateException: ise"));
+    assertTrue(entries.get(13).getNanoTime() >= entries.get(0).getNanoTime());
+
+    final StringBuilder buffer = new StringBuilder();
+    JJJVMTrace.write(buffer);
+    assertTrue(buffer.toString(), buffer.toString().contains("Thread " + Thread.currentThread().getName() + '#'));
+    assertTrue(buffer.toString().contains("ns   EXIT com.igormaznitsa.jjjvm.testclasses.TestProcesses.add(II)I"));
+
+    JJJVMTrace.enable(4);
+    try {
+      assertEquals(45, sum.invoke(null, new Object[]{10}));
+    } finally {
+      JJJVMTrace.disable();
+    }
+    final List<JJJVMTrace.Entry> latest = JJJVMTrace.dump();
+    assertEquals(4, latest.size());
+    assertEquals(JJJVMTrace.Kind.EXIT, latest.get(3).getKind());
+    assertEquals(0, latest.get(3).getDepth());
+    assertEquals(4, JJJVMTrace.dumpAll().get(Thread.currentThread().getName() + '#' + Thread.currentThread().getId()).size());
+
+    JJJVMTrace.clear();
+    assertTrue(JJJVMTrace.dump().isEmpty());
+  }
+
+  @Test
+  public void testRegisterCode_TranslatedMethodsGiveSameResults() throws Throwable {
+    final String className = "com/igormaznitsa/jjjvm/testclasses/TestRegisterCode";
+    final Object[][] calls = new Object[][]{
+      {"sum", "(II)I", new int[][]{{0, 0}, {1, 100}, {-50, 50}, {10, 1}}},
+      {"gcd", "(II)I", new int[][]{{12, 18}, {17, 5}, {0, 9}, {1071, 462}}},
+      {"max", "(II)I", new int[][]{{1, 2}, {2, 1}, {-5, -5}}},
+      {"select", "(III)I", new int[][]{{1, 2, 3}, {5, 0, 1}, {5, 3, 10}}},
+      {"bits", "(I)I", new int[][]{{0}, {255}, {-1}, {0x12345}}},
+      {"swap", "(II)I", new int[][]{{3, 8}, {-4, 9}}},
+      {"divide", "(II)I", new int[][]{{100, 7}, {-9, 2}}},
+      {"withCall", "(I)I", new int[][]{{-7}}}
+    };
+
+    // methods are prepared during the first call so that these ones are executed by the stack interpreter
+    final JJJVMClass stackKlazz = loadClassFromClassPath(new JSEProviderImpl(this), className);
+    for (final Object[] call : calls) {
+      final int[] values = ((int[][]) call[2])[0];
+      final Object[] args = new Object[values.length];
+      for (int i = 0; i < values.length; i++) {
+        args[i] = values[i];
+      }
+      stackKlazz.findMethod((String) call[0], (String) call[1]).invoke(null, args);
+    }
+
+    final JJJVMClass registerKlazz;
+    JJJVMInterpreter.setRegisterCode(true);
+    try {
+      assertTrue(JJJVMInterpreter.isRegisterCode());
+      registerKlazz = loadClassFromClassPath(new JSEProviderImpl(this), className);
+
+      for (final Object[] call : calls) {
+        final String name = (String) call[0];
+        final String signature = (String) call[1];
+        for (final int[] values : (int[][]) call[2]) {
+          final Object[] args = new Object[values.length];
+          final Class<?>[] types = new Class<?>[values.length];
+          for (int i = 0; i < values.length; i++) {
+            args[i] = values[i];
+            types[i] = int.class;
+          }
+          final Object expected = com.igormaznitsa.jjjvm.testclasses.TestRegisterCode.class.getMethod(name, types).invoke(null, args);
+          assertEquals(name + Arrays.toString(values), expected, stackKlazz.findMethod(name, signature).invoke(null, args.clone()));
+          assertEquals(name + Arrays.toString(values), expected, registerKlazz.findMethod(name, signature).invoke(null, args.clone()));
+        }
+      }
+      assertNull(registerKlazz.findMethod("nothing", "(I)V").invoke(null, new Object[]{1}));
+
+      try {
+        registerKlazz.findMethod("divide", "(II)I").invoke(null, new Object[]{1, 0});
+        fail("Must throw ArithmeticException");
+      } catch (ArithmeticException ex) {
+        assertEquals("/ by zero", ex.getMessage());
+        assertEquals("com.igormaznitsa.jjjvm.testclasses.TestRegisterCode", ex.getStackTrace()[0].getClassName());
+        assertEquals("divide", ex.getStackTrace()[0].getMethodName());
+        assertTrue(ex.getStackTrace()[0].getLineNumber() > 0);
+        for (final StackTraceElement element : ex.getStackTrace()) {
+          assertNotEquals(JJJVMRegisterCode.class.getName(), element.getClassName());
+          assertNotEquals(JJJVMInterpreter.class.getName(), element.getClassName());
+        }
+      }
+
+      // fuel used by the thread before doesn't disable register code
+      JJJVMFuel.install(100L, JJJVMFuel.Handler.terminating());
+      JJJVMFuel.uninstall();
+      assertNull(JJJVMFuel.current());
+      assertEquals(5, registerKlazz.findMethod("gcd", "(II)I").invoke(null, new Object[]{0, 5}));
+
+      // instructions are counted by the profiler so that the stack interpreter is used
+      final JJJVMOpcodeProfiler profiler = JJJVMOpcodeProfiler.start();
+      try {
+        assertEquals(6, registerKlazz.findMethod("gcd", "(II)I").invoke(null, new Object[]{12, 18}));
+      } finally {
+        profiler.stop();
+      }
+      assertTrue(profiler.toProfile().getOpcodeCount(112) > 0L);
+    } finally {
+      JJJVMInterpreter.setRegisterCode(false);
+    }
+
+    final JJJVMMethod sum = registerKlazz.findMethod("sum", "(II)I");
+    final JJJVMRegisterCode sumCode = ((JJJVMMethodData) sum.getInterpreterData()).registerCode;
+    assertNotNull(sumCode);
+    assertTrue(sumCode.size() < new org.apache.bcel.generic.InstructionList(sum.getBytecode()).size());
+    assertNotNull(((JJJVMMethodData) registerKlazz.findMethod("select", "(III)I").getInterpreterData()).registerCode);
+    assertNull(((JJJVMMethodData) registerKlazz.findMethod("withCall", "(I)I").getInterpreterData()).registerCode);
+    assertNull(((JJJVMMethodData) stackKlazz.findMethod("sum", "(II)I").getInterpreterData()).registerCode);
+  }
+
+  @Test
+  public void testFlightRecorder_InterpreterEvents() throws Throwable {
+    final File file = File.createTempFile("jjjvm", ".jfr");
+    file.deleteOnExit();
+
+    final List<RecordedEvent> events;
+    try (final Recording recording = new Recording()) {
+      for (final String name : new String[]{"MethodInvocation", "ClassParse", "HostCall", "InterpretedException"}) {
+        recording.enable("com.igormaznitsa.jjjvm." + name).withThreshold(Duration.ZERO);
+      }
+      recording.start();
+      assertTrue(JJJVMEvents.isEnabled());
+
+      final JJJVMProvider provider = new JSEProviderImpl(this);
+      final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestThrow");
+      try {
+        testKlazz.findMethod("throwDIFF", "(I)V").invoke(testKlazz.newInstance(true), new Object[]{2});
+        fail("Must throw ISE");
+      } catch (IllegalStateException ex) {
+        assertEquals("ise", ex.getMessage());
+      }
+
+      recording.stop();
+      recording.dump(file.toPath());
+      events = RecordingFile.readAllEvents(file.toPath());
+    }
+
+    final Map<String, List<RecordedEvent>> byType = new HashMap<>();
+    for (final RecordedEvent e : events) {
+      byType.computeIfAbsent(e.getEventType().getName(), k -> new ArrayList<>()).add(e);
+    }
+
+    final RecordedEvent parse = byType.get("com.igormaznitsa.jjjvm.ClassParse").get(0);
+    assertEquals("com/igormaznitsa/jjjvm/testclasses/TestThrow", parse.getString("className"));
+
+    boolean invocationFound = false;
+    for (final RecordedEvent e : byType.get("com.igormaznitsa.jjjvm.MethodInvocation")) {
+      invocationFound |= "throwDIFF".equals(e.getString("methodName")) && "(I)V".equals(e.getString("signature"));
+    }
+    assertTrue(invocationFound);
+
+    boolean hostCallFound = false;
+    for (final RecordedEvent e : byType.get("com.igormaznitsa.jjjvm.HostCall")) {
+      hostCallFound |= "java/lang/IllegalStateException".equals(e.getString("className")) && "<init>".equals(e.getString("methodName"));
+    }
+    assertTrue(hostCallFound);
+
+    final List<RecordedEvent> exceptions = byType.get("com.igormaznitsa.jjjvm.InterpretedException");
+    assertEquals(2, exceptions.size());
+    exceptions.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+    assertEquals(NullPointerException.class.getName(), exceptions.get(0).getString("exceptionClass"));
+    assertTrue(exceptions.get(0).getBoolean("caught"));
+    assertEquals(19, exceptions.get(0).getInt("line"));
+    assertEquals(IllegalStateException.class.getName(), exceptions.get(1).getString("exceptionClass"));
+    assertFalse(exceptions.get(1).getBoolean("caught"));
+  }
+
+  @Test
+  public void testMetrics_CountersAndMXBean() throws Throwable {
+    final JSEMetrics metrics = JSEMetrics.install();
+    try {
+      final ObjectName name = metrics.register("test");
+      final JSEProviderImpl provider = new JSEProviderImpl(this);
+      final JJJVMClass processes = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+      assertEquals(1L, metrics.getClassesLoaded());
+      assertTrue(metrics.getClassCacheMisses() > 0L);
+
+      assertEquals(4950, processes.findMethod("sum", "(I)I").invoke(null, new Object[]{100}));
+      assertEquals(100L, metrics.getInterpretedCalls());
+      // calls of interpreted methods don't have linked targets
+      assertEquals(0L, metrics.getInlineCacheHits());
+      assertEquals(0L, metrics.getInlineCacheMisses());
+      assertTrue(metrics.getBytecodesExecuted() > 100L * 4);
+      assertTrue(metrics.getFramesAllocated() >= 100L);
+
+      final JJJVMClass intrinsics = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestIntrinsics");
+      final JJJVMMethod calc = intrinsics.findMethod("calc", "(II)I");
+      for (int i = 0; i < 10; i++) {
+        assertEquals(10, calc.invoke(null, new Object[]{5, 3}));
+      }
+      assertEquals(30L, metrics.getIntrinsicCalls());
+      assertEquals(27L, metrics.getInlineCacheHits());
+      assertEquals(3L, metrics.getInlineCacheMisses());
+      assertEquals(0.9d, metrics.getInlineCacheHitRate(), 0.0001d);
+
+      final JJJVMClass indy = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestInvokeDynamic");
+      assertEquals("value=5", indy.findMethod("concat", "(J)Ljava/lang/String;").invoke(null, new Object[]{5L}));
+      assertEquals(1L, metrics.getInvokeDynamicCalls());
+      assertEquals(30L, metrics.getIntrinsicCalls());
+      assertEquals(4L, metrics.getInlineCacheMisses());
+
+      final JJJVMClass throwKlazz = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestThrow");
+      try {
+        throwKlazz.findMethod("throwDIFF", "(I)V").invoke(throwKlazz.newInstance(true), new Object[]{2});
+        fail("Must throw ISE");
+      } catch (IllegalStateException ex) {
+        assertEquals(1L, metrics.getExceptionsCaught());
+        assertEquals(1L, metrics.getExceptionsUncaught());
+        assertTrue(metrics.getCheckCastCacheMisses() > 0L);
+        assertTrue(metrics.getHostCalls() > 0L);
+      }
+
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      assertEquals(metrics.getInterpretedCalls(), server.getAttribute(name, "InterpretedCalls"));
+      assertEquals(4L, server.getAttribute(name, "ClassesLoaded"));
+      assertEquals(1L, server.getAttribute(name, "InvokeDynamicCalls"));
+      server.invoke(name, "reset", null, null);
+      assertEquals(0L, metrics.getBytecodesExecuted());
+      metrics.unregister();
+      assertFalse(server.isRegistered(name));
+    } finally {
+      JJJVMInterpreter.setMetrics(null);
+      metrics.unregister();
+    }
+  }
+
+  @Test
+  public void testBatch_SequentialAndParallel() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public static int test(int a, int b){ return Math.abs(a * a) + 100 / b; }"
+    );
+    final JJJVMBatch batch = JJJVMBatch.of(test.findMethod("test", "(II)I"), null);
+
+    final List<Object[]> tuples = new ArrayList<>();
+    final int[] columnA = new int[5000];
+    final int[] columnB = new int[5000];
+    for (int i = 0; i < columnA.length; i++) {
+      columnA[i] = i;
+      columnB[i] = i % 7 + 1;
+      tuples.add(new Object[]{i, i % 7 + 1});
+    }
+
+    final List<Object> sequential = new ArrayList<>();
+    assertEquals(5000L, batch.forEach(tuples.iterator(), (tuple, result) -> sequential.add(result)));
+    assertEquals(5000L, batch.forEach(tuples.stream(), null));
+
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      final Object[] byColumns = batch.invokeColumns(pool, columnA, columnB);
+      final Object[] byList = batch.invoke(pool, tuples);
+      for (int i = 0; i < columnA.length; i++) {
+        final int expected = i * i + 100 / (i % 7 + 1);
+        assertEquals(expected, sequential.get(i));
+        assertEquals(expected, byColumns[i]);
+        assertEquals(expected, byList[i]);
+      }
+
+      columnB[4321] = 0;
+      try {
+        batch.invokeColumns(pool, columnA, columnB);
+        fail("Must throw ArithmeticException");
+      } catch (ArithmeticException ex) {
+      }
+    } finally {
+      pool.shutdown();
+    }
+
+    try {
+      batch.invokeColumns(null, columnA);
+      fail("Must throw IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+    }
+  }
+
+  @Test
+  public void testAsync_ResultsAndErrors() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public static int test(int a){ return 100 / a; }"
+    );
+    final JJJVMMethod method = test.findMethod("test", "(I)I");
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      assertEquals(25, JJJVMAsync.invoke(method, null, new Object[]{4}, executor).get(10, TimeUnit.SECONDS));
+      assertEquals(50, JJJVMAsync.invoke(test, null, method, new Object[]{2}, executor).get(10, TimeUnit.SECONDS));
+      try {
+        JJJVMAsync.invoke(method, null, new Object[]{0}, executor).get(10, TimeUnit.SECONDS);
+        fail("Must throw ExecutionException");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof ArithmeticException);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testAsync_CancelStopsInterpretedLoop() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public static int test(int a){"
+            + "  int result = 0;"
+            + "  try {"
+            + "    while(a > 0){ result++; }"
+            + "  } catch (Throwable ex) {"
+            + "    return -1;"
+            + "  }"
+            + "  return result;"
+            + "}"
+    );
+    final JJJVMMethod method = test.findMethod("test", "(I)I");
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final CompletableFuture<Object> endless = JJJVMAsync.invoke(method, null, new Object[]{1}, executor);
+      try {
+        endless.get(100, TimeUnit.MILLISECONDS);
+        fail("Must not be completed");
+      } catch (TimeoutException ex) {
+      }
+      assertTrue(endless.cancel(true));
+
+      // the single executor thread must be released by the cancelled call
+      assertEquals(0, JJJVMAsync.invoke(method, null, new Object[]{0}, executor).get(10, TimeUnit.SECONDS));
+      assertTrue(endless.isCancelled());
+
+      final CompletableFuture<Object> timed = JJJVMAsync.invoke(method, null, new Object[]{1}, executor).orTimeout(50, TimeUnit.MILLISECONDS);
+      try {
+        timed.get(10, TimeUnit.SECONDS);
+        fail("Must throw timeout");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof TimeoutException);
+      }
+      assertEquals(0, JJJVMAsync.invoke(method, null, new Object[]{0}, executor).get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+    assertNull(JJJVMFuel.current());
+  }
+
+  private static void waitForState(final JJJVMProcess process, final JJJVMProcess.State state) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + 10000L;
+    while (process.getState() != state) {
+      if (System.currentTimeMillis() > deadline) {
+        fail("Process has not reached state " + state + " [" + process + ']');
+      }
+      Thread.sleep(5L);
+    }
+  }
+
+  @Test
+  public void testScheduler_TimeSlicedProcesses() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+    final JJJVMMethod sum = testKlazz.findMethod("sum", "(I)I");
+
+    try (final JJJVMScheduler scheduler = new JJJVMScheduler(2, 50L)) {
+      final List<JJJVMProcess> processes = new ArrayList<>();
+      for (int i = 0; i < 300; i++) {
+        processes.add(scheduler.submit(sum, null, new Object[]{i}));
+      }
+      for (int i = 0; i < processes.size(); i++) {
+        assertEquals(i * (i - 1) / 2, processes.get(i).getResult().get(10, TimeUnit.SECONDS));
+        assertEquals(JJJVMProcess.State.DONE, processes.get(i).getState());
+      }
+      assertEquals(0, scheduler.getAliveProcesses());
+    }
+  }
+
+  @Test
+  public void testScheduler_ParkAndUnpark() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+
+    try (final JJJVMScheduler scheduler = new JJJVMScheduler(1, 1000L)) {
+      final JJJVMProcess process = scheduler.submit(testKlazz.findMethod("nested", "(I)I"), null, new Object[]{10});
+      waitForState(process, JJJVMProcess.State.PARKED);
+
+      final JJJVMFrame frames = process.getSuspendedFrames();
+      assertEquals(2, frames.getDepth());
+      assertEquals("nested", frames.getMethod().getName());
+      assertEquals("parked", frames.getCallee().getMethod().getName());
+
+      // the carrier thread is free while the process is parked
+      assertEquals(45, scheduler.submit(testKlazz.findMethod("sum", "(I)I"), null, new Object[]{10}).getResult().get(10, TimeUnit.SECONDS));
+
+      assertTrue(scheduler.unpark(process, 5));
+      assertFalse(scheduler.unpark(process, 6));
+      assertEquals(10 + 20 + 5, process.getResult().get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testScheduler_ResumedFramesAreTraced() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+
+    JJJVMTrace.enable(256);
+    try (final JJJVMScheduler scheduler = new JJJVMScheduler(1, 1000L)) {
+      final JJJVMProcess process = scheduler.submit(testKlazz.findMethod("nested", "(I)I"), null, new Object[]{10});
+      waitForState(process, JJJVMProcess.State.PARKED);
+      assertTrue(scheduler.unpark(process, 5));
+      assertEquals(35, process.getResult().get(10, TimeUnit.SECONDS));
+    } finally {
+      JJJVMTrace.disable();
+    }
+
+    final List<String> records = new ArrayList<>();
+    for (final List<JJJVMTrace.Entry> entries : JJJVMTrace.dumpAll().values()) {
+      for (final JJJVMTrace.Entry e : entries) {
+        if (e.getKind() != JJJVMTrace.Kind.HOST_CALL) {
+          records.add(e.getKind() + " " + e.getText().substring(e.getText().lastIndexOf('.') + 1));
+        }
+      }
+    }
+    assertEquals(Arrays.asList(
+        "ENTER nested(I)I",
+        "ENTER parked(I)I",
+        "EXIT_BY_EXCEPTION parked(I)I",
+        "EXIT_BY_EXCEPTION nested(I)I",
+        "ENTER nested(I)I",
+        "ENTER parked(I)I",
+        "EXIT parked(I)I",
+        "EXIT nested(I)I"), records);
+  }
+
+  @Test
+  public void testScheduler_BatchCalledByHostCodeOfProcess() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+    final JJJVMBatch batch = JJJVMBatch.of(testKlazz.findMethod("await", "(Ljava/util/concurrent/CompletableFuture;)Ljava/lang/String;"), null);
+
+    // the batch is an entry point from host code so that the process can't be suspended inside it
+    final Function<String, String> host = value -> {
+      final StringBuilder result = new StringBuilder();
+      try {
+        batch.forEach(Arrays.asList(new Object[]{CompletableFuture.completedFuture(value)}, new Object[]{CompletableFuture.completedFuture(value + value)}).iterator(), (tuple, r) -> result.append(r).append(';'));
+      } catch (Throwable thr) {
+        throw new IllegalStateException(thr);
+      }
+      return result.toString();
+    };
+
+    try (final JJJVMScheduler scheduler = new JJJVMScheduler(1, 1000L)) {
+      final JJJVMProcess process = scheduler.submit(testKlazz.findMethod("viaHost", "(Ljava/util/function/Function;Ljava/lang/String;)Ljava/lang/String;"), null, new Object[]{host, "a"});
+      assertEquals("host:v=a;v=aa;", process.getResult().get(10, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void testScheduler_PendingResult() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestProcesses");
+    final JJJVMMethod await = testKlazz.findMethod("await", "(Ljava/util/concurrent/CompletableFuture;)Ljava/lang/String;");
+
+    try (final JJJVMScheduler scheduler = new JJJVMScheduler(1, 1000L)) {
+      final CompletableFuture<String> success = new CompletableFuture<>();
+      final CompletableFuture<String> failure = new CompletableFuture<>();
+      final JJJVMProcess processSuccess = scheduler.submit(await, null, new Object[]{success});
+      final JJJVMProcess processFailure = scheduler.submit(await, null, new Object[]{failure});
+      waitForState(processSuccess, JJJVMProcess.State.PARKED);
+      waitForState(processFailure, JJJVMProcess.State.PARKED);
+
+      failure.completeExceptionally(new IllegalStateException("boom"));
+      success.complete("hello");
+
+      assertEquals("v=hello", processSuccess.getResult().get(10, TimeUnit.SECONDS));
+      assertEquals("failed:boom", processFailure.getResult().get(10, TimeUnit.SECONDS));
+    }
+
+    // outside of scheduler the pending result blocks the thread
+    assertEquals("v=direct", await.invoke(null, new Object[]{CompletableFuture.completedFuture("direct")}));
+  }
+
   @Test
   public void testIntegration_TestInnerClasses() throws Throwable {
     final JJJVMProvider provider = new JSEProviderImpl(this);
@@ -1677,6 +2812,66 @@ public class JJJVMInterpreterTest extends TestHelper implements JSEProviderImpl.
     }
   }
 
+  @Test
+  public void testStackTrace_InterpretedFramesInterleavedWithHostFrames() throws Throwable {
+    final JJJVMProvider provider = new JSEProviderImpl(this);
+    final JJJVMClass testKlazz = loadClassFromClassPath(provider, "com/igormaznitsa/jjjvm/testclasses/TestThrow");
+    final JJJVMObject obj = testKlazz.newInstance(true);
+    final String className = "com.igormaznitsa.jjjvm.testclasses.TestThrow";
+
+    try {
+      testKlazz.findMethod("callThrowDIFF", "(I)V").invoke(obj, new Object[]{2});
+      fail("Must throw ISE");
+    } catch (IllegalStateException ex) {
+      final StackTraceElement[] trace = ex.getStackTrace();
+      assertEquals(new StackTraceElement(className, "throwDIFF", "TestThrow.java", 23), trace[0]);
+      assertEquals(new StackTraceElement(className, "callThrowDIFF", "TestThrow.java", 28), trace[1]);
+      assertEquals(JJJVMInterpreterTest.class.getName(), trace[2].getClassName());
+      assertEquals("testStackTrace_InterpretedFramesInterleavedWithHostFrames", trace[2].getMethodName());
+      for (final StackTraceElement element : trace) {
+        assertFalse(element.toString(), element.getClassName().startsWith("com.igormaznitsa.jjjvm.impl."));
+        assertFalse(element.toString(), element.getClassName().equals(JJJVMInterpreter.class.getName()));
+      }
+    }
+
+    try {
+      testKlazz.findMethod("parse", "(Ljava/lang/String;)I").invoke(obj, new Object[]{"nan"});
+      fail("Must throw NFE");
+    } catch (NumberFormatException ex) {
+      final List<String> frames = new ArrayList<>();
+      for (final StackTraceElement element : ex.getStackTrace()) {
+        frames.add(element.getClassName() + '.' + element.getMethodName());
+      }
+      final int host = frames.indexOf("java.lang.Integer.parseInt");
+      final int interpreted = frames.indexOf(className + ".parse");
+      final int test = frames.indexOf(JJJVMInterpreterTest.class.getName() + ".testStackTrace_InterpretedFramesInterleavedWithHostFrames");
+      assertTrue(frames.toString(), host >= 0 && host < interpreted && interpreted + 1 == test);
+      assertEquals(32, ex.getStackTrace()[interpreted].getLineNumber());
+    }
+  }
+
+  private static WeakReference<Object> throwFromWeaklyCachedClass(final JSEProviderImpl provider) throws Throwable {
+    final JJJVMClass testKlazz = (JJJVMClass) provider.resolveClass("com/igormaznitsa/jjjvm/testclasses/TestThrow");
+    try {
+      testKlazz.findMethod("throwDIFF", "(I)V").invoke(testKlazz.newInstance(true), new Object[]{1});
+      fail("Must throw UOE");
+    } catch (UnsupportedOperationException ex) {
+      assertEquals("TestThrow.java", ex.getStackTrace()[0].getFileName());
+    }
+    return new WeakReference<Object>(testKlazz);
+  }
+
+  @Test
+  public void testStackTrace_LeftFramesDontKeepClasses() throws Throwable {
+    final JSEProviderImpl provider = new JSEProviderImpl(this, JSEClassCache.weak());
+    final WeakReference<Object> ref = throwFromWeaklyCachedClass(provider);
+    for (int i = 0; i < 100 && ref.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10L);
+    }
+    assertNull("Class must be unloaded", ref.get());
+  }
+
   @Test
   public void testIntegration_TestClassInheritance() throws Throwable {
     final JJJVMProvider provider = new JSEProviderImpl(this);
@@ -1732,6 +2927,90 @@ public class JJJVMInterpreterTest extends TestHelper implements JSEProviderImpl.
     assertArrayEquals(new int[]{0, 1, 2, 3}, result);
   }
 
+  @Test
+  public void testIntegration_HostNew_NestedConstructors() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public java.lang.Object test(java.lang.Object a){"
+            + "  java.util.ArrayList list = new java.util.ArrayList(new java.util.ArrayList(java.util.Collections.singletonList(a)));"
+            + "  list.add(new java.lang.Integer(new java.math.BigDecimal(new java.lang.String(\"12\")).intValue()));"
+            + "  return list;"
+            + "}"
+    );
+
+    assertEquals(Arrays.asList("hello", 12), executeTestMethod(test, Object.class, null, "hello"));
+    assertEquals(Arrays.asList(null, 12), executeTestMethod(test, Object.class, null, null));
+  }
+
+  @Test
+  public void testIntegration_HostNew_ConstructorExceptionIsNotWrapped() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public java.lang.Object test(java.lang.Object a){"
+            + "  try {"
+            + "    return new java.math.BigDecimal((String) a);"
+            + "  } catch (NumberFormatException ex) {"
+            + "    return \"error\";"
+            + "  }"
+            + "}"
+    );
+
+    assertEquals(new BigDecimal("1.5"), executeTestMethod(test, Object.class, null, "1.5"));
+    assertEquals("error", executeTestMethod(test, Object.class, null, "abc"));
+  }
+
+  @Test
+  public void testFuel_HandlerCalledAtBackwardJumps() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public int test(int a){"
+            + "  int result = 0;"
+            + "  for(int i=0;i<a;i++){ result += i; }"
+            + "  return result;"
+            + "}"
+    );
+
+    final AtomicInteger handlerCalls = new AtomicInteger();
+    final JJJVMFuel fuel = JJJVMFuel.install(100L, f -> {
+      handlerCalls.incrementAndGet();
+      return 0L;
+    });
+    try {
+      assertSame(fuel, JJJVMFuel.current());
+      assertEquals(499500, executeTestMethod(test, Integer.class, null, 1000).intValue());
+      assertEquals(10, handlerCalls.get());
+      assertTrue(fuel.getConsumed() > 1000L);
+    } finally {
+      assertSame(fuel, JJJVMFuel.uninstall());
+    }
+    assertNull(JJJVMFuel.current());
+
+    assertEquals(499500, executeTestMethod(test, Integer.class, null, 1000).intValue());
+    assertEquals(10, handlerCalls.get());
+  }
+
+  @Test
+  public void testFuel_OutOfFuelErrorCanNotBeCaught() throws Throwable {
+    final JJJVMClassImpl test = prepareTestClass(new JSEProviderImpl(this),
+        "public int test(int a){"
+            + "  int result = 0;"
+            + "  try {"
+            + "    for(int i=0;i<a;i++){ result += i; }"
+            + "  } catch (Throwable ex) {"
+            + "    return -1;"
+            + "  }"
+            + "  return result;"
+            + "}"
+    );
+
+    JJJVMFuel.install(10000L, JJJVMFuel.Handler.terminating());
+    try {
+      executeTestMethod(test, Integer.class, null, Integer.MAX_VALUE);
+      fail("Must throw OutOfFuelError");
+    } catch (JJJVMFuel.OutOfFuelError ex) {
+      assertTrue(JJJVMFuel.current().getConsumed() >= 10000L);
+    } finally {
+      JJJVMFuel.uninstall();
+    }
+  }
+
   @Test
   public void testSynchronization_staticMethods() throws Throwable {
 
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 Igor Maznitsa (http://www.igormaznitsa.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.igormaznitsa.jjjvm.impl.jse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.igormaznitsa.jjjvm.model.JJJVMClass;
+import com.igormaznitsa.jjjvm.model.JJJVMObject;
+import com.igormaznitsa.jjjvm.utils.TestHelper;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JSEClassDataLoadersTest extends TestHelper {
+
+  private static final String CLASS_INVOKE = "com/igormaznitsa/jjjvm/testclasses/TestInvoke";
+  private static final String CLASS_THROW = "com/igormaznitsa/jjjvm/testclasses/TestThrow";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static void addEntry(final ZipOutputStream zip, final String name, final byte[] data, final boolean stored) throws Exception {
+    final ZipEntry entry = new ZipEntry(name);
+    if (stored) {
+      final CRC32 crc = new CRC32();
+      crc.update(data);
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(data.length);
+      entry.setCompressedSize(data.length);
+      entry.setCrc(crc.getValue());
+    } else {
+      entry.setMethod(ZipEntry.DEFLATED);
+    }
+    zip.putNextEntry(entry);
+    zip.write(data);
+    zip.closeEntry();
+  }
+
+  private File makeJar(final String name, final boolean stored, final String... classes) throws Throwable {
+    final File result = this.folder.newFile(name);
+    try (final ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(result))) {
+      zip.setComment("Test archive");
+      addEntry(zip, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes("UTF-8"), false);
+      for (final String c : classes) {
+        addEntry(zip, c + ".class", loadClassBodyFromClassPath(c), stored);
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testZipLoader_StoredAndDeflated() throws Throwable {
+    final File stored = makeJar("stored.jar", true, CLASS_INVOKE);
+    final File deflated = makeJar("deflated.jar", false, CLASS_INVOKE, CLASS_THROW);
+
+    try (final JSEZipClassDataLoader loader = new JSEZipClassDataLoader(stored.toPath(), deflated.toPath())) {
+      assertTrue(loader.contains(CLASS_INVOKE));
+      assertTrue(loader.contains(CLASS_THROW));
+      assertFalse(loader.contains("META-INF/MANIFEST"));
+      assertEquals(2, loader.getClassNames().size());
+      assertNull(loader.loadClassBody("some/unknown/Klazz"));
+
+      assertArrayEquals(loadClassBodyFromClassPath(CLASS_INVOKE), loader.loadClassBody(CLASS_INVOKE));
+      assertArrayEquals(loadClassBodyFromClassPath(CLASS_THROW), loader.loadClassBody(CLASS_THROW));
+
+      final ByteBuffer buffer = loader.findClassBuffer(CLASS_INVOKE);
+      assertTrue(buffer.isReadOnly());
+      assertEquals(0xCAFEBABE, buffer.getInt(0));
+
+      final JSEProviderImpl provider = new JSEProviderImpl(loader);
+      final JJJVMClass klazz = (JJJVMClass) provider.resolveClass(CLASS_INVOKE);
+      final JJJVMObject obj = klazz.newInstance(true);
+      assertEquals(Integer.valueOf(60), klazz.findMethod("calc", "(I)I").invoke(obj, new Object[] {10}));
+    }
+  }
+
+  @Test
+  public void testBundle_WriteAndLoad() throws Throwable {
+    final JSEClassBundleWriter writer = new JSEClassBundleWriter();
+    writer.add(CLASS_INVOKE, loadClassBodyFromClassPath(CLASS_INVOKE));
+    writer.add(CLASS_THROW, loadClassBodyFromClassPath(CLASS_THROW));
+    for (int i = 0; i < 500; i++) {
+      writer.add("some/generated/Klazz" + i, new byte[] {(byte) i, (byte) (i >> 8)});
+    }
+    writer.add("some/unicode/Класс", new byte[] {1, 2, 3});
+
+    final File file = this.folder.newFile("classes.jjjb");
+    writer.write(file.toPath());
+
+    try (final JSEClassBundleLoader loader = new JSEClassBundleLoader(file.toPath())) {
+      assertEquals(503, loader.size());
+      assertEquals(503, loader.getClassNames().size());
+      assertTrue(loader.contains(CLASS_INVOKE));
+      assertTrue(loader.contains("some/unicode/Класс"));
+      assertFalse(loader.contains("some/unicode/Класс1"));
+      assertNull(loader.loadClassBody("some/unknown/Klazz"));
+
+      for (int i = 0; i < 500; i++) {
+        assertArrayEquals(new byte[] {(byte) i, (byte) (i >> 8)}, loader.loadClassBody("some/generated/Klazz" + i));
+      }
+      assertArrayEquals(new byte[] {1, 2, 3}, loader.loadClassBody("some/unicode/Класс"));
+      assertArrayEquals(loadClassBodyFromClassPath(CLASS_THROW), loader.loadClassBody(CLASS_THROW));
+
+      final ByteBuffer buffer = loader.findClassBuffer(CLASS_INVOKE);
+      assertTrue(buffer.isReadOnly());
+      assertEquals(0xCAFEBABE, buffer.getInt(0));
+
+      final JSEProviderImpl provider = new JSEProviderImpl(loader);
+      final JJJVMClass klazz = (JJJVMClass) provider.resolveClass(CLASS_INVOKE);
+      final JJJVMObject obj = klazz.newInstance(true);
+      assertEquals(Integer.valueOf(60), klazz.findMethod("calc", "(I)I").invoke(obj, new Object[] {10}));
+    }
+  }
+
+  @Test
+  public void testProvider_PreloadAll() throws Throwable {
+    final String outer = "com/igormaznitsa/jjjvm/testclasses/TestClassInheritance";
+    final File jar = makeJar("inheritance.jar", false, CLASS_INVOKE, CLASS_THROW, outer + "$Klazz3", outer + "$Klazz2", outer + "$Klazz1", outer + "$SomeInterface", outer);
+
+    try (final JSEZipClassDataLoader loader = new JSEZipClassDataLoader(jar.toPath())) {
+      final JSEProviderImpl provider = new JSEProviderImpl(loader);
+      final List<JJJVMClass> preloaded = provider.preloadAll(ForkJoinPool.commonPool());
+      assertEquals(7, preloaded.size());
+
+      final List<String> order = new ArrayList<>();
+      for (final JJJVMClass klazz : preloaded) {
+        order.add(klazz.getClassName());
+        assertSame(klazz, provider.resolveClass(klazz.getClassName()));
+      }
+      assertTrue(order.indexOf(outer + "$SomeInterface") < order.indexOf(outer + "$Klazz1"));
+      assertTrue(order.indexOf(outer + "$Klazz1") < order.indexOf(outer + "$Klazz2"));
+      assertTrue(order.indexOf(outer + "$Klazz2") < order.indexOf(outer + "$Klazz3"));
+      assertTrue(order.indexOf(outer + "$Klazz3") < order.indexOf(outer));
+
+      final JJJVMClass klazz = (JJJVMClass) provider.resolveClass(CLASS_INVOKE);
+      assertEquals(Integer.valueOf(60), klazz.findMethod("calc", "(I)I").invoke(klazz.newInstance(true), new Object[] {10}));
+
+      // already loaded classes are not reloaded
+      final List<JJJVMClass> again = provider.preload(Arrays.asList(CLASS_INVOKE, CLASS_THROW), null);
+      assertSame(klazz, again.get(0));
+    }
+  }
+
+  @Test
+  public void testProvider_PreloadWithFailedStaticInitializer() throws Throwable {
+    final String failing = "com/igormaznitsa/jjjvm/testclasses/TestFailingInit";
+    final String state = "com/igormaznitsa/jjjvm/testclasses/TestStaticState";
+    final File jar = makeJar("failing.jar", false, failing, state, state + "$Node");
+
+    try (final JSEZipClassDataLoader loader = new JSEZipClassDataLoader(jar.toPath())) {
+      final JSEProviderImpl provider = new JSEProviderImpl(loader);
+      System.setProperty("jjjvm.test.failInit", "true");
+      try {
+        provider.preload(Arrays.asList(failing, state), null);
+        fail("Must throw InvocationTargetException");
+      } catch (InvocationTargetException ex) {
+        assertEquals("Failed by request", ex.getCause().getMessage());
+      } finally {
+        System.clearProperty("jjjvm.test.failInit");
+      }
+
+      // classes which have not been initialized are loaded again
+      final JJJVMClass failingClass = (JJJVMClass) provider.resolveClass(failing);
+      assertEquals(Integer.valueOf(42), failingClass.findMethod("value", "()I").invoke(null, null));
+      final JJJVMClass stateClass = (JJJVMClass) provider.resolveClass(state);
+      assertEquals(Integer.valueOf(25), stateClass.findMethod("square", "(I)I").invoke(null, new Object[] {5}));
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testProvider_PreloadAllNotSupportedByLoader() throws Throwable {
+    new JSEProviderImpl(jvmFormattedClassName -> null).preloadAll(null);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBundle_DuplicatedClass() throws Throwable {
+    new JSEClassBundleWriter().add(CLASS_INVOKE, new byte[1]).add(CLASS_INVOKE, new byte[1]);
+  }
+
+  @Test(expected = java.io.IOException.class)
+  public void testZipLoader_NotArchive() throws Throwable {
+    final File file = this.folder.newFile("some.jar");
+    try (final FileOutputStream out = new FileOutputStream(file)) {
+      out.write(new byte[100]);
+    }
+    new JSEZipClassDataLoader(file.toPath()).close();
+  }
+}
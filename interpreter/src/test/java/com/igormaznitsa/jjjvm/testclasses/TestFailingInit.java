@@ -0,0 +1,17 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+public class TestFailingInit {
+
+  private static final int VALUE;
+
+  static {
+    if (Boolean.getBoolean("jjjvm.test.failInit")) {
+      throw new IllegalStateException("Failed by request");
+    }
+    VALUE = 42;
+  }
+
+  public static int value() {
+    return VALUE;
+  }
+}
@@ -0,0 +1,30 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+public class TestIntrinsics {
+
+  public static long absLong(long a) {
+    return Math.abs(a);
+  }
+
+  public static int calc(int a, int b) {
+    return Math.max(a, b) + Math.abs(a - b) + Math.min(a, b);
+  }
+
+  public static double sqrt(double a) {
+    return Math.sqrt(a);
+  }
+
+  public static int parse(String a) {
+    return Integer.parseInt(a) + a.length() + a.charAt(0);
+  }
+
+  public static String concat(String a, int b, char c) {
+    return new StringBuilder().append(a).append(b).append(c).toString();
+  }
+
+  public static int[] copy(int[] array) {
+    final int[] result = new int[array.length];
+    System.arraycopy(array, 0, result, 0, array.length);
+    return result;
+  }
+}
@@ -0,0 +1,68 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+public class TestInvokeDynamic {
+
+  private final String prefix;
+
+  public TestInvokeDynamic(String prefix) {
+    this.prefix = prefix;
+  }
+
+  public static String concat(String a, int b, char c, boolean e, Object f) {
+    return "a=" + a + ", b=" + b + ", c=" + c + ", e=" + e + ", f=" + f + '.';
+  }
+
+  public static String concat(long value) {
+    return "value=" + value;
+  }
+
+  public static int applyOperator(int a, int b) {
+    final IntBinaryOperator operator = (x, y) -> x * 10 + y;
+    return operator.applyAsInt(a, b);
+  }
+
+  public static int capture(int base, String text) {
+    final Function<String, Integer> function = s -> s.length() + base;
+    return function.apply(text);
+  }
+
+  public static int methodReferences(String text) {
+    final Function<String, Integer> length = String::length;
+    final Function<String, Integer> parse = Integer::parseInt;
+    return length.andThen(x -> x * 100).apply(text) + parse.apply(text);
+  }
+
+  public static boolean predicate(String text) {
+    final Predicate<String> empty = String::isEmpty;
+    final Predicate<String> longText = s -> s.length() > 3;
+    return empty.negate().and(longText).test(text);
+  }
+
+  public static List<String> constructor() {
+    final Supplier<List<String>> supplier = ArrayList::new;
+    final List<String> result = supplier.get();
+    result.add("one");
+    return result;
+  }
+
+  public String instanceLambda(String text) {
+    final Supplier<String> supplier = () -> this.prefix + text;
+    return supplier.get();
+  }
+
+  public Supplier<String> nonCapturing() {
+    return () -> "const";
+  }
+
+  @Override
+  public String toString() {
+    return "TestInvokeDynamic(" + this.prefix + ')';
+  }
+}
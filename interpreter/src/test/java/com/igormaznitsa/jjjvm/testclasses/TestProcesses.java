@@ -0,0 +1,45 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+import com.igormaznitsa.jjjvm.JJJVMPending;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+public class TestProcesses {
+
+  private static int add(int a, int b) {
+    return a + b;
+  }
+
+  public static int sum(int n) {
+    int result = 0;
+    for (int i = 0; i < n; i++) {
+      result = add(result, i);
+    }
+    return result;
+  }
+
+  private static int parked(int base) {
+    int local = base * 2;
+    Object value = JJJVMPending.park();
+    return local + ((Integer) value).intValue();
+  }
+
+  public static int nested(int n) {
+    return n + parked(n);
+  }
+
+  public static String await(CompletableFuture<String> future) {
+    String prefix = "v=";
+    try {
+      Object value = JJJVMPending.of(future);
+      return prefix + value;
+    } catch (IllegalStateException ex) {
+      return "failed:" + ex.getMessage();
+    }
+  }
+
+  public static String viaHost(Function<String, String> host, String value) {
+    String prefix = "host:";
+    return prefix + host.apply(value);
+  }
+}
@@ -0,0 +1,58 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+public class TestRegisterCode {
+
+  public static int sum(int from, int to) {
+    int result = 0;
+    for (int i = from; i <= to; i++) {
+      result += i * 3 - (i >> 1);
+    }
+    return result;
+  }
+
+  public static int gcd(int a, int b) {
+    while (b != 0) {
+      final int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  public static int max(int a, int b) {
+    return a > b ? a : b;
+  }
+
+  public static int select(int a, int b, int c) {
+    return c + (a < b ? a - b : (b == 0 ? 1000 : -b)) * 2;
+  }
+
+  public static int bits(int value) {
+    int count = 0;
+    while (value != 0) {
+      count += value & 1;
+      value >>>= 1;
+    }
+    return (byte) (count ^ 0x1F0) + (short) (value | 70000) + (char) -count;
+  }
+
+  public static int swap(int a, int b) {
+    int x = a;
+    a = b;
+    b = x;
+    x = a - b;
+    return x * 100000 + a;
+  }
+
+  public static int divide(int a, int b) {
+    return a / b + a % 7;
+  }
+
+  public static int withCall(int a) {
+    return Math.abs(a) + 1;
+  }
+
+  public static void nothing(int a) {
+    a++;
+  }
+}
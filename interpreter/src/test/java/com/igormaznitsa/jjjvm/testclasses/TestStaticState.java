@@ -0,0 +1,48 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+public class TestStaticState {
+
+  public static class Node {
+    public int value;
+    public Node next;
+  }
+
+  private static final int[] SQUARES;
+  private static final Node RING;
+  private static final long STAMP;
+  private static final String NAME;
+
+  static {
+    SQUARES = new int[100];
+    for (int i = 0; i < SQUARES.length; i++) {
+      SQUARES[i] = i * i;
+    }
+
+    final Node first = new Node();
+    first.value = 1;
+    final Node second = new Node();
+    second.value = 2;
+    first.next = second;
+    second.next = first;
+    RING = first;
+
+    STAMP = System.nanoTime();
+    NAME = String.valueOf(SQUARES[5]);
+  }
+
+  public static int square(int value) {
+    return SQUARES[value];
+  }
+
+  public static int ringSum() {
+    return RING.value + RING.next.value + RING.next.next.value;
+  }
+
+  public static long stamp() {
+    return STAMP;
+  }
+
+  public static String name() {
+    return NAME;
+  }
+}
@@ -0,0 +1,40 @@
+package com.igormaznitsa.jjjvm.testclasses;
+
+public class TestStringChains {
+
+  public static String constants() {
+    return new StringBuilder().append("a").append(1).append('b').append(true).append(2L).append(1.5f).append(2.5d).toString();
+  }
+
+  public static String mixed(String a, int b, char c, boolean d, Object e) {
+    return new StringBuilder("<").append(a).append(", ").append(b).append(", ").append(c).append(", ").append(d).append(", ").append(e).append('>').toString();
+  }
+
+  public static String withLong(long a) {
+    return new StringBuilder().append(a).toString();
+  }
+
+  public static String withDouble(double a) {
+    return new StringBuilder().append(a).toString();
+  }
+
+  public static String initByString(String a) {
+    return new StringBuilder(a).append('!').toString();
+  }
+
+  public static String buffer(String a, int b) {
+    return new StringBuffer().append(a).append(b).toString();
+  }
+
+  public static String notFused(String a) {
+    return new StringBuilder().append(a.length()).append(a).toString();
+  }
+
+  public static String inLoop(int count) {
+    String result = "";
+    for (int i = 0; i < count; i++) {
+      result = new StringBuilder().append(result).append(i).toString();
+    }
+    return result;
+  }
+}
@@ -23,4 +23,12 @@ public class TestThrow {
       throw new IllegalStateException("ise", ex);
     }
   }
+
+  public void callThrowDIFF(int val) throws Exception {
+    throwDIFF(val);
+  }
+
+  public int parse(String text) {
+    return Integer.parseInt(text);
+  }
 }